@@ -0,0 +1,36 @@
+require 'benchmark'
+
+#
+# Array slicing and copying, where copy-on-write sharing matters: slices
+# taken from an array that keeps being written, short slices in a loop, dups
+# that are only read, and dups that are written once.
+#
+big = (1..100_000).to_a
+small = (1..10).to_a
+
+def bench_array(bm, big, small)
+  bm.report("short slices of a written array") {
+    a = big.dup
+    200_000.times { |i| a[i % 1000, 3]; a[i % 1000] = i }
+  }
+  bm.report("halves of a 100k array") {
+    200.times { big[0, 50_000]; big[50_000, 50_000] }
+  }
+  bm.report("first(2)/last(2)") {
+    1_000_000.times { small.first(2); small.last(2) }
+  }
+  bm.report("dup, read only") {
+    1_000.times { big.dup.size }
+  }
+  bm.report("dup, then one write") {
+    200.times { big.dup[0] = 0 }
+  }
+  bm.report("recursive a[1..-1] sum") {
+    sum = lambda { |a| a.empty? ? 0 : a[0] + sum.call(a[1..-1]) }
+    300.times { sum.call(small * 20) }
+  }
+end
+
+if $0 == __FILE__
+  (ARGV[0] || 3).to_i.times { Benchmark.bm(32) { |bm| bench_array(bm, big, small) } }
+end
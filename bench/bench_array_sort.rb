@@ -0,0 +1,28 @@
+require 'benchmark'
+
+#
+# Array#sort and #sort_by over all-Fixnum, all-Float and all-String arrays
+# from 1e3 up to 1e7 elements (pass a smaller maximum exponent as the first
+# argument). A sort with an explicit <=> block is reported alongside as the
+# dispatch-per-comparison baseline.
+#
+max_exp = (ARGV[0] || 7).to_i
+srand(1)
+
+(3..max_exp).each do |exp|
+  n = 10 ** exp
+  times = [10 ** (6 - exp), 1].max
+  ints = Array.new(n) { rand(1 << 40) }
+  floats = Array.new(n) { rand * 1e9 }
+  strings = exp > 6 ? nil : Array.new(n) { rand(1 << 40).to_s(36) }
+
+  puts "#{n} elements, #{times} time(s) each"
+  Benchmark.bm(24) do |x|
+    [["Fixnum", ints], ["Float", floats], ["String", strings]].each do |kind, ary|
+      next unless ary
+      x.report("#{kind} sort") { times.times { ary.sort } }
+      x.report("#{kind} sort_by") { times.times { ary.sort_by { |v| v } } }
+      x.report("#{kind} sort { <=> }") { times.times { ary.sort { |a, b| a <=> b } } } if exp < 7
+    end
+  end
+end
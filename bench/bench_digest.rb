@@ -0,0 +1,56 @@
+require 'benchmark'
+require 'tempfile'
+require 'digest/md5'
+require 'digest/sha1'
+require 'digest/sha2'
+
+# Sizes run from 1KB to 1GB; pass a smaller cap (in bytes) as the first
+# argument to skip the large files, e.g. 'bench_digest.rb 67108864'.
+MAX_SIZE = (ARGV[0] || 1024 ** 3).to_i
+# Reading the whole file into a String is only compared up to this size
+MAX_STRING_SIZE = 64 * 1024 ** 2
+
+def with_file(size)
+  tmp = Tempfile.new("bench_digest")
+  chunk = "0123456789abcdef" * 4096
+  written = 0
+  while written < size
+    piece = size - written < chunk.size ? chunk[0, size - written] : chunk
+    tmp.write(piece)
+    written += piece.size
+  end
+  tmp.close
+  yield tmp.path
+ensure
+  tmp.unlink if tmp
+end
+
+def label(size)
+  size >= 1024 ** 2 ? "#{size / 1024 ** 2}MB" : "#{size / 1024}KB"
+end
+
+def bench_digest(bm, size)
+  with_file(size) do |path|
+    # scale the count so every row hashes roughly the same amount of data
+    count = [(64 * 1024 ** 2) / size, 1].max
+    [Digest::MD5, Digest::SHA1, Digest::SHA256].each do |klass|
+      name = klass.name.split("::").last
+      bm.report("#{name}.file #{label(size)} x #{count}") do
+        count.times { klass.file(path).hexdigest }
+      end
+      if size <= MAX_STRING_SIZE
+        bm.report("#{name}.hexdigest(File.read) #{label(size)} x #{count}") do
+          count.times { klass.hexdigest(File.read(path)) }
+        end
+      end
+    end
+  end
+end
+
+if $0 == __FILE__
+  size = 1024
+  while size <= MAX_SIZE
+    Benchmark.bm(40) { |bm| bench_digest(bm, size) }
+    size *= 32
+  end
+end
@@ -0,0 +1,59 @@
+require 'benchmark'
+
+def bench_hash_string_keys(bm)
+  n = 1_000_000
+  headers = %w(Content-Type Content-Length Accept Accept-Encoding User-Agent
+               Host Connection Cookie X-Forwarded-For X-Requested-With)
+  routes = (0...100).map { |i| "/application/controller_#{i}/action/index" }
+
+  table = {}
+  headers.each_with_index { |h, i| table[h] = i }
+  routes.each_with_index { |r, i| table[r] = i }
+
+  frozen_headers = headers.map { |h| h.dup.freeze }
+  bm.report("frozen short keys x #{n}") do
+    i = 0
+    while i < n
+      table[frozen_headers[i % 10]]
+      i += 1
+    end
+  end
+
+  frozen_routes = routes.map { |r| r.dup.freeze }
+  bm.report("frozen long keys x #{n}") do
+    i = 0
+    while i < n
+      table[frozen_routes[i % 100]]
+      i += 1
+    end
+  end
+
+  bm.report("literal key x #{n}") do
+    i = 0
+    while i < n
+      table["Content-Type"]
+      i += 1
+    end
+  end
+
+  fresh = routes.map { |r| r.split('/').join('/') }
+  bm.report("equal, unshared long keys x #{n}") do
+    i = 0
+    while i < n
+      table[fresh[i % 100]]
+      i += 1
+    end
+  end
+
+  bm.report("miss x #{n}") do
+    i = 0
+    while i < n
+      table["/application/controller_x/action/index"]
+      i += 1
+    end
+  end
+end
+
+if $0 == __FILE__
+  Benchmark.bmbm {|bm| bench_hash_string_keys(bm)}
+end
@@ -0,0 +1,94 @@
+require 'benchmark'
+require 'socket'
+
+#
+# Loopback throughput of an evented echo server, the way an
+# EventMachine-style server drives it: accept_nonblock and read_nonblock
+# from a readiness loop. The loop is run once over IO::Poller, which keeps
+# one Selector for the life of the server, and once over IO.select, which
+# sets up a selector on every call. Companion to bench_io_tcpsocket.rb.
+#
+clients = (ARGV[0] || 20).to_i
+messages = (ARGV[1] || 2000).to_i
+size = (ARGV[2] || 64).to_i
+
+def echo_clients(port, clients, messages, size)
+  payload = "x" * size
+  (1..clients).map do
+    Thread.new do
+      sock = TCPSocket.new('127.0.0.1', port)
+      messages.times do
+        sock.write(payload)
+        got = 0
+        got += sock.readpartial(size - got).size while got < size
+      end
+      sock.close
+    end
+  end.each { |t| t.join }
+end
+
+def read_and_echo(io)
+  data = io.read_nonblock(4096)
+  return false if data.empty?
+  io.write(data)
+  true
+rescue Errno::EAGAIN
+  true
+rescue EOFError, IOError, SystemCallError
+  false
+end
+
+def poller_server(server, done)
+  poller = IO::Poller.new
+  poller.register(server, :read) do |srv, event|
+    begin
+      sock = srv.accept_nonblock
+      poller.register(sock, :read) do |io, ev|
+        unless read_and_echo(io)
+          poller.deregister(io)
+          io.close
+        end
+      end
+    rescue Errno::EAGAIN
+    end
+  end
+  poller.poll(0.01) until done[0]
+  poller.close
+end
+
+def select_server(server, done)
+  socks = []
+  until done[0]
+    ready = IO.select([server] + socks, nil, nil, 0.01)
+    next unless ready
+    ready[0].each do |io|
+      if io == server
+        begin
+          socks << server.accept_nonblock
+        rescue Errno::EAGAIN
+        end
+      elsif !read_and_echo(io)
+        socks.delete(io)
+        io.close
+      end
+    end
+  end
+  socks.each { |s| s.close }
+end
+
+puts "#{clients} clients x #{messages} round trips of #{size} bytes"
+(ARGV[3] || 5).to_i.times do
+  Benchmark.bm(30) do |x|
+    [:poller_server, :select_server].each do |kind|
+      server = TCPServer.new('127.0.0.1', 0)
+      done = [false]
+      loop_thread = Thread.new { send(kind, server, done) }
+      x.report("#{kind}") do
+        echo_clients(server.addr[1], clients, messages, size)
+      end
+      done[0] = true
+      loop_thread.join
+      server.close
+    end
+  end
+end
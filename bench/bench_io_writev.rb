@@ -0,0 +1,48 @@
+require 'benchmark'
+require 'socket'
+
+#
+# Loopback cost of sending a response made of a small header block and a
+# larger body, and of reading it back in fixed-size chunks. Writes compare
+# joining the pieces before write, writing them one by one, and handing them
+# all to IO#writev; reads compare readpartial into a fresh string each time
+# with readpartial into one reused buffer.
+#
+responses = (ARGV[0] || 20000).to_i
+body_size = (ARGV[1] || 16 * 1024).to_i
+
+headers = "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: #{body_size}\r\n\r\n"
+body = "b" * body_size
+total = responses * (headers.size + body.size)
+
+def drain(sock, total, reuse)
+  buf = reuse ? "" : nil
+  got = 0
+  while got < total
+    got += (reuse ? sock.readpartial(16384, buf) : sock.readpartial(16384)).size
+  end
+end
+
+cases = [
+  ["concat + write", false, lambda { |s| s.write(headers + body) }],
+  ["write each", false, lambda { |s| s.write(headers); s.write(body) }],
+  ["writev", false, lambda { |s| s.writev(headers, body) }],
+  ["writev, readpartial into buffer", true, lambda { |s| s.writev(headers, body) }]
+]
+
+puts "#{responses} responses of #{headers.size} + #{body_size} bytes"
+(ARGV[2] || 5).to_i.times do
+  Benchmark.bm(32) do |x|
+    cases.each do |label, reuse, send_response|
+      server = TCPServer.new('127.0.0.1', 0)
+      client = TCPSocket.new('127.0.0.1', server.addr[1])
+      sock = server.accept
+      reader = Thread.new { drain(sock, total, reuse) }
+      x.report(label) do
+        responses.times { send_response.call(client) }
+        reader.join
+      end
+      [client, sock, server].each { |io| io.close }
+    end
+  end
+end
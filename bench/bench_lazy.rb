@@ -0,0 +1,32 @@
+require 'benchmark'
+require 'enumerator'
+require 'tempfile'
+
+def bench_lazy(bm, file)
+  range = (1..1_000_000)
+  bm.report("eager map.select.first(10)") {
+    10.times { range.map { |x| x * 2 }.select { |x| x % 3 == 0 }.first(10) }
+  }
+  bm.report("lazy map.select.first(10)") {
+    10.times { range.lazy.map { |x| x * 2 }.select { |x| x % 3 == 0 }.first(10) }
+  }
+  bm.report("eager map.select.to_a") {
+    range.map { |x| x * 2 }.select { |x| x % 3 == 0 }.size
+  }
+  bm.report("lazy map.select.to_a") {
+    range.lazy.map { |x| x * 2 }.select { |x| x % 3 == 0 }.to_a.size
+  }
+  bm.report("eager file lines first(10)") {
+    10.times { File.open(file) { |f| f.map { |l| l.to_i }.select { |x| x % 7 == 0 }.first(10) } }
+  }
+  bm.report("lazy file lines first(10)") {
+    10.times { File.open(file) { |f| f.lazy.map { |l| l.to_i }.select { |x| x % 7 == 0 }.first(10) } }
+  }
+end
+
+if $0 == __FILE__
+  tmp = Tempfile.new("bench_lazy")
+  500_000.times { |i| tmp.puts i }
+  tmp.close
+  (ARGV[0] || 5).to_i.times { Benchmark.bm(28) { |bm| bench_lazy(bm, tmp.path) } }
+end
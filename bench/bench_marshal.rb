@@ -0,0 +1,38 @@
+require 'benchmark'
+require 'stringio'
+
+class MarshalBenchSession
+  def initialize(id)
+    @id = id
+    @user = "user#{id}"
+    @flash = {:notice => "saved", :count => id}
+    @history = (1..10).map { |i| "/path/#{i}" }
+  end
+end
+
+def bench_marshal(bm)
+  small = {:id => 1, :name => "session", :tags => [:a, :b, :c]}
+  session = MarshalBenchSession.new(42)
+  large = (1..10_000).map { |i| ["str#{i}", i, i.to_f, :sym] }
+
+  small_dump = Marshal.dump(small)
+  session_dump = Marshal.dump(session)
+  large_dump = Marshal.dump(large)
+
+  bm.report("100k dump small hash") { 100_000.times { Marshal.dump(small) } }
+  bm.report("100k load small hash") { 100_000.times { Marshal.load(small_dump) } }
+  bm.report("100k round-trip object") { 100_000.times { Marshal.load(Marshal.dump(session)) } }
+  bm.report("100k load object") { 100_000.times { Marshal.load(session_dump) } }
+  bm.report("100 dump 10k-element array") { 100.times { Marshal.dump(large) } }
+  bm.report("100 load 10k-element array") { 100.times { Marshal.load(large_dump) } }
+  bm.report("100 dump 10k-element array to IO") {
+    100.times { Marshal.dump(large, StringIO.new) }
+  }
+  bm.report("100 load 10k-element array from IO") {
+    100.times { Marshal.load(StringIO.new(large_dump)) }
+  }
+end
+
+if $0 == __FILE__
+  Benchmark.bmbm {|bm| bench_marshal(bm)}
+end
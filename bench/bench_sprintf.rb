@@ -0,0 +1,24 @@
+require 'benchmark'
+
+def bench_sprintf(bm)
+  n = 200_000
+  bm.report("'%s' % str x #{n}") do
+    n.times { "%s" % "hello" }
+  end
+  bm.report("'%d' % int x #{n}") do
+    n.times { "%d" % 12345 }
+  end
+  bm.report("'%.2f' % float x #{n}") do
+    n.times { "%.2f" % 3.14159 }
+  end
+  bm.report("mixed format x #{n}") do
+    n.times { "%s: %5d items, %.3f%%" % ["row", 42, 12.5] }
+  end
+  bm.report("sprintf mixed x #{n}") do
+    n.times { sprintf("%-10s|%08x|%e", "col", 255, 0.5) }
+  end
+end
+
+if $0 == __FILE__
+  Benchmark.bmbm {|bm| bench_sprintf(bm)}
+end
@@ -0,0 +1,47 @@
+require 'benchmark'
+
+def bench_string_concat(bm)
+  n = 20_000
+  piece = "<td>cell</td>"
+
+  bm.report("s = s + piece x #{n}") do
+    s = ""
+    i = 0
+    while i < n
+      s = s + piece
+      i += 1
+    end
+  end
+
+  bm.report("s += piece x #{n}") do
+    s = ""
+    i = 0
+    while i < n
+      s += piece
+      i += 1
+    end
+  end
+
+  bm.report("s << piece x #{n}") do
+    s = ""
+    i = 0
+    while i < n
+      s << piece
+      i += 1
+    end
+  end
+
+  m = 500_000
+  name = "world"
+  bm.report("interpolation x #{m}") do
+    i = 0
+    while i < m
+      "<p class=\"greeting\">Hello, #{name}! You are visitor number #{i}.</p>"
+      i += 1
+    end
+  end
+end
+
+if $0 == __FILE__
+  Benchmark.bmbm { |bm| bench_string_concat(bm) }
+end
@@ -5,8 +5,33 @@ def bench_pack(bm)
   bm.report("pack('m'), large string") do
     large_str_ary.pack('m')
   end
+
+  record = [1, 2, 3, "payload"]
+  bm.report("pack('NnCa*') x 200000") do
+    200_000.times { record.pack('NnCa*') }
+  end
+end
+
+def bench_unpack(bm)
+  large_str = ["X" * 2_000_000].pack('m')
+  bm.report("unpack('m'), large string") do
+    large_str.unpack('m')
+  end
+
+  record = [1, 2, 3, "payload"].pack('NnCa*')
+  bm.report("unpack('NnCa*') x 200000") do
+    200_000.times { record.unpack('NnCa*') }
+  end
+
+  words = (0...256).to_a.pack('V*')
+  bm.report("unpack('V*'), 256 words x 20000") do
+    20_000.times { words.unpack('V*') }
+  end
 end
 
 if $0 == __FILE__
-  Benchmark.bmbm {|bm| bench_pack(bm)}
+  Benchmark.bmbm do |bm|
+    bench_pack(bm)
+    bench_unpack(bm)
+  end
 end
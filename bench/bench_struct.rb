@@ -5,12 +5,19 @@ end
 
 def bench_struct(bm)
   foo = Foo.new(1, 2, 3, 4, 5)
+  bar = Foo.new(1, 2, 3, 4, 5)
   bm.report("struct member access") {
     1_000_000.times { foo.a; foo.b; foo.c; foo.d; foo.e }
   }
   bm.report("struct member mutate") {
     1_000_000.times { foo.a=1; foo.b=1; foo.c=1; foo.d=1; foo.e=1 }
   }
+  bm.report("struct new") {
+    1_000_000.times { Foo.new(1, 2, 3, 4, 5) }
+  }
+  bm.report("struct ==, hash, to_a") {
+    1_000_000.times { foo == bar; foo.hash; foo.to_a }
+  }
   bm.report("struct to_s") {
     1_000_000.times { foo.to_s }
   }
@@ -19,6 +26,20 @@ def bench_struct(bm)
   }
 end
 
+# Approximate heap bytes per five-member struct, from the heap growth
+# while a million of them are kept alive.
+def struct_footprint
+  require 'java'
+  runtime = java.lang.Runtime.getRuntime
+  used = lambda { 3.times { java.lang.System.gc }; runtime.totalMemory - runtime.freeMemory }
+  count = 1_000_000
+  before = used.call
+  kept = Array.new(count) { Foo.new(nil, nil, nil, nil, nil) }
+  after = used.call
+  puts "struct footprint: ~#{(after - before) / count} bytes per instance (#{kept.size} kept)"
+end
+
 if $0 == __FILE__
   Benchmark.bmbm {|bm| bench_struct(bm)}
+  struct_footprint if defined?(JRUBY_VERSION)
 end
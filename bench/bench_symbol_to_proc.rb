@@ -1,9 +1,11 @@
 require 'benchmark'
 
-class Symbol
-    def to_proc
-        lambda {|x, *args| x.send(self, *args)}
-    end
+unless :to_s.respond_to?(:to_proc)
+  class Symbol
+      def to_proc
+          lambda {|x, *args| x.send(self, *args)}
+      end
+  end
 end
 
 def bench_symbol_to_proc(bm)
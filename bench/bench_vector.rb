@@ -0,0 +1,44 @@
+require 'benchmark'
+require 'jruby/vector'
+
+SIZE = 1_000_000
+
+def bench_vector(bm)
+  floats = Array.new(SIZE) { |i| i * 0.5 }
+  ints = Array.new(SIZE) { |i| i }
+  dvec = JRuby::DoubleArray.new(floats)
+  ivec = JRuby::IntArray.new(ints)
+
+  bm.report("Array float sum (inject)") { 10.times { floats.inject(0.0) { |s, x| s + x } } }
+  bm.report("DoubleArray#sum") { 10.times { dvec.sum } }
+  bm.report("Array int min/max") { 10.times { ints.min; ints.max } }
+  bm.report("IntArray#min/max") { 10.times { ivec.min; ivec.max } }
+  bm.report("Array float map * 2.0") { 10.times { floats.map { |x| x * 2.0 } } }
+  bm.report("DoubleArray * 2.0") { 10.times { dvec * 2.0 } }
+  bm.report("Array int zip add") { 10.times { ints.zip(ints).map { |a, b| a + b } } }
+  bm.report("IntArray + IntArray") { 10.times { ivec + ivec } }
+  bm.report("DoubleArray#each") { 10.times { dvec.each { |x| x } } }
+end
+
+# Approximate heap bytes per element, from the heap growth while a million
+# non-cached floats are kept alive in each representation.
+def vector_footprint
+  require 'java'
+  runtime = java.lang.Runtime.getRuntime
+  used = lambda { 3.times { java.lang.System.gc }; runtime.totalMemory - runtime.freeMemory }
+
+  before = used.call
+  floats = Array.new(SIZE) { |i| i + 0.5 }
+  after = used.call
+  puts "Array of Float: ~#{(after - before) / SIZE} bytes per element"
+
+  before = used.call
+  dvec = JRuby::DoubleArray.new(SIZE, 0.5)
+  after = used.call
+  puts "DoubleArray: ~#{(after - before) / SIZE} bytes per element (#{floats.size + dvec.size} kept)"
+end
+
+if $0 == __FILE__
+  (ARGV[0] || 5).to_i.times { Benchmark.bm(26) { |bm| bench_vector(bm) } }
+  vector_footprint
+end
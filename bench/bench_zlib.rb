@@ -0,0 +1,46 @@
+require 'benchmark'
+require 'zlib'
+require 'tempfile'
+
+PAYLOAD = '{"host":"web-07","level":"info","msg":"GET /status 200 1.2ms"}' * 4
+
+def bench_zlib(bm, path)
+  n = 50_000
+  payload = PAYLOAD
+  compressed = Zlib::Deflate.deflate(payload)
+
+  bm.report("Deflate.deflate #{payload.size}B x #{n}") do
+    n.times { Zlib::Deflate.deflate(payload) }
+  end
+
+  bm.report("Inflate.inflate #{compressed.size}B x #{n}") do
+    n.times { Zlib::Inflate.inflate(compressed) }
+  end
+
+  bm.report("Deflate.new/finish/close x #{n}") do
+    n.times do
+      z = Zlib::Deflate.new
+      z << payload
+      z.finish
+      z.close
+    end
+  end
+
+  bm.report("GzipReader#each_line 100k lines") do
+    Zlib::GzipReader.open(path) { |gz| gz.each { |line| } }
+  end
+
+  bm.report("GzipReader#read(16k) until eof") do
+    Zlib::GzipReader.open(path) { |gz| while gz.read(16384).size > 0; end }
+  end
+end
+
+if $0 == __FILE__
+  tmp = Tempfile.new("bench_zlib")
+  tmp.close
+  Zlib::GzipWriter.open(tmp.path) do |gz|
+    100_000.times { |i| gz.write("#{i} #{PAYLOAD}\n") }
+  end
+  Benchmark.bmbm { |bm| bench_zlib(bm, tmp.path) }
+  tmp.unlink
+end
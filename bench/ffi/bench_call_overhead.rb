@@ -0,0 +1,55 @@
+require 'benchmark'
+require 'java'
+require 'ffi'
+
+#
+# Compares the per-call overhead of the two JNA call paths: JNA's generic
+# Function.invoke, and the direct stubs that skip its per-call argument
+# conversion.  Memory allocated with the stubs enabled is accessed through a
+# direct ByteBuffer instead of a JNI call per read or write.
+#
+iter = 1_000_000
+
+def jna_path(direct)
+  java.lang.System.setProperty("jruby.ffi.jna.direct", direct.to_s)
+  yield
+ensure
+  java.lang.System.clearProperty("jruby.ffi.jna.direct")
+end
+
+module ViaJNA
+  extend FFI::Library
+end
+module ViaStub
+  extend FFI::Library
+end
+
+[[ViaJNA, false], [ViaStub, true]].each do |mod, direct|
+  jna_path(direct) do
+    mod.module_eval do
+      attach_function :getpid, [], :uint
+      attach_function :abs, [ :int ], :int
+      attach_function :memset, [ :pointer, :int, :int ], :pointer
+    end
+  end
+end
+
+jna_mem = jna_path(false) { FFI::MemoryPointer.new(:int, 4) }
+stub_mem = jna_path(true) { FFI::MemoryPointer.new(:int, 4) }
+
+puts "Benchmark FFI per-call overhead, #{iter}x calls"
+Benchmark.bmbm do |bm|
+  [["jna", ViaJNA, jna_mem], ["stub", ViaStub, stub_mem]].each do |label, lib, mem|
+    bm.report("#{label} getpid()") { i = 0; while i < iter; lib.getpid; i += 1; end }
+    bm.report("#{label} abs(int)") { i = 0; while i < iter; lib.abs(-i); i += 1; end }
+    bm.report("#{label} memset(ptr, int, int)") { i = 0; while i < iter; lib.memset(mem, 0, 16); i += 1; end }
+    bm.report("#{label} put_int32/get_int32") do
+      i = 0
+      while i < iter
+        mem.put_int32(4, i)
+        mem.get_int32(4)
+        i += 1
+      end
+    end
+  end
+end
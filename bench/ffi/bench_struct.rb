@@ -0,0 +1,30 @@
+require 'benchmark'
+require 'ffi'
+
+iter = 1_000_000
+
+class Point < FFI::Struct
+  layout :x, :int, :y, :int, :z, :double
+end
+
+s = Point.new
+s.x = 1; s.y = 2; s.z = 3.0
+
+puts "Benchmark FFI::Struct field access, #{iter}x"
+10.times {
+  puts Benchmark.measure {
+    iter.times { s[:x]; s[:y]; s[:z] }
+  }
+}
+puts "Benchmark FFI::Struct accessor methods, #{iter}x"
+10.times {
+  puts Benchmark.measure {
+    iter.times { s.x; s.y; s.z }
+  }
+}
+puts "Benchmark FFI::Struct#values, #{iter}x"
+10.times {
+  puts Benchmark.measure {
+    iter.times { s.values }
+  }
+}
@@ -48,7 +48,7 @@ module FFI
       @cspec.members
     end
     def values
-      @cspec.members.map { |m| self[m] }
+      @cspec.values(@pointer)
     end
     def clear
       @pointer.clear
@@ -94,7 +94,10 @@ module FFI
       return @layout if spec.size == 0
 
       cspec = spec[0].kind_of?(Hash) ? hash_layout(spec) : array_layout(spec)
-      @layout = cspec unless self == FFI::Struct
+      unless self == FFI::Struct
+        @layout = cspec
+        cspec.define_accessors(self)
+      end
       @size = cspec.size
       return cspec
     end
@@ -121,6 +124,7 @@ module FFI
       cspec = builder.build
     
       @layout = cspec
+      cspec.define_accessors(self)
       @size = cspec.size if @size < cspec.size
     
       return cspec
@@ -84,6 +84,19 @@ describe "MemoryPointer argument" do
     p.get_int(0).should == p2.get_int(0)
   end
 end
+describe "MemoryPointer slice" do
+  it "writes through a slice are visible in the parent" do
+    p = MemoryPointer.new :int, 4
+    (p + 8).put_int(0, 0x1234)
+    p.get_int(8).should == 0x1234
+  end
+  it "native writes through a slice are visible to reads" do
+    p = MemoryPointer.new :int, 4
+    p.put_array_of_int32(0, [ 1, 2, 3, 4 ])
+    Ptr.memset(p + 4, 0, 8)
+    p.get_array_of_int32(0, 4).should == [ 1, 0, 0, 4 ]
+  end
+end
 describe "MemoryPointer return value" do
   module Stdio
     extend FFI::Library
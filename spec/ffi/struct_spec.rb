@@ -25,4 +25,33 @@ describe "Struct aligns fields correctly" do
     end
     LLIStruct.size.should == 12
   end
-end
\ No newline at end of file
+end
+describe "Struct field accessors" do
+  class PointStruct < FFI::Struct
+    layout :x, :int, :y, :int, :weight, :double, :flags, :uchar
+  end
+  it "read and write through the same memory as []" do
+    s = PointStruct.new
+    s.x = 3
+    s[:y] = -4
+    s.y.should == -4
+    s[:x].should == 3
+    s.weight = 1.5
+    s[:weight].should == 1.5
+  end
+  it "values reads all members in order" do
+    s = PointStruct.new
+    s.x = 1; s.y = 2; s.weight = 0.25; s.flags = 255
+    s.values.should == [ 1, 2, 0.25, 255 ]
+  end
+  it "do not replace existing methods" do
+    class SizeStruct < FFI::Struct
+      layout :size, :int, :count, :int
+    end
+    s = SizeStruct.new
+    s[:size] = 99
+    s.size.should == 8
+    s.count = 7
+    s[:count].should == 7
+  end
+end
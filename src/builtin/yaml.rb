@@ -239,8 +239,8 @@ module YAML
       @documents.each(&block)
     end
     
-    def emit
-      YAML::dump_all(@documents)
+    def emit(io = nil)
+      YAML::dump_all(@documents, io)
     end
   end
 
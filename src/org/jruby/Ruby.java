@@ -94,6 +94,7 @@ import org.jruby.management.BeanManager;
 import org.jruby.management.ClassCache;
 import org.jruby.management.Config;
 import org.jruby.management.ParserStats;
+import org.jruby.management.RegexpCache;
 import org.jruby.parser.EvalStaticScope;
 import org.jruby.parser.Parser;
 import org.jruby.parser.ParserConfiguration;
@@ -125,6 +126,7 @@ import org.jruby.util.KCode;
 import org.jruby.util.SafePropertyAccessor;
 import org.jruby.util.collections.WeakHashSet;
 import org.jruby.util.io.ChannelDescriptor;
+import org.jruby.util.io.SelectorPool;
 
 import com.kenai.constantine.Constant;
 import java.lang.ref.Reference;
@@ -215,6 +217,7 @@ public final class Ruby {
         this.beanManager.register(new Config(this));
         this.beanManager.register(parserStats);
         this.beanManager.register(new ClassCache(this));
+        this.beanManager.register(new RegexpCache());
     }
     
     /**
@@ -1256,6 +1259,7 @@ public final class Ruby {
         addLazyBuiltin("jruby/ext.rb", "jruby/ext", "org.jruby.RubyJRuby$ExtLibrary");
         addLazyBuiltin("jruby/core_ext.rb", "jruby/ext", "org.jruby.RubyJRuby$CoreExtLibrary");
         addLazyBuiltin("jruby/type.rb", "jruby/type", "org.jruby.RubyJRuby$TypeLibrary");
+        addLazyBuiltin("jruby/vector.rb", "jruby/vector", "org.jruby.ext.PrimitiveArray$Service");
         addLazyBuiltin("iconv.so", "iconv", "org.jruby.libraries.IConvLibrary");
         addLazyBuiltin("nkf.so", "nkf", "org.jruby.libraries.NKFLibrary");
         addLazyBuiltin("stringio.so", "stringio", "org.jruby.libraries.StringIOLibrary");
@@ -1302,7 +1306,6 @@ public final class Ruby {
         RubyKernel.autoload(topSelf, newSymbol("Java"), newString("java"));
 
         if (config.getCompatVersion() == CompatVersion.RUBY1_9) {
-            getLoadService().require("builtin/core_ext/symbol");
             getLoadService().require("enumerator");
         }
     }
@@ -2020,6 +2023,10 @@ public final class Ruby {
         return threadService;
     }
 
+    public SelectorPool getSelectorPool() {
+        return selectorPool;
+    }
+
     public ThreadContext getCurrentContext() {
         return threadService.getCurrentContext();
     }
@@ -2420,11 +2427,14 @@ public final class Ruby {
 
         getThreadService().disposeCurrentThread();
 
+        selectorPool.cleanup();
+
         getBeanManager().unregisterCompiler();
         getBeanManager().unregisterConfig();
         getBeanManager().unregisterParserStats();
         getBeanManager().unregisterClassCache();
         getBeanManager().unregisterMethodCache();
+        getBeanManager().unregisterRegexpCache();
 
         if (status != 0) {
             throw newSystemExit(status);
@@ -3023,6 +3033,7 @@ public final class Ruby {
 
     private volatile int constantGeneration = 1;
     private final ThreadService threadService;
+    private final SelectorPool selectorPool = new SelectorPool();
     
     private POSIX posix;
 
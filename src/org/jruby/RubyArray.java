@@ -68,6 +68,7 @@ import org.jruby.runtime.marshal.MarshalStream;
 import org.jruby.runtime.marshal.UnmarshalStream;
 import org.jruby.util.ByteList;
 import org.jruby.util.Pack;
+import org.jruby.util.PermutationSort;
 import org.jruby.util.Qsort;
 
 /**
@@ -225,6 +226,14 @@ public class RubyArray extends RubyObject implements List {
     private static final int TMPLOCK_ARR_F = 1 << 9;
     private static final int TMPLOCK_OR_FROZEN_ARR_F = TMPLOCK_ARR_F | FROZEN_F;
 
+    // below this, sorting with a comparator beats extracting keys first
+    private static final int PERMUTATION_SORT_THRESHOLD = 8;
+
+    // slices up to this long are always copied rather than shared
+    private static final int SLICE_COPY_MAX = 16;
+    // a shared slice never keeps alive a backing array more than this many times its size
+    private static final int SLICE_RETENTION_RATIO = 8;
+
     private volatile boolean isShared = false;
     private int begin = 0;
     private int realLength = 0;
@@ -442,10 +451,34 @@ public class RubyArray extends RubyObject implements List {
             throw context.getRuntime().newArgumentError("negative array size");
         }
         
-        return makeShared(last ? realLength - n : 0, n, getMetaClass());
+        return makeShared(begin + (last ? realLength - n : 0), n, getMetaClass());
     }
     
     
+    /** ary_make_partial
+     *
+     * Slices share values copy-on-write, except short ones and ones much
+     * smaller than the backing array, which get a copy. Copying a short
+     * slice costs about as much as sharing and leaves this array unshared,
+     * so its next write needs no copy; copying a relatively small one keeps
+     * a long-lived slice from pinning a large array in memory.
+     */
+    private RubyArray makeSlice(int beg, int len, RubyClass klass, boolean objectSpace) {
+        if (len > SLICE_COPY_MAX && len > values.length / SLICE_RETENTION_RATIO) {
+            return makeShared(beg, len, klass, objectSpace);
+        }
+
+        IRubyObject[] vals = new IRubyObject[len];
+        try {
+            System.arraycopy(values, beg, vals, 0, len);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            concurrentModification();
+        }
+        RubyArray slice = new RubyArray(getRuntime(), klass, vals, objectSpace);
+        slice.realLength = len;
+        return slice;
+    }
+
     /** rb_ary_make_shared
      *
      */
@@ -1096,7 +1129,7 @@ public class RubyArray extends RubyObject implements List {
         
         if (len == 0) return new RubyArray(getRuntime(), getMetaClass(), IRubyObject.NULL_ARRAY);
 
-        return makeShared(begin + (int) beg, (int) len, getMetaClass());
+        return makeSlice(begin + (int) beg, (int) len, getMetaClass(), getRuntime().isObjectSpaceEnabled());
     }
 
     /** rb_ary_subseq
@@ -1113,7 +1146,7 @@ public class RubyArray extends RubyObject implements List {
         
         if (len == 0) return new RubyArray(getRuntime(), getMetaClass(), IRubyObject.NULL_ARRAY, false);
 
-        return makeShared(begin + (int) beg, (int) len, getMetaClass(), false);
+        return makeSlice(begin + (int) beg, (int) len, getMetaClass(), false);
     }
 
     /** rb_ary_length
@@ -1501,7 +1534,7 @@ public class RubyArray extends RubyObject implements List {
             throw getRuntime().newArgumentError("negative array size (or size too big)");
         }
 
-        return makeShared(begin, (int) n, getRuntime().getArray());
+        return makeSlice(begin, (int) n, getRuntime().getArray(), getRuntime().isObjectSpaceEnabled());
     }
 
     /**
@@ -1541,7 +1574,7 @@ public class RubyArray extends RubyObject implements List {
             throw getRuntime().newArgumentError("negative array size (or size too big)");
         }
 
-        return makeShared(begin + realLength - (int) n, (int) n, getRuntime().getArray());
+        return makeSlice(begin + realLength - (int) n, (int) n, getRuntime().getArray(), getRuntime().isObjectSpaceEnabled());
     }
 
     /** rb_ary_each
@@ -2849,9 +2882,14 @@ public class RubyArray extends RubyObject implements List {
             flags |= TMPLOCK_ARR_F;
             try {
                 if (block.isGiven()) {
-                    Qsort.sort(values, 0, realLength, new BlockComparator(block));
+                    Qsort.sort(values, begin, begin + realLength, new BlockComparator(block));
                 } else {
-                    Qsort.sort(values, 0, realLength, new DefaultComparator());
+                    int[] perm = sortPermutation(values, begin, realLength);
+                    if (perm != null) {
+                        PermutationSort.permute(values, begin, perm);
+                    } else {
+                        Qsort.sort(values, begin, begin + realLength, new DefaultComparator());
+                    }
                 }
             } finally {
                 flags &= ~TMPLOCK_ARR_F;
@@ -2860,6 +2898,48 @@ public class RubyArray extends RubyObject implements List {
         return this;
     }
     
+    /**
+     * Sort keys[begin, begin + length) without calling <=> when they are all
+     * Fixnums, all Floats or all Strings, by extracting long values, ordered
+     * Float bits or ByteLists and sorting those. Returns the permutation
+     * that orders the keys (see PermutationSort), or null for any other mix
+     * of keys, for arrays too short to be worth it, and for Floats that
+     * include NaN, which <=> cannot order.
+     */
+    static int[] sortPermutation(IRubyObject[] keys, int begin, int length) {
+        if (length < PERMUTATION_SORT_THRESHOLD) return null;
+
+        IRubyObject first = keys[begin];
+        if (first instanceof RubyFixnum) {
+            long[] longs = new long[length];
+            for (int i = 0; i < length; i++) {
+                IRubyObject key = keys[begin + i];
+                if (!(key instanceof RubyFixnum)) return null;
+                longs[i] = ((RubyFixnum) key).getLongValue();
+            }
+            return PermutationSort.sort(longs);
+        } else if (first instanceof RubyFloat) {
+            long[] longs = new long[length];
+            for (int i = 0; i < length; i++) {
+                IRubyObject key = keys[begin + i];
+                if (!(key instanceof RubyFloat)) return null;
+                double value = ((RubyFloat) key).getDoubleValue();
+                if (Double.isNaN(value)) return null;
+                longs[i] = PermutationSort.sortableBits(value);
+            }
+            return PermutationSort.sort(longs);
+        } else if (first instanceof RubyString) {
+            ByteList[] bytes = new ByteList[length];
+            for (int i = 0; i < length; i++) {
+                IRubyObject key = keys[begin + i];
+                if (!(key instanceof RubyString)) return null;
+                bytes[i] = ((RubyString) key).getByteList();
+            }
+            return PermutationSort.sort(bytes);
+        }
+        return null;
+    }
+
     /** rb_ary_take
      * 
      */
@@ -3086,7 +3166,7 @@ public class RubyArray extends RubyObject implements List {
             permute(context, n, r,
                     new int[n], 0,
                     new boolean[n],
-                    makeShared(0, realLength, getMetaClass()), block);
+                    makeShared(begin, realLength, getMetaClass()), block);
         }
         return this;
     }
@@ -33,11 +33,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import org.jruby.anno.JRubyMethod;
 import org.jruby.javasupport.JavaObject;
 import org.jruby.javasupport.util.RuntimeHelpers;
 import org.jruby.runtime.Block;
 import org.jruby.runtime.ClassIndex;
+import org.jruby.runtime.ObjectSpace;
 import org.jruby.runtime.ObjectAllocator;
 import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.Visibility;
@@ -71,6 +73,11 @@ public class RubyBasicObject implements Cloneable, IRubyObject, Serializable, Co
 
     private transient Finalizer finalizer;
 
+    /** This object's id, assigned on first request; 0 until then */
+    private transient volatile long objectId;
+    private static final AtomicLongFieldUpdater<RubyBasicObject> OBJECT_ID_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(RubyBasicObject.class, "objectId");
+
     /**
      * The variableTable contains variables for an object, defined as:
      * <ul>
@@ -796,8 +803,36 @@ public class RubyBasicObject implements Cloneable, IRubyObject, Serializable, Co
      *
      * FIXME: Should this be renamed to match its ruby name?
      */
-    public synchronized IRubyObject id() {
-        return getRuntime().newFixnum(getRuntime().getObjectSpace().idOf(this));
+    public IRubyObject id() {
+        return getRuntime().newFixnum(getObjectId());
+    }
+
+    /**
+     * Return this object's id, assigning one if necessary. Assignment is a
+     * single CAS on the id field; a thread that loses the race simply adopts
+     * the winner's id.
+     */
+    public long getObjectId() {
+        long id = objectId;
+        if (id != 0) return id;
+
+        return getObjectId(getRuntime().getObjectSpace());
+    }
+
+    /**
+     * Return this object's id, assigning one from the given ObjectSpace if
+     * necessary.
+     */
+    public long getObjectId(ObjectSpace objectSpace) {
+        long id = objectId;
+        if (id != 0) return id;
+
+        id = objectSpace.nextId();
+        objectSpace.registerId(this, id);
+        if (OBJECT_ID_UPDATER.compareAndSet(this, 0, id)) return id;
+
+        objectSpace.unregisterId(id);
+        return objectId;
     }
 
     /** rb_obj_inspect
@@ -30,9 +30,17 @@
  ***** END LICENSE BLOCK *****/
 package org.jruby;
 
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.Provider;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.jruby.anno.JRubyMethod;
 import org.jruby.anno.JRubyModule;
 import org.jruby.anno.JRubyClass;
@@ -40,9 +48,11 @@ import org.jruby.anno.JRubyClass;
 import org.jruby.runtime.Arity;
 import org.jruby.runtime.Block;
 import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.runtime.callback.Callback;
 import org.jruby.util.ByteList;
+import org.jruby.util.JRubyFile;
 
 /**
  * @author <a href="mailto:ola.bini@ki.se">Ola Bini</a>
@@ -76,6 +86,45 @@ public class RubyDigest {
         return MessageDigest.getInstance(providerName);
     }
 
+    /**
+     * One MessageDigest per algorithm per thread. Provider lookups through
+     * getInstance are far more expensive than the digests we usually
+     * compute, so one-shot digests borrow these and instances start out as
+     * clones of them.
+     */
+    private static final ThreadLocal<Map<String, MessageDigest>> digestPool = new ThreadLocal<Map<String, MessageDigest>>() {
+        @Override
+        protected Map<String, MessageDigest> initialValue() {
+            return new HashMap<String, MessageDigest>();
+        }
+    };
+
+    /**
+     * Return this thread's digest for name, reset and ready to use. The
+     * caller must be done with it before anything else on this thread asks
+     * for the same algorithm, so it must not call back into Ruby meanwhile.
+     */
+    private static MessageDigest pooledMessageDigest(Ruby runtime, String name) throws NoSuchAlgorithmException {
+        Map<String, MessageDigest> pool = digestPool.get();
+        MessageDigest md = pool.get(name);
+        if (md == null) {
+            md = createMessageDigest(runtime, name);
+            pool.put(name, md);
+        } else {
+            md.reset();
+        }
+        return md;
+    }
+
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> fileBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(FILE_BUFFER_SIZE);
+        }
+    };
+
     @JRubyClass(name="Digest::MD5", parent="Digest::Base")
     public static class MD5 {}
     @JRubyClass(name="Digest::RMD160", parent="Digest::Base")
@@ -155,9 +204,11 @@ public class RubyDigest {
         public static IRubyObject s_digest(IRubyObject recv, IRubyObject str) {
             Ruby runtime = recv.getRuntime();
             String name = ((RubyClass)recv).searchInternalModuleVariable("metadata").toString();
+            ByteList bytes = str.convertToString().getByteList();
             try {
-                MessageDigest md = createMessageDigest(runtime, name);
-                return RubyString.newStringShared(runtime, md.digest(str.convertToString().getBytes()));
+                MessageDigest md = pooledMessageDigest(runtime, name);
+                md.update(bytes.bytes, bytes.begin, bytes.realSize);
+                return RubyString.newStringShared(runtime, md.digest());
             } catch(NoSuchAlgorithmException e) {
                 throw recv.getRuntime().newNotImplementedError("Unsupported digest algorithm (" + name + ")");
             }
@@ -167,20 +218,33 @@ public class RubyDigest {
         public static IRubyObject s_hexdigest(IRubyObject recv, IRubyObject str) {
             Ruby runtime = recv.getRuntime();
             String name = ((RubyClass)recv).searchInternalModuleVariable("metadata").toString();
+            ByteList bytes = str.convertToString().getByteList();
             try {
-                MessageDigest md = createMessageDigest(runtime, name);
-                return RubyString.newStringNoCopy(runtime, ByteList.plain(toHex(md.digest(str.convertToString().getBytes()))));
+                MessageDigest md = pooledMessageDigest(runtime, name);
+                md.update(bytes.bytes, bytes.begin, bytes.realSize);
+                return RubyString.newStringNoCopy(runtime, toHex(md.digest()));
             } catch(NoSuchAlgorithmException e) {
                 throw recv.getRuntime().newNotImplementedError("Unsupported digest algorithm (" + name + ")");
             }
         }
 
+        @JRubyMethod(name = "file", required = 1, meta = true)
+        public static IRubyObject s_file(IRubyObject recv, IRubyObject filename) {
+            ThreadContext context = recv.getRuntime().getCurrentContext();
+            return recv.callMethod(context, "new").callMethod(context, "file", filename);
+        }
+
         private MessageDigest algo;
-        private StringBuffer data;
+
+        /**
+         * Everything fed to the digest so far, kept only when the provider's
+         * digests cannot be cloned. Otherwise input goes straight into algo
+         * and intermediate digests are taken from a clone of it.
+         */
+        private ByteList data;
 
         public Base(Ruby runtime, RubyClass type) {
             super(runtime,type);
-            data = new StringBuffer();
 
             if(type == runtime.fastGetModule("Digest").fastGetClass("Base")) {
                 throw runtime.newNotImplementedError("Digest::Base is an abstract class");
@@ -211,10 +275,18 @@ public class RubyDigest {
             }
             ((RubyObject)obj).checkFrozen();
 
-            data = new StringBuffer(((Base)obj).data.toString());
-            String name = ((Base)obj).algo.getAlgorithm();
+            Base other = (Base)obj;
+            String name = other.algo.getAlgorithm();
             try {
-                algo = createMessageDigest(getRuntime(), name);
+                if (other.data == null) {
+                    algo = (MessageDigest) other.algo.clone();
+                    data = null;
+                } else {
+                    algo = createMessageDigest(getRuntime(), name);
+                    data = new ByteList(other.data);
+                }
+            } catch(CloneNotSupportedException e) {
+                throw getRuntime().newNotImplementedError("Unsupported digest algorithm (" + name + ")");
             } catch(NoSuchAlgorithmException e) {
                 throw getRuntime().newNotImplementedError("Unsupported digest algorithm (" + name + ")");
             }
@@ -223,15 +295,71 @@ public class RubyDigest {
 
         @JRubyMethod(name = {"update", "<<"}, required = 1)
         public IRubyObject update(IRubyObject obj) {
-            data.append(obj);
+            ByteList bytes = obj.convertToString().getByteList();
+            if (data == null) {
+                algo.update(bytes.bytes, bytes.begin, bytes.realSize);
+            } else {
+                data.append(bytes);
+            }
             return this;
         }
 
+        /**
+         * Feed the contents of a file to the digest. The file is read through
+         * a FileChannel into a direct buffer that is reused by the thread, so
+         * hashing a file never builds Ruby strings for its contents.
+         */
+        @JRubyMethod(name = "file", required = 1)
+        public IRubyObject file(IRubyObject filename) {
+            Ruby runtime = getRuntime();
+            String path = filename.convertToString().toString();
+            JRubyFile file = JRubyFile.create(runtime.getCurrentDirectory(), path);
+            if (file.isDirectory()) {
+                throw runtime.newErrnoEISDirError();
+            }
+
+            FileInputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                update(in.getChannel());
+            } catch (FileNotFoundException e) {
+                throw runtime.newErrnoENOENTError("No such file or directory - " + path);
+            } catch (IOException e) {
+                throw runtime.newIOErrorFromException(e);
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // nothing useful to do; the digest is already complete
+                    }
+                }
+            }
+            return this;
+        }
+
+        private void update(FileChannel channel) throws IOException {
+            ByteBuffer buffer = fileBuffer.get();
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                if (data == null) {
+                    algo.update(buffer);
+                } else {
+                    int length = buffer.remaining();
+                    data.ensure(data.realSize + length);
+                    buffer.get(data.bytes, data.begin + data.realSize, length);
+                    data.realSize += length;
+                }
+                buffer.clear();
+            }
+        }
+
         @JRubyMethod(name = "digest", optional = 1)
         public IRubyObject digest(IRubyObject[] args) {
             if (args.length == 1) {
                 reset();
-                data.append(args[0]);
+                update(args[0]);
             }
 
             IRubyObject digest = getDigest();
@@ -243,27 +371,48 @@ public class RubyDigest {
         }
         
         private IRubyObject getDigest() {
-            algo.reset();
-            return RubyString.newStringShared(getRuntime(), algo.digest(ByteList.plain(data)));
+            return RubyString.newStringShared(getRuntime(), currentDigest());
+        }
+
+        /**
+         * Digest of everything fed so far, leaving the state untouched.
+         */
+        private byte[] currentDigest() {
+            if (data != null) {
+                algo.reset();
+                algo.update(data.bytes, data.begin, data.realSize);
+                return algo.digest();
+            }
+            try {
+                return ((MessageDigest) algo.clone()).digest();
+            } catch (CloneNotSupportedException e) {
+                // setAlgorithm only leaves data null for cloneable digests
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Digest of everything fed so far, resetting the state.
+         */
+        private byte[] finishDigest() {
+            byte[] digest = currentDigest();
+            reset();
+            return digest;
         }
         
         @JRubyMethod(name = "digest!")
         public IRubyObject digest_bang() {
-            algo.reset();            
-            byte[] digest = algo.digest(ByteList.plain(data));
-            reset();
-            return RubyString.newStringShared(getRuntime(), digest);
+            return RubyString.newStringShared(getRuntime(), finishDigest());
         }
 
         @JRubyMethod(name = {"hexdigest"}, optional = 1)
         public IRubyObject hexdigest(IRubyObject[] args) {
-            algo.reset();
             if (args.length == 1) {
                 reset();
-                data.append(args[0]);
+                update(args[0]);
             }
 
-            byte[] digest = ByteList.plain(toHex(algo.digest(ByteList.plain(data)))); 
+            byte[] digest = toHex(currentDigest());
 
             if (args.length == 1) {
                 reset();
@@ -273,24 +422,18 @@ public class RubyDigest {
         
         @JRubyMethod(name = {"to_s"})
         public IRubyObject to_s() {
-            algo.reset();
-            return RubyString.newStringNoCopy(getRuntime(), ByteList.plain(toHex(algo.digest(ByteList.plain(data)))));
+            return RubyString.newStringNoCopy(getRuntime(), toHex(currentDigest()));
         }
 
         @JRubyMethod(name = {"hexdigest!"})
         public IRubyObject hexdigest_bang() {
-            algo.reset();
-            byte[] digest = ByteList.plain(toHex(algo.digest(ByteList.plain(data))));
-            reset();
-            return RubyString.newStringShared(getRuntime(), digest);
+            return RubyString.newStringShared(getRuntime(), toHex(finishDigest()));
         }
         
         @JRubyMethod(name = "inspect")
         public IRubyObject inspect() {
-            algo.reset();
-            return RubyString.newStringNoCopy(getRuntime(), ByteList.plain("#<" + getMetaClass().getRealClass().getName() + ": " + toHex(algo.digest(ByteList.plain(data))) + ">"));
+            return RubyString.newStringNoCopy(getRuntime(), ByteList.plain("#<" + getMetaClass().getRealClass().getName() + ": " + new String(ByteList.plain(toHex(currentDigest()))) + ">"));
         }
-
         @JRubyMethod(name = "==", required = 1)
         public IRubyObject op_equal(IRubyObject oth) {
             boolean ret = this == oth;
@@ -322,24 +465,33 @@ public class RubyDigest {
         @JRubyMethod(name = {"reset"})
         public IRubyObject reset() {
             algo.reset();
-            data = new StringBuffer();
+            if (data != null) {
+                data = new ByteList();
+            }
             return getRuntime().getNil();
         }
 
-       private void setAlgorithm(IRubyObject algo) throws NoSuchAlgorithmException {
-           this.algo = createMessageDigest(getRuntime(), algo.toString());
+        private void setAlgorithm(IRubyObject algo) throws NoSuchAlgorithmException {
+            String name = algo.toString();
+            MessageDigest pooled = pooledMessageDigest(getRuntime(), name);
+            try {
+                this.algo = (MessageDigest) pooled.clone();
+                this.data = null;
+            } catch (CloneNotSupportedException e) {
+                this.algo = createMessageDigest(getRuntime(), name);
+                this.data = new ByteList();
+            }
         }
 
-        private static String toHex(byte[] val) {
-            StringBuilder out = new StringBuilder();
-            for(int i=0,j=val.length;i<j;i++) {
-                String ve = Integer.toString((((int)((char)val[i])) & 0xFF),16);
-                if(ve.length() == 1) {
-                    ve = "0" + ve;
-                }
-                out.append(ve);
+        private static final byte[] HEX_DIGITS = ByteList.plain("0123456789abcdef");
+
+        private static byte[] toHex(byte[] val) {
+            byte[] out = new byte[val.length * 2];
+            for (int i = 0, j = 0; i < val.length; i++) {
+                out[j++] = HEX_DIGITS[(val[i] >> 4) & 0xF];
+                out[j++] = HEX_DIGITS[val[i] & 0xF];
             }
-            return out.toString();
+            return out;
         }
     }
 }// RubyDigest
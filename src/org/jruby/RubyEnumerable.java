@@ -326,6 +326,38 @@ public class RubyEnumerable {
         return result;
     }
 
+    /**
+     * Return the values of [value, criterion] pairs ordered by criterion.
+     * Criteria that are all Fixnums, Floats or Strings are sorted as
+     * primitive keys; anything else is compared with <=>.
+     */
+    private static IRubyObject[] sortByCriteria(final ThreadContext context, IRubyObject[][] valuesAndCriteria) {
+        IRubyObject[] sorted = new IRubyObject[valuesAndCriteria.length];
+
+        IRubyObject[] criteria = new IRubyObject[valuesAndCriteria.length];
+        for (int i = 0; i < criteria.length; i++) {
+            criteria[i] = valuesAndCriteria[i][1];
+        }
+        int[] perm = RubyArray.sortPermutation(criteria, 0, criteria.length);
+        if (perm != null) {
+            for (int i = 0; i < perm.length; i++) {
+                sorted[i] = valuesAndCriteria[perm[i]][0];
+            }
+            return sorted;
+        }
+
+        Arrays.sort(valuesAndCriteria, new Comparator<IRubyObject[]>() {
+            public int compare(IRubyObject[] o1, IRubyObject[] o2) {
+                return RubyFixnum.fix2int(o1[1].callMethod(context, "<=>", o2[1]));
+            }
+        });
+
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = valuesAndCriteria[i][0];
+        }
+        return sorted;
+    }
+
     @JRubyMethod(name = "sort_by", frame = true)
     public static IRubyObject sort_by(ThreadContext context, IRubyObject self, final Block block) {
         final Ruby runtime = context.getRuntime();
@@ -345,19 +377,8 @@ public class RubyEnumerable {
                     return runtime.getNil();
                 }
             });
-            
-            Arrays.sort(valuesAndCriteria, new Comparator<IRubyObject[]>() {
-                public int compare(IRubyObject[] o1, IRubyObject[] o2) {
-                    return RubyFixnum.fix2int(o1[1].callMethod(localContext, "<=>", o2[1]));
-                }
-            });
-            
-            IRubyObject dstArray[] = new IRubyObject[selfArray.size()];
-            for (int i = 0; i < dstArray.length; i++) {
-                dstArray[i] = valuesAndCriteria[i][0];
-            }
 
-            return runtime.newArrayNoCopy(dstArray);
+            return runtime.newArrayNoCopy(sortByCriteria(localContext, valuesAndCriteria));
         } else {
             final RubyArray result = runtime.newArray();
             callEach(runtime, context, self, new AppendBlockCallback(runtime, result));
@@ -368,15 +389,10 @@ public class RubyEnumerable {
                 valuesAndCriteria[i][0] = val;
                 valuesAndCriteria[i][1] = block.yield(context, val);
             }
-            
-            Arrays.sort(valuesAndCriteria, new Comparator<IRubyObject[]>() {
-                public int compare(IRubyObject[] o1, IRubyObject[] o2) {
-                    return RubyFixnum.fix2int(o1[1].callMethod(localContext, "<=>", o2[1]));
-                }
-            });
-            
-            for (int i = 0; i < valuesAndCriteria.length; i++) {
-                result.eltInternalSet(i, valuesAndCriteria[i][0]);
+
+            IRubyObject[] sorted = sortByCriteria(localContext, valuesAndCriteria);
+            for (int i = 0; i < sorted.length; i++) {
+                result.eltInternalSet(i, sorted[i]);
             }
 
             return result;
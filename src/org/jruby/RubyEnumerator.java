@@ -27,11 +27,15 @@
  ***** END LICENSE BLOCK *****/
 package org.jruby;
 
+import org.jruby.anno.JRubyClass;
 import org.jruby.anno.JRubyMethod;
 import org.jruby.anno.JRubyModule;
+import org.jruby.exceptions.JumpException;
 import org.jruby.javasupport.util.RuntimeHelpers;
+import org.jruby.runtime.Arity;
 import org.jruby.runtime.Block;
 import org.jruby.runtime.BlockCallback;
+import org.jruby.runtime.CallBlock;
 import org.jruby.runtime.ObjectAllocator;
 import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.Visibility;
@@ -57,6 +61,12 @@ public class RubyEnumerator extends RubyObject {
         }
     };
 
+    private static ObjectAllocator LAZY_ALLOCATOR = new ObjectAllocator() {
+        public IRubyObject allocate(Ruby runtime, RubyClass klass) {
+            return new Lazy(runtime, klass);
+        }
+    };
+
     public static void defineEnumerator(Ruby runtime) {
         RubyModule kernel = runtime.getKernel();
         kernel.defineAnnotatedMethod(RubyEnumerator.class, "obj_to_enum");
@@ -67,6 +77,7 @@ public class RubyEnumerator extends RubyObject {
         enm.defineAnnotatedMethod(RubyEnumerator.class, "enum_slice");
         enm.defineAnnotatedMethod(RubyEnumerator.class, "each_cons");
         enm.defineAnnotatedMethod(RubyEnumerator.class, "enum_cons");
+        enm.defineAnnotatedMethod(RubyEnumerator.class, "lazy");
 
         final RubyClass enmr;
         if (runtime.getInstanceConfig().getCompatVersion() == CompatVersion.RUBY1_9) {
@@ -80,6 +91,9 @@ public class RubyEnumerator extends RubyObject {
         enmr.defineAnnotatedMethod(RubyEnumerator.class, "initialize");
         enmr.defineAnnotatedMethod(RubyEnumerator.class, "each");
 
+        RubyClass lazy = enmr.defineClassUnder("Lazy", enmr, LAZY_ALLOCATOR);
+        lazy.defineAnnotatedMethods(Lazy.class);
+
         runtime.setEnumerator(enmr);
     }
 
@@ -98,7 +112,11 @@ public class RubyEnumerator extends RubyObject {
     }
 
     private RubyEnumerator(Ruby runtime, IRubyObject object, IRubyObject method, IRubyObject[]args) {
-        super(runtime, runtime.getEnumerator());
+        this(runtime, runtime.getEnumerator(), object, method, args);
+    }
+
+    private RubyEnumerator(Ruby runtime, RubyClass type, IRubyObject object, IRubyObject method, IRubyObject[]args) {
+        super(runtime, type);
         this.object = object;
         this.method = method;
         this.methodArgs = args;
@@ -201,4 +219,274 @@ public class RubyEnumerator extends RubyObject {
         IRubyObject enumerator = self.getRuntime().getEnumerator();
         return RuntimeHelpers.invoke(context, enumerator, "new", self, self.getRuntime().fastNewSymbol("each_cons"), arg);
     }
+
+    @JRubyMethod(name = "lazy")
+    public static IRubyObject lazy(ThreadContext context, IRubyObject self) {
+        Ruby runtime = context.getRuntime();
+        RubyClass lazyClass = (RubyClass) runtime.getEnumerator().getConstantAt("Lazy");
+        return new Lazy(runtime, lazyClass, self, runtime.fastNewSymbol("each"), IRubyObject.NULL_ARRAY, Lazy.NO_STAGES);
+    }
+
+    /**
+     * An enumerator whose map, select, reject, take_while and take return
+     * another Lazy instead of an Array. Nothing is evaluated until each,
+     * first, force or some other Enumerable method asks for elements. Each
+     * source element then goes through the whole chain of stages in a single
+     * pass. Iteration of the source is abandoned as soon as take, take_while
+     * or first(n) has seen enough, so an IO being read line by line is not
+     * read past that point.
+     */
+    @JRubyClass(name="Enumerable::Enumerator::Lazy", parent="Enumerable::Enumerator")
+    public static class Lazy extends RubyEnumerator {
+        static final Stage[] NO_STAGES = new Stage[0];
+
+        private Stage[] stages = NO_STAGES;
+
+        private Lazy(Ruby runtime, RubyClass type) {
+            super(runtime, type);
+        }
+
+        private Lazy(Ruby runtime, RubyClass type, IRubyObject object, IRubyObject method, IRubyObject[] args, Stage[] stages) {
+            super(runtime, type, object, method, args);
+            this.stages = stages;
+        }
+
+        private Lazy chain(Stage stage) {
+            Stage[] newStages = new Stage[stages.length + 1];
+            System.arraycopy(stages, 0, newStages, 0, stages.length);
+            newStages[stages.length] = stage;
+            return new Lazy(getRuntime(), getMetaClass().getRealClass(), super.object, super.method, super.methodArgs, newStages);
+        }
+
+        private Block checkBlock(String name, Block block) {
+            if (!block.isGiven()) throw getRuntime().newArgumentError("tried to call lazy " + name + " without a block");
+            return block;
+        }
+
+        /**
+         * Push every source element through the stages into the pipeline's sink,
+         * stopping early when a stage or the sink says it is done.
+         */
+        private void run(ThreadContext context, Pipeline pipeline) {
+            for (Stage stage : stages) {
+                if (stage.isEmpty()) return;
+            }
+            if (pipeline.isFull()) return;
+
+            Block block = CallBlock.newCallClosure(this, getRuntime().getEnumerable(), Arity.noArguments(), pipeline, context);
+            try {
+                super.object.callMethod(context, super.method.asJavaString(), super.methodArgs, block);
+            } catch (JumpException.SpecialJump sj) {
+                // only our own stop ends the pass quietly; a consumer like include? throws its own
+                if (sj != pipeline.stop) throw sj;
+            }
+        }
+
+        @JRubyMethod(name = {"map", "collect"}, frame = true)
+        public IRubyObject map(ThreadContext context, Block block) {
+            return chain(new Map(checkBlock("map", block)));
+        }
+
+        @JRubyMethod(name = {"select", "find_all"}, frame = true)
+        public IRubyObject select(ThreadContext context, Block block) {
+            return chain(new Select(checkBlock("select", block), true));
+        }
+
+        @JRubyMethod(name = "reject", frame = true)
+        public IRubyObject reject(ThreadContext context, Block block) {
+            return chain(new Select(checkBlock("reject", block), false));
+        }
+
+        @JRubyMethod(name = "take_while", frame = true)
+        public IRubyObject take_while(ThreadContext context, Block block) {
+            return chain(new TakeWhile(checkBlock("take_while", block)));
+        }
+
+        @JRubyMethod(name = "take", required = 1)
+        public IRubyObject take(ThreadContext context, IRubyObject n) {
+            long limit = RubyNumeric.num2long(n);
+            if (limit < 0) throw context.getRuntime().newArgumentError("attempt to take negative size");
+            return chain(new Take(limit));
+        }
+
+        @JRubyMethod(name = "lazy")
+        public IRubyObject lazy(ThreadContext context) {
+            return this;
+        }
+
+        @JRubyMethod(name = "each", frame = true)
+        public IRubyObject each(ThreadContext context, final Block block) {
+            if (!block.isGiven()) return this;
+
+            run(context, new Pipeline(stages) {
+                protected void emit(ThreadContext context, IRubyObject value) {
+                    block.yield(context, value);
+                }
+            });
+            return this;
+        }
+
+        @JRubyMethod(name = {"force", "to_a", "entries"})
+        public IRubyObject force(ThreadContext context) {
+            return collect(context, Long.MAX_VALUE);
+        }
+
+        @JRubyMethod(name = "first")
+        public IRubyObject first(ThreadContext context) {
+            RubyArray result = collect(context, 1);
+            return result.isEmpty() ? context.getRuntime().getNil() : result.eltInternal(0);
+        }
+
+        @JRubyMethod(name = "first", required = 1)
+        public IRubyObject first(ThreadContext context, IRubyObject n) {
+            long limit = RubyNumeric.num2long(n);
+            if (limit < 0) throw context.getRuntime().newArgumentError("negative array size (or size too big)");
+            return collect(context, limit);
+        }
+
+        private RubyArray collect(ThreadContext context, final long limit) {
+            final RubyArray result = context.getRuntime().newArray();
+            run(context, new Pipeline(stages) {
+                protected void emit(ThreadContext context, IRubyObject value) {
+                    result.append(value);
+                    if (result.getLength() >= limit) finishing = true;
+                }
+
+                protected boolean isFull() {
+                    return limit == 0;
+                }
+            });
+            return result;
+        }
+    }
+
+    /**
+     * One step of a lazy chain. Stages are shared between a Lazy and the
+     * Lazies chained from it, so any per-pass state lives in the copy returned
+     * by start.
+     */
+    private static abstract class Stage {
+        Stage start() {
+            return this;
+        }
+
+        /** True if the stage will never pass anything, so the source need not run at all. */
+        boolean isEmpty() {
+            return false;
+        }
+
+        /** Return the value to hand to the next stage, or null to drop it. */
+        abstract IRubyObject call(ThreadContext context, IRubyObject value, Pipeline pipeline);
+
+        /**
+         * Yield to a stage's block. The method that took the block has long
+         * since returned, so a break has nowhere to go and is reported the way
+         * a stored proc reports it.
+         */
+        static IRubyObject yield(ThreadContext context, Block block, IRubyObject value) {
+            try {
+                return block.yield(context, value);
+            } catch (JumpException.BreakJump bj) {
+                throw context.getRuntime().newLocalJumpError(RubyLocalJumpError.Reason.BREAK,
+                        (IRubyObject) bj.getValue(), "break from proc-closure");
+            }
+        }
+    }
+
+    private static class Map extends Stage {
+        private final Block block;
+
+        Map(Block block) {
+            this.block = block;
+        }
+
+        IRubyObject call(ThreadContext context, IRubyObject value, Pipeline pipeline) {
+            return yield(context, block, value);
+        }
+    }
+
+    private static class Select extends Stage {
+        private final Block block;
+        private final boolean keep;
+
+        Select(Block block, boolean keep) {
+            this.block = block;
+            this.keep = keep;
+        }
+
+        IRubyObject call(ThreadContext context, IRubyObject value, Pipeline pipeline) {
+            return yield(context, block, value).isTrue() == keep ? value : null;
+        }
+    }
+
+    private static class TakeWhile extends Stage {
+        private final Block block;
+
+        TakeWhile(Block block) {
+            this.block = block;
+        }
+
+        IRubyObject call(ThreadContext context, IRubyObject value, Pipeline pipeline) {
+            if (yield(context, block, value).isTrue()) return value;
+            pipeline.finishing = true;
+            return null;
+        }
+    }
+
+    private static class Take extends Stage {
+        private final long limit;
+        private long taken;
+
+        Take(long limit) {
+            this.limit = limit;
+        }
+
+        Stage start() {
+            return new Take(limit);
+        }
+
+        boolean isEmpty() {
+            return limit == 0;
+        }
+
+        IRubyObject call(ThreadContext context, IRubyObject value, Pipeline pipeline) {
+            if (++taken >= limit) pipeline.finishing = true;
+            return value;
+        }
+    }
+
+    /**
+     * The block handed to the source's each for one pass of a Lazy. It runs
+     * each element through the stages and emits survivors, then aborts the
+     * source's iteration once some stage or the sink has set finishing.
+     */
+    private static abstract class Pipeline implements BlockCallback {
+        private final Stage[] steps;
+        private final JumpException.SpecialJump stop = new JumpException.SpecialJump();
+        protected boolean finishing;
+
+        Pipeline(Stage[] stages) {
+            steps = new Stage[stages.length];
+            for (int i = 0; i < stages.length; i++) {
+                steps[i] = stages[i].start();
+            }
+        }
+
+        public IRubyObject call(ThreadContext context, IRubyObject[] args, Block block) {
+            IRubyObject value = args[0];
+            for (int i = 0; value != null && i < steps.length; i++) {
+                value = steps[i].call(context, value, this);
+            }
+            if (value != null) emit(context, value);
+            if (finishing) throw stop;
+            return context.getRuntime().getNil();
+        }
+
+        /** True if the sink wants nothing at all. */
+        protected boolean isFull() {
+            return false;
+        }
+
+        protected abstract void emit(ThreadContext context, IRubyObject value);
+    }
 }
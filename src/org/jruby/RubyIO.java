@@ -43,6 +43,7 @@ import java.io.OutputStream;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.Channel;
 import java.nio.channels.Channels;
@@ -1027,35 +1028,86 @@ public class RubyIO extends RubyObject {
         }
     }
 
+    /**
+     * Write each argument in turn, as write would, but without joining them
+     * first. On a channel-backed IO such as a socket, the strings go out
+     * together in a single gathering write.
+     */
+    @JRubyMethod(name = "writev", rest = true)
+    public IRubyObject writev(ThreadContext context, IRubyObject[] args) {
+        Ruby runtime = context.getRuntime();
+        
+        runtime.secure(4);
+
+        RubyString[] strings = new RubyString[args.length];
+        for (int i = 0; i < args.length; i++) {
+            strings[i] = args[i].asString();
+        }
+
+        try {
+            OpenFile myOpenFile = getOpenFileChecked();
+            
+            myOpenFile.checkWritable(runtime);
+
+            Stream writeStream = myOpenFile.getWriteStream();
+            if (!(writeStream instanceof ChannelStream) || !writeStream.getDescriptor().isGathering()) {
+                long written = 0;
+                for (RubyString str : strings) {
+                    written += RubyNumeric.num2long(write(context, str));
+                }
+                return runtime.newFixnum(written);
+            }
+
+            ByteBuffer[] buffers = new ByteBuffer[strings.length];
+            for (int i = 0; i < strings.length; i++) {
+                ByteList bytes = strings[i].getByteList();
+                buffers[i] = ByteBuffer.wrap(bytes.unsafeBytes(), bytes.begin(), bytes.length());
+            }
+
+            return runtime.newFixnum(((ChannelStream) writeStream).writev(buffers));
+        } catch (IOException ex) {
+            throw runtime.newIOErrorFromException(ex);
+        } catch (BadDescriptorException ex) {
+            throw runtime.newErrnoEBADFError();
+        } catch (InvalidValueException ex) {
+            throw runtime.newErrnoEINVALError();
+        } catch (PipeException ex) {
+            throw runtime.newErrnoEPIPEError();
+        }
+    }
+
     protected boolean waitWritable(ChannelDescriptor descriptor) throws IOException {
         Channel channel = descriptor.getChannel();
         if (channel == null || !(channel instanceof SelectableChannel)) {
             return false;
         }
        
-        Selector selector = Selector.open();
-
-        ((SelectableChannel) channel).configureBlocking(false);
-        int real_ops = ((SelectableChannel) channel).validOps() & SelectionKey.OP_WRITE;
-        SelectionKey key = ((SelectableChannel) channel).keyFor(selector);
+        Selector selector = getRuntime().getSelectorPool().get();
+        try {
+            ((SelectableChannel) channel).configureBlocking(false);
+            int real_ops = ((SelectableChannel) channel).validOps() & SelectionKey.OP_WRITE;
+            SelectionKey key = ((SelectableChannel) channel).keyFor(selector);
        
-        if (key == null) {
-            ((SelectableChannel) channel).register(selector, real_ops, descriptor);
-        } else {
-            key.interestOps(key.interestOps()|real_ops);
-        }
+            if (key == null) {
+                ((SelectableChannel) channel).register(selector, real_ops, descriptor);
+            } else {
+                key.interestOps(key.interestOps()|real_ops);
+            }
 
-        while(selector.select() == 0);
+            while(selector.select() == 0);
 
-        for (Iterator i = selector.selectedKeys().iterator(); i.hasNext(); ) {
-            SelectionKey skey = (SelectionKey) i.next();
-            if ((skey.interestOps() & skey.readyOps() & (SelectionKey.OP_WRITE)) != 0) {
-                if(skey.attachment() == descriptor) {
-                    return true;
+            for (Iterator i = selector.selectedKeys().iterator(); i.hasNext(); ) {
+                SelectionKey skey = (SelectionKey) i.next();
+                if ((skey.interestOps() & skey.readyOps() & (SelectionKey.OP_WRITE)) != 0) {
+                    if(skey.attachment() == descriptor) {
+                        return true;
+                    }
                 }
             }
+            return false;
+        } finally {
+            getRuntime().getSelectorPool().put(selector);
         }
-        return false;
     }
 
     protected boolean waitReadable(ChannelDescriptor descriptor) throws IOException {
@@ -1064,29 +1116,32 @@ public class RubyIO extends RubyObject {
             return false;
         }
        
-        Selector selector = Selector.open();
-
-        ((SelectableChannel) channel).configureBlocking(false);
-        int real_ops = ((SelectableChannel) channel).validOps() & (SelectionKey.OP_READ | SelectionKey.OP_ACCEPT);
-        SelectionKey key = ((SelectableChannel) channel).keyFor(selector);
+        Selector selector = getRuntime().getSelectorPool().get();
+        try {
+            ((SelectableChannel) channel).configureBlocking(false);
+            int real_ops = ((SelectableChannel) channel).validOps() & (SelectionKey.OP_READ | SelectionKey.OP_ACCEPT);
+            SelectionKey key = ((SelectableChannel) channel).keyFor(selector);
        
-        if (key == null) {
-            ((SelectableChannel) channel).register(selector, real_ops, descriptor);
-        } else {
-            key.interestOps(key.interestOps()|real_ops);
-        }
+            if (key == null) {
+                ((SelectableChannel) channel).register(selector, real_ops, descriptor);
+            } else {
+                key.interestOps(key.interestOps()|real_ops);
+            }
 
-        while(selector.select() == 0);
+            while(selector.select() == 0);
 
-        for (Iterator i = selector.selectedKeys().iterator(); i.hasNext(); ) {
-            SelectionKey skey = (SelectionKey) i.next();
-            if ((skey.interestOps() & skey.readyOps() & (SelectionKey.OP_READ | SelectionKey.OP_ACCEPT)) != 0) {
-                if(skey.attachment() == descriptor) {
-                    return true;
+            for (Iterator i = selector.selectedKeys().iterator(); i.hasNext(); ) {
+                SelectionKey skey = (SelectionKey) i.next();
+                if ((skey.interestOps() & skey.readyOps() & (SelectionKey.OP_READ | SelectionKey.OP_ACCEPT)) != 0) {
+                    if(skey.attachment() == descriptor) {
+                        return true;
+                    }
                 }
             }
+            return false;
+        } finally {
+            getRuntime().getSelectorPool().put(selector);
         }
-        return false;
     }
     
     protected int fwrite(ByteList buffer) {
@@ -2010,6 +2065,23 @@ public class RubyIO extends RubyObject {
         return getRuntime().getNil();
     }
     
+    /**
+     * The string readpartial and read_nonblock read into: the caller's
+     * buffer, emptied but with room for length bytes, or a new string.
+     */
+    private static RubyString partialReadBuffer(Ruby runtime, IRubyObject[] args, int length) {
+        if (args.length > 1 && !args[1].isNil()) {
+            RubyString str = args[1].convertToString();
+            // empty it first: a shared buffer can't be unshared into fewer bytes than it holds
+            str.modify();
+            str.getByteList().length(0);
+            str.getByteList().ensure(length);
+            return str;
+        }
+
+        return RubyString.newString(runtime, new ByteList(0));
+    }
+
     @JRubyMethod(name = "read_nonblock", required = 1, optional = 1)
     public IRubyObject read_nonblock(ThreadContext context, IRubyObject[] args) {
         Ruby runtime = context.getRuntime();
@@ -2025,14 +2097,10 @@ public class RubyIO extends RubyObject {
             if (maxLength < 0) {
                 throw runtime.newArgumentError("negative length " + maxLength + " given");
             }
-            ByteList buf = ((ChannelStream)openFile.getMainStream()).readnonblock(RubyNumeric.fix2int(args[0]));
-            IRubyObject strbuf = RubyString.newString(runtime, buf == null ? new ByteList(ByteList.NULL_ARRAY) : buf);
-            if(args.length > 1) {
-                args[1].callMethod(context, "<<", strbuf);
-                return args[1];
-            }
+            RubyString str = partialReadBuffer(runtime, args, maxLength);
+            ((ChannelStream)openFile.getMainStream()).readnonblock(maxLength, str.getByteList());
 
-            return strbuf;
+            return str;
         } catch (BadDescriptorException e) {
             throw runtime.newErrnoEBADFError();
         } catch (EOFException e) {
@@ -2057,14 +2125,10 @@ public class RubyIO extends RubyObject {
             if (maxLength < 0) {
                 throw runtime.newArgumentError("negative length " + maxLength + " given");
             }
-            ByteList buf = ((ChannelStream)openFile.getMainStream()).readpartial(RubyNumeric.fix2int(args[0]));
-            IRubyObject strbuf = RubyString.newString(runtime, buf == null ? new ByteList(ByteList.NULL_ARRAY) : buf);
-            if(args.length > 1) {
-                args[1].callMethod(context, "<<", strbuf);
-                return args[1];
-            }
+            RubyString str = partialReadBuffer(runtime, args, maxLength);
+            ((ChannelStream)openFile.getMainStream()).readpartial(maxLength, str.getByteList());
 
-            return strbuf;
+            return str;
         } catch (BadDescriptorException e) {
             throw runtime.newErrnoEBADFError();
         } catch (EOFException e) {
@@ -2658,126 +2722,128 @@ public class RubyIO extends RubyObject {
            Set pending = new HashSet();
            Set unselectable_reads = new HashSet();
            Set unselectable_writes = new HashSet();
-           Selector selector = Selector.open();
-           if (!args[0].isNil()) {
-               // read
-               checkArrayType(runtime, args[0]);
-               for (Iterator i = ((RubyArray) args[0]).getList().iterator(); i.hasNext(); ) {
-                   IRubyObject obj = (IRubyObject) i.next();
-                   RubyIO ioObj = convertToIO(context, obj);
-                   if (registerSelect(context, selector, obj, ioObj, SelectionKey.OP_READ | SelectionKey.OP_ACCEPT)) {
-                       if (ioObj.writeDataBuffered()) {
-                           pending.add(obj);
-                       }
-                   } else {
-                       if (( ioObj.openFile.getMode() & OpenFile.READABLE ) != 0) {
-                           unselectable_reads.add(obj);
+           Selector selector = runtime.getSelectorPool().get();
+           try {
+               if (!args[0].isNil()) {
+                   // read
+                   checkArrayType(runtime, args[0]);
+                   for (Iterator i = ((RubyArray) args[0]).getList().iterator(); i.hasNext(); ) {
+                       IRubyObject obj = (IRubyObject) i.next();
+                       RubyIO ioObj = convertToIO(context, obj);
+                       if (registerSelect(context, selector, obj, ioObj, SelectionKey.OP_READ | SelectionKey.OP_ACCEPT)) {
+                           if (ioObj.writeDataBuffered()) {
+                               pending.add(obj);
+                           }
+                       } else {
+                           if (( ioObj.openFile.getMode() & OpenFile.READABLE ) != 0) {
+                               unselectable_reads.add(obj);
+                           }
                        }
                    }
                }
-           }
 
-           if (args.length > 1 && !args[1].isNil()) {
-               // write
-               checkArrayType(runtime, args[1]);
-               for (Iterator i = ((RubyArray) args[1]).getList().iterator(); i.hasNext(); ) {
-                   IRubyObject obj = (IRubyObject) i.next();
-                   RubyIO ioObj = convertToIO(context, obj);
-                   if (!registerSelect(context, selector, obj, ioObj, SelectionKey.OP_WRITE)) {
-                       if (( ioObj.openFile.getMode() & OpenFile.WRITABLE ) != 0) {
-                           unselectable_writes.add(obj);
+               if (args.length > 1 && !args[1].isNil()) {
+                   // write
+                   checkArrayType(runtime, args[1]);
+                   for (Iterator i = ((RubyArray) args[1]).getList().iterator(); i.hasNext(); ) {
+                       IRubyObject obj = (IRubyObject) i.next();
+                       RubyIO ioObj = convertToIO(context, obj);
+                       if (!registerSelect(context, selector, obj, ioObj, SelectionKey.OP_WRITE)) {
+                           if (( ioObj.openFile.getMode() & OpenFile.WRITABLE ) != 0) {
+                               unselectable_writes.add(obj);
+                           }
                        }
                    }
                }
-           }
 
-           if (args.length > 2 && !args[2].isNil()) {
-               checkArrayType(runtime, args[2]);
-               // Java's select doesn't do anything about this, so we leave it be.
-           }
-
-           final boolean has_timeout = ( args.length > 3 && !args[3].isNil() );
-           long timeout = 0;
-           if(has_timeout) {
-               IRubyObject timeArg = args[3];
-               if (timeArg instanceof RubyFloat) {
-                   timeout = Math.round(((RubyFloat) timeArg).getDoubleValue() * 1000);
-               } else if (timeArg instanceof RubyFixnum) {
-                   timeout = Math.round(((RubyFixnum) timeArg).getDoubleValue() * 1000);
-               } else { // TODO: MRI also can hadle Bignum here
-                   throw runtime.newTypeError("can't convert "
-                           + timeArg.getMetaClass().getName() + " into time interval");
+               if (args.length > 2 && !args[2].isNil()) {
+                   checkArrayType(runtime, args[2]);
+                   // Java's select doesn't do anything about this, so we leave it be.
                }
 
-               if (timeout < 0) {
-                   throw runtime.newArgumentError("negative timeout given");
+               final boolean has_timeout = ( args.length > 3 && !args[3].isNil() );
+               long timeout = 0;
+               if(has_timeout) {
+                   IRubyObject timeArg = args[3];
+                   if (timeArg instanceof RubyFloat) {
+                       timeout = Math.round(((RubyFloat) timeArg).getDoubleValue() * 1000);
+                   } else if (timeArg instanceof RubyFixnum) {
+                       timeout = Math.round(((RubyFixnum) timeArg).getDoubleValue() * 1000);
+                   } else { // TODO: MRI also can hadle Bignum here
+                       throw runtime.newTypeError("can't convert "
+                               + timeArg.getMetaClass().getName() + " into time interval");
+                   }
+
+                   if (timeout < 0) {
+                       throw runtime.newArgumentError("negative timeout given");
+                   }
                }
-           }
            
-           if (pending.isEmpty() && unselectable_reads.isEmpty() && unselectable_writes.isEmpty()) {
-               if (has_timeout) {
-                   if (timeout==0) {
-                       selector.selectNow();
+               if (pending.isEmpty() && unselectable_reads.isEmpty() && unselectable_writes.isEmpty()) {
+                   if (has_timeout) {
+                       if (timeout==0) {
+                           selector.selectNow();
+                       } else {
+                           selector.select(timeout);                       
+                       }
                    } else {
-                       selector.select(timeout);                       
+                       selector.select();
                    }
                } else {
-                   selector.select();
+                   selector.selectNow();               
                }
-           } else {
-               selector.selectNow();               
-           }
            
-           List r = new ArrayList();
-           List w = new ArrayList();
-           List e = new ArrayList();
-           for (Iterator i = selector.selectedKeys().iterator(); i.hasNext(); ) {
-               SelectionKey key = (SelectionKey) i.next();
-               try {
-                   int interestAndReady = key.interestOps() & key.readyOps();
-                   if ((interestAndReady
-                           & (SelectionKey.OP_READ|SelectionKey.OP_ACCEPT|SelectionKey.OP_CONNECT)) != 0) {
-                       r.add(key.attachment());
+               List r = new ArrayList();
+               List w = new ArrayList();
+               List e = new ArrayList();
+               for (Iterator i = selector.selectedKeys().iterator(); i.hasNext(); ) {
+                   SelectionKey key = (SelectionKey) i.next();
+                   try {
+                       int interestAndReady = key.interestOps() & key.readyOps();
+                       if ((interestAndReady
+                               & (SelectionKey.OP_READ|SelectionKey.OP_ACCEPT|SelectionKey.OP_CONNECT)) != 0) {
+                           r.add(key.attachment());
+                           pending.remove(key.attachment());
+                       }
+                       if ((interestAndReady & (SelectionKey.OP_WRITE)) != 0) {
+                           w.add(key.attachment());
+                       }
+                   } catch (CancelledKeyException cke) {
+                       // TODO: is this the right thing to do?
                        pending.remove(key.attachment());
+                       e.add(key.attachment());
                    }
-                   if ((interestAndReady & (SelectionKey.OP_WRITE)) != 0) {
-                       w.add(key.attachment());
-                   }
-               } catch (CancelledKeyException cke) {
-                   // TODO: is this the right thing to do?
-                   pending.remove(key.attachment());
-                   e.add(key.attachment());
                }
-           }
-           r.addAll(pending);
-           r.addAll(unselectable_reads);
-           w.addAll(unselectable_writes);
+               r.addAll(pending);
+               r.addAll(unselectable_reads);
+               w.addAll(unselectable_writes);
            
-           // make all sockets blocking as configured again
-           for (Iterator i = selector.keys().iterator(); i.hasNext(); ) {
-               SelectionKey key = (SelectionKey) i.next();
-               SelectableChannel channel = key.channel();
-               synchronized(channel.blockingLock()) {
-                   RubyIO originalIO = (RubyIO) TypeConverter.convertToType(
-                           (IRubyObject) key.attachment(), runtime.getIO(), "to_io");
-                   boolean blocking = originalIO.getBlocking();
-                   key.cancel();
-                   channel.configureBlocking(blocking);
+               if (r.size() == 0 && w.size() == 0 && e.size() == 0) {
+                   return runtime.getNil();
                }
-           }
-           selector.close();
            
-           if (r.size() == 0 && w.size() == 0 && e.size() == 0) {
-               return runtime.getNil();
-           }
-           
-           List ret = new ArrayList();
+               List ret = new ArrayList();
            
-           ret.add(RubyArray.newArray(runtime, r));
-           ret.add(RubyArray.newArray(runtime, w));
-           ret.add(RubyArray.newArray(runtime, e));
+               ret.add(RubyArray.newArray(runtime, r));
+               ret.add(RubyArray.newArray(runtime, w));
+               ret.add(RubyArray.newArray(runtime, e));
            
-           return RubyArray.newArray(runtime, ret);
+               return RubyArray.newArray(runtime, ret);
+           } finally {
+               // make all sockets blocking as configured again; returning the
+               // selector cancels and flushes their keys first
+               Set<SelectionKey> keys = new HashSet<SelectionKey>(selector.keys());
+               runtime.getSelectorPool().put(selector);
+               for (SelectionKey key : keys) {
+                   SelectableChannel channel = key.channel();
+                   synchronized(channel.blockingLock()) {
+                       RubyIO originalIO = (RubyIO) TypeConverter.convertToType(
+                               (IRubyObject) key.attachment(), runtime.getIO(), "to_io");
+                       boolean blocking = originalIO.getBlocking();
+                       channel.configureBlocking(blocking);
+                   }
+               }
+           }
        } catch(IOException e) {
            throw runtime.newIOError(e.getMessage());
        }
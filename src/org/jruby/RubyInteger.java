@@ -41,7 +41,6 @@ import static org.jruby.util.Numeric.f_lcm;
 import org.jruby.anno.JRubyClass;
 import org.jruby.anno.JRubyMethod;
 import org.jruby.runtime.Block;
-import org.jruby.runtime.BlockBody;
 import org.jruby.runtime.ObjectAllocator;
 import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.builtin.IRubyObject;
@@ -122,16 +121,7 @@ public abstract class RubyInteger extends RubyNumeric {
             final long toValue = toFixnum.getLongValue();
             final long fromValue = getLongValue();
 
-            if (block.getBody().getArgumentType() == BlockBody.ZERO_ARGS) {
-                final IRubyObject nil = runtime.getNil();
-                for (long i = fromValue; i <= toValue; i++) {
-                    block.yield(context, nil);
-                }
-            } else {
-                for (long i = fromValue; i <= toValue; i++) {
-                    block.yield(context, RubyFixnum.newFixnum(runtime, i));
-                }
-            }
+            if (fromValue <= toValue) block.yieldSpecificLoop(context, fromValue, toValue, 1);
         } else {
             RubyNumeric i = this;
 
@@ -162,16 +152,9 @@ public abstract class RubyInteger extends RubyNumeric {
         if (this instanceof RubyFixnum && to instanceof RubyFixnum) {
             RubyFixnum toFixnum = (RubyFixnum) to;
             final long toValue = toFixnum.getLongValue();
-            if (block.getBody().getArgumentType() == BlockBody.ZERO_ARGS) {
-                final IRubyObject nil = runtime.getNil();
-                for (long i = getLongValue(); i >= toValue; i--) {
-                    block.yield(context, nil);
-                }
-            } else {
-                for (long i = getLongValue(); i >= toValue; i--) {
-                    block.yield(context, RubyFixnum.newFixnum(getRuntime(), i));
-                }
-            }
+            final long fromValue = getLongValue();
+
+            if (fromValue >= toValue) block.yieldSpecificLoop(context, fromValue, toValue, -1);
         } else {
             RubyNumeric i = this;
 
@@ -197,16 +180,7 @@ public abstract class RubyInteger extends RubyNumeric {
 
         if (this instanceof RubyFixnum) {
             final long value = getLongValue();
-            if (block.getBody().getArgumentType() == BlockBody.ZERO_ARGS) {
-                final IRubyObject nil = runtime.getNil();
-                for (long i = 0; i < value; i++) {
-                    block.yield(context, nil);
-                }
-            } else {
-                for (long i = 0; i < value; i++) {
-                    block.yield(context, RubyFixnum.newFixnum(runtime, i));
-                }
-            }
+            if (value > 0) block.yieldSpecificLoop(context, 0, value - 1, 1);
         } else {
             RubyNumeric i = RubyFixnum.zero(runtime);
             while (true) {
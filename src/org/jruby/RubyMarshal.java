@@ -32,8 +32,6 @@
  ***** END LICENSE BLOCK *****/
 package org.jruby;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -100,10 +98,12 @@ public class RubyMarshal {
                 dumpToStream(objectToDump, outputStream(io), depthLimit);
                 return io;
             }
-			ByteArrayOutputStream stringOutput = new ByteArrayOutputStream();
-			dumpToStream(objectToDump, stringOutput, depthLimit);
 
-            return RubyString.newString(recv.getRuntime(), new ByteList(stringOutput.toByteArray(),false));
+            // marshal straight into the bytes of the result string
+            ByteList stringOutput = new ByteList();
+            new MarshalStream(recv.getRuntime(), stringOutput, depthLimit).dumpObject(objectToDump);
+
+            return RubyString.newString(recv.getRuntime(), stringOutput);
 
         } catch (IOException ioe) {
             throw recv.getRuntime().newIOErrorFromException(ioe);
@@ -146,18 +146,15 @@ public class RubyMarshal {
             	in = args[0];
             }
 
-            InputStream rawInput;
+            UnmarshalStream input;
             if (in != null && in.respondsTo("read")) {
-                rawInput = inputStream(in);
+                input = new UnmarshalStream(recv.getRuntime(), inputStream(in), proc);
             } else if (in != null && in.respondsTo("to_str")) {
                 RubyString inString = (RubyString) RuntimeHelpers.invoke(context, in, "to_str");
-                ByteList bytes = inString.getByteList();
-                rawInput = new ByteArrayInputStream(bytes.unsafeBytes(), bytes.begin(), bytes.length());
+                input = new UnmarshalStream(recv.getRuntime(), inString.getByteList(), proc);
             } else {
                 throw recv.getRuntime().newTypeError("instance of IO needed");
             }
-            
-            UnmarshalStream input = new UnmarshalStream(recv.getRuntime(), rawInput, proc);
 
             return input.unmarshalObject();
 
@@ -36,7 +36,6 @@ import org.jruby.anno.JRubyClass;
 import org.jruby.exceptions.JumpException;
 import org.jruby.internal.runtime.methods.DynamicMethod;
 import org.jruby.runtime.Block;
-import org.jruby.runtime.CallbackFactory;
 import org.jruby.runtime.MethodBlock;
 import org.jruby.runtime.ObjectAllocator;
 import org.jruby.runtime.ThreadContext;
@@ -153,10 +152,8 @@ public class RubyMethod extends RubyObject {
      */
     @JRubyMethod(name = "to_proc", frame = true)
     public IRubyObject to_proc(ThreadContext context, Block unusedBlock) {
-        Ruby runtime = context.getRuntime();
-        CallbackFactory f = runtime.callbackFactory(RubyMethod.class);
         Block block = MethodBlock.createMethodBlock(context, context.getCurrentScope(), 
-                f.getBlockMethod("bmcall"), this, runtime.getTopSelf());
+                this, context.getRuntime().getTopSelf());
         
         while (true) {
             try {
@@ -187,23 +184,6 @@ public class RubyMethod extends RubyObject {
         }
     }
 
-    /** Delegate a block call to a bound method call.
-     *
-     * Used by the RubyMethod#to_proc method.
-     *
-     */
-    public static IRubyObject bmcall(IRubyObject blockArg, IRubyObject arg1,
-            IRubyObject self, Block unusedBlock) {
-        ThreadContext context = blockArg.getRuntime().getCurrentContext();
-        
-        if (blockArg instanceof RubyArray) {
-            // ENEBO: Very wrong
-            return ((RubyMethod) arg1).call(context, ((RubyArray) blockArg).toJavaArray(), Block.NULL_BLOCK);
-        }
-        // ENEBO: Very wrong
-        return ((RubyMethod) arg1).call(context, new IRubyObject[] { blockArg }, Block.NULL_BLOCK);
-    }
-
     @JRubyMethod(name = "unbind", frame = true)
     public RubyUnboundMethod unbind(Block unusedBlock) {
         RubyUnboundMethod unboundMethod =
@@ -220,6 +220,7 @@ public class RubyModule extends RubyObject {
         // if (parent == null) parent = runtime.getObject();
         setFlag(USER7_F, !isClass());
         generation = new Generation();
+        if (!isSingleton() && !isIncluded()) runtime.getObjectSpace().registerModule(this);
     }
 
     /** separate path for MetaClass construction
@@ -231,6 +232,7 @@ public class RubyModule extends RubyObject {
         // if (parent == null) parent = runtime.getObject();
         setFlag(USER7_F, !isClass());
         this.generation = generation;
+        if (!isSingleton() && !isIncluded()) runtime.getObjectSpace().registerModule(this);
     }
     
     /** used by MODULE_ALLOCATOR and RubyClass constructors
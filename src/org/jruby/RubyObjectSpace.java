@@ -38,6 +38,7 @@ import java.util.Iterator;
 import org.jruby.anno.JRubyMethod;
 import org.jruby.anno.JRubyModule;
 import org.jruby.runtime.Block;
+import org.jruby.runtime.ObjectSpace;
 import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.Visibility;
 import org.jruby.runtime.builtin.IRubyObject;
@@ -117,29 +118,19 @@ public class RubyObjectSpace {
             rubyClass = (RubyModule) args[0];
         }
         Ruby runtime = recv.getRuntime();
+        // Module, Class and their subclasses are always available from the
+        // module registry; anything else needs the full-heap object list
+        if (!ObjectSpace.isModuleKind(rubyClass) && !runtime.isObjectSpaceEnabled()) {
+            throw runtime.newRuntimeError("ObjectSpace is disabled; each_object will only work with Class and Module, pass +O to enable");
+        }
+
         int count = 0;
-        if (rubyClass != runtime.getClassClass()) {
-            if (!runtime.isObjectSpaceEnabled()) {
-                throw runtime.newRuntimeError("ObjectSpace is disabled; each_object will only work with Class, pass +O to enable");
-            }
-            Iterator iter = recv.getRuntime().getObjectSpace().iterator(rubyClass);
-            
-            IRubyObject obj = null;
-            while ((obj = (IRubyObject)iter.next()) != null) {
-                count++;
-                block.yield(context, obj);
-            }
-        } else {
-            Iterator iter = runtime.getObject().subclasses(true).iterator();
-            
-            while (iter.hasNext()) {
-                IRubyObject obj = (IRubyObject)iter.next();
-                if (obj instanceof RubyClass && ((RubyClass)obj).isIncluded()) {
-                    continue;
-                }
-                count++;
-                block.yield(context, obj);
-            }
+        Iterator iter = runtime.getObjectSpace().iterator(rubyClass);
+
+        IRubyObject obj = null;
+        while ((obj = (IRubyObject)iter.next()) != null) {
+            count++;
+            block.yield(context, obj);
         }
         return recv.getRuntime().newFixnum(count);
     }
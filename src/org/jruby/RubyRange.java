@@ -377,11 +377,10 @@ public class RubyRange extends RubyObject {
         final Ruby runtime = context.getRuntime();
 
         if (begin instanceof RubyFixnum && end instanceof RubyFixnum) {
-            long lim = ((RubyFixnum) end).getLongValue();
-            if (!isExclusive) lim++;
-
-            for (long i = ((RubyFixnum) begin).getLongValue(); i < lim; i++) {
-                block.yield(context, RubyFixnum.newFixnum(runtime, i));
+            long first = ((RubyFixnum) begin).getLongValue();
+            long last = ((RubyFixnum) end).getLongValue();
+            if (isExclusive ? first < last : first <= last) {
+                block.yieldSpecificLoop(context, first, isExclusive ? last - 1 : last, 1);
             }
         } else if (begin instanceof RubyString) {
             ((RubyString) begin).upto(context, end, isExclusive, block);
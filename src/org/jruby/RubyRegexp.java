@@ -35,10 +35,8 @@
  ***** END LICENSE BLOCK *****/
 package org.jruby;
 
-import java.lang.ref.SoftReference;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.joni.Matcher;
 import org.joni.NameEntry;
@@ -68,7 +66,9 @@ import org.jruby.runtime.marshal.MarshalStream;
 import org.jruby.runtime.marshal.UnmarshalStream;
 import org.jruby.util.ByteList;
 import org.jruby.util.KCode;
+import org.jruby.util.SafePropertyAccessor;
 import org.jruby.util.TypeConverter;
+import org.jruby.util.collections.SegmentedLRUCache;
 
 @JRubyClass(name="Regexp")
 public class RubyRegexp extends RubyObject implements ReOptions, WarnCallback, EncodingCapable {
@@ -137,16 +137,38 @@ public class RubyRegexp extends RubyObject implements ReOptions, WarnCallback, E
         return pattern.getEncoding();
     }
 
-    private static Map<ByteList, Regex> getPatternCache() {
-        Map<ByteList, Regex> cache = patternCache.get();
-        if (cache == null) {
-            cache = new ConcurrentHashMap<ByteList, Regex>(5);
-            patternCache = new SoftReference<Map<ByteList, Regex>>(cache);
-        }
-        return cache;
+    // compiled patterns for literals and Regexp.new, keyed by source
+    private static final SegmentedLRUCache<ByteList, Regex> patternCache = new SegmentedLRUCache<ByteList, Regex>(
+            SafePropertyAccessor.getInt("jruby.regexp.cache.size", 1024), 16);
+
+    // interpolated regexps are kept apart so their churn can't evict the literals above
+    private static final SegmentedLRUCache<ByteList, Regex> dynamicPatternCache = new SegmentedLRUCache<ByteList, Regex>(
+            SafePropertyAccessor.getInt("jruby.regexp.dcache.size", 256), 16);
+
+    private static final AtomicLong compileCount = new AtomicLong();
+    private static final AtomicLong compileTime = new AtomicLong();
+
+    public static SegmentedLRUCache<ByteList, Regex> getPatternCache() {
+        return patternCache;
+    }
+
+    public static SegmentedLRUCache<ByteList, Regex> getDynamicPatternCache() {
+        return dynamicPatternCache;
+    }
+
+    /**
+     * Number of patterns compiled because they were not found in either cache.
+     */
+    public static long getCompileCount() {
+        return compileCount.get();
     }
 
-    static volatile SoftReference<Map<ByteList, Regex>> patternCache = new SoftReference<Map<ByteList, Regex>>(null);    
+    /**
+     * Total time spent compiling those patterns, in nanoseconds.
+     */
+    public static long getCompileTime() {
+        return compileTime.get();
+    }
 
     public static RubyClass createRegexpClass(Ruby runtime) {
         RubyClass regexpClass = runtime.defineClass("Regexp", runtime.getObject(), REGEXP_ALLOCATOR);
@@ -200,6 +222,14 @@ public class RubyRegexp extends RubyObject implements ReOptions, WarnCallback, E
         regexp.setLiteral();
         return regexp;
     }
+
+    // used only by the compiler/interpreter for interpolated regexps (will set the literal flag)
+    public static RubyRegexp newDRegexp(Ruby runtime, ByteList pattern, int options) {
+        RubyRegexp regexp = new RubyRegexp(runtime);
+        regexp.initialize(pattern, options, false, dynamicPatternCache);
+        regexp.setLiteral();
+        return regexp;
+    }
     
     public static RubyRegexp newRegexp(Ruby runtime, ByteList pattern, int options, boolean quote) {
         RubyRegexp regexp = new RubyRegexp(runtime);
@@ -301,13 +331,16 @@ public class RubyRegexp extends RubyObject implements ReOptions, WarnCallback, E
 
     private static final int REGEX_QUOTED = 1;
     private void initialize(ByteList bytes, int options, boolean quote) {
+        initialize(bytes, options, quote, patternCache);
+    }
+
+    private void initialize(ByteList bytes, int options, boolean quote, SegmentedLRUCache<ByteList, Regex> cache) {
         if (!isTaint() && getRuntime().getSafeLevel() >= 4) throw getRuntime().newSecurityError("Insecure: can't modify regexp");
         checkFrozen();
         if (isLiteral()) throw getRuntime().newSecurityError("can't modify literal regexp");
 
         setKCode(options);
 
-        Map<ByteList, Regex> cache = getPatternCache();
         Regex pat = cache.get(bytes);
 
         if (pat != null &&
@@ -316,6 +349,7 @@ public class RubyRegexp extends RubyObject implements ReOptions, WarnCallback, E
             ((pat.getUserOptions() & REGEX_QUOTED) != 0) == quote) { // cache hit
             pattern = pat;
         } else {
+            long start = System.nanoTime();
             if (quote) {
                 ByteList quoted = quote(bytes, getRuntime().getKCode());
                 makeRegexp(quoted, quoted.begin, quoted.realSize, options & 0xf, kcode.getEncoding());
@@ -323,7 +357,10 @@ public class RubyRegexp extends RubyObject implements ReOptions, WarnCallback, E
             } else {
                 makeRegexp(bytes, bytes.begin, bytes.realSize, options & 0xf, kcode.getEncoding());
             }
-            cache.put(bytes, pattern);
+            compileTime.addAndGet(System.nanoTime() - start);
+            compileCount.incrementAndGet();
+            // copy the key; the source may belong to a string that is mutated later
+            cache.put(new ByteList(bytes), pattern);
         }
 
         str = bytes;
@@ -49,6 +49,7 @@ import static org.jruby.util.StringSupport.CR_VALID;
 import static org.jruby.util.StringSupport.codeLength;
 import static org.jruby.util.StringSupport.codePoint;
 import static org.jruby.util.StringSupport.codeRangeScan;
+import static org.jruby.util.StringSupport.equalBytes;
 import static org.jruby.util.StringSupport.searchNonAscii;
 import static org.jruby.util.StringSupport.strLengthWithCodeRange;
 import static org.jruby.util.StringSupport.unpackArg;
@@ -56,6 +57,7 @@ import static org.jruby.util.StringSupport.unpackResult;
 
 import java.io.UnsupportedEncodingException;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import org.joni.Matcher;
 import org.joni.Option;
@@ -105,11 +107,25 @@ public class RubyString extends RubyObject implements EncodingCapable {
     private static final int SHARE_LEVEL_BUFFER = 1;
     // string doesn't have it's own ByteList (values)
     private static final int SHARE_LEVEL_BYTELIST = 2;
+    // string shares a buffer prefix with another string, but owns the bytes past its end
+    private static final int SHARE_LEVEL_TAIL = 3;
+
+    private static final AtomicIntegerFieldUpdater<RubyString> SHARE_LEVEL_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(RubyString.class, "shareLevel");
+
+    // results of + at least this long get spare capacity so that s = s + x can
+    // keep appending into the same buffer
+    private static final int PLUS_HEADROOM_THRESHOLD = 128;
 
     private volatile int shareLevel = SHARE_LEVEL_NONE;
 
     private ByteList value;
 
+    // a backing array this string allocated itself, so a SHARE_LEVEL_NONE
+    // string may write past its end only while value.bytes is this array;
+    // a NONE string can also be a view into a caller's byte[]
+    private byte[] ownedBytes;
+
     private static ObjectAllocator STRING_ALLOCATOR = new ObjectAllocator() {
         public IRubyObject allocate(Ruby runtime, RubyClass klass) {
             return RubyString.newEmptyString(runtime, klass);
@@ -292,7 +308,7 @@ public class RubyString extends RubyObject implements EncodingCapable {
         return other.getMetaClass() == getRuntime().getString();
     }
     private final boolean eqlString(IRubyObject other) {
-        return value.equal(((RubyString)other).value);
+        return equalBytes(value, ((RubyString)other).value);
     }
 
     public RubyString(Ruby runtime, RubyClass rubyClass, CharSequence value) {
@@ -587,6 +603,7 @@ public class RubyString extends RubyObject implements EncodingCapable {
             } else {
                 value.unshare();
             }
+            ownedBytes = value.bytes;
             shareLevel = SHARE_LEVEL_NONE;
         }
 
@@ -605,14 +622,18 @@ public class RubyString extends RubyObject implements EncodingCapable {
         modifyCheck();
 
         if (shareLevel != SHARE_LEVEL_NONE) {
+            // callers may ask for less than the current length before truncating
             if (shareLevel == SHARE_LEVEL_BYTELIST) {
-                value = value.dup(length);
+                value = value.dup(Math.max(length, value.realSize));
             } else {
-                value.unshare(length);
+                value.unshare(Math.max(length, value.realSize));
             }
+            ownedBytes = value.bytes;
             shareLevel = SHARE_LEVEL_NONE;
         } else {
+            byte[] bytes = value.bytes;
             value.ensure(length);
+            if (value.bytes != bytes) ownedBytes = value.bytes;
         }
 
         value.invalidate();
@@ -622,11 +643,25 @@ public class RubyString extends RubyObject implements EncodingCapable {
         modify(length);
         clearCodeRange();
     }
+
+    /**
+     * Like modify(length), but a string owning the tail of a shared buffer
+     * appends into that tail in place while it fits.
+     */
+    private final void modifyForAppend(int length) {
+        if (shareLevel == SHARE_LEVEL_TAIL && value.begin + length <= value.bytes.length) {
+            modifyCheck();
+            value.invalidate();
+        } else {
+            modify(length);
+        }
+    }
     
     private final void view(ByteList bytes) {
         modifyCheck();
 
         value = bytes;
+        ownedBytes = null;
         shareLevel = SHARE_LEVEL_NONE;
     }
 
@@ -634,6 +669,7 @@ public class RubyString extends RubyObject implements EncodingCapable {
         modifyCheck();        
 
         value.replace(bytes);
+        ownedBytes = null;
         shareLevel = SHARE_LEVEL_NONE;
 
         value.invalidate();        
@@ -649,6 +685,8 @@ public class RubyString extends RubyObject implements EncodingCapable {
                 shareLevel = SHARE_LEVEL_BUFFER;
             } else {
                 value.view(index, len);
+                // the bytes past the new end may belong to the other sharer
+                shareLevel = SHARE_LEVEL_BUFFER;
             }
         } else {        
             value.view(index, len);
@@ -754,13 +792,13 @@ public class RubyString extends RubyObject implements EncodingCapable {
 
             return other.callMethod(context, "==", this).isTrue() ? runtime.getTrue() : runtime.getFalse();
         }
-        return value.equal(((RubyString)other).value) ? runtime.getTrue() : runtime.getFalse();
+        return equalBytes(value, ((RubyString)other).value) ? runtime.getTrue() : runtime.getFalse();
     }
 
     @JRubyMethod(name = "+", required = 1, compat = CompatVersion.RUBY1_8)
     public IRubyObject op_plus(ThreadContext context, IRubyObject other) {
         RubyString str = other.convertToString();
-        RubyString resultStr = newString(context.getRuntime(), addByteLists(value, str.value));
+        RubyString resultStr = plus(context.getRuntime(), str);
         if (isTaint() || str.isTaint()) resultStr.setTaint(true);
         return resultStr;
     }
@@ -769,18 +807,50 @@ public class RubyString extends RubyObject implements EncodingCapable {
     public IRubyObject op_plus19(ThreadContext context, IRubyObject other) {
         RubyString str = other.convertToString();
         Encoding enc = checkEncoding(str);
-        RubyString resultStr = newStringNoCopy(context.getRuntime(), addByteLists(value, str.value),
-                                    enc, codeRangeAnd(getCodeRange(), str.getCodeRange()));
+        RubyString resultStr = plus(context.getRuntime(), str);
+        resultStr.setEncodingAndCodeRange(enc, codeRangeAnd(getCodeRange(), str.getCodeRange()));
         if (isTaint() || str.isTaint()) resultStr.setTaint(true);
         return resultStr;
     }
 
-    private ByteList addByteLists(ByteList value1, ByteList value2) {
-        ByteList result = new ByteList(value1.realSize + value2.realSize);
-        result.realSize = value1.realSize + value2.realSize;
-        System.arraycopy(value1.bytes, value1.begin, result.bytes, 0, value1.realSize);
-        System.arraycopy(value2.bytes, value2.begin, result.bytes, value1.realSize, value2.realSize);
-        return result;
+    /**
+     * A new string holding this + str. When this string owns the spare
+     * capacity past its end (it is a TAIL, or a NONE string still on a buffer
+     * it allocated), str is copied there and the result shares the
+     * buffer, so building a string with repeated s = s + x only copies the
+     * appended bytes. Only one result may claim a given tail; the claim flips
+     * this string to SHARE_LEVEL_BUFFER so it copies before its next write.
+     * A buffer whose unused bytes would dwarf the result is not shared, so a
+     * short sum can't pin a large, mostly empty array.
+     */
+    private RubyString plus(Ruby runtime, RubyString str) {
+        ByteList other = str.value;
+        int len = value.realSize;
+        int total = len + other.realSize;
+        int level = shareLevel;
+
+        if ((level == SHARE_LEVEL_TAIL || (level == SHARE_LEVEL_NONE && value.bytes == ownedBytes)) &&
+                value.begin + total <= value.bytes.length &&
+                value.bytes.length - total <= Math.max(total, PLUS_HEADROOM_THRESHOLD) &&
+                SHARE_LEVEL_UPDATER.compareAndSet(this, level, SHARE_LEVEL_BUFFER)) {
+            byte[] bytes = value.bytes;
+            System.arraycopy(other.bytes, other.begin, bytes, value.begin + len, other.realSize);
+            ByteList result = new ByteList(bytes, false);
+            result.begin = value.begin;
+            result.realSize = total;
+            RubyString resultStr = newStringNoCopy(runtime, result);
+            resultStr.shareLevel = SHARE_LEVEL_TAIL;
+            return resultStr;
+        }
+
+        int capacity = total >= PLUS_HEADROOM_THRESHOLD ? total + (total >> 1) : total;
+        ByteList result = new ByteList(capacity);
+        result.realSize = total;
+        System.arraycopy(value.bytes, value.begin, result.bytes, 0, len);
+        System.arraycopy(other.bytes, other.begin, result.bytes, len, other.realSize);
+        RubyString resultStr = newStringNoCopy(runtime, result);
+        resultStr.ownedBytes = result.bytes;
+        return resultStr;
     }
 
     @JRubyMethod(name = "*", required = 1, compat = CompatVersion.RUBY1_8)
@@ -855,7 +925,7 @@ public class RubyString extends RubyObject implements EncodingCapable {
         if (other instanceof RubyString) {
             RubyString string = (RubyString) other;
 
-            if (string.value.equal(value)) return true;
+            if (equalBytes(string.value, value)) return true;
         }
 
         return false;
@@ -899,28 +969,28 @@ public class RubyString extends RubyObject implements EncodingCapable {
     }
 
     public RubyString cat(byte[] str) {
-        modify(value.realSize + str.length);
+        modifyForAppend(value.realSize + str.length);
         System.arraycopy(str, 0, value.bytes, value.begin + value.realSize, str.length);
         value.realSize += str.length;
         return this;
     }
 
     public RubyString cat(byte[] str, int beg, int len) {
-        modify(value.realSize + len);        
+        modifyForAppend(value.realSize + len);
         System.arraycopy(str, beg, value.bytes, value.begin + value.realSize, len);
         value.realSize += len;
         return this;
     }
 
     public RubyString cat(ByteList str) {
-        modify(value.realSize + str.realSize);
+        modifyForAppend(value.realSize + str.realSize);
         System.arraycopy(str.bytes, str.begin, value.bytes, value.begin + value.realSize, str.realSize);
         value.realSize += str.realSize;
         return this;
     }
 
     public RubyString cat(byte ch) {
-        modify(value.realSize + 1);        
+        modifyForAppend(value.realSize + 1);
         value.bytes[value.begin + value.realSize] = ch;
         value.realSize++;
         return this;
@@ -940,6 +1010,7 @@ public class RubyString extends RubyObject implements EncodingCapable {
         otherStr.shareLevel = shareLevel = SHARE_LEVEL_BYTELIST;
 
         value = otherStr.value;
+        ownedBytes = null;
 
         infectBy(other);
         return this;
@@ -1134,7 +1205,7 @@ public class RubyString extends RubyObject implements EncodingCapable {
     public IRubyObject str_eql_p(ThreadContext context, IRubyObject other) {
         if (!(other instanceof RubyString)) return context.getRuntime().getFalse();
         RubyString otherString = (RubyString)other;
-        return value.equal(otherString.value) ? context.getRuntime().getTrue() : context.getRuntime().getFalse();
+        return equalBytes(value, otherString.value) ? context.getRuntime().getTrue() : context.getRuntime().getFalse();
     }
 
     /** rb_str_upcase
@@ -3733,14 +3804,13 @@ public class RubyString extends RubyObject implements EncodingCapable {
      *
      */
     public RubySymbol intern() {
-        String s = toString();
-        if (s.length() == 0) {
+        if (value.realSize == 0) {
             throw getRuntime().newArgumentError("interning empty string");
         }
-        if (s.indexOf('\0') >= 0) {
+        if (value.indexOf('\0') >= 0) {
             throw getRuntime().newArgumentError("symbol string may not contain '\\0'");
         }
-        return getRuntime().newSymbol(s);
+        return RubySymbol.newDynamicSymbol(getRuntime(), value);
     }
 
     @JRubyMethod(name = {"to_sym", "intern"})
@@ -3837,6 +3907,7 @@ public class RubyString extends RubyObject implements EncodingCapable {
 
     public void empty() {
         value = ByteList.EMPTY_BYTELIST;
+        ownedBytes = null;
         shareLevel = SHARE_LEVEL_BYTELIST;
     }
 
@@ -50,6 +50,7 @@ import org.jruby.runtime.marshal.UnmarshalStream;
 import org.jruby.util.ByteList;
 import org.jruby.util.IdUtil;
 import org.jruby.common.IRubyWarnings.ID;
+import org.jruby.compiler.util.StructClassFactory;
 import org.jruby.exceptions.RaiseException;
 import org.jruby.internal.runtime.methods.CallConfiguration;
 import org.jruby.internal.runtime.methods.DynamicMethod;
@@ -60,6 +61,7 @@ import org.jruby.runtime.ClassIndex;
  */
 @JRubyClass(name="Struct")
 public class RubyStruct extends RubyObject {
+    // null in the field-backed subclasses generated by StructClassFactory
     private IRubyObject[] values;
 
     /**
@@ -68,14 +70,62 @@ public class RubyStruct extends RubyObject {
      * @param rubyClass
      */
     public RubyStruct(Ruby runtime, RubyClass rubyClass) {
+        this(runtime, rubyClass, newNilArray(runtime, RubyNumeric.fix2int(getInternalVariable(rubyClass, "__size__"))));
+    }
+
+    /**
+     * Constructor for subclasses; those that keep members in fields of
+     * their own pass null for values and override fieldGet, fieldSet and
+     * fieldCount.
+     */
+    protected RubyStruct(Ruby runtime, RubyClass rubyClass, IRubyObject[] values) {
         super(runtime, rubyClass);
-        
-        int size = RubyNumeric.fix2int(getInternalVariable((RubyClass)rubyClass, "__size__"));
 
-        values = new IRubyObject[size];
+        this.values = values;
+    }
+
+    private static IRubyObject[] newNilArray(Ruby runtime, int size) {
+        IRubyObject[] values = new IRubyObject[size];
 
         for (int i = 0; i < size; i++) {
-            values[i] = getRuntime().getNil();
+            values[i] = runtime.getNil();
+        }
+        return values;
+    }
+
+    /** The value of member index, which must be in range. */
+    protected IRubyObject fieldGet(int index) {
+        return values[index];
+    }
+
+    /** Store value in member index, which must be in range, without checks. */
+    protected void fieldSet(int index, IRubyObject value) {
+        values[index] = value;
+    }
+
+    /** The number of members. */
+    protected int fieldCount() {
+        return values.length;
+    }
+
+    private IRubyObject[] fieldValues() {
+        int size = fieldCount();
+        IRubyObject[] copy = new IRubyObject[size];
+        for (int i = 0; i < size; i++) {
+            copy[i] = fieldGet(i);
+        }
+        return copy;
+    }
+
+    private void copyFieldsFrom(RubyStruct original) {
+        if (values != null) {
+            values = original.fieldValues();
+        } else if (original.fieldCount() != fieldCount()) {
+            throw getRuntime().newTypeError("struct size differs");
+        } else {
+            for (int i = 0, size = fieldCount(); i < size; i++) {
+                fieldSet(i, original.fieldGet(i));
+            }
         }
     }
 
@@ -115,7 +165,7 @@ public class RubyStruct extends RubyObject {
         return getMetaClass() instanceof MetaClass ? getMetaClass().getSuperClass() : getMetaClass();
     }
 
-    private void modify() {
+    public void modify() {
         testFrozen("Struct is frozen");
 
         if (!isTaint() && getRuntime().getSafeLevel() >= 4) {
@@ -128,42 +178,43 @@ public class RubyStruct extends RubyObject {
         Ruby runtime = getRuntime();
         int h = getMetaClass().getRealClass().hashCode();
 
-        for (int i = 0; i < values.length; i++) {
+        for (int i = 0, size = fieldCount(); i < size; i++) {
             h = (h << 1) | (h < 0 ? 1 : 0);
-            h ^= RubyNumeric.num2long(values[i].callMethod(context, "hash"));
+            h ^= RubyNumeric.num2long(fieldGet(i).callMethod(context, "hash"));
         }
         
         return runtime.newFixnum(h);
     }
 
-    private IRubyObject setByName(String name, IRubyObject value) {
+    /**
+     * The index of the member named by a String or Symbol key. Members are
+     * kept as interned Symbols, so they are compared by identity.
+     */
+    private int memberIndex(IRubyObject key) {
         RubyArray member = (RubyArray) getInternalVariable(classOf(), "__member__");
 
         assert !member.isNil() : "uninitialized struct";
 
-        modify();
-
+        // lookup rather than newSymbol, so unknown names don't get interned
+        IRubyObject symbol = key instanceof RubySymbol ? key : getRuntime().getSymbolTable().lookup(key.asJavaString());
         for (int i = 0,k=member.getLength(); i < k; i++) {
-            if (member.eltInternal(i).asJavaString().equals(name)) {
-                return values[i] = value;
-            }
+            if (member.eltInternal(i) == symbol) return i;
         }
 
-        throw notStructMemberError(name);
+        throw notStructMemberError(key.asJavaString());
     }
 
-    private IRubyObject getByName(String name) {
-        RubyArray member = (RubyArray) getInternalVariable(classOf(), "__member__");
+    private IRubyObject setByName(IRubyObject key, IRubyObject value) {
+        int index = memberIndex(key);
 
-        assert !member.isNil() : "uninitialized struct";
+        modify();
+        fieldSet(index, value);
 
-        for (int i = 0,k=member.getLength(); i < k; i++) {
-            if (member.eltInternal(i).asJavaString().equals(name)) {
-                return values[i];
-            }
-        }
+        return value;
+    }
 
-        throw notStructMemberError(name);
+    private IRubyObject getByName(IRubyObject key) {
+        return fieldGet(memberIndex(key));
     }
 
     // Struct methods
@@ -224,11 +275,20 @@ public class RubyStruct extends RubyObject {
 
         newStruct.getSingletonClass().defineAnnotatedMethods(StructMethods.class);
 
-        // define access methods.
+        // define access methods, reading fields directly when the struct
+        // is small enough to have a generated field-backed class
+        ObjectAllocator fieldAllocator = StructClassFactory.getAllocator(member.getLength());
+        if (fieldAllocator != null) newStruct.setAllocator(fieldAllocator);
+
         for (int i = (name == null && !nilName) ? 0 : 1; i < args.length; i++) {
             final String memberName = args[i].asJavaString();
             // if we are storing a name as well, index is one too high for values
             final int index = (name == null && !nilName) ? i : i - 1;
+            if (fieldAllocator != null) {
+                newStruct.addMethod(memberName, StructClassFactory.newGetter(newStruct, index));
+                newStruct.addMethod(memberName + "=", StructClassFactory.newSetter(newStruct, index));
+                continue;
+            }
             newStruct.addMethod(memberName, new DynamicMethod(newStruct, Visibility.PUBLIC, CallConfiguration.NO_FRAME_NO_SCOPE) {
                 @Override
                 public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, IRubyObject[] args, Block block) {
@@ -293,7 +353,8 @@ public class RubyStruct extends RubyObject {
      *
      */
     public static RubyStruct newStruct(IRubyObject recv, IRubyObject[] args, Block block) {
-        RubyStruct struct = new RubyStruct(recv.getRuntime(), (RubyClass) recv);
+        RubyClass type = (RubyClass) recv;
+        RubyStruct struct = (RubyStruct) type.getAllocator().allocate(recv.getRuntime(), type);
 
         struct.callInit(args, block);
 
@@ -304,14 +365,14 @@ public class RubyStruct extends RubyObject {
     public IRubyObject initialize(IRubyObject[] args, Block unusedBlock) {
         modify();
 
-        int size = RubyNumeric.fix2int(getInternalVariable(getMetaClass(), "__size__"));
+        int size = fieldCount();
 
         if (args.length > size) {
             throw getRuntime().newArgumentError("struct size differs (" + args.length +" for " + size + ")");
         }
 
         for (int i = 0; i < args.length; i++) {
-            values[i] = args[i];
+            fieldSet(i, args[i]);
         }
 
         return getRuntime().getNil();
@@ -339,9 +400,10 @@ public class RubyStruct extends RubyObject {
     public RubyArray select(ThreadContext context, Block block) {
         RubyArray array = RubyArray.newArray(context.getRuntime());
         
-        for (int i = 0; i < values.length; i++) {
-            if (block.yield(context, values[i]).isTrue()) {
-                array.append(values[i]);
+        for (int i = 0, size = fieldCount(); i < size; i++) {
+            IRubyObject value = fieldGet(i);
+            if (block.yield(context, value).isTrue()) {
+                array.append(value);
             }
         }
         
@@ -349,13 +411,10 @@ public class RubyStruct extends RubyObject {
     }
 
     public IRubyObject set(IRubyObject value, int index) {
-        RubyArray member = (RubyArray) getInternalVariable(classOf(), "__member__");
-
-        assert !member.isNil() : "uninitialized struct";
-
         modify();
+        fieldSet(index, value);
 
-        return values[index] = value;
+        return value;
     }
 
     private RaiseException notStructMemberError(String name) {
@@ -363,18 +422,12 @@ public class RubyStruct extends RubyObject {
     }
 
     public IRubyObject get(int index) {
-        RubyArray member = (RubyArray) getInternalVariable(classOf(), "__member__");
-
-        assert !member.isNil() : "uninitialized struct";
-
-        return values[index];
+        return fieldGet(index);
     }
 
     @Override
     public void copySpecialInstanceVariables(IRubyObject clone) {
-        RubyStruct struct = (RubyStruct)clone;
-        struct.values = new IRubyObject[values.length];
-        System.arraycopy(values, 0, struct.values, 0, values.length);
+        ((RubyStruct) clone).copyFieldsFrom(this);
     }
 
     @JRubyMethod(name = "==", required = 1)
@@ -385,8 +438,8 @@ public class RubyStruct extends RubyObject {
         
         Ruby runtime = getRuntime();
         RubyStruct otherStruct = (RubyStruct)other;
-        for (int i = 0; i < values.length; i++) {
-            if (!equalInternal(context, values[i], otherStruct.values[i])) return runtime.getFalse();
+        for (int i = 0, size = fieldCount(); i < size; i++) {
+            if (!equalInternal(context, fieldGet(i), otherStruct.fieldGet(i))) return runtime.getFalse();
         }
         return runtime.getTrue();
     }
@@ -399,8 +452,8 @@ public class RubyStruct extends RubyObject {
         
         Ruby runtime = getRuntime();
         RubyStruct otherStruct = (RubyStruct)other;
-        for (int i = 0; i < values.length; i++) {
-            if (!eqlInternal(context, values[i], otherStruct.values[i])) return runtime.getFalse();
+        for (int i = 0, size = fieldCount(); i < size; i++) {
+            if (!eqlInternal(context, fieldGet(i), otherStruct.fieldGet(i))) return runtime.getFalse();
         }
         return runtime.getTrue();        
     }
@@ -422,7 +475,7 @@ public class RubyStruct extends RubyObject {
             // FIXME: MRI has special case for constants here 
             buffer.append(RubyString.objAsString(context, member.eltInternal(i)).getByteList());
             buffer.append('=');
-            buffer.append(inspect(context, values[i]).getByteList());
+            buffer.append(inspect(context, fieldGet(i)).getByteList());
         }
 
         buffer.append('>');
@@ -443,18 +496,18 @@ public class RubyStruct extends RubyObject {
 
     @JRubyMethod(name = {"to_a", "values"})
     public RubyArray to_a() {
-        return getRuntime().newArray(values);
+        return getRuntime().newArrayNoCopy(fieldValues());
     }
 
     @JRubyMethod(name = {"size", "length"} )
     public RubyFixnum size() {
-        return getRuntime().newFixnum(values.length);
+        return getRuntime().newFixnum(fieldCount());
     }
 
     @JRubyMethod(name = "each", backtrace = true)
     public IRubyObject each(ThreadContext context, Block block) {
-        for (int i = 0; i < values.length; i++) {
-            block.yield(context, values[i]);
+        for (int i = 0, size = fieldCount(); i < size; i++) {
+            block.yield(context, fieldGet(i));
         }
 
         return this;
@@ -471,8 +524,8 @@ public class RubyStruct extends RubyObject {
 
         assert !member.isNil() : "uninitialized struct";
 
-        for (int i = 0; i < values.length; i++) {
-            block.yield(context, getRuntime().newArrayNoCopy(new IRubyObject[]{member.eltInternal(i), values[i]}));
+        for (int i = 0, size = fieldCount(); i < size; i++) {
+            block.yield(context, getRuntime().newArrayNoCopy(new IRubyObject[]{member.eltInternal(i), fieldGet(i)}));
         }
 
         return this;
@@ -486,40 +539,39 @@ public class RubyStruct extends RubyObject {
     @JRubyMethod(name = "[]", required = 1)
     public IRubyObject aref(IRubyObject key) {
         if (key instanceof RubyString || key instanceof RubySymbol) {
-            return getByName(key.asJavaString());
-        }
-
-        int idx = RubyNumeric.fix2int(key);
-
-        idx = idx < 0 ? values.length + idx : idx;
-
-        if (idx < 0) {
-            throw getRuntime().newIndexError("offset " + idx + " too large for struct (size:" + values.length + ")");
-        } else if (idx >= values.length) {
-            throw getRuntime().newIndexError("offset " + idx + " too large for struct (size:" + values.length + ")");
+            return getByName(key);
         }
 
-        return values[idx];
+        return fieldGet(checkIndex(key));
     }
 
     @JRubyMethod(name = "[]=", required = 2)
     public IRubyObject aset(IRubyObject key, IRubyObject value) {
         if (key instanceof RubyString || key instanceof RubySymbol) {
-            return setByName(key.asJavaString(), value);
+            return setByName(key, value);
         }
 
+        int idx = checkIndex(key);
+
+        modify();
+        fieldSet(idx, value);
+
+        return value;
+    }
+
+    private int checkIndex(IRubyObject key) {
+        int size = fieldCount();
         int idx = RubyNumeric.fix2int(key);
 
-        idx = idx < 0 ? values.length + idx : idx;
+        idx = idx < 0 ? size + idx : idx;
 
         if (idx < 0) {
-            throw getRuntime().newIndexError("offset " + idx + " too large for struct (size:" + values.length + ")");
-        } else if (idx >= values.length) {
-            throw getRuntime().newIndexError("offset " + idx + " too large for struct (size:" + values.length + ")");
+            throw getRuntime().newIndexError("offset " + idx + " too large for struct (size:" + size + ")");
+        } else if (idx >= size) {
+            throw getRuntime().newIndexError("offset " + idx + " too large for struct (size:" + size + ")");
         }
 
-        modify();
-        return values[idx] = value;
+        return idx;
     }
     
     // FIXME: This is copied code from RubyArray.  Both RE, Struct, and Array should share one impl
@@ -527,7 +579,7 @@ public class RubyStruct extends RubyObject {
     // of something lower.
     @JRubyMethod(rest = true)
     public IRubyObject values_at(IRubyObject[] args) {
-        int olen = values.length;
+        int olen = fieldCount();
         RubyArray result = getRuntime().newArray(args.length);
 
         for (int i = 0; i < args.length; i++) {
@@ -565,7 +617,7 @@ public class RubyStruct extends RubyObject {
         for (int i = 0; i < members.size(); i++) {
             RubySymbol name = (RubySymbol) members.get(i);
             output.dumpObject(name);
-            output.dumpObject(struct.values[i]);
+            output.dumpObject(struct.fieldGet(i));
         }
     }
 
@@ -617,10 +669,7 @@ public class RubyStruct extends RubyObject {
     @JRubyMethod(required = 1)
     public IRubyObject initialize_copy(IRubyObject arg) {
         if (this == arg) return this;
-        RubyStruct original = (RubyStruct) arg;
-        
-        values = new IRubyObject[original.values.length];
-        System.arraycopy(original.values, 0, values, 0, original.values.length);
+        copyFieldsFrom((RubyStruct) arg);
 
         return this;
     }
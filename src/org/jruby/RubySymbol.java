@@ -36,17 +36,18 @@
  ***** END LICENSE BLOCK *****/
 package org.jruby;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.jruby.anno.JRubyMethod;
 import org.jruby.anno.JRubyClass;
 import org.jruby.common.IRubyWarnings.ID;
-import org.jruby.javasupport.util.RuntimeHelpers;
 import org.jruby.runtime.ClassIndex;
 import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.SymbolBlock;
 import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.Block;
-import org.jruby.runtime.BlockCallback;
 import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.runtime.marshal.UnmarshalStream;
 import org.jruby.util.ByteList;
@@ -59,6 +60,7 @@ public class RubySymbol extends RubyObject {
     private final String symbol;
     private final int id;
     private final ByteList symbolBytes;
+    private RubyProc toProc;
     
     /**
      * 
@@ -139,6 +141,14 @@ public class RubySymbol extends RubyObject {
         return runtime.getSymbolTable().getSymbol(name);
     }
 
+    /**
+     * Get or create a symbol from user-supplied bytes. Unlike {@link #newSymbol},
+     * a symbol created here may be reclaimed once it is no longer referenced.
+     */
+    public static RubySymbol newDynamicSymbol(Ruby runtime, ByteList bytes) {
+        return runtime.getSymbolTable().getDynamicSymbol(bytes);
+    }
+
     @JRubyMethod(name = "to_i")
     public RubyFixnum to_i() {
         return getRuntime().newFixnum(id);
@@ -296,43 +306,21 @@ public class RubySymbol extends RubyObject {
         return context.getRuntime().getEncodingService().getEncoding(symbolBytes.encoding);
     }
 
-    private static class ToProcCallback implements BlockCallback {
-        private RubySymbol symbol;
-        public ToProcCallback(RubySymbol symbol) {
-            this.symbol = symbol;
-        }
-
-        public IRubyObject call(ThreadContext ctx, IRubyObject[] args, Block blk) {
-            IRubyObject[] currentArgs = args;
-            switch(currentArgs.length) {
-            case 0: throw symbol.getRuntime().newArgumentError("no receiver given");
-            case 1: {
-                if((currentArgs[0] instanceof RubyArray) && ((RubyArray)currentArgs[0]).getLength() != 0) {
-                    // This is needed to unpack stuff
-                    currentArgs = ((RubyArray)currentArgs[0]).toJavaArrayMaybeUnsafe();
-                    IRubyObject[] args2 = new IRubyObject[currentArgs.length-1];
-                    System.arraycopy(currentArgs, 1, args2, 0, args2.length);
-                    return RuntimeHelpers.invoke(ctx, currentArgs[0], symbol.symbol, args2);
-                } else {
-                    return RuntimeHelpers.invoke(ctx, currentArgs[0], symbol.symbol);
-                }
-            }
-            default: {
-                IRubyObject[] args2 = new IRubyObject[currentArgs.length-1];
-                System.arraycopy(currentArgs, 1, args2, 0, args2.length);
-                return RuntimeHelpers.invoke(ctx, currentArgs[0], symbol.symbol, args2);
-            }
-            }
+    /**
+     * The proc is made once per symbol and kept, so every map(&:name) shares
+     * one proc and with it one call site.
+     */
+    @JRubyMethod(name = "to_proc", compat = CompatVersion.RUBY1_9)
+    public IRubyObject to_proc(ThreadContext context) {
+        RubyProc proc = toProc;
+        if (proc == null) {
+            Ruby runtime = context.getRuntime();
+            proc = RubyProc.newProc(runtime, SymbolBlock.newSymbolBlock(runtime, this, symbol), Block.Type.PROC);
+            toProc = proc;
         }
+        return proc;
     }
-    /*
-    @JRubyMethod
-    public IRubyObject to_proc() {
-        return RubyProc.newProc(getRuntime(),
-                                CallBlock.newCallClosure(this, getRuntime().getSymbol(), Arity.noArguments(), new ToProcCallback(this), getRuntime().getCurrentContext()),
-                                Block.Type.PROC);
-    }
-    */
+
     private static boolean isIdentStart(char c) {
         return ((c >= 'a' && c <= 'z')|| (c >= 'A' && c <= 'Z')
                 || c == '_');
@@ -468,12 +456,24 @@ public class RubySymbol extends RubyObject {
         return result;
     }
 
+    /**
+     * The runtime's table of symbols.
+     *
+     * Symbols created by the runtime, the parser and compiled code through
+     * {@link #getSymbol(String)} or {@link #fastGetSymbol(String)} are pinned
+     * for the life of the runtime. Symbols created dynamically from user data
+     * (String#to_sym, interpolated :"..." literals) through
+     * {@link #getDynamicSymbol(ByteList)} are only weakly held, and their entries
+     * are reclaimed once nothing references the symbol any more. A dynamic
+     * symbol that is later requested through the pinning paths becomes pinned.
+     */
     public static class SymbolTable {
         static final int DEFAULT_INITIAL_CAPACITY = 2048; // *must* be power of 2!
         static final int MAXIMUM_CAPACITY = 1 << 30;
         static final float DEFAULT_LOAD_FACTOR = 0.75f;
         
         private final ReentrantLock tableLock = new ReentrantLock();
+        private final ReferenceQueue<RubySymbol> staleSymbols = new ReferenceQueue<RubySymbol>();
         private volatile SymbolEntry[] symbolTable;
         private int size;
         private int threshold;
@@ -490,51 +490,74 @@ public class RubySymbol extends RubyObject {
         // note all fields are final -- rehash creates new entries when necessary.
         // as documented in java.util.concurrent.ConcurrentHashMap.java, that will
         // statistically affect only a small percentage (< 20%) of entries for a given rehash.
+        // Exactly one of symbol (pinned) and reference (reclaimable) is non-null.
         static class SymbolEntry {
             final int hash;
             final String name;
             final RubySymbol symbol;
+            final SymbolReference reference;
             final SymbolEntry next;
             
-            SymbolEntry(int hash, String name, RubySymbol symbol, SymbolEntry next) {
+            SymbolEntry(int hash, String name, RubySymbol symbol, SymbolReference reference, SymbolEntry next) {
                 this.hash = hash;
                 this.name = name;
                 this.symbol = symbol;
+                this.reference = reference;
                 this.next = next;
             }
+
+            RubySymbol get() {
+                return symbol != null ? symbol : reference.get();
+            }
+
+            /**
+             * Compare against raw symbol bytes. Symbol names are built from bytes one
+             * char per byte (see RubyString.byteListToString), so this is equivalent
+             * to comparing against the decoded String without creating it.
+             */
+            boolean matches(byte[] bytes, int begin, int length) {
+                String n = name;
+                if (n.length() != length) return false;
+                for (int i = 0; i < length; i++) {
+                    if (n.charAt(i) != (bytes[begin + i] & 0xff)) return false;
+                }
+                return true;
+            }
+        }
+
+        static class SymbolReference extends WeakReference<RubySymbol> {
+            final int hash;
+
+            SymbolReference(RubySymbol symbol, int hash, ReferenceQueue<RubySymbol> queue) {
+                super(symbol, queue);
+                this.hash = hash;
+            }
+        }
+
+        /**
+         * Same value as String.hashCode() on the String RubyString.byteListToString
+         * would produce for these bytes.
+         */
+        private static int hashBytes(byte[] bytes, int begin, int length) {
+            int h = 0;
+            for (int i = begin, end = begin + length; i < end; i++) {
+                h = 31 * h + (bytes[i] & 0xff);
+            }
+            return h;
         }
 
         public RubySymbol getSymbol(String name) {
             int hash = name.hashCode();
             SymbolEntry[] table;
             for (SymbolEntry e = (table = symbolTable)[hash & (table.length - 1)]; e != null; e = e.next) {
-                if (hash == e.hash && name.equals(e.name)) {
+                if (hash == e.hash && name.equals(e.name) && e.symbol != null) {
                     return e.symbol;
                 }
             }
             ReentrantLock lock;
             (lock = tableLock).lock();
             try {
-                int potentialNewSize;
-                if ((potentialNewSize = size + 1) > threshold) {
-                    table = rehash(); 
-                } else {
-                    table = symbolTable;
-                }
-                int index;
-                // try lookup again under lock
-                for (SymbolEntry e = table[index = hash & (table.length - 1)]; e != null; e = e.next) {
-                    if (hash == e.hash && name.equals(e.name)) {
-                        return e.symbol;
-                    }
-                }
-                String internedName;
-                RubySymbol symbol = new RubySymbol(runtime, internedName = name.intern());
-                table[index] = new SymbolEntry(hash, internedName, symbol, table[index]);
-                size = potentialNewSize;
-                // write-volatile
-                symbolTable = table;
-                return symbol;
+                return getPinnedSymbolUnderLock(hash, name, false);
             } finally {
                 lock.unlock();
             }
@@ -544,30 +567,56 @@ public class RubySymbol extends RubyObject {
             //            assert internedName == internedName.intern() : internedName + " is not interned";
             SymbolEntry[] table;
             for (SymbolEntry e = (table = symbolTable)[internedName.hashCode() & (table.length - 1)]; e != null; e = e.next) {
-                if (internedName == e.name) {
+                if (internedName == e.name && e.symbol != null) {
                     return e.symbol;
                 }
             }
             ReentrantLock lock;
             (lock = tableLock).lock();
             try {
-                int potentialNewSize;
-                if ((potentialNewSize = size + 1) > threshold) {
-                    table = rehash();
-                } else {
-                    table = symbolTable;
+                return getPinnedSymbolUnderLock(internedName.hashCode(), internedName, true);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Look up a symbol by its raw bytes, creating a reclaimable symbol if none
+         * exists. Lookups of existing symbols do not allocate.
+         */
+        public RubySymbol getDynamicSymbol(ByteList bytes) {
+            byte[] b = bytes.unsafeBytes();
+            int begin = bytes.begin();
+            int length = bytes.length();
+            int hash = hashBytes(b, begin, length);
+            SymbolEntry[] table;
+            for (SymbolEntry e = (table = symbolTable)[hash & (table.length - 1)]; e != null; e = e.next) {
+                if (hash == e.hash && e.matches(b, begin, length)) {
+                    RubySymbol symbol = e.get();
+                    if (symbol != null) return symbol;
+                    break;
                 }
-                int index;
-                int hash;
+            }
+            ReentrantLock lock;
+            (lock = tableLock).lock();
+            try {
+                expungeStaleEntries();
+                table = tableForInsert();
+                int index = hash & (table.length - 1);
                 // try lookup again under lock
-                for (SymbolEntry e = table[index = (hash = internedName.hashCode()) & (table.length - 1)]; e != null; e = e.next) {
-                    if (internedName == e.name) {
-                        return e.symbol;
+                for (SymbolEntry e = table[index]; e != null; e = e.next) {
+                    if (hash == e.hash && e.matches(b, begin, length)) {
+                        RubySymbol symbol = e.get();
+                        if (symbol != null) return symbol;
+                        // cleared but not yet enqueued; drop it and create anew
+                        removeEntry(table, index, e);
+                        break;
                     }
                 }
-                RubySymbol symbol = new RubySymbol(runtime, internedName);
-                table[index] = new SymbolEntry(hash, internedName, symbol, table[index]);
-                size = potentialNewSize;
+                RubySymbol symbol = new RubySymbol(runtime, RubyString.byteListToString(bytes).intern());
+                SymbolReference reference = new SymbolReference(symbol, hash, staleSymbols);
+                table[index] = new SymbolEntry(hash, symbol.symbol, null, reference, table[index]);
+                size++;
                 // write-volatile
                 symbolTable = table;
                 return symbol;
@@ -575,6 +624,74 @@ public class RubySymbol extends RubyObject {
                 lock.unlock();
             }
         }
+
+        private RubySymbol getPinnedSymbolUnderLock(int hash, String name, boolean interned) {
+            expungeStaleEntries();
+            SymbolEntry[] table = tableForInsert();
+            int index = hash & (table.length - 1);
+            // try lookup again under lock
+            for (SymbolEntry e = table[index]; e != null; e = e.next) {
+                if (hash == e.hash && (interned ? name == e.name : name.equals(e.name))) {
+                    if (e.symbol != null) return e.symbol;
+
+                    RubySymbol symbol = e.get();
+                    removeEntry(table, index, e);
+                    if (symbol != null) {
+                        // a live dynamic symbol is now wanted by the runtime; pin it
+                        table[index] = new SymbolEntry(hash, e.name, symbol, null, table[index]);
+                        size++;
+                        symbolTable = table;
+                        return symbol;
+                    }
+                    break;
+                }
+            }
+            String internedName = interned ? name : name.intern();
+            RubySymbol symbol = new RubySymbol(runtime, internedName);
+            table[index] = new SymbolEntry(hash, internedName, symbol, null, table[index]);
+            size++;
+            // write-volatile
+            symbolTable = table;
+            return symbol;
+        }
+
+        private SymbolEntry[] tableForInsert() {
+            return size + 1 > threshold ? rehash() : symbolTable;
+        }
+
+        /**
+         * Unlink entry from the chain at index, cloning the entries in front of
+         * it as ConcurrentHashMap does, so concurrent readers never see a broken
+         * chain. Must be called under the table lock.
+         */
+        private void removeEntry(SymbolEntry[] table, int index, SymbolEntry entry) {
+            SymbolEntry first = table[index];
+            SymbolEntry newFirst = entry.next;
+            for (SymbolEntry p = first; p != entry; p = p.next) {
+                newFirst = new SymbolEntry(p.hash, p.name, p.symbol, p.reference, newFirst);
+            }
+            table[index] = newFirst;
+            size--;
+        }
+
+        /**
+         * Remove entries for dynamic symbols that have been garbage collected.
+         * Must be called under the table lock.
+         */
+        private void expungeStaleEntries() {
+            SymbolReference stale;
+            while ((stale = (SymbolReference)staleSymbols.poll()) != null) {
+                SymbolEntry[] table = symbolTable;
+                int index = stale.hash & (table.length - 1);
+                for (SymbolEntry e = table[index]; e != null; e = e.next) {
+                    if (e.reference == stale) {
+                        removeEntry(table, index, e);
+                        symbolTable = table;
+                        break;
+                    }
+                }
+            }
+        }
         
         // backwards-compatibility, but threadsafe now
         public RubySymbol lookup(String name) {
@@ -582,7 +699,7 @@ public class RubySymbol extends RubyObject {
             SymbolEntry[] table;
             for (SymbolEntry e = (table = symbolTable)[hash & (table.length - 1)]; e != null; e = e.next) {
                 if (hash == e.hash && name.equals(e.name)) {
-                    return e.symbol;
+                    return e.get();
                 }
             }
             return null;
@@ -592,8 +709,9 @@ public class RubySymbol extends RubyObject {
             SymbolEntry[] table = symbolTable;
             for (int i = table.length; --i >= 0; ) {
                 for (SymbolEntry e = table[i]; e != null; e = e.next) {
-                    if (id == e.symbol.id) {
-                        return e.symbol;
+                    RubySymbol symbol = e.get();
+                    if (symbol != null && id == symbol.id) {
+                        return symbol;
                     }
                 }
             }
@@ -605,11 +723,20 @@ public class RubySymbol extends RubyObject {
             RubyArray array = runtime.newArray(this.size);
             for (int i = table.length; --i >= 0; ) {
                 for (SymbolEntry e = table[i]; e != null; e = e.next) {
-                    array.append(e.symbol);
+                    RubySymbol symbol = e.get();
+                    if (symbol != null) array.append(symbol);
                 }
             }
             return array;
         }
+
+        /**
+         * Number of entries in the table, including dynamic symbols that have been
+         * collected but not yet expunged.
+         */
+        public int size() {
+            return size;
+        }
         
         // not so backwards-compatible here, but no one should have been
         // calling this anyway.
@@ -662,7 +789,7 @@ public class RubySymbol extends RubyObject {
                         for (SymbolEntry p = e; p != lastRun; p = p.next) {
                             int k = p.hash & sizeMask;
                             SymbolEntry n = newTable[k];
-                            newTable[k] = new SymbolEntry(p.hash, p.name, p.symbol, n);
+                            newTable[k] = new SymbolEntry(p.hash, p.name, p.symbol, p.reference, n);
                         }
                     }
                 }
@@ -834,7 +834,7 @@ public class RubyThread extends RubyObject {
                     selectable.configureBlocking(false);
                     
                     io.addBlockingThread(this);
-                    currentSelector = selectable.provider().openSelector();
+                    currentSelector = getRuntime().getSelectorPool().get(selectable.provider());
 
                     SelectionKey key = selectable.register(currentSelector, ops);
 
@@ -855,14 +855,14 @@ public class RubyThread extends RubyObject {
                 } catch (IOException ioe) {
                     throw io.getRuntime().newRuntimeError("Error with selector: " + ioe);
                 } finally {
-                    if (currentSelector != null) {
-                        try {
-                            currentSelector.close();
-                        } catch (IOException ioe) {
-                            throw io.getRuntime().newRuntimeError("Could not close selector");
-                        }
-                    }
+                    // clear the field first, so interrupt() cannot wake a selector
+                    // that another thread has already borrowed from the pool
+                    Selector selector = currentSelector;
                     currentSelector = null;
+                    if (selector != null) {
+                        // cancels our key, so the channel can block again below
+                        getRuntime().getSelectorPool().put(selector);
+                    }
                     io.removeBlockingThread(this);
                     try {
                         selectable.configureBlocking(oldBlocking);
@@ -881,6 +881,33 @@ public class RubyThread extends RubyObject {
         }
     }
     
+    /**
+     * Select on a selector owned by the caller. Like the other blocking
+     * operations this can be woken by Thread#raise and Thread#kill, whose
+     * events are then delivered. A negative timeout waits indefinitely and
+     * zero does not wait at all.
+     */
+    public int select(Selector selector, long timeout) throws IOException {
+        pollThreadEvents();
+        int selected;
+        try {
+            currentSelector = selector;
+            beforeBlockingCall();
+            if (timeout < 0) {
+                selected = selector.select();
+            } else if (timeout == 0) {
+                selected = selector.selectNow();
+            } else {
+                selected = selector.select(timeout);
+            }
+        } finally {
+            afterBlockingCall();
+            currentSelector = null;
+        }
+        pollThreadEvents();
+        return selected;
+    }
+
     public void interrupt() {
         Selector selector = currentSelector;
         if (selector != null) {
@@ -27,7 +27,9 @@
  ***** END LICENSE BLOCK *****/
 package org.jruby;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import java.util.Iterator;
 import java.util.List;
@@ -50,13 +52,16 @@ import org.jruby.runtime.Visibility;
 
 import org.jruby.yaml.JRubyRepresenter;
 import org.jruby.yaml.JRubyConstructor;
+import org.jruby.yaml.JRubyParser;
 import org.jruby.yaml.JRubySerializer;
+import org.jruby.yaml.JRubyStreamingComposer;
+import org.jruby.util.ByteList;
 import org.jruby.util.IOInputStream;
 import org.jruby.util.IOOutputStream;
 
 import org.jvyamlb.Representer;
 import org.jvyamlb.Constructor;
-import org.jvyamlb.ParserImpl;
+import org.jvyamlb.Parser;
 import org.jvyamlb.PositioningParserImpl;
 import org.jvyamlb.Scanner;
 import org.jvyamlb.ScannerImpl;
@@ -73,6 +78,8 @@ import org.jvyamlb.YAML;
 import org.jvyamlb.PositioningScanner;
 import org.jvyamlb.Positionable;
 import org.jvyamlb.Position;
+import org.jvyamlb.events.CollectionStartEvent;
+import org.jvyamlb.events.MappingStartEvent;
 
 /**
  * @author <a href="mailto:ola.bini@ki.se">Ola Bini</a>
@@ -163,15 +170,14 @@ public class RubyYAML {
         ThreadContext context = self.getRuntime().getCurrentContext();
         RubyArray objs = (RubyArray)args[0];
         IRubyObject io = null;
-        IRubyObject io2 = null;
         if(args.length == 2 && args[1] != null && !args[1].isNil()) {
             io = args[1];
         }
         YAMLConfig cfg = YAML.config().version("1.0");
-        IOOutputStream iox = null;
+        OutputStream iox = null;
         if(null == io) {
-            io2 = self.getRuntime().fastGetClass("StringIO").callMethod(context, "new");
-            iox = new IOOutputStream(io2);
+            // nothing to stream to; collect the bytes here rather than via a StringIO
+            iox = new ByteArrayOutputStream();
         } else {
             iox = new IOOutputStream(io);
         }
@@ -187,8 +193,7 @@ public class RubyYAML {
             throw self.getRuntime().newIOErrorFromException(e);
         }
         if(null == io) {
-            io2.callMethod(context, "rewind");
-            return io2.callMethod(context, "read");
+            return self.getRuntime().newString(new ByteList(((ByteArrayOutputStream)iox).toByteArray(), false));
         } else {
             return io;
         }
@@ -208,7 +213,7 @@ public class RubyYAML {
             Composer ctor = 
                 debug ?
                 new PositioningComposerImpl(new PositioningParserImpl((PositioningScanner)scn,YAML.config().version("1.0")),new ResolverImpl()) :
-                new ComposerImpl(new ParserImpl(scn,YAML.config().version("1.0")),new ResolverImpl())
+                new ComposerImpl(new JRubyParser(scn,YAML.config().version("1.0")),new ResolverImpl())
                 ;
             if(ctor.checkNode()) {
                 return JavaEmbedUtils.javaToRuby(self.getRuntime(),ctor.getNode());
@@ -238,7 +243,7 @@ public class RubyYAML {
             Constructor ctor = 
                 debug ?
                 new JRubyConstructor(self, new PositioningComposerImpl(new PositioningParserImpl((PositioningScanner)scn,YAML.config().version("1.0")),new ResolverImpl())) :
-                new JRubyConstructor(self, new ComposerImpl(new ParserImpl(scn,YAML.config().version("1.0")),new ResolverImpl()))
+                new JRubyConstructor(self, new ComposerImpl(new JRubyParser(scn,YAML.config().version("1.0")),new ResolverImpl()))
                 ;
             if(ctor.checkData()) {
                 return JavaEmbedUtils.javaToRuby(self.getRuntime(),ctor.getData());
@@ -279,7 +284,7 @@ public class RubyYAML {
             Constructor ctor = 
                 debug ?
                 new JRubyConstructor(self, new PositioningComposerImpl(new PositioningParserImpl((PositioningScanner)scn,YAML.config().version("1.0")),new ResolverImpl())) :
-                new JRubyConstructor(self, new ComposerImpl(new ParserImpl(scn,YAML.config().version("1.0")),new ResolverImpl()))
+                new JRubyConstructor(self, new ComposerImpl(new JRubyParser(scn,YAML.config().version("1.0")),new ResolverImpl()))
                 ;
             while(ctor.checkData()) {
                 block.yield(context, JavaEmbedUtils.javaToRuby(self.getRuntime(),ctor.getData()));
@@ -310,7 +315,7 @@ public class RubyYAML {
             Constructor ctor = 
                 debug ?
                 new JRubyConstructor(self, new PositioningComposerImpl(new PositioningParserImpl((PositioningScanner)scn,YAML.config().version("1.0")),new ResolverImpl())) :
-                new JRubyConstructor(self, new ComposerImpl(new ParserImpl(scn,YAML.config().version("1.0")),new ResolverImpl()))
+                new JRubyConstructor(self, new ComposerImpl(new JRubyParser(scn,YAML.config().version("1.0")),new ResolverImpl()))
                 ;
             while(ctor.checkData()) {
                 block.yield(context, JavaEmbedUtils.javaToRuby(self.getRuntime(),ctor.getData()));
@@ -326,8 +331,12 @@ public class RubyYAML {
         }
     }
 
-    @JRubyMethod(name = "load_stream", required = 1, module = true, visibility = Visibility.PRIVATE)
-    public static IRubyObject load_stream(IRubyObject self, IRubyObject arg) {
+    @JRubyMethod(name = "load_stream", required = 1, frame = true, module = true, visibility = Visibility.PRIVATE)
+    public static IRubyObject load_stream(IRubyObject self, IRubyObject arg, Block block) {
+        if (block.isGiven()) {
+            // hand each document over as soon as it is built instead of collecting a Stream
+            return load_documents(self, arg, block);
+        }
         boolean debug = self.getRuntime().getDebug().isTrue();
         ThreadContext context = self.getRuntime().getCurrentContext();
         IRubyObject d = self.getRuntime().getNil();
@@ -342,7 +351,7 @@ public class RubyYAML {
             Constructor ctor = 
                 debug ?
                 new JRubyConstructor(self, new PositioningComposerImpl(new PositioningParserImpl((PositioningScanner)scn,YAML.config().version("1.0")),new ResolverImpl())) :
-                new JRubyConstructor(self, new ComposerImpl(new ParserImpl(scn,YAML.config().version("1.0")),new ResolverImpl()))
+                new JRubyConstructor(self, new ComposerImpl(new JRubyParser(scn,YAML.config().version("1.0")),new ResolverImpl()))
                 ;
             while(ctor.checkData()) {
                 if(d.isNil()) {
@@ -361,6 +370,61 @@ public class RubyYAML {
         }
     }
 
+    /**
+     * Yield the entries of each document one at a time: the elements of a
+     * root sequence, the key/value pairs of a root mapping, or the document
+     * itself for anything else. Entries are composed and constructed only as
+     * they are reached, so the whole document is never held at once.
+     */
+    @JRubyMethod(name = "each_node", required = 1, frame = true, module = true, visibility = Visibility.PRIVATE)
+    public static IRubyObject each_node(IRubyObject self, IRubyObject arg, Block block) {
+        Ruby runtime = self.getRuntime();
+        ThreadContext context = runtime.getCurrentContext();
+        IRubyObject io = check_yaml_port(arg);
+        try {
+            JRubyStreamingComposer composer = new JRubyStreamingComposer(newParser(runtime, io), new ResolverImpl());
+            while(composer.startDocument()) {
+                Constructor ctor = new JRubyConstructor(self, composer.getComposer());
+                CollectionStartEvent root = composer.startRootCollection();
+                if(root == null) {
+                    block.yield(context, JavaEmbedUtils.javaToRuby(runtime, ctor.constructDocument(composer.composeNode())));
+                } else {
+                    boolean mapping = root instanceof MappingStartEvent;
+                    while(composer.checkEntry()) {
+                        IRubyObject entry = JavaEmbedUtils.javaToRuby(runtime, ctor.constructDocument(composer.composeNode()));
+                        if(mapping) {
+                            entry = runtime.newArray(entry, JavaEmbedUtils.javaToRuby(runtime, ctor.constructDocument(composer.composeNode())));
+                        }
+                        block.yield(context, entry);
+                    }
+                    composer.endRootCollection();
+                }
+                composer.endDocument();
+            }
+            return runtime.getNil();
+        } catch(YAMLException e) {
+            if(runtime.getDebug().isTrue()) {
+                Position.Range range = ((Positionable)e).getRange();
+                throw runtime.newArgumentError("syntax error on " + range.start + ":" + range.end + ": " + e.getMessage());
+            } else {
+                throw runtime.newArgumentError("syntax error:" + e.getMessage());
+            }
+        }
+    }
+
+    private static Parser newParser(Ruby runtime, IRubyObject io) {
+        boolean debug = runtime.getDebug().isTrue();
+        Scanner scn = null;
+        if(io instanceof RubyString) {
+            scn = debug ? new PositioningScannerImpl(((RubyString)io).getByteList()) : new ScannerImpl(((RubyString)io).getByteList());
+        } else {
+            scn = debug ? new PositioningScannerImpl(new IOInputStream(io)) : new ScannerImpl(new IOInputStream(io));
+        }
+        return debug ?
+            new PositioningParserImpl((PositioningScanner)scn,YAML.config().version("1.0")) :
+            new JRubyParser(scn,YAML.config().version("1.0"));
+    }
+
     @JRubyMethod(name = "dump_stream", rest = true, module = true, visibility = Visibility.PRIVATE)
     public static IRubyObject dump_stream(IRubyObject self, IRubyObject[] args) {
         ThreadContext context = self.getRuntime().getCurrentContext();
@@ -427,11 +427,11 @@ public class RubyZlib {
         }
 
         protected boolean internalStreamEndP() {
-            return infl.getInflater().finished();
+            return infl.isFinished();
         }
 
         protected void internalEnd() {
-            infl.getInflater().end();
+            infl.end();
         }
 
         protected void internalReset() {
@@ -448,7 +448,7 @@ public class RubyZlib {
         }
 
         public IRubyObject finished_p() {
-            return infl.getInflater().finished() ? getRuntime().getTrue() : getRuntime().getFalse();
+            return infl.isFinished() ? getRuntime().getTrue() : getRuntime().getFalse();
         }
 
         protected int internalTotalIn() {
@@ -554,7 +554,7 @@ public class RubyZlib {
         }
 
         protected void internalEnd() {
-            defl.getDeflater().end();
+            defl.end();
         }
 
         protected void internalReset() {
@@ -752,6 +752,34 @@ public class RubyZlib {
         
         private int line;
         private InputStream io;
+
+        /**
+         * Inflated bytes not yet handed out. Line and byte reads scan this
+         * instead of pulling single bytes through the GZIPInputStream.
+         */
+        private final byte[] buffer = new byte[8192];
+        private int bufferPos;
+        private int bufferEnd;
+
+        /**
+         * Make sure there is buffered data, returning false at end of stream.
+         */
+        private boolean fill() throws IOException {
+            if (bufferPos < bufferEnd) {
+                return true;
+            }
+            int read = io.read(buffer, 0, buffer.length);
+            while (read == 0) {
+                read = io.read(buffer, 0, buffer.length);
+            }
+            bufferPos = 0;
+            bufferEnd = read < 0 ? 0 : read;
+            return read > 0;
+        }
+
+        private int readByte() throws IOException {
+            return fill() ? buffer[bufferPos++] & 0xff : -1;
+        }
         
         @JRubyMethod(name = "initialize", required = 1, frame = true, visibility = Visibility.PRIVATE)
         public IRubyObject initialize(IRubyObject io, Block unusedBlock) {
@@ -798,10 +826,21 @@ public class RubyZlib {
 
         private IRubyObject internalSepGets(ByteList sep) throws IOException {
             ByteList result = new ByteList();
-            int ce = io.read();
-            while (ce != -1 && sep.indexOf(ce) == -1) {
-                result.append((byte)ce);
-                ce = io.read();
+            int single = sep.realSize == 1 ? sep.bytes[sep.begin] & 0xff : -1;
+            while (fill()) {
+                int start = bufferPos;
+                int i = start;
+                if (single != -1) {
+                    while (i < bufferEnd && (buffer[i] & 0xff) != single) i++;
+                } else {
+                    while (i < bufferEnd && sep.indexOf(buffer[i] & 0xff) == -1) i++;
+                }
+                result.append(buffer, start, i - start);
+                if (i < bufferEnd) {
+                    bufferPos = i + 1;
+                    break;
+                }
+                bufferPos = bufferEnd;
             }
             line++;
             result.append(sep);
@@ -822,12 +861,19 @@ public class RubyZlib {
         @JRubyMethod(name = "read", optional = 1)
         public IRubyObject read(IRubyObject[] args) throws IOException {
             if (args.length == 0 || args[0].isNil()) {
-                ByteList val = new ByteList(10);
-                byte[] buffer = new byte[BUFF_SIZE];
-                int read = io.read(buffer);
-                while (read != -1) {
-                    val.append(buffer,0,read);
-                    read = io.read(buffer);
+                int buffered = bufferEnd - bufferPos;
+                ByteList val = new ByteList(buffered + BUFF_SIZE);
+                val.append(buffer, bufferPos, buffered);
+                bufferPos = bufferEnd;
+                while (true) {
+                    if (val.realSize == val.bytes.length) {
+                        val.ensure(val.bytes.length * 2);
+                    }
+                    int read = io.read(val.bytes, val.realSize, val.bytes.length - val.realSize);
+                    if (read == -1) {
+                        break;
+                    }
+                    val.realSize += read;
                 }
                 return RubyString.newString(getRuntime(),val);
             } 
@@ -836,19 +882,20 @@ public class RubyZlib {
             if (len < 0) {
             	throw getRuntime().newArgumentError("negative length " + len + " given");
             } else if (len > 0) {
-            	byte[] buffer = new byte[len];
-            	int toRead = len;
-            	int offset = 0;
-            	int read = 0;
-            	while (toRead > 0) {
-            		read = io.read(buffer,offset,toRead);
+                // whatever is already buffered, then inflate the rest straight
+                // into the result
+            	byte[] bytes = new byte[len];
+            	int offset = Math.min(len, bufferEnd - bufferPos);
+            	System.arraycopy(buffer, bufferPos, bytes, 0, offset);
+            	bufferPos += offset;
+            	while (offset < len) {
+            		int read = io.read(bytes, offset, len - offset);
             		if (read == -1) {
             			break;
             		}
-            		toRead -= read;
             		offset += read;
-            	} // hmm...
-            	return RubyString.newString(getRuntime(),new ByteList(buffer,0,len-toRead,false));
+            	}
+            	return RubyString.newString(getRuntime(),new ByteList(bytes,0,offset,false));
             }
                 
             return RubyString.newEmptyString(getRuntime());
@@ -867,7 +914,7 @@ public class RubyZlib {
         
         @JRubyMethod(name = "readchar")
         public IRubyObject readchar() throws IOException {
-            int value = io.read();
+            int value = readByte();
             if (value == -1) {
                 throw getRuntime().newEOFError();
             }
@@ -876,12 +923,12 @@ public class RubyZlib {
 
         @JRubyMethod(name = "getc")
         public IRubyObject getc() throws IOException {
-            int value = io.read();
+            int value = readByte();
             return value == -1 ? getRuntime().getNil() : getRuntime().newFixnum(value);
         }
 
         private boolean isEof() throws IOException {
-            return ((GZIPInputStream)io).available() != 1;
+            return !fill();
         }
 
         @JRubyMethod(name = "close")
@@ -953,11 +1000,11 @@ public class RubyZlib {
 
         @JRubyMethod(name = "each_byte", frame = true)
         public IRubyObject each_byte(ThreadContext context, Block block) throws IOException {
-            int value = io.read();
+            int value = readByte();
 
             while (value != -1) {
                 block.yield(context, getRuntime().newFixnum(value));
-                value = io.read();
+                value = readByte();
             }
             
             return getRuntime().getNil();
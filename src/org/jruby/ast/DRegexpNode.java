@@ -125,7 +125,7 @@ public class DRegexpNode extends ListNode implements ILiteralNode {
     
     private RubyRegexp createRegexp(Ruby runtime, RubyString string) {
         try {
-            return RubyRegexp.newRegexp(runtime, string.getByteList(), options);
+            return RubyRegexp.newDRegexp(runtime, string.getByteList(), options);
         } catch(Exception e) {
         //                    System.err.println(iVisited.getValue().toString());
         //                    e.printStackTrace();
@@ -47,6 +47,9 @@ import org.jruby.util.ByteList;
  * A string which contains some dynamic elements which needs to be evaluated (introduced by #).
  */
 public class DStrNode extends ListNode implements ILiteralNode {
+    // guess for the length of each interpolated (non-literal) piece
+    private static final int DYNAMIC_PIECE_SIZE = 16;
+
     public DStrNode(ISourcePosition position) {
         super(position, NodeType.DSTRNODE);
     }
@@ -65,8 +68,22 @@ public class DStrNode extends ListNode implements ILiteralNode {
         return buildDynamicString(runtime, context, self, aBlock, this);
     }
     
+    /**
+     * Initial buffer size for building list's string: the literal pieces plus
+     * a guess for each interpolated one, so most strings never need to grow.
+     */
+    public static int estimateSize(ListNode list) {
+        int estimate = 0;
+        int size = list.size();
+        for (int i = 0; i < size; i++) {
+            Node node = list.get(i);
+            estimate += node instanceof StrNode ? ((StrNode) node).getValue().length() : DYNAMIC_PIECE_SIZE;
+        }
+        return estimate;
+    }
+
     public static RubyString buildDynamicString(Ruby runtime, ThreadContext context, IRubyObject self, Block aBlock, ListNode list) {
-        RubyString string = runtime.newString(new ByteList());
+        RubyString string = runtime.newString(new ByteList(estimateSize(list)));
         
         int size = list.size();
         for (int i = 0; i < size; i++) {
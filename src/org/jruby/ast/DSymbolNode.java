@@ -31,6 +31,7 @@
 
 import org.jruby.Ruby;
 import org.jruby.RubyString;
+import org.jruby.RubySymbol;
 import org.jruby.ast.visitor.NodeVisitor;
 import org.jruby.evaluator.Instruction;
 import org.jruby.lexer.yacc.ISourcePosition;
@@ -69,6 +70,6 @@ public class DSymbolNode extends ListNode {
     public IRubyObject interpret(Ruby runtime, ThreadContext context, IRubyObject self, Block aBlock) {
         RubyString string = DStrNode.buildDynamicString(runtime, context, self, aBlock, this);
    
-        return runtime.newSymbol(string.toString());
+        return RubySymbol.newDynamicSymbol(runtime, string.getByteList());
     }
 }
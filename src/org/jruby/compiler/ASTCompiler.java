@@ -1862,7 +1862,7 @@ public class ASTCompiler {
                                         compile(dregexpNode.get(index), context);
                                     }
                                 };
-                        context.createNewString(dstrCallback, dregexpNode.size());
+                        context.createNewString(dstrCallback, dregexpNode.size(), DStrNode.estimateSize(dregexpNode));
                     }
                 };
 
@@ -1879,7 +1879,7 @@ public class ASTCompiler {
                         compile(dstrNode.get(index), context);
                     }
                 };
-        context.createNewString(dstrCallback, dstrNode.size());
+        context.createNewString(dstrCallback, dstrNode.size(), DStrNode.estimateSize(dstrNode));
     }
 
     public void compileDSymbol(Node node, BodyCompiler context) {
@@ -1918,7 +1918,7 @@ public class ASTCompiler {
                     }
                     
                     public void call(BodyCompiler context) {
-                        context.createNewString(dstrCallback, dxstrNode.size());
+                        context.createNewString(dstrCallback, dxstrNode.size(), DStrNode.estimateSize(dxstrNode));
                     }
                 };
 
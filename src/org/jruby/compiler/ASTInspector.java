@@ -113,6 +113,7 @@ public class ASTInspector {
     public static final int ZSUPER = 0x10000; // makes a zero-argument super call
     public static final int CONSTANT = 0x20000; // accesses or sets constants
     public static final int CLASS_VAR = 0x40000; // accesses or sets class variables
+    public static final int YIELD = 0x80000; // yields to the method's block
     
     private int flags;
     
@@ -531,6 +532,8 @@ public class ASTInspector {
             break;
         case SUPERNODE:
             SuperNode superNode = (SuperNode)node;
+            // super finds its target through the frame's name and class
+            setFlag(FRAME_NAME | FRAME_CLASS);
             inspect(superNode.getArgsNode());
             inspect(superNode.getIterNode());
             break;
@@ -589,6 +592,7 @@ public class ASTInspector {
         case XSTRNODE:
             break;
         case YIELDNODE:
+            setFlag(YIELD);
             inspect(((YieldNode)node).getArgsNode());
             break;
         case ZARRAYNODE:
@@ -654,6 +658,14 @@ public class ASTInspector {
     public boolean hasClassVar() {
         return getFlag(CLASS_VAR);
     }
+
+    /**
+     * Whether the tree yields. Compiled code passes the block along directly,
+     * but the interpreter looks it up from the current frame.
+     */
+    public boolean hasYield() {
+        return getFlag(YIELD);
+    }
     
     public boolean noFrame() {
         return noFrame;
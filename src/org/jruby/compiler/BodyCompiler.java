@@ -125,6 +125,11 @@ public interface BodyCompiler {
      * Generate a new dynamic "String" value.
      */
     public void createNewString(ArrayCallback callback, int count);
+
+    /**
+     * Generate a new dynamic "String" value, preallocating capacity bytes.
+     */
+    public void createNewString(ArrayCallback callback, int count, int capacity);
     public void createNewSymbol(ArrayCallback callback, int count);
 
     /**
@@ -376,8 +376,20 @@ public abstract class BaseBodyCompiler implements BodyCompiler {
     }
 
     public void createNewString(ArrayCallback callback, int count) {
+        createNewString(callback, count, 0);
+    }
+
+    public void createNewString(ArrayCallback callback, int count, int capacity) {
         loadRuntime();
-        invokeIRuby("newString", sig(RubyString.class, params()));
+        if (capacity > 0) {
+            method.newobj(p(ByteList.class));
+            method.dup();
+            method.pushInt(capacity);
+            method.invokespecial(p(ByteList.class), "<init>", sig(void.class, params(int.class)));
+            invokeIRuby("newString", sig(RubyString.class, params(ByteList.class)));
+        } else {
+            invokeIRuby("newString", sig(RubyString.class, params()));
+        }
         for (int i = 0; i < count; i++) {
             callback.nextValue(this, null, i);
             method.invokevirtual(p(RubyString.class), "append", sig(RubyString.class, params(IRubyObject.class)));
@@ -387,8 +399,8 @@ public abstract class BaseBodyCompiler implements BodyCompiler {
     public void createNewSymbol(ArrayCallback callback, int count) {
         loadRuntime();
         createNewString(callback, count);
-        toJavaString();
-        invokeIRuby("newSymbol", sig(RubySymbol.class, params(String.class)));
+        method.invokevirtual(p(RubyString.class), "getByteList", sig(ByteList.class));
+        method.invokestatic(p(RubySymbol.class), "newDynamicSymbol", sig(RubySymbol.class, params(Ruby.class, ByteList.class)));
     }
 
     public void createNewString(ByteList value) {
@@ -1025,7 +1037,7 @@ public abstract class BaseBodyCompiler implements BodyCompiler {
         method.invokevirtual(p(RubyString.class), "getByteList", sig(ByteList.class));
         method.pushInt(options);
 
-        method.invokestatic(p(RubyRegexp.class), "newRegexp", sig(RubyRegexp.class, params(Ruby.class, ByteList.class, Integer.TYPE))); //[reg]
+        method.invokestatic(p(RubyRegexp.class), "newDRegexp", sig(RubyRegexp.class, params(Ruby.class, ByteList.class, Integer.TYPE))); //[reg]
 
         // only alter the code if the /o flag was present
         if (onceOnly) {
@@ -0,0 +1,380 @@
+/*
+ ***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2008 The JRuby Community <www.jruby.org>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.compiler.util;
+
+import java.lang.reflect.Constructor;
+import org.jruby.Ruby;
+import org.jruby.RubyClass;
+import org.jruby.RubyModule;
+import org.jruby.RubyStruct;
+import org.jruby.compiler.impl.SkinnyMethodAdapter;
+import org.jruby.internal.runtime.methods.CallConfiguration;
+import org.jruby.internal.runtime.methods.DynamicMethod;
+import org.jruby.runtime.Arity;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.Visibility;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.util.JRubyClassLoader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import static org.jruby.util.CodegenUtils.*;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates RubyStruct subclasses that keep each member in a field of its
+ * own instead of in a values array, for structs of 1 to MAX_FIELDS members.
+ *
+ * The classes form a chain: org.jruby.gen.RubyStruct1 extends RubyStruct and
+ * adds field v0, RubyStruct2 extends RubyStruct1 and adds v1, and so on. A
+ * struct with n members is an instance of RubyStruct{n}, so the accessor for
+ * member i can cast to RubyStruct{i + 1} and read or write v{i} directly,
+ * whatever the size of the struct. The accessors are generated too, one
+ * class per member index, so that each reads a single field and can be
+ * inlined at a monomorphic call site.
+ *
+ * The generated classes only refer to JRuby core classes, so they are
+ * defined once and shared by every runtime.
+ */
+public class StructClassFactory {
+    public static final int MAX_FIELDS = 10;
+
+    private static final String PACKAGE = "org/jruby/gen/";
+
+    private static final Class<?>[] structClasses = new Class<?>[MAX_FIELDS + 1];
+    private static final ObjectAllocator[] allocators = new ObjectAllocator[MAX_FIELDS + 1];
+    private static final Constructor<?>[] getters = new Constructor<?>[MAX_FIELDS];
+    private static final Constructor<?>[] setters = new Constructor<?>[MAX_FIELDS];
+
+    private static JRubyClassLoader classLoader;
+    private static boolean disabled;
+
+    /**
+     * Base class of the generated reader for one member. Subclasses implement
+     * the zero-argument call with a single field load.
+     */
+    public static abstract class FieldGetter extends DynamicMethod {
+        public FieldGetter(RubyModule implementationClass) {
+            super(implementationClass, Visibility.PUBLIC, CallConfiguration.NO_FRAME_NO_SCOPE);
+        }
+
+        @Override
+        public abstract IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name);
+
+        @Override
+        public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, Block block) {
+            return call(context, self, clazz, name);
+        }
+
+        @Override
+        public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, IRubyObject[] args, Block block) {
+            Arity.checkArgumentCount(context.getRuntime(), args, 0, 0);
+            return call(context, self, clazz, name);
+        }
+
+        @Override
+        public DynamicMethod dup() {
+            return this;
+        }
+    }
+
+    /**
+     * Base class of the generated writer for one member. Subclasses implement
+     * the one-argument call with a frozen check and a single field store.
+     */
+    public static abstract class FieldSetter extends DynamicMethod {
+        public FieldSetter(RubyModule implementationClass) {
+            super(implementationClass, Visibility.PUBLIC, CallConfiguration.NO_FRAME_NO_SCOPE);
+        }
+
+        @Override
+        public abstract IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, IRubyObject arg);
+
+        @Override
+        public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, IRubyObject arg, Block block) {
+            return call(context, self, clazz, name, arg);
+        }
+
+        @Override
+        public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, IRubyObject[] args, Block block) {
+            Arity.checkArgumentCount(context.getRuntime(), args, 1, 1);
+            return call(context, self, clazz, name, args[0]);
+        }
+
+        @Override
+        public DynamicMethod dup() {
+            return this;
+        }
+    }
+
+    /**
+     * The allocator for field-backed structs of the given size, or null if
+     * the size is out of range or classes cannot be generated here (for
+     * example under a restrictive security manager).
+     */
+    public static synchronized ObjectAllocator getAllocator(int size) {
+        if (size < 1 || size > MAX_FIELDS || disabled) return null;
+
+        if (allocators[size] == null) {
+            try {
+                structClass(size);
+                allocators[size] = (ObjectAllocator) define(
+                        PACKAGE + "RubyStruct" + size + "$Allocator", generateAllocator(size)).newInstance();
+            } catch (Exception e) {
+                disabled = true;
+                return null;
+            } catch (LinkageError e) {
+                disabled = true;
+                return null;
+            }
+        }
+        return allocators[size];
+    }
+
+    /**
+     * A reader for member index of a struct class whose instances come from
+     * getAllocator.
+     */
+    public static synchronized DynamicMethod newGetter(RubyModule implementationClass, int index) {
+        try {
+            if (getters[index] == null) {
+                structClass(index + 1);
+                getters[index] = define(PACKAGE + "StructGetter" + index, generateGetter(index))
+                        .getConstructor(RubyModule.class);
+            }
+            return (DynamicMethod) getters[index].newInstance(implementationClass);
+        } catch (Exception e) {
+            throw new RuntimeException("could not create struct accessor", e);
+        }
+    }
+
+    /**
+     * A writer for member index of a struct class whose instances come from
+     * getAllocator.
+     */
+    public static synchronized DynamicMethod newSetter(RubyModule implementationClass, int index) {
+        try {
+            if (setters[index] == null) {
+                structClass(index + 1);
+                setters[index] = define(PACKAGE + "StructSetter" + index, generateSetter(index))
+                        .getConstructor(RubyModule.class);
+            }
+            return (DynamicMethod) setters[index].newInstance(implementationClass);
+        } catch (Exception e) {
+            throw new RuntimeException("could not create struct accessor", e);
+        }
+    }
+
+    private static Class<?> structClass(int size) {
+        if (structClasses[size] == null) {
+            // the superclass has to be defined first
+            if (size > 1) structClass(size - 1);
+            structClasses[size] = define(structName(size), generateStruct(size));
+        }
+        return structClasses[size];
+    }
+
+    private static Class<?> define(String name, byte[] bytes) {
+        if (classLoader == null) {
+            classLoader = new JRubyClassLoader(RubyStruct.class.getClassLoader());
+        }
+        return classLoader.defineClass(name.replace('/', '.'), bytes);
+    }
+
+    private static String structName(int size) {
+        return size == 0 ? p(RubyStruct.class) : PACKAGE + "RubyStruct" + size;
+    }
+
+    private static String fieldName(int index) {
+        return "v" + index;
+    }
+
+    private static byte[] generateStruct(int size) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        String name = structName(size);
+        String superName = structName(size - 1);
+        int last = size - 1;
+        cw.visit(V1_5, ACC_PUBLIC | ACC_SUPER, name, null, superName, null);
+        cw.visitField(ACC_PUBLIC, fieldName(last), ci(IRubyObject.class), null, null).visitEnd();
+
+        // constructor: pass up the chain, then set our own field to nil
+        SkinnyMethodAdapter m = new SkinnyMethodAdapter(cw.visitMethod(ACC_PUBLIC, "<init>",
+                sig(void.class, Ruby.class, RubyClass.class), null, null));
+        m.start();
+        m.aload(0);
+        m.aload(1);
+        m.aload(2);
+        if (size == 1) {
+            m.aconst_null();
+            m.invokespecial(superName, "<init>", sig(void.class, Ruby.class, RubyClass.class, IRubyObject[].class));
+        } else {
+            m.invokespecial(superName, "<init>", sig(void.class, Ruby.class, RubyClass.class));
+        }
+        m.aload(0);
+        m.aload(1);
+        m.invokevirtual(p(Ruby.class), "getNil", sig(IRubyObject.class));
+        m.putfield(name, fieldName(last), ci(IRubyObject.class));
+        m.voidreturn();
+        m.end();
+
+        m = new SkinnyMethodAdapter(cw.visitMethod(ACC_PROTECTED, "fieldCount", sig(int.class), null, null));
+        m.start();
+        m.pushInt(size);
+        m.ireturn();
+        m.end();
+
+        m = new SkinnyMethodAdapter(cw.visitMethod(ACC_PROTECTED, "fieldGet", sig(IRubyObject.class, int.class), null, null));
+        m.start();
+        Label[] cases = labels(size);
+        Label outOfRange = new Label();
+        m.iload(1);
+        m.tableswitch(0, last, outOfRange, cases);
+        for (int i = 0; i < size; i++) {
+            m.label(cases[i]);
+            m.aload(0);
+            m.getfield(name, fieldName(i), ci(IRubyObject.class));
+            m.areturn();
+        }
+        m.label(outOfRange);
+        throwOutOfRange(m);
+        m.end();
+
+        m = new SkinnyMethodAdapter(cw.visitMethod(ACC_PROTECTED, "fieldSet", sig(void.class, int.class, IRubyObject.class), null, null));
+        m.start();
+        cases = labels(size);
+        outOfRange = new Label();
+        m.iload(1);
+        m.tableswitch(0, last, outOfRange, cases);
+        for (int i = 0; i < size; i++) {
+            m.label(cases[i]);
+            m.aload(0);
+            m.aload(2);
+            m.putfield(name, fieldName(i), ci(IRubyObject.class));
+            m.voidreturn();
+        }
+        m.label(outOfRange);
+        throwOutOfRange(m);
+        m.end();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static Label[] labels(int count) {
+        Label[] labels = new Label[count];
+        for (int i = 0; i < count; i++) labels[i] = new Label();
+        return labels;
+    }
+
+    private static void throwOutOfRange(SkinnyMethodAdapter m) {
+        m.newobj(p(ArrayIndexOutOfBoundsException.class));
+        m.dup();
+        m.iload(1);
+        m.invokespecial(p(ArrayIndexOutOfBoundsException.class), "<init>", sig(void.class, int.class));
+        m.athrow();
+    }
+
+    private static byte[] generateAllocator(int size) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        String name = PACKAGE + "RubyStruct" + size + "$Allocator";
+        cw.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, name, null, p(Object.class), new String[] {p(ObjectAllocator.class)});
+        defaultConstructor(cw, p(Object.class), sig(void.class));
+
+        SkinnyMethodAdapter m = new SkinnyMethodAdapter(cw.visitMethod(ACC_PUBLIC, "allocate",
+                sig(IRubyObject.class, Ruby.class, RubyClass.class), null, null));
+        m.start();
+        m.newobj(structName(size));
+        m.dup();
+        m.aload(1);
+        m.aload(2);
+        m.invokespecial(structName(size), "<init>", sig(void.class, Ruby.class, RubyClass.class));
+        m.areturn();
+        m.end();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] generateGetter(int index) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        String superName = p(FieldGetter.class);
+        cw.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, PACKAGE + "StructGetter" + index, null, superName, null);
+        defaultConstructor(cw, superName, sig(void.class, RubyModule.class));
+
+        SkinnyMethodAdapter m = new SkinnyMethodAdapter(cw.visitMethod(ACC_PUBLIC, "call",
+                sig(IRubyObject.class, ThreadContext.class, IRubyObject.class, RubyModule.class, String.class), null, null));
+        m.start();
+        m.aload(2);
+        m.checkcast(structName(index + 1));
+        m.getfield(structName(index + 1), fieldName(index), ci(IRubyObject.class));
+        m.areturn();
+        m.end();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] generateSetter(int index) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        String superName = p(FieldSetter.class);
+        cw.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, PACKAGE + "StructSetter" + index, null, superName, null);
+        defaultConstructor(cw, superName, sig(void.class, RubyModule.class));
+
+        SkinnyMethodAdapter m = new SkinnyMethodAdapter(cw.visitMethod(ACC_PUBLIC, "call",
+                sig(IRubyObject.class, ThreadContext.class, IRubyObject.class, RubyModule.class, String.class, IRubyObject.class), null, null));
+        m.start();
+        m.aload(2);
+        m.checkcast(structName(index + 1));
+        m.dup();
+        m.invokevirtual(p(RubyStruct.class), "modify", sig(void.class));
+        m.aload(5);
+        m.putfield(structName(index + 1), fieldName(index), ci(IRubyObject.class));
+        m.aload(5);
+        m.areturn();
+        m.end();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * A public constructor passing its arguments, described by signature,
+     * straight to the superclass constructor with the same signature.
+     */
+    private static void defaultConstructor(ClassWriter cw, String superName, String signature) {
+        SkinnyMethodAdapter m = new SkinnyMethodAdapter(cw.visitMethod(ACC_PUBLIC, "<init>", signature, null, null));
+        m.start();
+        m.aload(0);
+        if (!signature.equals(sig(void.class))) m.aload(1);
+        m.invokespecial(superName, "<init>", signature);
+        m.voidreturn();
+        m.end();
+    }
+}
@@ -0,0 +1,283 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext;
+
+import static org.jruby.ext.IntArray.ADD;
+import static org.jruby.ext.IntArray.DIV;
+import static org.jruby.ext.IntArray.MUL;
+import static org.jruby.ext.IntArray.SUB;
+
+import java.util.Arrays;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyBignum;
+import org.jruby.RubyClass;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyFloat;
+import org.jruby.RubyModule;
+import org.jruby.anno.JRubyClass;
+import org.jruby.anno.JRubyMethod;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.Visibility;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * A fixed-size vector of doubles backed by a double[]. Arithmetic follows
+ * Float semantics, so dividing by zero yields Infinity or NaN.
+ */
+@JRubyClass(name="JRuby::DoubleArray", parent="JRuby::PrimitiveArray")
+public class DoubleArray extends PrimitiveArray {
+    private static final double[] EMPTY = new double[0];
+
+    private static final ObjectAllocator DOUBLE_ARRAY_ALLOCATOR = new ObjectAllocator() {
+        public IRubyObject allocate(Ruby runtime, RubyClass klass) {
+            return new DoubleArray(runtime, klass, EMPTY);
+        }
+    };
+
+    public static RubyClass createDoubleArrayClass(Ruby runtime, RubyModule jruby, RubyClass base) {
+        RubyClass doubleArray = jruby.defineClassUnder("DoubleArray", base, DOUBLE_ARRAY_ALLOCATOR);
+        doubleArray.defineAnnotatedMethods(DoubleArray.class);
+        return doubleArray;
+    }
+
+    private double[] values;
+
+    public DoubleArray(Ruby runtime, RubyClass klass, double[] values) {
+        super(runtime, klass);
+        this.values = values;
+    }
+
+    public static DoubleArray newDoubleArray(Ruby runtime, double[] values) {
+        return new DoubleArray(runtime, (RubyClass) runtime.getClassFromPath("JRuby::DoubleArray"), values);
+    }
+
+    /**
+     * The backing array, shared with this vector.
+     */
+    public double[] getDoubleArray() {
+        return values;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    protected IRubyObject entry(int index) {
+        return RubyFloat.newFloat(getRuntime(), values[index]);
+    }
+
+    protected void store(int index, IRubyObject value) {
+        values[index] = toDouble(getRuntime(), value);
+    }
+
+    protected boolean elementsEqual(PrimitiveArray other) {
+        double[] b = ((DoubleArray) other).values;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != b[i]) return false;
+        }
+        return true;
+    }
+
+    protected int elementsHash() {
+        int h = values.length;
+        for (double d : values) {
+            // 0.0 == -0.0, so both must hash alike
+            long v = d == 0.0 ? 0 : Double.doubleToLongBits(d);
+            h = 31 * h + (int) (v ^ (v >>> 32));
+        }
+        return h;
+    }
+
+    protected void replace(Ruby runtime, RubyArray elements) {
+        double[] newValues = new double[elements.getLength()];
+        for (int i = 0; i < newValues.length; i++) {
+            newValues[i] = toDouble(runtime, elements.eltInternal(i));
+        }
+        values = newValues;
+    }
+
+    private static double toDouble(Ruby runtime, IRubyObject value) {
+        if (value instanceof RubyFloat) return ((RubyFloat) value).getDoubleValue();
+        if (value instanceof RubyFixnum) return ((RubyFixnum) value).getLongValue();
+        if (value instanceof RubyBignum) return ((RubyBignum) value).getDoubleValue();
+        throw runtime.newTypeError("can't convert " + value.getMetaClass().getName() + " into Float");
+    }
+
+    @JRubyMethod(name = "[]", rest = true, meta = true)
+    public static IRubyObject create(ThreadContext context, IRubyObject klass, IRubyObject[] args) {
+        Ruby runtime = context.getRuntime();
+        double[] values = new double[args.length];
+        for (int i = 0; i < args.length; i++) {
+            values[i] = toDouble(runtime, args[i]);
+        }
+        return new DoubleArray(runtime, (RubyClass) klass, values);
+    }
+
+    @JRubyMethod(name = "initialize", required = 1, optional = 1, frame = true, visibility = Visibility.PRIVATE)
+    public IRubyObject initialize(ThreadContext context, IRubyObject[] args, Block block) {
+        Ruby runtime = context.getRuntime();
+        if (args.length == 1 && args[0] instanceof RubyArray) {
+            replace(runtime, (RubyArray) args[0]);
+        } else {
+            values = new double[checkSize(runtime, args[0])];
+            if (args.length > 1) Arrays.fill(values, toDouble(runtime, args[1]));
+        }
+        return this;
+    }
+
+    @JRubyMethod(name = "initialize_copy", required = 1, visibility = Visibility.PRIVATE)
+    public IRubyObject initialize_copy(ThreadContext context, IRubyObject original) {
+        if (this == original) return this;
+        checkFrozen();
+        if (!(original instanceof DoubleArray)) {
+            throw context.getRuntime().newTypeError("wrong argument class");
+        }
+        values = ((DoubleArray) original).values.clone();
+        return this;
+    }
+
+    @JRubyMethod(name = "fill", required = 1)
+    public IRubyObject fill(ThreadContext context, IRubyObject value) {
+        checkFrozen();
+        Arrays.fill(values, toDouble(context.getRuntime(), value));
+        return this;
+    }
+
+    @JRubyMethod(name = "sum")
+    public IRubyObject sum(ThreadContext context) {
+        return RubyFloat.newFloat(context.getRuntime(), sum());
+    }
+
+    private double sum() {
+        double[] a = values;
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i];
+        }
+        return sum;
+    }
+
+    @JRubyMethod(name = "min")
+    public IRubyObject min(ThreadContext context) {
+        double[] a = values;
+        if (a.length == 0) return context.getRuntime().getNil();
+        double min = a[0];
+        for (int i = 1; i < a.length; i++) {
+            if (a[i] < min) min = a[i];
+        }
+        return RubyFloat.newFloat(context.getRuntime(), min);
+    }
+
+    @JRubyMethod(name = "max")
+    public IRubyObject max(ThreadContext context) {
+        double[] a = values;
+        if (a.length == 0) return context.getRuntime().getNil();
+        double max = a[0];
+        for (int i = 1; i < a.length; i++) {
+            if (a[i] > max) max = a[i];
+        }
+        return RubyFloat.newFloat(context.getRuntime(), max);
+    }
+
+    @JRubyMethod(name = "mean")
+    public IRubyObject mean(ThreadContext context) {
+        if (values.length == 0) return context.getRuntime().getNil();
+        return RubyFloat.newFloat(context.getRuntime(), sum() / values.length);
+    }
+
+    @JRubyMethod(name = "+", required = 1)
+    public IRubyObject op_plus(ThreadContext context, IRubyObject other) {
+        return arithmetic(context, other, ADD);
+    }
+
+    @JRubyMethod(name = "-", required = 1)
+    public IRubyObject op_minus(ThreadContext context, IRubyObject other) {
+        return arithmetic(context, other, SUB);
+    }
+
+    @JRubyMethod(name = "*", required = 1)
+    public IRubyObject op_mul(ThreadContext context, IRubyObject other) {
+        return arithmetic(context, other, MUL);
+    }
+
+    @JRubyMethod(name = "/", required = 1)
+    public IRubyObject op_div(ThreadContext context, IRubyObject other) {
+        return arithmetic(context, other, DIV);
+    }
+
+    @JRubyMethod(name = "-@")
+    public IRubyObject op_uminus(ThreadContext context) {
+        double[] a = values;
+        double[] result = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            result[i] = -a[i];
+        }
+        return new DoubleArray(context.getRuntime(), getMetaClass().getRealClass(), result);
+    }
+
+    IRubyObject arithmetic(ThreadContext context, IRubyObject other, int op) {
+        Ruby runtime = context.getRuntime();
+        double[] a = values;
+        double[] result = new double[a.length];
+
+        if (other instanceof DoubleArray) {
+            checkSameSize((DoubleArray) other);
+            double[] b = ((DoubleArray) other).values;
+            switch (op) {
+            case ADD: for (int i = 0; i < a.length; i++) result[i] = a[i] + b[i]; break;
+            case SUB: for (int i = 0; i < a.length; i++) result[i] = a[i] - b[i]; break;
+            case MUL: for (int i = 0; i < a.length; i++) result[i] = a[i] * b[i]; break;
+            case DIV: for (int i = 0; i < a.length; i++) result[i] = a[i] / b[i]; break;
+            }
+        } else if (other instanceof IntArray) {
+            checkSameSize((IntArray) other);
+            long[] b = ((IntArray) other).getLongArray();
+            switch (op) {
+            case ADD: for (int i = 0; i < a.length; i++) result[i] = a[i] + b[i]; break;
+            case SUB: for (int i = 0; i < a.length; i++) result[i] = a[i] - b[i]; break;
+            case MUL: for (int i = 0; i < a.length; i++) result[i] = a[i] * b[i]; break;
+            case DIV: for (int i = 0; i < a.length; i++) result[i] = a[i] / b[i]; break;
+            }
+        } else if (other instanceof RubyFloat || other instanceof RubyFixnum || other instanceof RubyBignum) {
+            double b = toDouble(runtime, other);
+            switch (op) {
+            case ADD: for (int i = 0; i < a.length; i++) result[i] = a[i] + b; break;
+            case SUB: for (int i = 0; i < a.length; i++) result[i] = a[i] - b; break;
+            case MUL: for (int i = 0; i < a.length; i++) result[i] = a[i] * b; break;
+            case DIV: for (int i = 0; i < a.length; i++) result[i] = a[i] / b; break;
+            }
+        } else {
+            throw runtime.newTypeError(other.getMetaClass().getName() + " can't be coerced into " +
+                    getMetaClass().getRealClass().getName());
+        }
+
+        return new DoubleArray(runtime, getMetaClass().getRealClass(), result);
+    }
+}
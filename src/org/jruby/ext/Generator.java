@@ -28,14 +28,23 @@
 package org.jruby.ext;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.jruby.Ruby;
+import org.jruby.RubyArray;
 import org.jruby.RubyClass;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyHash;
 import org.jruby.RubyObject;
 import org.jruby.RubyProc;
+import org.jruby.RubyRange;
+import org.jruby.RubyString;
 
 import org.jruby.anno.JRubyClass;
 import org.jruby.anno.JRubyMethod;
+import org.jruby.exceptions.JumpException;
 import org.jruby.javasupport.util.RuntimeHelpers;
 import org.jruby.runtime.Arity;
 import org.jruby.runtime.Block;
@@ -45,7 +54,6 @@ import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.load.Library;
 import org.jruby.runtime.builtin.IRubyObject;
 
-import org.jruby.runtime.MethodIndex;
 import org.jruby.runtime.Visibility;
 
 /**
@@ -65,16 +73,17 @@ public class Generator {
         cGen.defineAnnotatedMethods(Generator.class);
     }
 
-    static class GeneratorData implements Runnable {
-        private IRubyObject gen;
-        private Object mutex = new Object();
+    static class GeneratorData {
+        private final IRubyObject gen;
 
         private IRubyObject enm;
         private RubyProc proc;
 
-        private Thread t;
-        private volatile boolean end;
-        private IterBlockCallback ibc;
+        private Source source;
+        /** the element next will return, or null at the end; valid once primed */
+        private IRubyObject current;
+        private boolean primed;
+        private long index;
 
         public GeneratorData(IRubyObject gen) {
             this.gen = gen;
@@ -93,137 +102,282 @@ public class Generator {
         }
 
         public void start() {
-            if (t != null) {
-                // deal with previously started thread first
-                t.interrupt();
-                try {
-                    t.join();
-                } catch (InterruptedException e) {
-                    // do nothing
-                }
-            }
+            if (source != null) source.close();
 
-            end = false;
-            ibc = new IterBlockCallback();
-            t = new Thread(this);
-            t.setDaemon(true);
-            t.start();
-            generate();
+            ThreadContext context = gen.getRuntime().getCurrentContext();
+            source = proc == null ? Source.forEnum(context, this, enm) : new ProducerSource(this, null, proc);
+            index = 0;
+            primed = false;
+            prime();
+        }
+
+        /**
+         * Look one element ahead. This is deferred until someone asks, so an
+         * error raised by each after an element is reported on the following
+         * call rather than the one returning that element.
+         */
+        private void prime() {
+            if (primed) return;
+            current = source.fetch(gen.getRuntime().getCurrentContext());
+            primed = true;
         }
 
         public boolean isEnd() {
-            return end;
+            prime();
+            return current == null;
         }
 
-        private boolean available = false;
-
-        public void doWait() {
-            available = true;
-            if(proc != null) {
-                boolean inter = true;
-                synchronized(mutex) {
-                    mutex.notifyAll();
-                    while(inter) {
-                        try {
-                            mutex.wait();
-                            inter = false;
-                        } catch(InterruptedException e) {
-                        }
-                    }
+        public IRubyObject current() {
+            if (isEnd()) throw gen.getRuntime().newEOFError("no more elements available");
+            return current;
+        }
+
+        public IRubyObject next() {
+            IRubyObject value = current();
+            current = null;
+            primed = false;
+            index++;
+            return value;
+        }
+
+        public void yield(IRubyObject value) {
+            ProducerSource producer = ProducerSource.ACTIVE.get();
+            if (producer == null || producer.owner.get() != this) {
+                if (!(source instanceof ProducerSource)) return;
+                producer = (ProducerSource) source;
+            }
+            producer.push(value);
+        }
+    }
+
+    /**
+     * The elements of one pass over a generator. fetch returns the next
+     * element, or null once there are no more.
+     */
+    static abstract class Source {
+        abstract IRubyObject fetch(ThreadContext context);
+
+        void close() {}
+
+        /**
+         * Plain Arrays, Hashes, Strings and Fixnum Ranges are walked with a
+         * cursor on the calling thread; anything else runs its each on a
+         * carrier thread.
+         */
+        static Source forEnum(ThreadContext context, GeneratorData data, IRubyObject enm) {
+            Ruby runtime = context.getRuntime();
+            RubyClass type = enm.getMetaClass();
+
+            if (type == runtime.getArray()) {
+                return new ArraySource((RubyArray) enm);
+            } else if (type == runtime.getHash()) {
+                return new ArraySource(((RubyHash) enm).to_a());
+            } else if (type == runtime.getString()) {
+                return new ArraySource(collect(context, enm));
+            } else if (type == runtime.getRange()) {
+                RubyRange range = (RubyRange) enm;
+                if (range.first() instanceof RubyFixnum && range.last() instanceof RubyFixnum) {
+                    return new RangeSource(runtime, ((RubyFixnum) range.first()).getLongValue(),
+                            ((RubyFixnum) range.last()).getLongValue(), range.exclude_end_p().isTrue());
                 }
             }
+            return new ProducerSource(data, enm, null);
         }
 
-        public void generate() {
-            if(proc == null) {
-                boolean inter = true;
-                synchronized(mutex) {
-                    while(!ibc.haveValue() && !end) {
-                        mutex.notifyAll();
-                        inter = true;
-                        while(inter) {
-                            try {
-                                mutex.wait();
-                                inter = false;
-                            } catch(InterruptedException e) {
-                            }
-                        }
-                    }
-                    if(ibc.haveValue() && proc == null) {
-                        gen.callMethod(gen.getRuntime().getCurrentContext(),"yield",ibc.pop());
-                    }
+        private static RubyArray collect(ThreadContext context, IRubyObject enm) {
+            final RubyArray elements = context.getRuntime().newArray();
+            RuntimeHelpers.invoke(context, enm, "each", CallBlock.newCallClosure(enm, enm.getMetaClass().getRealClass(),
+                    Arity.noArguments(), new BlockCallback() {
+                public IRubyObject call(ThreadContext context, IRubyObject[] iargs, Block block) {
+                    elements.append(pack(context.getRuntime(), iargs));
+                    return context.getRuntime().getNil();
                 }
+            }, context));
+            return elements;
+        }
+
+        static IRubyObject pack(Ruby runtime, IRubyObject[] iargs) {
+            return iargs.length > 1 ? runtime.newArrayNoCopy(iargs) : iargs[0];
+        }
+    }
+
+    /**
+     * Walks an Array by index, seeing elements appended during iteration just
+     * as Array#each does.
+     */
+    static class ArraySource extends Source {
+        private final RubyArray array;
+        private int index;
+
+        ArraySource(RubyArray array) {
+            this.array = array;
+        }
+
+        IRubyObject fetch(ThreadContext context) {
+            return index < array.getLength() ? array.eltInternal(index++) : null;
+        }
+    }
+
+    static class RangeSource extends Source {
+        private final Ruby runtime;
+        private final long last;
+        private long next;
+        private boolean done;
+
+        RangeSource(Ruby runtime, long first, long last, boolean exclusive) {
+            this.runtime = runtime;
+            this.next = first;
+            this.done = exclusive ? first >= last : first > last;
+            this.last = exclusive && !done ? last - 1 : last;
+        }
+
+        IRubyObject fetch(ThreadContext context) {
+            if (done) return null;
+            long value = next;
+            if (value == last) {
+                done = true;
             } else {
-                synchronized(mutex) {
-                    while(!available && !end) {
-                        boolean inter = true;
-                        mutex.notifyAll();
-                        while(inter) {
-                            try {
-                                mutex.wait(20);
-                                inter = false;
-                            } catch(InterruptedException e) {
-                            }
-                        }
-                    }
-                    available = false;
-                }
+                next++;
             }
+            return RubyFixnum.newFixnum(runtime, value);
+        }
+    }
 
+    /**
+     * Runs an each, or a generator block, on a pooled daemon thread. The
+     * producer fills one batch while the consumer drains the other, and the
+     * two only synchronize when a batch is swapped, so a long sequence costs a
+     * handoff every BATCH elements rather than two thread switches per element.
+     * The producer may run up to one batch ahead of the consumer.
+     *
+     * An each-based producer only holds its generator weakly, so a generator
+     * dropped part way through is collected and its carrier released.
+     */
+    static class ProducerSource extends Source implements Runnable {
+        private static final int BATCH = 64;
+        private static final long ABANDON_CHECK_MILLIS = 1000;
+
+        private static final ExecutorService CARRIERS = Executors.newCachedThreadPool(new Ruby.DaemonThreadFactory());
+
+        static final ThreadLocal<ProducerSource> ACTIVE = new ThreadLocal<ProducerSource>();
+
+        /** Unwinds a producer whose generator was rewound; never seen by Ruby code. */
+        private static class Cancelled extends JumpException.FlowControlException {}
+        private static final Cancelled CANCELLED = new Cancelled();
+
+        final WeakReference<GeneratorData> owner;
+        private final Ruby runtime;
+        private final IRubyObject enm;
+        private final RubyProc proc;
+        /** the generator passed to proc, which keeps it reachable anyway */
+        private final IRubyObject gen;
+
+        private IRubyObject[] filling = new IRubyObject[BATCH];
+        private int filled;
+        private IRubyObject[] batch = new IRubyObject[BATCH];
+        private int batchSize;
+        private int batchIndex;
+
+        private boolean done;
+        private boolean cancelled;
+        private boolean consumerWaiting;
+        private Throwable failure;
+
+        ProducerSource(GeneratorData data, IRubyObject enm, RubyProc proc) {
+            this.owner = new WeakReference<GeneratorData>(data);
+            this.runtime = data.gen.getRuntime();
+            this.enm = enm;
+            this.proc = proc;
+            this.gen = proc == null ? null : data.gen;
+            CARRIERS.execute(this);
         }
 
-        private class IterBlockCallback implements BlockCallback {
-            private IRubyObject obj;
-            private boolean shouldSkip = false;
-            public IRubyObject call(ThreadContext context, IRubyObject[] iargs, Block block) {
-                if (shouldSkip) {
-                    // the thread was interrupted, this is a signal
-                    // that we should not do any work, and exit the thread.
-                    return gen.getRuntime().getNil();
-                }
-                boolean inter = true;
-                synchronized(mutex) {
-                    mutex.notifyAll();
-                    while(inter) {
-                        try {
-                            mutex.wait();
-                            inter = false;
-                        } catch(InterruptedException e) {
-                            shouldSkip = true;
-                            return gen.getRuntime().getNil();
+        public void run() {
+            ACTIVE.set(this);
+            try {
+                ThreadContext context = runtime.getCurrentContext();
+                if (enm != null) {
+                    RuntimeHelpers.invoke(context, enm, "each", CallBlock.newCallClosure(enm,
+                            enm.getMetaClass().getRealClass(), Arity.noArguments(), new BlockCallback() {
+                        public IRubyObject call(ThreadContext context, IRubyObject[] iargs, Block block) {
+                            push(pack(context.getRuntime(), iargs));
+                            return context.getRuntime().getNil();
                         }
-                    }
-                    if(iargs.length > 1) {
-                        obj = gen.getRuntime().newArrayNoCopy(iargs);
-                    } else {
-                        obj = iargs[0];
-                    }
-                    mutex.notifyAll();
-                    return gen.getRuntime().getNil();
+                    }, context));
+                } else {
+                    proc.call(context, new IRubyObject[] {gen});
+                }
+            } catch (Cancelled c) {
+                // rewound or restarted; nobody is waiting for the rest
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                ACTIVE.remove();
+                synchronized (this) {
+                    done = true;
+                    notifyAll();
                 }
             }
-            public boolean haveValue() {
-                return obj != null;
-            }
-            public IRubyObject pop() {
-                IRubyObject a = obj;
-                obj = null;
-                return a;
+        }
+
+        synchronized void push(IRubyObject value) {
+            while (filled == BATCH && !cancelled) {
+                try {
+                    wait(ABANDON_CHECK_MILLIS);
+                } catch (InterruptedException ie) {
+                    // carriers are only woken by the consumer
+                }
+                if (owner.get() == null) cancelled = true;
             }
+            if (cancelled) throw CANCELLED;
+
+            filling[filled++] = value;
+            if (consumerWaiting) notifyAll();
         }
 
-        public void run() {
-            ThreadContext context = gen.getRuntime().getCurrentContext();
-            if(enm != null) {
-                RuntimeHelpers.invoke(context, enm, "each", 
-                        CallBlock.newCallClosure(enm,enm.getMetaClass().getRealClass(),Arity.noArguments(),ibc,context));
-            } else {
-                proc.call(context, new IRubyObject[]{gen});
+        IRubyObject fetch(ThreadContext context) {
+            if (batchIndex == batchSize && !swap(context)) return null;
+
+            IRubyObject value = batch[batchIndex];
+            batch[batchIndex++] = null;
+            return value;
+        }
+
+        /**
+         * Trade the drained batch for the producer's, waiting for it to produce
+         * something first. Returns false once the producer has finished.
+         */
+        private synchronized boolean swap(ThreadContext context) {
+            while (filled == 0 && !done) {
+                consumerWaiting = true;
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    context.pollThreadEvents();
+                } finally {
+                    consumerWaiting = false;
+                }
             }
-            end = true;
-            synchronized(mutex) {
-                mutex.notifyAll();
+
+            if (filled == 0) {
+                if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+                if (failure instanceof Error) throw (Error) failure;
+                return false;
             }
+
+            IRubyObject[] drained = batch;
+            batch = filling;
+            batchSize = filled;
+            batchIndex = 0;
+            filling = drained;
+            filled = 0;
+            notifyAll();
+            return true;
+        }
+
+        synchronized void close() {
+            cancelled = true;
+            notifyAll();
         }
     }
 
@@ -241,9 +395,6 @@ public class Generator {
         // Generator#initialize
         GeneratorData d = (GeneratorData)self.dataGetStruct();
         
-        self.getInstanceVariables().setInstanceVariable("@queue",self.getRuntime().newArray());
-        self.getInstanceVariables().setInstanceVariable("@index",self.getRuntime().newFixnum(0));
-        
         if(Arity.checkArgumentCount(self.getRuntime(), args,0,1) == 1) {
             d.setEnum(args[0]);
         } else {
@@ -255,9 +406,8 @@ public class Generator {
     @JRubyMethod(frame = true)
     public static IRubyObject yield(IRubyObject self, IRubyObject value, Block block) {
         // Generator#yield
-        self.getInstanceVariables().getInstanceVariable("@queue").callMethod(self.getRuntime().getCurrentContext(),"<<",value);
         GeneratorData d = (GeneratorData)self.dataGetStruct();
-        d.doWait();
+        d.yield(value);
         return self;
     }
 
@@ -266,10 +416,7 @@ public class Generator {
         // Generator#end_p
         GeneratorData d = (GeneratorData)self.dataGetStruct();
         
-        boolean emptyQueue = self.getInstanceVariables().getInstanceVariable("@queue").callMethod(
-                self.getRuntime().getCurrentContext(), "empty?").isTrue();
-        
-        return (d.isEnd() && emptyQueue) ? self.getRuntime().getTrue() : self.getRuntime().getFalse();
+        return d.isEnd() ? self.getRuntime().getTrue() : self.getRuntime().getFalse();
     }
 
     @JRubyMethod(name = "next?")
@@ -283,43 +430,29 @@ public class Generator {
     @JRubyMethod(name = {"index", "pos"})
     public static IRubyObject index(IRubyObject self) {
         // Generator#index
-        return self.getInstanceVariables().getInstanceVariable("@index");
+        GeneratorData d = (GeneratorData)self.dataGetStruct();
+        return self.getRuntime().newFixnum(d.index);
     }
 
     @JRubyMethod(frame = true)
     public static IRubyObject next(IRubyObject self, Block block) {
         // Generator#next
         GeneratorData d = (GeneratorData)self.dataGetStruct();
-
-        if(RuntimeHelpers.invoke(self.getRuntime().getCurrentContext(), self, "end?").isTrue()) {
-            throw self.getRuntime().newEOFError("no more elements available");
-        }
-
-        d.generate();
-        self.getInstanceVariables().setInstanceVariable("@index",self.getInstanceVariables().getInstanceVariable("@index").callMethod(self.getRuntime().getCurrentContext(), "+",self.getRuntime().newFixnum(1)));
-        return self.getInstanceVariables().getInstanceVariable("@queue").callMethod(self.getRuntime().getCurrentContext(),"shift");
+        return d.next();
     }
 
     @JRubyMethod(frame = true)
     public static IRubyObject current(IRubyObject self, Block block) {
         // Generator#current
-        if(self.getInstanceVariables().getInstanceVariable("@queue").callMethod(self.getRuntime().getCurrentContext(), "empty?").isTrue()) {
-            throw self.getRuntime().newEOFError("no more elements available");
-        }
-        return self.getInstanceVariables().getInstanceVariable("@queue").callMethod(self.getRuntime().getCurrentContext(),"first");
+        GeneratorData d = (GeneratorData)self.dataGetStruct();
+        return d.current();
     }
 
     @JRubyMethod(frame = true)
     public static IRubyObject rewind(IRubyObject self, Block block) {
         // Generator#rewind
-        if(self.getInstanceVariables().getInstanceVariable("@index").callMethod(self.getRuntime().getCurrentContext(),"nonzero?").isTrue()) {
-            GeneratorData d = (GeneratorData)self.dataGetStruct();
-
-            self.getInstanceVariables().setInstanceVariable("@queue",self.getRuntime().newArray());
-            self.getInstanceVariables().setInstanceVariable("@index",self.getRuntime().newFixnum(0));
-            
-            d.start();
-        }
+        GeneratorData d = (GeneratorData)self.dataGetStruct();
+        if (d.index != 0) d.start();
 
         return self;
     }
@@ -329,8 +462,9 @@ public class Generator {
         // Generator#each
         rewind(self,Block.NULL_BLOCK);
         ThreadContext ctx = self.getRuntime().getCurrentContext();
-        while(next_p(self).isTrue()) {
-            block.yield(ctx, next(self, Block.NULL_BLOCK));
+        GeneratorData d = (GeneratorData)self.dataGetStruct();
+        while(!d.isEnd()) {
+            block.yield(ctx, d.next());
         }
         return self;
     }
@@ -0,0 +1,337 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyBignum;
+import org.jruby.RubyClass;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyFloat;
+import org.jruby.RubyModule;
+import org.jruby.RubyNumeric;
+import org.jruby.anno.JRubyClass;
+import org.jruby.anno.JRubyMethod;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.Visibility;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * A fixed-size vector of 64-bit integers backed by a long[].
+ *
+ * Element-wise arithmetic stays in 64 bits: a result that does not fit
+ * raises RangeError rather than promoting to Bignum. Mixing in a Float or a
+ * DoubleArray produces a DoubleArray.
+ */
+@JRubyClass(name="JRuby::IntArray", parent="JRuby::PrimitiveArray")
+public class IntArray extends PrimitiveArray {
+    private static final long[] EMPTY = new long[0];
+
+    static final int ADD = 0;
+    static final int SUB = 1;
+    static final int MUL = 2;
+    static final int DIV = 3;
+
+    private static final String[] OPERATORS = {"+", "-", "*", "/"};
+
+    private static final ObjectAllocator INT_ARRAY_ALLOCATOR = new ObjectAllocator() {
+        public IRubyObject allocate(Ruby runtime, RubyClass klass) {
+            return new IntArray(runtime, klass, EMPTY);
+        }
+    };
+
+    public static RubyClass createIntArrayClass(Ruby runtime, RubyModule jruby, RubyClass base) {
+        RubyClass intArray = jruby.defineClassUnder("IntArray", base, INT_ARRAY_ALLOCATOR);
+        intArray.defineAnnotatedMethods(IntArray.class);
+        return intArray;
+    }
+
+    private long[] values;
+
+    public IntArray(Ruby runtime, RubyClass klass, long[] values) {
+        super(runtime, klass);
+        this.values = values;
+    }
+
+    public static IntArray newIntArray(Ruby runtime, long[] values) {
+        return new IntArray(runtime, (RubyClass) runtime.getClassFromPath("JRuby::IntArray"), values);
+    }
+
+    /**
+     * The backing array, shared with this vector.
+     */
+    public long[] getLongArray() {
+        return values;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    protected IRubyObject entry(int index) {
+        return RubyFixnum.newFixnum(getRuntime(), values[index]);
+    }
+
+    protected void store(int index, IRubyObject value) {
+        values[index] = toLong(getRuntime(), value);
+    }
+
+    protected boolean elementsEqual(PrimitiveArray other) {
+        long[] b = ((IntArray) other).values;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != b[i]) return false;
+        }
+        return true;
+    }
+
+    protected int elementsHash() {
+        int h = values.length;
+        for (long v : values) {
+            h = 31 * h + (int) (v ^ (v >>> 32));
+        }
+        return h;
+    }
+
+    protected void replace(Ruby runtime, RubyArray elements) {
+        long[] newValues = new long[elements.getLength()];
+        for (int i = 0; i < newValues.length; i++) {
+            newValues[i] = toLong(runtime, elements.eltInternal(i));
+        }
+        values = newValues;
+    }
+
+    private static long toLong(Ruby runtime, IRubyObject value) {
+        if (value instanceof RubyFixnum) return ((RubyFixnum) value).getLongValue();
+        if (value instanceof RubyBignum) return RubyNumeric.num2long(value);
+        throw runtime.newTypeError("can't convert " + value.getMetaClass().getName() + " into Integer");
+    }
+
+    @JRubyMethod(name = "[]", rest = true, meta = true)
+    public static IRubyObject create(ThreadContext context, IRubyObject klass, IRubyObject[] args) {
+        Ruby runtime = context.getRuntime();
+        long[] values = new long[args.length];
+        for (int i = 0; i < args.length; i++) {
+            values[i] = toLong(runtime, args[i]);
+        }
+        return new IntArray(runtime, (RubyClass) klass, values);
+    }
+
+    @JRubyMethod(name = "initialize", required = 1, optional = 1, frame = true, visibility = Visibility.PRIVATE)
+    public IRubyObject initialize(ThreadContext context, IRubyObject[] args, Block block) {
+        Ruby runtime = context.getRuntime();
+        if (args.length == 1 && args[0] instanceof RubyArray) {
+            replace(runtime, (RubyArray) args[0]);
+        } else {
+            values = new long[checkSize(runtime, args[0])];
+            if (args.length > 1) Arrays.fill(values, toLong(runtime, args[1]));
+        }
+        return this;
+    }
+
+    @JRubyMethod(name = "initialize_copy", required = 1, visibility = Visibility.PRIVATE)
+    public IRubyObject initialize_copy(ThreadContext context, IRubyObject original) {
+        if (this == original) return this;
+        checkFrozen();
+        if (!(original instanceof IntArray)) {
+            throw context.getRuntime().newTypeError("wrong argument class");
+        }
+        values = ((IntArray) original).values.clone();
+        return this;
+    }
+
+    @JRubyMethod(name = "fill", required = 1)
+    public IRubyObject fill(ThreadContext context, IRubyObject value) {
+        checkFrozen();
+        Arrays.fill(values, toLong(context.getRuntime(), value));
+        return this;
+    }
+
+    @JRubyMethod(name = "to_double_array")
+    public DoubleArray to_double_array(ThreadContext context) {
+        long[] a = values;
+        double[] result = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            result[i] = a[i];
+        }
+        return DoubleArray.newDoubleArray(context.getRuntime(), result);
+    }
+
+    @JRubyMethod(name = "sum")
+    public IRubyObject sum(ThreadContext context) {
+        long[] a = values;
+        long sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            long x = a[i];
+            long result = sum + x;
+            if (((sum ^ result) & (x ^ result)) < 0) {
+                return bigSum(context.getRuntime(), sum, i);
+            }
+            sum = result;
+        }
+        return RubyFixnum.newFixnum(context.getRuntime(), sum);
+    }
+
+    private IRubyObject bigSum(Ruby runtime, long partial, int from) {
+        BigInteger sum = BigInteger.valueOf(partial);
+        for (int i = from; i < values.length; i++) {
+            sum = sum.add(BigInteger.valueOf(values[i]));
+        }
+        return RubyBignum.bignorm(runtime, sum);
+    }
+
+    @JRubyMethod(name = "min")
+    public IRubyObject min(ThreadContext context) {
+        long[] a = values;
+        if (a.length == 0) return context.getRuntime().getNil();
+        long min = a[0];
+        for (int i = 1; i < a.length; i++) {
+            if (a[i] < min) min = a[i];
+        }
+        return RubyFixnum.newFixnum(context.getRuntime(), min);
+    }
+
+    @JRubyMethod(name = "max")
+    public IRubyObject max(ThreadContext context) {
+        long[] a = values;
+        if (a.length == 0) return context.getRuntime().getNil();
+        long max = a[0];
+        for (int i = 1; i < a.length; i++) {
+            if (a[i] > max) max = a[i];
+        }
+        return RubyFixnum.newFixnum(context.getRuntime(), max);
+    }
+
+    @JRubyMethod(name = "mean")
+    public IRubyObject mean(ThreadContext context) {
+        long[] a = values;
+        if (a.length == 0) return context.getRuntime().getNil();
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i];
+        }
+        return RubyFloat.newFloat(context.getRuntime(), sum / a.length);
+    }
+
+    @JRubyMethod(name = "+", required = 1)
+    public IRubyObject op_plus(ThreadContext context, IRubyObject other) {
+        return arithmetic(context, other, ADD);
+    }
+
+    @JRubyMethod(name = "-", required = 1)
+    public IRubyObject op_minus(ThreadContext context, IRubyObject other) {
+        return arithmetic(context, other, SUB);
+    }
+
+    @JRubyMethod(name = "*", required = 1)
+    public IRubyObject op_mul(ThreadContext context, IRubyObject other) {
+        return arithmetic(context, other, MUL);
+    }
+
+    @JRubyMethod(name = "/", required = 1)
+    public IRubyObject op_div(ThreadContext context, IRubyObject other) {
+        return arithmetic(context, other, DIV);
+    }
+
+    @JRubyMethod(name = "-@")
+    public IRubyObject op_uminus(ThreadContext context) {
+        return arithmetic(context, RubyFixnum.minus_one(context.getRuntime()), MUL);
+    }
+
+    private IRubyObject arithmetic(ThreadContext context, IRubyObject other, int op) {
+        Ruby runtime = context.getRuntime();
+        long[] a = values;
+        long[] result = new long[a.length];
+
+        try {
+            if (other instanceof IntArray) {
+                checkSameSize((IntArray) other);
+                long[] b = ((IntArray) other).values;
+                switch (op) {
+                case ADD: for (int i = 0; i < a.length; i++) result[i] = add(a[i], b[i]); break;
+                case SUB: for (int i = 0; i < a.length; i++) result[i] = subtract(a[i], b[i]); break;
+                case MUL: for (int i = 0; i < a.length; i++) result[i] = multiply(a[i], b[i]); break;
+                case DIV: for (int i = 0; i < a.length; i++) result[i] = divide(runtime, a[i], b[i]); break;
+                }
+            } else if (other instanceof RubyFixnum || other instanceof RubyBignum) {
+                long b = RubyNumeric.num2long(other);
+                switch (op) {
+                case ADD: for (int i = 0; i < a.length; i++) result[i] = add(a[i], b); break;
+                case SUB: for (int i = 0; i < a.length; i++) result[i] = subtract(a[i], b); break;
+                case MUL: for (int i = 0; i < a.length; i++) result[i] = multiply(a[i], b); break;
+                case DIV: for (int i = 0; i < a.length; i++) result[i] = divide(runtime, a[i], b); break;
+                }
+            } else if (other instanceof RubyFloat || other instanceof DoubleArray) {
+                return to_double_array(context).arithmetic(context, other, op);
+            } else {
+                throw runtime.newTypeError(other.getMetaClass().getName() + " can't be coerced into " +
+                        getMetaClass().getRealClass().getName());
+            }
+        } catch (ArithmeticException ae) {
+            throw runtime.newRangeError("integer overflow in " + getMetaClass().getRealClass().getName() +
+                    "#" + OPERATORS[op]);
+        }
+
+        return new IntArray(runtime, getMetaClass().getRealClass(), result);
+    }
+
+    private static long add(long x, long y) {
+        long result = x + y;
+        if (((x ^ result) & (y ^ result)) < 0) throw new ArithmeticException();
+        return result;
+    }
+
+    private static long subtract(long x, long y) {
+        long result = x - y;
+        if (((x ^ y) & (x ^ result)) < 0) throw new ArithmeticException();
+        return result;
+    }
+
+    private static long multiply(long x, long y) {
+        long result = x * y;
+        if (((Math.abs(x) | Math.abs(y)) >>> 31) != 0) {
+            if ((y != 0 && result / y != x) || (x == Long.MIN_VALUE && y == -1)) {
+                throw new ArithmeticException();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Floored division, as Fixnum#/ does it.
+     */
+    private static long divide(Ruby runtime, long x, long y) {
+        if (y == 0) throw runtime.newZeroDivisionError();
+        if (x == Long.MIN_VALUE && y == -1) throw new ArithmeticException();
+        long quotient = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) quotient--;
+        return quotient;
+    }
+}
@@ -0,0 +1,212 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext;
+
+import java.io.IOException;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyClass;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyModule;
+import org.jruby.RubyNumeric;
+import org.jruby.RubyObject;
+import org.jruby.RubyString;
+import org.jruby.anno.JRubyClass;
+import org.jruby.anno.JRubyMethod;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.runtime.load.Library;
+
+/**
+ * Base for the fixed-size, fixed-type numeric vectors in jruby/vector.
+ * Elements live unboxed in a primitive Java array and are only wrapped in a
+ * Fixnum or Float when Ruby code asks for one, so a vector costs eight bytes
+ * per element instead of a reference plus a boxed number.
+ *
+ * Subclasses own the storage and the arithmetic; this class supplies the
+ * indexing, iteration and conversion methods that only need boxed access.
+ */
+@JRubyClass(name="JRuby::PrimitiveArray", include="Enumerable")
+public abstract class PrimitiveArray extends RubyObject {
+    public static class Service implements Library {
+        public void load(Ruby runtime, boolean wrap) throws IOException {
+            RubyModule jruby = runtime.getOrCreateModule("JRuby");
+            RubyClass base = jruby.defineClassUnder("PrimitiveArray", runtime.getObject(),
+                    ObjectAllocator.NOT_ALLOCATABLE_ALLOCATOR);
+            base.includeModule(runtime.getEnumerable());
+            base.defineAnnotatedMethods(PrimitiveArray.class);
+
+            IntArray.createIntArrayClass(runtime, jruby, base);
+            DoubleArray.createDoubleArrayClass(runtime, jruby, base);
+        }
+    }
+
+    protected PrimitiveArray(Ruby runtime, RubyClass klass) {
+        super(runtime, klass);
+    }
+
+    public abstract int size();
+
+    /**
+     * Box the element at index, which must be in range.
+     */
+    protected abstract IRubyObject entry(int index);
+
+    /**
+     * Unbox value into the element at index, which must be in range.
+     */
+    protected abstract void store(int index, IRubyObject value);
+
+    /**
+     * Compare elements with a vector of the same class and size.
+     */
+    protected abstract boolean elementsEqual(PrimitiveArray other);
+
+    /**
+     * Hash the elements, consistently with elementsEqual.
+     */
+    protected abstract int elementsHash();
+
+    /**
+     * Replace the storage with the unboxed contents of elements.
+     */
+    protected abstract void replace(Ruby runtime, RubyArray elements);
+
+    protected void checkSameSize(PrimitiveArray other) {
+        if (other.size() != size()) {
+            throw getRuntime().newArgumentError("size mismatch (" + size() + " for " + other.size() + ")");
+        }
+    }
+
+    protected static int checkSize(Ruby runtime, IRubyObject size) {
+        long len = RubyNumeric.num2long(size);
+        if (len < 0) throw runtime.newArgumentError("negative array size");
+        if (len >= Integer.MAX_VALUE) throw runtime.newArgumentError("array size too big");
+        return (int) len;
+    }
+
+    private int index(IRubyObject index) {
+        long i = RubyNumeric.num2long(index);
+        if (i < 0) i += size();
+        return i < 0 || i >= size() ? -1 : (int) i;
+    }
+
+    @JRubyMethod(name = {"size", "length"})
+    public IRubyObject size(ThreadContext context) {
+        return context.getRuntime().newFixnum(size());
+    }
+
+    @JRubyMethod(name = "empty?")
+    public IRubyObject empty_p(ThreadContext context) {
+        return context.getRuntime().newBoolean(size() == 0);
+    }
+
+    @JRubyMethod(name = "[]", required = 1)
+    public IRubyObject aref(ThreadContext context, IRubyObject index) {
+        int i = index(index);
+        return i < 0 ? context.getRuntime().getNil() : entry(i);
+    }
+
+    @JRubyMethod(name = "[]=", required = 2)
+    public IRubyObject aset(ThreadContext context, IRubyObject index, IRubyObject value) {
+        checkFrozen();
+        int i = index(index);
+        if (i < 0) {
+            throw context.getRuntime().newIndexError("index " + RubyNumeric.num2long(index) + " out of vector");
+        }
+        store(i, value);
+        return value;
+    }
+
+    @JRubyMethod(name = "each", frame = true)
+    public IRubyObject each(ThreadContext context, Block block) {
+        if (!block.isGiven()) throw context.getRuntime().newLocalJumpErrorNoBlock();
+
+        for (int i = 0; i < size(); i++) {
+            block.yield(context, entry(i));
+        }
+        return this;
+    }
+
+    @JRubyMethod(name = "to_a")
+    public IRubyObject to_a(ThreadContext context) {
+        int size = size();
+        IRubyObject[] elements = new IRubyObject[size];
+        for (int i = 0; i < size; i++) {
+            elements[i] = entry(i);
+        }
+        return RubyArray.newArrayNoCopy(context.getRuntime(), elements);
+    }
+
+    @JRubyMethod(name = {"inspect", "to_s"})
+    public IRubyObject inspect(ThreadContext context) {
+        StringBuilder buf = new StringBuilder("#<").append(getMetaClass().getRealClass().getName()).append(" [");
+        for (int i = 0; i < size(); i++) {
+            if (i > 0) buf.append(", ");
+            buf.append(entry(i).inspect().toString());
+        }
+        return RubyString.newString(context.getRuntime(), buf.append("]>"));
+    }
+
+    @JRubyMethod(name = "==", required = 1)
+    public IRubyObject op_equal(ThreadContext context, IRubyObject other) {
+        if (this == other) return context.getRuntime().getTrue();
+        if (other.getClass() != getClass() || ((PrimitiveArray) other).size() != size()) {
+            return context.getRuntime().getFalse();
+        }
+        return context.getRuntime().newBoolean(elementsEqual((PrimitiveArray) other));
+    }
+
+    @JRubyMethod(name = "eql?", required = 1)
+    @Override
+    public IRubyObject eql_p(IRubyObject other) {
+        return op_equal(getRuntime().getCurrentContext(), other);
+    }
+
+    @JRubyMethod(name = "hash")
+    @Override
+    public RubyFixnum hash() {
+        return getRuntime().newFixnum(elementsHash());
+    }
+
+    @JRubyMethod(name = "marshal_dump")
+    public IRubyObject marshal_dump(ThreadContext context) {
+        return to_a(context);
+    }
+
+    @JRubyMethod(name = "marshal_load", required = 1)
+    public IRubyObject marshal_load(ThreadContext context, IRubyObject data) {
+        checkFrozen();
+        if (!(data instanceof RubyArray)) {
+            throw context.getRuntime().newTypeError("dumped " + getMetaClass().getRealClass().getName() + " must be an Array");
+        }
+        replace(context.getRuntime(), (RubyArray) data);
+        return this;
+    }
+}
@@ -28,6 +28,8 @@
 
 package org.jruby.ext.ffi;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -40,8 +42,13 @@ import org.jruby.RubyObject;
 import org.jruby.RubySymbol;
 import org.jruby.anno.JRubyClass;
 import org.jruby.anno.JRubyMethod;
+import org.jruby.internal.runtime.methods.CallConfiguration;
+import org.jruby.internal.runtime.methods.DynamicMethod;
+import org.jruby.runtime.Arity;
+import org.jruby.runtime.Block;
 import org.jruby.runtime.ObjectAllocator;
 import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.Visibility;
 import org.jruby.runtime.builtin.IRubyObject;
 
 /**
@@ -54,6 +61,12 @@ public final class StructLayout extends RubyObject {
 
     /** The name:offset map for this struct */
     private final Map<IRubyObject, Member> fields;
+
+    /** The members, in declaration order */
+    private final Member[] members;
+
+    /** The members, if all can be read from a copy of the struct's bytes; otherwise null */
+    private final PrimitiveMember[] primitiveMembers;
     
     /** The total size of this struct */
     private final int size;
@@ -98,6 +111,8 @@ public final class StructLayout extends RubyObject {
         super(runtime, klass);
         this.size = 0;
         this.fields = Collections.emptyMap();
+        this.members = new Member[0];
+        this.primitiveMembers = new PrimitiveMember[0];
     }
     
     /**
@@ -113,9 +128,26 @@ public final class StructLayout extends RubyObject {
         // fields should really be an immutable map as it is never modified after construction
         //
         this.fields = immutableMap(fields);
+        this.members = this.fields.values().toArray(new Member[this.fields.size()]);
         this.size = size;
+        this.primitiveMembers = primitiveMembers(members);
     }
     
+    /**
+     * Returns the members as {@link PrimitiveMember}s, or null if any of them
+     * is not one.
+     */
+    private static PrimitiveMember[] primitiveMembers(Member[] members) {
+        PrimitiveMember[] primitives = new PrimitiveMember[members.length];
+        for (int i = 0; i < members.length; ++i) {
+            if (!(members[i] instanceof PrimitiveMember)) {
+                return null;
+            }
+            primitives[i] = (PrimitiveMember) members[i];
+        }
+        return primitives;
+    }
+
     /**
      * Creates an immutable copy of the map.
      * <p>
@@ -182,6 +214,71 @@ public final class StructLayout extends RubyObject {
         return RubyArray.newArray(context.getRuntime(), fields.keySet());
     }
     
+    /**
+     * Gets the values of all members of this struct, in declaration order.
+     * <p>
+     * If every member is a plain number, the struct is copied out of native
+     * memory in one bulk read and the members are decoded from the copy.
+     * </p>
+     *
+     * @param ptr The address of the structure in memory.
+     * @return a <tt>RubyArray</tt> containing the member values.
+     */
+    @JRubyMethod(name = "values", required = 1)
+    public IRubyObject values(ThreadContext context, IRubyObject ptr) {
+        Ruby runtime = context.getRuntime();
+        IRubyObject[] values = new IRubyObject[members.length];
+        if (primitiveMembers != null && size > 0) {
+            byte[] bytes = new byte[size];
+            Member.getMemoryIO(ptr).get(0, bytes, 0, size);
+            ByteBuffer copy = ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+            for (int i = 0; i < primitiveMembers.length; ++i) {
+                values[i] = primitiveMembers[i].get(runtime, copy);
+            }
+        } else {
+            for (int i = 0; i < members.length; ++i) {
+                values[i] = members[i].get(runtime, ptr);
+            }
+        }
+        return RubyArray.newArrayNoCopy(runtime, values);
+    }
+
+    /**
+     * Defines a reader and a writer method on a struct class for each member,
+     * with the member's offset and type bound in, so <tt>struct.x</tt> does
+     * not have to look the member up by name the way <tt>struct[:x]</tt> does.
+     * <p>
+     * The methods read the struct's memory from its <tt>@pointer</tt>.  Names
+     * that already resolve to some other method on the class are left alone;
+     * those members are still reachable through <tt>[]</tt>.
+     * </p>
+     *
+     * @param klass The struct class to define the accessors on.
+     * @return nil
+     */
+    @JRubyMethod(name = "define_accessors", required = 1)
+    public IRubyObject define_accessors(ThreadContext context, IRubyObject klass) {
+        if (!(klass instanceof RubyModule)) {
+            throw context.getRuntime().newTypeError(klass, context.getRuntime().getModule());
+        }
+        RubyModule module = (RubyModule) klass;
+        for (Map.Entry<IRubyObject, Member> e : fields.entrySet()) {
+            String name = e.getKey().asJavaString();
+            if (isAccessorFree(module, name)) {
+                module.addMethod(name, new Getter(module, e.getValue()));
+            }
+            if (isAccessorFree(module, name + "=")) {
+                module.addMethod(name + "=", new Setter(module, e.getValue()));
+            }
+        }
+        return context.getRuntime().getNil();
+    }
+
+    private static boolean isAccessorFree(RubyModule module, String name) {
+        DynamicMethod method = module.searchMethod(name);
+        return method.isUndefined() || method instanceof Getter || method instanceof Setter;
+    }
+
     /**
      * Gets the total size of the struct.
      * 
@@ -242,5 +339,91 @@ public final class StructLayout extends RubyObject {
          */
         public abstract IRubyObject get(Ruby runtime, IRubyObject ptr);
     }
-    
+
+    /**
+     * A struct member holding a plain number, which can also be read from a
+     * copy of the struct's bytes rather than the struct memory itself.
+     */
+    static abstract class PrimitiveMember extends Member {
+        /** Initializes a new PrimitiveMember instance */
+        protected PrimitiveMember(long offset) {
+            super(offset);
+        }
+
+        /**
+         * Reads a ruby value for this member from a native byte order copy of
+         * the struct.
+         *
+         * @param struct A copy of the struct's bytes.
+         * @return A ruby object equivalent to the native member value.
+         */
+        abstract IRubyObject get(Ruby runtime, ByteBuffer struct);
+    }
+
+    /**
+     * Reads a member of the struct in the receiver's <tt>@pointer</tt>.
+     */
+    private static final class Getter extends DynamicMethod {
+        private final Member member;
+
+        Getter(RubyModule implementationClass, Member member) {
+            super(implementationClass, Visibility.PUBLIC, CallConfiguration.NO_FRAME_NO_SCOPE);
+            this.member = member;
+        }
+
+        @Override
+        public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, IRubyObject[] args, Block block) {
+            Arity.NO_ARGUMENTS.checkArity(context.getRuntime(), args);
+            return call(context, self, clazz, name);
+        }
+
+        @Override
+        public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name) {
+            return member.get(context.getRuntime(), self.getInstanceVariables().fastGetInstanceVariable("@pointer"));
+        }
+
+        @Override
+        public DynamicMethod dup() {
+            return this;
+        }
+
+        @Override
+        public Arity getArity() {
+            return Arity.NO_ARGUMENTS;
+        }
+    }
+
+    /**
+     * Writes a member of the struct in the receiver's <tt>@pointer</tt>.
+     */
+    private static final class Setter extends DynamicMethod {
+        private final Member member;
+
+        Setter(RubyModule implementationClass, Member member) {
+            super(implementationClass, Visibility.PUBLIC, CallConfiguration.NO_FRAME_NO_SCOPE);
+            this.member = member;
+        }
+
+        @Override
+        public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, IRubyObject[] args, Block block) {
+            Arity.ONE_ARGUMENT.checkArity(context.getRuntime(), args);
+            return call(context, self, clazz, name, args[0]);
+        }
+
+        @Override
+        public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, IRubyObject value) {
+            member.put(context.getRuntime(), self.getInstanceVariables().fastGetInstanceVariable("@pointer"), value);
+            return value;
+        }
+
+        @Override
+        public DynamicMethod dup() {
+            return this;
+        }
+
+        @Override
+        public Arity getArity() {
+            return Arity.ONE_ARGUMENT;
+        }
+    }
 }
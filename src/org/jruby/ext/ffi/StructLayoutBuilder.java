@@ -28,6 +28,7 @@
 
 package org.jruby.ext.ffi;
 
+import java.nio.ByteBuffer;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import org.jruby.Ruby;
@@ -223,7 +224,7 @@ public final class StructLayoutBuilder extends RubyObject {
         }
         return null;
     }
-    static final class Signed8Member extends StructLayout.Member {
+    static final class Signed8Member extends StructLayout.PrimitiveMember {
         Signed8Member(long offset) {
             super(offset);
         }
@@ -234,9 +235,13 @@ public final class StructLayoutBuilder extends RubyObject {
         public IRubyObject get(Ruby runtime, IRubyObject ptr) {
             return RubyFixnum.newFixnum(runtime, getMemoryIO(ptr).getByte(offset));
         }
+        @Override
+        IRubyObject get(Ruby runtime, ByteBuffer struct) {
+            return RubyFixnum.newFixnum(runtime, struct.get((int) offset));
+        }
         static StructLayout.Member create(long offset) { return new Signed8Member(offset); }
     }
-    static final class Unsigned8Member extends StructLayout.Member {
+    static final class Unsigned8Member extends StructLayout.PrimitiveMember {
         Unsigned8Member(long offset) {
             super(offset);
         }
@@ -249,9 +254,13 @@ public final class StructLayoutBuilder extends RubyObject {
             return RubyFixnum.newFixnum(runtime,
                 value < 0 ? (short) ((value & 0x7F) + 0x80) : value);
         }
+        @Override
+        IRubyObject get(Ruby runtime, ByteBuffer struct) {
+            return RubyFixnum.newFixnum(runtime, struct.get((int) offset) & 0xff);
+        }
         static StructLayout.Member create(long offset) { return new Unsigned8Member(offset); }
     }
-    static final class Signed16Member extends StructLayout.Member {
+    static final class Signed16Member extends StructLayout.PrimitiveMember {
         Signed16Member(long offset) {
             super(offset);
         }
@@ -262,9 +271,13 @@ public final class StructLayoutBuilder extends RubyObject {
         public IRubyObject get(Ruby runtime, IRubyObject ptr) {
             return RubyFixnum.newFixnum(runtime, getMemoryIO(ptr).getShort(offset));
         }
+        @Override
+        IRubyObject get(Ruby runtime, ByteBuffer struct) {
+            return RubyFixnum.newFixnum(runtime, struct.getShort((int) offset));
+        }
         static StructLayout.Member create(long offset) { return new Signed16Member(offset); }
     }
-    static final class Unsigned16Member extends StructLayout.Member {
+    static final class Unsigned16Member extends StructLayout.PrimitiveMember {
         Unsigned16Member(long offset) {
             super(offset);
         }
@@ -277,9 +290,13 @@ public final class StructLayoutBuilder extends RubyObject {
             return RubyFixnum.newFixnum(runtime, 
                 value < 0 ? (int)((value & 0x7FFF) + 0x8000) : value);
         }
+        @Override
+        IRubyObject get(Ruby runtime, ByteBuffer struct) {
+            return RubyFixnum.newFixnum(runtime, struct.getShort((int) offset) & 0xffff);
+        }
         static StructLayout.Member create(long offset) { return new Unsigned16Member(offset); }
     }
-    static final class Signed32Member extends StructLayout.Member {
+    static final class Signed32Member extends StructLayout.PrimitiveMember {
         Signed32Member(long offset) {
             super(offset);
         }
@@ -290,9 +307,13 @@ public final class StructLayoutBuilder extends RubyObject {
         public IRubyObject get(Ruby runtime, IRubyObject ptr) {
             return RubyFixnum.newFixnum(runtime, getMemoryIO(ptr).getInt(offset));
         }
+        @Override
+        IRubyObject get(Ruby runtime, ByteBuffer struct) {
+            return RubyFixnum.newFixnum(runtime, struct.getInt((int) offset));
+        }
         static StructLayout.Member create(long offset) { return new Signed32Member(offset); }
     }
-    static final class Unsigned32Member extends StructLayout.Member {
+    static final class Unsigned32Member extends StructLayout.PrimitiveMember {
         Unsigned32Member(long offset) {
             super(offset);
         }
@@ -305,9 +326,13 @@ public final class StructLayoutBuilder extends RubyObject {
             return RubyFixnum.newFixnum(runtime, 
                 value < 0 ? (long)((value & 0x7FFFFFFFL) + 0x80000000L) : value);
         }
+        @Override
+        IRubyObject get(Ruby runtime, ByteBuffer struct) {
+            return RubyFixnum.newFixnum(runtime, struct.getInt((int) offset) & 0xffffffffL);
+        }
         static StructLayout.Member create(long offset) { return new Unsigned32Member(offset); }
     }
-    static final class Signed64Member extends StructLayout.Member {
+    static final class Signed64Member extends StructLayout.PrimitiveMember {
         Signed64Member(long offset) {
             super(offset);
         }
@@ -318,6 +343,10 @@ public final class StructLayoutBuilder extends RubyObject {
         public IRubyObject get(Ruby runtime, IRubyObject ptr) {
             return RubyFixnum.newFixnum(runtime, getMemoryIO(ptr).getLong(offset));
         }
+        @Override
+        IRubyObject get(Ruby runtime, ByteBuffer struct) {
+            return RubyFixnum.newFixnum(runtime, struct.getLong((int) offset));
+        }
         static StructLayout.Member create(long offset) { return new Signed64Member(offset); }
     }
     static final class PointerMember extends StructLayout.Member {
@@ -339,7 +368,7 @@ public final class StructLayoutBuilder extends RubyObject {
         }
         static StructLayout.Member create(long offset) { return new PointerMember(offset); }
     }
-    static final class Float32Member extends StructLayout.Member {
+    static final class Float32Member extends StructLayout.PrimitiveMember {
         Float32Member(long offset) {
             super(offset);
         }
@@ -350,9 +379,13 @@ public final class StructLayoutBuilder extends RubyObject {
         public IRubyObject get(Ruby runtime, IRubyObject ptr) {
             return RubyFloat.newFloat(runtime, getMemoryIO(ptr).getFloat(offset));
         }
+        @Override
+        IRubyObject get(Ruby runtime, ByteBuffer struct) {
+            return RubyFloat.newFloat(runtime, struct.getFloat((int) offset));
+        }
         static StructLayout.Member create(long offset) { return new Float32Member(offset); }
     }
-    static final class Float64Member extends StructLayout.Member {
+    static final class Float64Member extends StructLayout.PrimitiveMember {
         Float64Member(long offset) {
             super(offset);
         }
@@ -363,6 +396,10 @@ public final class StructLayoutBuilder extends RubyObject {
         public IRubyObject get(Ruby runtime, IRubyObject ptr) {
             return RubyFloat.newFloat(runtime, getMemoryIO(ptr).getDouble(offset));
         }
+        @Override
+        IRubyObject get(Ruby runtime, ByteBuffer struct) {
+            return RubyFloat.newFloat(runtime, struct.getDouble((int) offset));
+        }
         static StructLayout.Member create(long offset) { return new Float64Member(offset); }
     }
     static final class StringMember extends StructLayout.Member {
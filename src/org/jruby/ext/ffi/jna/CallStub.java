@@ -0,0 +1,187 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2008 JRuby project
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.ffi.jna;
+
+import com.sun.jna.Function;
+import com.sun.jna.Pointer;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import org.jruby.util.SafePropertyAccessor;
+
+/**
+ * The call path for one attached native function.
+ * <p>
+ * JNA's public <tt>Function.invoke*</tt> methods copy the argument array and
+ * run every argument through JNA's type mapping on each call, and then
+ * dispatch on the return class.  None of that is needed for the arguments
+ * the FFI marshallers produce (boxed primitives, Pointers and Buffers, which
+ * JNA passes through unchanged), so a direct stub binds the function's calling
+ * convention once and calls JNA's native dispatch methods itself.
+ * </p>
+ * <p>
+ * Callbacks still need JNA's conversion to a function pointer, so signatures
+ * with callback parameters always use the JNA path, as does everything when
+ * <tt>jruby.ffi.jna.direct</tt> is false or the dispatch methods cannot be
+ * reached in this JNA version.
+ * </p>
+ */
+final class CallStub {
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final Function function;
+    private final Integer callFlags;
+    private final boolean direct;
+
+    private CallStub(Function function, Integer callFlags, boolean direct) {
+        this.function = function;
+        this.callFlags = callFlags;
+        this.direct = direct;
+    }
+
+    /**
+     * Creates a stub that calls through JNA's public invoke methods.
+     */
+    static CallStub newJNAStub(Function function) {
+        return new CallStub(function, null, false);
+    }
+
+    /**
+     * Creates a stub that calls JNA's native dispatch directly if it can.
+     */
+    static CallStub newDirectStub(Function function) {
+        if (!isDirectEnabled()) {
+            return newJNAStub(function);
+        }
+        try {
+            return new CallStub(function, (Integer) Dispatch.CALL_FLAGS.get(function), true);
+        } catch (IllegalAccessException ex) {
+            return newJNAStub(function);
+        }
+    }
+
+    /**
+     * Whether native calls and memory access should bypass the generic JNA
+     * paths.  Read each time so the two paths can be compared in one process.
+     */
+    static boolean isDirectEnabled() {
+        return Dispatch.AVAILABLE && SafePropertyAccessor.getBoolean("jruby.ffi.jna.direct", true);
+    }
+
+    boolean isDirect() {
+        return direct;
+    }
+
+    void invoke(Object[] args) {
+        if (direct) {
+            dispatch(Dispatch.INVOKE_VOID, args);
+        } else {
+            function.invoke(args);
+        }
+    }
+
+    int invokeInt(Object[] args) {
+        return direct ? ((Integer) dispatch(Dispatch.INVOKE_INT, args)).intValue() : function.invokeInt(args);
+    }
+
+    long invokeLong(Object[] args) {
+        return direct ? ((Long) dispatch(Dispatch.INVOKE_LONG, args)).longValue() : function.invokeLong(args);
+    }
+
+    float invokeFloat(Object[] args) {
+        return direct ? ((Float) dispatch(Dispatch.INVOKE_FLOAT, args)).floatValue() : function.invokeFloat(args);
+    }
+
+    double invokeDouble(Object[] args) {
+        return direct ? ((Double) dispatch(Dispatch.INVOKE_DOUBLE, args)).doubleValue() : function.invokeDouble(args);
+    }
+
+    Pointer invokePointer(Object[] args) {
+        return direct ? (Pointer) dispatch(Dispatch.INVOKE_POINTER, args) : function.invokePointer(args);
+    }
+
+    private Object dispatch(Method method, Object[] args) {
+        try {
+            // JNA's dispatch does not accept a null argument array
+            return method.invoke(function, callFlags, args != null ? args : NO_ARGS);
+        } catch (InvocationTargetException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (IllegalAccessException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * JNA's native dispatch methods, looked up once.
+     */
+    private static final class Dispatch {
+        static final Field CALL_FLAGS;
+        static final Method INVOKE_VOID, INVOKE_INT, INVOKE_LONG, INVOKE_FLOAT, INVOKE_DOUBLE, INVOKE_POINTER;
+        static final boolean AVAILABLE;
+
+        static {
+            Field callFlags = null;
+            Method invokeVoid = null, invokeInt = null, invokeLong = null;
+            Method invokeFloat = null, invokeDouble = null, invokePointer = null;
+            boolean available = false;
+            try {
+                callFlags = Function.class.getDeclaredField("callingConvention");
+                callFlags.setAccessible(true);
+                invokeVoid = dispatchMethod("invokeVoid");
+                invokeInt = dispatchMethod("invokeInt");
+                invokeLong = dispatchMethod("invokeLong");
+                invokeFloat = dispatchMethod("invokeFloat");
+                invokeDouble = dispatchMethod("invokeDouble");
+                invokePointer = dispatchMethod("invokePointer");
+                available = callFlags.getType() == int.class;
+            } catch (Throwable t) {
+                // Not the JNA we know (or no permission); use the public API
+            }
+            CALL_FLAGS = callFlags;
+            INVOKE_VOID = invokeVoid;
+            INVOKE_INT = invokeInt;
+            INVOKE_LONG = invokeLong;
+            INVOKE_FLOAT = invokeFloat;
+            INVOKE_DOUBLE = invokeDouble;
+            INVOKE_POINTER = invokePointer;
+            AVAILABLE = available;
+        }
+
+        private static Method dispatchMethod(String name) throws NoSuchMethodException {
+            Method method = Function.class.getDeclaredMethod(name, int.class, Object[].class);
+            method.setAccessible(true);
+            return method;
+        }
+    }
+}
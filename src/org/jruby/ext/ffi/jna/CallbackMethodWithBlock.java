@@ -28,7 +28,6 @@
 
 package org.jruby.ext.ffi.jna;
 
-import com.sun.jna.Function;
 import org.jruby.RubyModule;
 import org.jruby.internal.runtime.methods.CallConfiguration;
 import org.jruby.internal.runtime.methods.DynamicMethod;
@@ -44,11 +43,11 @@ import org.jruby.runtime.builtin.IRubyObject;
  */
 final class CallbackMethodWithBlock extends DynamicMethod {
     private final Marshaller[] marshallers;
-    private final Function function;
+    private final CallStub function;
     private final FunctionInvoker functionInvoker;
     private final int cbindex;
     
-    public CallbackMethodWithBlock(RubyModule implementationClass, Function function, 
+    public CallbackMethodWithBlock(RubyModule implementationClass, CallStub function, 
             FunctionInvoker functionInvoker, Marshaller[] marshallers, int cbindex) {
         super(implementationClass, Visibility.PUBLIC, CallConfiguration.FRAME_AND_SCOPE);
         this.function = function;
@@ -28,7 +28,6 @@
 
 package org.jruby.ext.ffi.jna;
 
-import com.sun.jna.Function;
 import org.jruby.RubyModule;
 import org.jruby.runtime.Arity;
 import org.jruby.runtime.Block;
@@ -37,7 +36,7 @@ import org.jruby.runtime.builtin.IRubyObject;
 
 class DynamicMethodOneArg extends JNADynamicMethod {
     final Marshaller marshaller;
-    public DynamicMethodOneArg(RubyModule implementationClass, Function function, 
+    public DynamicMethodOneArg(RubyModule implementationClass, CallStub function, 
             FunctionInvoker functionInvoker, Marshaller[] marshallers) {
         super(implementationClass, Arity.ONE_ARGUMENT, function, functionInvoker);
         this.marshaller = marshallers[0];
@@ -28,7 +28,6 @@
 
 package org.jruby.ext.ffi.jna;
 
-import com.sun.jna.Function;
 import org.jruby.RubyModule;
 import org.jruby.runtime.Arity;
 import org.jruby.runtime.Block;
@@ -39,7 +38,7 @@ final class DynamicMethodThreeArg extends JNADynamicMethod {
     private final Marshaller marshaller1;
     private final Marshaller marshaller2;
     private final Marshaller marshaller3;
-    public DynamicMethodThreeArg(RubyModule implementationClass, Function function, 
+    public DynamicMethodThreeArg(RubyModule implementationClass, CallStub function, 
             FunctionInvoker functionInvoker, Marshaller[] marshallers) {
         super(implementationClass, Arity.THREE_ARGUMENTS, function, functionInvoker);
         marshaller1 = marshallers[0];
@@ -29,7 +29,6 @@
 package org.jruby.ext.ffi.jna;
 
 
-import com.sun.jna.Function;
 import org.jruby.RubyModule;
 import org.jruby.runtime.Arity;
 import org.jruby.runtime.Block;
@@ -39,7 +38,7 @@ import org.jruby.runtime.builtin.IRubyObject;
 final class DynamicMethodTwoArg extends JNADynamicMethod {
     private final Marshaller marshaller1;
     private final Marshaller marshaller2;
-    public DynamicMethodTwoArg(RubyModule implementationClass, Function function, 
+    public DynamicMethodTwoArg(RubyModule implementationClass, CallStub function, 
             FunctionInvoker functionInvoker, Marshaller[] marshallers) {
         super(implementationClass, Arity.TWO_ARGUMENTS, function, functionInvoker);
         marshaller1 = marshallers[0];
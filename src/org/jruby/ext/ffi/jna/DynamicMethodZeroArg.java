@@ -28,7 +28,6 @@
 
 package org.jruby.ext.ffi.jna;
 
-import com.sun.jna.Function;
 import org.jruby.RubyModule;
 import org.jruby.runtime.Arity;
 import org.jruby.runtime.Block;
@@ -41,7 +40,7 @@ import org.jruby.runtime.builtin.IRubyObject;
  */
 class DynamicMethodZeroArg extends JNADynamicMethod {
 
-    public DynamicMethodZeroArg(RubyModule implementationClass, Function function,
+    public DynamicMethodZeroArg(RubyModule implementationClass, CallStub function,
             FunctionInvoker functionInvoker) {
         super(implementationClass, Arity.NO_ARGUMENTS, function, functionInvoker);
     }
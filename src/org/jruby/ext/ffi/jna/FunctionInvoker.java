@@ -1,6 +1,5 @@
 package org.jruby.ext.ffi.jna;
 
-import com.sun.jna.Function;
 import org.jruby.Ruby;
 import org.jruby.runtime.builtin.IRubyObject;
 
@@ -10,5 +9,5 @@ import org.jruby.runtime.builtin.IRubyObject;
  */
 interface FunctionInvoker {
 
-    IRubyObject invoke(Ruby runtime, Function function, Object[] args);
+    IRubyObject invoke(Ruby runtime, CallStub function, Object[] args);
 }
@@ -28,7 +28,6 @@
 
 package org.jruby.ext.ffi.jna;
 
-import com.sun.jna.Function;
 import org.jruby.RubyModule;
 import org.jruby.internal.runtime.methods.CallConfiguration;
 import org.jruby.internal.runtime.methods.DynamicMethod;
@@ -41,10 +40,10 @@ import org.jruby.runtime.Visibility;
  */
 abstract class JNADynamicMethod extends DynamicMethod {
     protected final Arity arity;
-    protected final Function function;
+    protected final CallStub function;
     protected final FunctionInvoker functionInvoker;
 
-    public JNADynamicMethod(RubyModule implementationClass, Arity arity, Function function, FunctionInvoker functionInvoker) {
+    public JNADynamicMethod(RubyModule implementationClass, Arity arity, CallStub function, FunctionInvoker functionInvoker) {
         super(implementationClass, Visibility.PUBLIC, CallConfiguration.NO_FRAME_NO_SCOPE);
         this.arity = arity;
         this.function = function;
@@ -28,7 +28,6 @@
 
 package org.jruby.ext.ffi.jna;
 
-import com.sun.jna.Function;
 import org.jruby.Ruby;
 import org.jruby.RubyModule;
 import org.jruby.ext.ffi.Invoker;
@@ -42,11 +41,11 @@ import org.jruby.runtime.builtin.IRubyObject;
  */
 final class JNAInvoker extends Invoker {
 
-    private final Function function;
+    private final CallStub function;
     private final FunctionInvoker functionInvoker;
     private final Marshaller[] marshallers;
 
-    public JNAInvoker(Ruby runtime, Function function, FunctionInvoker functionInvoker, Marshaller[] marshallers) {
+    public JNAInvoker(Ruby runtime, CallStub function, FunctionInvoker functionInvoker, Marshaller[] marshallers) {
         super(runtime, marshallers.length);
         this.function = function;
         this.functionInvoker = functionInvoker;
@@ -74,7 +74,7 @@ public abstract class JNAMemoryIO implements MemoryIO {
      * @return A new <tt>MemoryIO</tt> instance that can access the memory.
      */
     static final JNAMemoryIO allocateDirect(int size) {
-        return new PointerIO(size);
+        return CallStub.isDirectEnabled() ? new DirectBufferIO(size) : new PointerIO(size);
     }
     
     /**
@@ -322,6 +322,197 @@ public abstract class JNAMemoryIO implements MemoryIO {
         }
 
     }
+    /**
+     * A <tt>MemoryIO</tt> accessor for a block of native memory allocated by
+     * JRuby, whose size is therefore known.
+     * <p>
+     * Reads and writes go through a direct <tt>ByteBuffer</tt> over the block
+     * instead of a JNI call into JNA for every access, which the JIT compiles
+     * down to plain loads and stores.  The JNA pointer is kept for passing the
+     * memory to native functions; it also keeps the memory from being freed
+     * while the buffer is in use.
+     * </p>
+     */
+    static final class DirectBufferIO extends JNAMemoryIO {
+        final Pointer ptr;
+        final ByteBuffer buffer;
+
+        DirectBufferIO(int size) {
+            this(new Memory(size), size);
+        }
+        private DirectBufferIO(Pointer ptr, int size) {
+            this(ptr, ptr.getByteBuffer(0, size));
+        }
+        private DirectBufferIO(Pointer ptr, ByteBuffer buffer) {
+            super(ptr);
+            this.ptr = ptr;
+            this.buffer = buffer.order(ByteOrder.nativeOrder());
+        }
+        public Pointer getAddress() {
+            return ptr;
+        }
+        public boolean isNull() {
+            return false;
+        }
+        private ByteBuffer slice(long offset, int size) {
+            ByteBuffer tmp = buffer.duplicate();
+            tmp.position((int) offset).limit((int) offset + size);
+            return tmp.slice().order(ByteOrder.nativeOrder());
+        }
+
+        public byte getByte(long offset) {
+            return buffer.get((int) offset);
+        }
+
+        public short getShort(long offset) {
+            return buffer.getShort((int) offset);
+        }
+
+        public int getInt(long offset) {
+            return buffer.getInt((int) offset);
+        }
+
+        public long getLong(long offset) {
+            return buffer.getLong((int) offset);
+        }
+
+        public long getNativeLong(long offset) {
+            return NativeLong.SIZE == 4
+                    ? buffer.getInt((int) offset)
+                    : buffer.getLong((int) offset);
+        }
+
+        public float getFloat(long offset) {
+            return buffer.getFloat((int) offset);
+        }
+
+        public double getDouble(long offset) {
+            return buffer.getDouble((int) offset);
+        }
+
+        public Pointer getPointer(long offset) {
+            return ptr.getPointer(offset);
+        }
+
+        public void putByte(long offset, byte value) {
+            buffer.put((int) offset, value);
+        }
+
+        public void putShort(long offset, short value) {
+            buffer.putShort((int) offset, value);
+        }
+
+        public void putInt(long offset, int value) {
+            buffer.putInt((int) offset, value);
+        }
+
+        public void putLong(long offset, long value) {
+            buffer.putLong((int) offset, value);
+        }
+
+        public void putNativeLong(long offset, long value) {
+            if (NativeLong.SIZE == 4) {
+                buffer.putInt((int) offset, (int) value);
+            } else {
+                buffer.putLong((int) offset, value);
+            }
+        }
+
+        public void putFloat(long offset, float value) {
+            buffer.putFloat((int) offset, value);
+        }
+
+        public void putDouble(long offset, double value) {
+            buffer.putDouble((int) offset, value);
+        }
+
+        public void putPointer(long offset, Pointer value) {
+            ptr.setPointer(offset, value);
+        }
+
+        public void get(long offset, byte[] dst, int off, int len) {
+            slice(offset, len).get(dst, off, len);
+        }
+
+        public void put(long offset, byte[] src, int off, int len) {
+            slice(offset, len).put(src, off, len);
+        }
+
+        public void get(long offset, short[] dst, int off, int len) {
+            slice(offset, len * 2).asShortBuffer().get(dst, off, len);
+        }
+
+        public void put(long offset, short[] src, int off, int len) {
+            slice(offset, len * 2).asShortBuffer().put(src, off, len);
+        }
+
+        public void get(long offset, int[] dst, int off, int len) {
+            slice(offset, len * 4).asIntBuffer().get(dst, off, len);
+        }
+
+        public void put(long offset, int[] src, int off, int len) {
+            slice(offset, len * 4).asIntBuffer().put(src, off, len);
+        }
+
+        public void get(long offset, long[] dst, int off, int len) {
+            slice(offset, len * 8).asLongBuffer().get(dst, off, len);
+        }
+
+        public void put(long offset, long[] src, int off, int len) {
+            slice(offset, len * 8).asLongBuffer().put(src, off, len);
+        }
+
+        public void get(long offset, float[] dst, int off, int len) {
+            slice(offset, len * 4).asFloatBuffer().get(dst, off, len);
+        }
+
+        public void put(long offset, float[] src, int off, int len) {
+            slice(offset, len * 4).asFloatBuffer().put(src, off, len);
+        }
+
+        public void get(long offset, double[] dst, int off, int len) {
+            slice(offset, len * 8).asDoubleBuffer().get(dst, off, len);
+        }
+
+        public void put(long offset, double[] src, int off, int len) {
+            slice(offset, len * 8).asDoubleBuffer().put(src, off, len);
+        }
+
+        public int indexOf(long offset, byte value) {
+            int idx = indexOf(offset, value, buffer.capacity() - (int) offset);
+            if (idx < 0) {
+                // same failure as a JNA Memory read running off the end
+                throw new IndexOutOfBoundsException("Bounds exceeds available space : size="
+                        + buffer.capacity() + ", offset=" + offset);
+            }
+            return idx;
+        }
+
+        public int indexOf(long offset, byte value, int maxlen) {
+            int end = (int) Math.min(buffer.capacity(), offset + maxlen);
+            for (int i = (int) offset; i < end; ++i) {
+                if (buffer.get(i) == value) {
+                    return i - (int) offset;
+                }
+            }
+            return -1;
+        }
+
+        public void setMemory(long offset, long size, byte value) {
+            ptr.setMemory(offset, size, value);
+        }
+
+        public void clear() {
+            ptr.setMemory(0, buffer.capacity(), (byte) 0);
+        }
+
+        public JNAMemoryIO slice(long offset) {
+            return offset == 0
+                    ? this
+                    : new DirectBufferIO(ptr.share(offset), slice(offset, buffer.capacity() - (int) offset));
+        }
+    }
+
     private static class BufferIO extends JNAMemoryIO {
         final ByteBuffer buffer;
         BufferIO(int size) {
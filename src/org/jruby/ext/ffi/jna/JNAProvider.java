@@ -56,11 +56,14 @@ public final class JNAProvider extends FFIProvider {
         Function function = NativeLibrary.getInstance(libraryName).getFunction(functionName, conv);
         FunctionInvoker functionInvoker = getFunctionInvoker(returnType);
         Marshaller[] marshallers = new Marshaller[parameterTypes.length];
+        boolean hasCallback = false;
         for (int i = 0; i < marshallers.length; ++i) {
             marshallers[i] = getMarshaller(parameterTypes[i], conv);
+            hasCallback |= marshallers[i] instanceof CallbackMarshaller;
         }
+        CallStub stub = hasCallback ? CallStub.newJNAStub(function) : CallStub.newDirectStub(function);
 
-        return new JNAInvoker(runtime, function, functionInvoker, marshallers);
+        return new JNAInvoker(runtime, stub, functionInvoker, marshallers);
     }
     
     public int getLastError() {
@@ -188,7 +191,7 @@ public final class JNAProvider extends FFIProvider {
      * Invokes the native function with no return type, and returns nil to ruby.
      */
     private static final class VoidInvoker implements FunctionInvoker {
-        public final IRubyObject invoke(Ruby runtime, Function function, Object[] args) {
+        public final IRubyObject invoke(Ruby runtime, CallStub function, Object[] args) {
             function.invoke(args);
             return runtime.getNil();
         }
@@ -199,7 +202,7 @@ public final class JNAProvider extends FFIProvider {
      * Returns a Fixnum to ruby.
      */
     private static final class Signed8Invoker implements FunctionInvoker {
-        public final IRubyObject invoke(Ruby runtime, Function function, Object[] args) {
+        public final IRubyObject invoke(Ruby runtime, CallStub function, Object[] args) {
             int value = function.invokeInt(args) & 0xff;
             return runtime.newFixnum(value < 0x80 ? value : -0x80 + (value - 0x80));
         }
@@ -211,7 +214,7 @@ public final class JNAProvider extends FFIProvider {
      * Returns a Fixnum to ruby.
      */
     private static final class Unsigned8Invoker implements FunctionInvoker {
-        public final IRubyObject invoke(Ruby runtime, Function function, Object[] args) {
+        public final IRubyObject invoke(Ruby runtime, CallStub function, Object[] args) {
             return Util.newUnsigned8(runtime, function.invokeInt(args));
         }
         public static final FunctionInvoker INSTANCE = new Unsigned8Invoker();
@@ -222,7 +225,7 @@ public final class JNAProvider extends FFIProvider {
      * Returns a Fixnum to ruby.
      */
     private static final class Signed16Invoker implements FunctionInvoker {
-        public final IRubyObject invoke(Ruby runtime, Function function, Object[] args) {
+        public final IRubyObject invoke(Ruby runtime, CallStub function, Object[] args) {
             int value = function.invokeInt(args) & 0xffff;
             return runtime.newFixnum(value < 0x8000 ? value : -0x8000 + (value - 0x8000));
         }
@@ -234,7 +237,7 @@ public final class JNAProvider extends FFIProvider {
      * Returns a Fixnum to ruby.
      */
     private static final class Unsigned16Invoker implements FunctionInvoker {
-        public final IRubyObject invoke(Ruby runtime, Function function, Object[] args) {
+        public final IRubyObject invoke(Ruby runtime, CallStub function, Object[] args) {
             return Util.newUnsigned16(runtime, function.invokeInt(args));
         }
         public static final FunctionInvoker INSTANCE = new Unsigned16Invoker();
@@ -244,7 +247,7 @@ public final class JNAProvider extends FFIProvider {
      * Returns a Fixnum to ruby.
      */
     private static final class Signed32Invoker implements FunctionInvoker {
-        public final IRubyObject invoke(Ruby runtime, Function function, Object[] args) {   
+        public final IRubyObject invoke(Ruby runtime, CallStub function, Object[] args) {   
             return runtime.newFixnum(function.invokeInt(args));
         }
         public static final FunctionInvoker INSTANCE = new Signed32Invoker();
@@ -255,7 +258,7 @@ public final class JNAProvider extends FFIProvider {
      * Returns a Fixnum to ruby.
      */
     private static final class Unsigned32Invoker implements FunctionInvoker {
-        public final IRubyObject invoke(Ruby runtime, Function function, Object[] args) {
+        public final IRubyObject invoke(Ruby runtime, CallStub function, Object[] args) {
             return Util.newUnsigned32(runtime, function.invokeInt(args));
         }
         public static final FunctionInvoker INSTANCE = new Unsigned32Invoker();
@@ -266,7 +269,7 @@ public final class JNAProvider extends FFIProvider {
      * Returns a Fixnum to ruby.
      */
     private static final class Signed64Invoker implements FunctionInvoker {
-        public final IRubyObject invoke(Ruby runtime, Function function, Object[] args) {
+        public final IRubyObject invoke(Ruby runtime, CallStub function, Object[] args) {
             return runtime.newFixnum(function.invokeLong(args));
         }
         public static final FunctionInvoker INSTANCE = new Signed64Invoker();
@@ -277,7 +280,7 @@ public final class JNAProvider extends FFIProvider {
      * Returns a ruby Fixnum or Bignum.
      */
     private static final class Unsigned64Invoker implements FunctionInvoker {
-        public final IRubyObject invoke(Ruby runtime, Function function, Object[] args) {
+        public final IRubyObject invoke(Ruby runtime, CallStub function, Object[] args) {
             return Util.newUnsigned64(runtime, function.invokeLong(args));
         }
         public static final FunctionInvoker INSTANCE = new Unsigned64Invoker();
@@ -288,7 +291,7 @@ public final class JNAProvider extends FFIProvider {
      * Returns a Float to ruby.
      */
     private static final class Float32Invoker implements FunctionInvoker {
-        public final IRubyObject invoke(Ruby runtime, Function function, Object[] args) {
+        public final IRubyObject invoke(Ruby runtime, CallStub function, Object[] args) {
             return runtime.newFloat(function.invokeFloat(args));
         }
         public static final FunctionInvoker INSTANCE = new Float32Invoker();
@@ -299,7 +302,7 @@ public final class JNAProvider extends FFIProvider {
      * Returns a Float to ruby.
      */
     private static final class Float64Invoker implements FunctionInvoker {
-        public final IRubyObject invoke(Ruby runtime, Function function, Object[] args) {
+        public final IRubyObject invoke(Ruby runtime, CallStub function, Object[] args) {
             return runtime.newFloat(function.invokeDouble(args));
         }
         public static final FunctionInvoker INSTANCE = new Float64Invoker();
@@ -310,7 +313,7 @@ public final class JNAProvider extends FFIProvider {
      * Returns a {@link MemoryPointer} to ruby.
      */
     private static final class PointerInvoker implements FunctionInvoker {
-        public final IRubyObject invoke(Ruby runtime, Function function, Object[] args) {
+        public final IRubyObject invoke(Ruby runtime, CallStub function, Object[] args) {
             return new JNABasePointer(runtime, function.invokePointer(args));
         }
         public static final FunctionInvoker INSTANCE = new PointerInvoker();
@@ -321,7 +324,7 @@ public final class JNAProvider extends FFIProvider {
      * Returns a {@link RubyString} to ruby.
      */
     private static final class StringInvoker implements FunctionInvoker {
-        public final IRubyObject invoke(Ruby runtime, Function function, Object[] args) {
+        public final IRubyObject invoke(Ruby runtime, CallStub function, Object[] args) {
             Pointer address = function.invokePointer(args);
             if (address == null) {
                 return runtime.getNil();
@@ -46,7 +46,7 @@ import org.jruby.runtime.builtin.IRubyObject;
 
 @JRubyClass(name = "FFI::VariadicInvoker", parent = "Object")
 public class JNAVariadicInvoker extends RubyObject {
-    private final Function function;
+    private final CallStub function;
     private final FunctionInvoker functionInvoker;
 
     public static RubyClass createVariadicInvokerClass(Ruby runtime, RubyModule module) {
@@ -62,7 +62,7 @@ public class JNAVariadicInvoker extends RubyObject {
      * Creates a new <tt>Invoker</tt> instance.
      * @param arity
      */
-    private JNAVariadicInvoker(Ruby runtime, Function function, FunctionInvoker functionInvoker) {
+    private JNAVariadicInvoker(Ruby runtime, CallStub function, FunctionInvoker functionInvoker) {
         super(runtime, runtime.fastGetModule("FFI").fastGetClass("VariadicInvoker"));
         this.function = function;
         this.functionInvoker = functionInvoker;
@@ -87,7 +87,8 @@ public class JNAVariadicInvoker extends RubyObject {
             throw context.getRuntime().newLoadError(ex.getMessage());
         }
         FunctionInvoker functionInvoker = JNAProvider.getFunctionInvoker(NativeType.valueOf(Util.int32Value(args[2])));
-        return new JNAVariadicInvoker(recv.getRuntime(), function, functionInvoker);
+        // variadic arguments rely on JNA's own conversions, so no direct stub
+        return new JNAVariadicInvoker(recv.getRuntime(), CallStub.newJNAStub(function), functionInvoker);
     }
 
     @JRubyMethod(name = { "invoke" })
@@ -0,0 +1,390 @@
+/*
+ **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2008 The JRuby Community <www.jruby.org>
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+
+package org.jruby.ext.socket;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyClass;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyFloat;
+import org.jruby.RubyIO;
+import org.jruby.RubyObject;
+import org.jruby.RubyProc;
+import org.jruby.RubySymbol;
+import org.jruby.anno.JRubyClass;
+import org.jruby.anno.JRubyMethod;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.Visibility;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.util.TypeConverter;
+
+/**
+ * An event loop building block: one long-lived Selector that IOs are
+ * registered with once, instead of a Selector opened for every wait.
+ *
+ * <pre>
+ *   poller = IO::Poller.new
+ *   poller.register(server, :read) { |io, event| handle_accept(io) }
+ *   poller.register(client, :read) { |io, event| handle_read(io) }
+ *   loop { poller.poll(1.0) }
+ * </pre>
+ *
+ * Registered IOs are switched to non-blocking mode, so they should be read
+ * and written with the *_nonblock methods; deregistering puts them back in
+ * the mode they had before. Ready IOs without a callback are yielded to the
+ * block given to poll, or returned from it.
+ */
+@JRubyClass(name="IO::Poller")
+public class RubyPoller extends RubyObject {
+    static void createPoller(Ruby runtime) {
+        RubyClass cPoller = runtime.getIO().defineClassUnder("Poller", runtime.getObject(), POLLER_ALLOCATOR);
+        cPoller.defineAnnotatedMethods(RubyPoller.class);
+    }
+
+    private static ObjectAllocator POLLER_ALLOCATOR = new ObjectAllocator() {
+        public IRubyObject allocate(Ruby runtime, RubyClass klass) {
+            return new RubyPoller(runtime, klass);
+        }
+    };
+
+    private static final int READ_OPS = SelectionKey.OP_READ | SelectionKey.OP_ACCEPT;
+    private static final int WRITE_OPS = SelectionKey.OP_WRITE;
+
+    /**
+     * What a SelectionKey is attached to: the object the user registered,
+     * its callback, and the blocking mode to restore on deregistration.
+     */
+    private static class Registration {
+        final IRubyObject io;
+        RubyProc callback;
+        final boolean wasBlocking;
+
+        Registration(IRubyObject io, RubyProc callback, boolean wasBlocking) {
+            this.io = io;
+            this.callback = callback;
+            this.wasBlocking = wasBlocking;
+        }
+    }
+
+    private Selector selector;
+    private final RubySymbol readSymbol;
+    private final RubySymbol writeSymbol;
+
+    /** Set while poll is dispatching, when cancelled keys can't be flushed. */
+    private boolean dispatching;
+    private final List<SelectionKey> cancelled = new ArrayList<SelectionKey>();
+
+    public RubyPoller(Ruby runtime, RubyClass type) {
+        super(runtime, type);
+        readSymbol = runtime.newSymbol("read");
+        writeSymbol = runtime.newSymbol("write");
+    }
+
+    @JRubyMethod(name = "initialize", visibility = Visibility.PRIVATE)
+    public IRubyObject initialize(ThreadContext context) {
+        try {
+            selector = SelectorProvider.provider().openSelector();
+        } catch (IOException ioe) {
+            throw context.getRuntime().newIOErrorFromException(ioe);
+        }
+        return this;
+    }
+
+    /**
+     * register(io, interest = :read) { |io, event| ... }
+     *
+     * Watch io for :read (which includes accept on servers), :write, or
+     * :readwrite. Registering an IO again replaces its interest and its
+     * callback.
+     */
+    @JRubyMethod(name = "register", required = 1, optional = 1, frame = true)
+    public IRubyObject register(ThreadContext context, IRubyObject[] args, Block block) {
+        Ruby runtime = context.getRuntime();
+        SelectableChannel channel = selectableChannel(context, args[0]);
+        int ops = interestOps(runtime, args.length > 1 ? args[1] : readSymbol, channel);
+        RubyProc callback = block.isGiven() ? runtime.newProc(Block.Type.PROC, block) : null;
+
+        try {
+            SelectionKey key = channel.keyFor(selector);
+            if (key != null && key.isValid()) {
+                Registration registration = (Registration) key.attachment();
+                registration.callback = callback;
+                key.interestOps(ops);
+                return args[0];
+            }
+            if (key != null) {
+                // cancelled but not yet flushed; it can't be registered again until it is
+                flushCancelled();
+            }
+            synchronized (channel.blockingLock()) {
+                boolean wasBlocking = channel.isBlocking();
+                if (wasBlocking) {
+                    channel.configureBlocking(false);
+                }
+                channel.register(selector, ops, new Registration(args[0], callback, wasBlocking));
+            }
+        } catch (IOException ioe) {
+            throw runtime.newIOErrorFromException(ioe);
+        }
+        return args[0];
+    }
+
+    /**
+     * Stop watching io and restore its blocking mode.
+     */
+    @JRubyMethod(name = "deregister", required = 1)
+    public IRubyObject deregister(ThreadContext context, IRubyObject io) {
+        SelectableChannel channel = selectableChannel(context, io);
+        SelectionKey key = channel.keyFor(selector);
+        if (key == null || !key.isValid()) {
+            return context.getRuntime().getFalse();
+        }
+        key.cancel();
+        cancelled.add(key);
+        if (!dispatching) {
+            flushCancelled();
+        }
+        return context.getRuntime().getTrue();
+    }
+
+    @JRubyMethod(name = "registered?", required = 1)
+    public IRubyObject registered_p(ThreadContext context, IRubyObject io) {
+        SelectionKey key = selectableChannel(context, io).keyFor(selector);
+        return context.getRuntime().newBoolean(key != null && key.isValid());
+    }
+
+    @JRubyMethod(name = {"size", "length"})
+    public IRubyObject size(ThreadContext context) {
+        checkOpen(context);
+        int size = 0;
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid()) size++;
+        }
+        return context.getRuntime().newFixnum(size);
+    }
+
+    /**
+     * poll(timeout = nil) { |io, event| ... }
+     *
+     * Wait up to timeout seconds (forever if nil, not at all if zero) for a
+     * registered IO to become ready, then dispatch one event per ready
+     * operation: to the IO's callback, or else to the block. IOs that were
+     * handled by neither are returned.
+     */
+    @JRubyMethod(name = "poll", optional = 1, frame = true)
+    public IRubyObject poll(ThreadContext context, IRubyObject[] args, Block block) {
+        Ruby runtime = context.getRuntime();
+        checkOpen(context);
+        long timeout = args.length > 0 ? timeoutMillis(runtime, args[0]) : -1;
+
+        SelectionKey[] ready;
+        try {
+            context.getThread().select(selector, timeout);
+            ready = selector.selectedKeys().toArray(new SelectionKey[0]);
+            selector.selectedKeys().clear();
+        } catch (IOException ioe) {
+            throw runtime.newIOErrorFromException(ioe);
+        }
+
+        RubyArray unhandled = runtime.newArray();
+        dispatching = true;
+        try {
+            for (SelectionKey key : ready) {
+                int readyOps;
+                try {
+                    readyOps = key.readyOps() & key.interestOps();
+                } catch (CancelledKeyException cke) {
+                    // deregistered or closed by an earlier callback
+                    continue;
+                }
+                Registration registration = (Registration) key.attachment();
+                boolean handled = true;
+                if ((readyOps & READ_OPS) != 0) {
+                    handled &= dispatch(context, registration, readSymbol, block);
+                }
+                if ((readyOps & WRITE_OPS) != 0 && key.isValid()) {
+                    handled &= dispatch(context, registration, writeSymbol, block);
+                }
+                if (!handled) {
+                    unhandled.append(registration.io);
+                }
+            }
+        } finally {
+            dispatching = false;
+            if (!cancelled.isEmpty()) {
+                flushCancelled();
+            }
+        }
+        return unhandled;
+    }
+
+    private boolean dispatch(ThreadContext context, Registration registration, RubySymbol event, Block block) {
+        if (registration.callback != null) {
+            registration.callback.call(context, new IRubyObject[] {registration.io, event});
+            return true;
+        }
+        if (block.isGiven()) {
+            block.call(context, new IRubyObject[] {registration.io, event});
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Wake up a poll in progress on another thread.
+     */
+    @JRubyMethod(name = "wakeup")
+    public IRubyObject wakeup(ThreadContext context) {
+        checkOpen(context);
+        selector.wakeup();
+        return this;
+    }
+
+    @JRubyMethod(name = "close")
+    public IRubyObject close(ThreadContext context) {
+        if (selector == null || !selector.isOpen()) {
+            return context.getRuntime().getNil();
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid()) {
+                key.cancel();
+                cancelled.add(key);
+            }
+        }
+        flushCancelled();
+        try {
+            selector.close();
+        } catch (IOException ioe) {
+            throw context.getRuntime().newIOErrorFromException(ioe);
+        }
+        return context.getRuntime().getNil();
+    }
+
+    @JRubyMethod(name = "closed?")
+    public IRubyObject closed_p(ThreadContext context) {
+        return context.getRuntime().newBoolean(selector == null || !selector.isOpen());
+    }
+
+    /**
+     * Flush cancelled keys out of the selector, then put their channels back
+     * in the blocking mode they were registered in. A channel can't switch to
+     * blocking while a selector still holds its key.
+     */
+    private void flushCancelled() {
+        try {
+            selector.selectNow();
+        } catch (IOException ioe) {
+            throw getRuntime().newIOErrorFromException(ioe);
+        }
+        for (SelectionKey key : cancelled) {
+            SelectableChannel channel = key.channel();
+            Registration registration = (Registration) key.attachment();
+            if (!registration.wasBlocking || !channel.isOpen()) continue;
+            synchronized (channel.blockingLock()) {
+                try {
+                    channel.configureBlocking(true);
+                } catch (IOException ioe) {
+                    // closed under us; nothing left to restore
+                }
+            }
+        }
+        cancelled.clear();
+    }
+
+    private void checkOpen(ThreadContext context) {
+        if (selector == null || !selector.isOpen()) {
+            throw context.getRuntime().newIOError("closed poller");
+        }
+    }
+
+    private SelectableChannel selectableChannel(ThreadContext context, IRubyObject obj) {
+        checkOpen(context);
+        RubyIO io = (RubyIO) TypeConverter.convertToType(obj, context.getRuntime().getIO(), "to_io");
+        Channel channel = io.getChannel();
+        if (!(channel instanceof SelectableChannel)) {
+            throw context.getRuntime().newArgumentError("not a selectable IO: " + obj.inspect());
+        }
+        SelectableChannel selectable = (SelectableChannel) channel;
+        if (selectable.provider() != selector.provider()) {
+            throw context.getRuntime().newArgumentError("IO uses a different selector provider");
+        }
+        return selectable;
+    }
+
+    private int interestOps(Ruby runtime, IRubyObject interest, SelectableChannel channel) {
+        int ops;
+        String name = interest instanceof RubySymbol ? interest.asJavaString() : "";
+        if (name.equals("read")) {
+            ops = READ_OPS;
+        } else if (name.equals("write")) {
+            ops = WRITE_OPS;
+        } else if (name.equals("readwrite")) {
+            ops = READ_OPS | WRITE_OPS;
+        } else {
+            throw runtime.newArgumentError("unknown interest " + interest.inspect() + " (expected :read, :write or :readwrite)");
+        }
+        ops &= channel.validOps();
+        if (ops == 0) {
+            throw runtime.newArgumentError("IO doesn't support " + interest.inspect());
+        }
+        return ops;
+    }
+
+    private long timeoutMillis(Ruby runtime, IRubyObject timeout) {
+        if (timeout.isNil()) {
+            return -1;
+        }
+        double seconds;
+        if (timeout instanceof RubyFloat) {
+            seconds = ((RubyFloat) timeout).getDoubleValue();
+        } else if (timeout instanceof RubyFixnum) {
+            seconds = ((RubyFixnum) timeout).getLongValue();
+        } else {
+            throw runtime.newTypeError("can't convert " + timeout.getMetaClass().getName() + " into time interval");
+        }
+        if (seconds < 0) {
+            throw runtime.newArgumentError("negative timeout given");
+        }
+        // round a short but non-zero wait up, since zero means don't wait
+        return seconds == 0 ? 0 : Math.max(1, Math.round(seconds * 1000));
+    }
+}
@@ -87,6 +87,7 @@ public class RubySocket extends RubyBasicSocket {
             RubyTCPSocket.createTCPSocket(runtime);
             RubyTCPServer.createTCPServer(runtime);
             RubyUDPSocket.createUDPSocket(runtime);
+            RubyPoller.createPoller(runtime);
         }
     }
 
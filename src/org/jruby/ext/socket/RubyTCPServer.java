@@ -35,7 +35,6 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 
 import java.nio.channels.ServerSocketChannel;
 
@@ -178,32 +177,28 @@ public class RubyTCPServer extends RubyTCPSocket {
     @JRubyMethod(name = "accept_nonblock")
     public IRubyObject accept_nonblock(ThreadContext context) {
         RubyTCPSocket socket = new RubyTCPSocket(context.getRuntime(), context.getRuntime().fastGetClass("TCPSocket"));
-        Selector selector = null;
         try {
-            ssc.configureBlocking(false);
-            selector = Selector.open();
-            SelectionKey key = ssc.register(selector, SelectionKey.OP_ACCEPT);
-            
-            int selected = selector.selectNow();
-            if (selected == 0) {
+            SocketChannel connected;
+            synchronized (ssc.blockingLock()) {
+                // a non-blocking accept just returns null when nobody is
+                // waiting, so there's no need to select first
+                if (ssc.isBlocking()) {
+                    ssc.configureBlocking(false);
+                }
+                connected = ssc.accept();
+            }
+            if (connected == null) {
                 // no connection immediately accepted, let them try again
                 throw context.getRuntime().newErrnoEAGAINError("Resource temporarily unavailable");
-            } else {
-                try {
-                    // otherwise one key has been selected (ours) so we get the channel and hand it off
-                    socket.initSocket(context.getRuntime(), new ChannelDescriptor(ssc.accept(), RubyIO.getNewFileno(), new ModeFlags(ModeFlags.RDWR), new FileDescriptor()));
-                } catch (InvalidValueException ex) {
-                    throw context.getRuntime().newErrnoEINVALError();
-                }
-                return socket;
             }
-        } catch(IOException e) {
-            throw sockerr(context.getRuntime(), "problem when accepting");
-        } finally {
             try {
-                if (selector != null) selector.close();
-            } catch (IOException ioe) {
+                socket.initSocket(context.getRuntime(), new ChannelDescriptor(connected, RubyIO.getNewFileno(), new ModeFlags(ModeFlags.RDWR), new FileDescriptor()));
+            } catch (InvalidValueException ex) {
+                throw context.getRuntime().newErrnoEINVALError();
             }
+            return socket;
+        } catch(IOException e) {
+            throw sockerr(context.getRuntime(), "problem when accepting");
         }
     }
     @Deprecated
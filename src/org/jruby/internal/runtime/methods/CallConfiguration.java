@@ -9,8 +9,12 @@
 
 package org.jruby.internal.runtime.methods;
 
+import org.jruby.RubyInstanceConfig;
 import org.jruby.RubyModule;
 import org.jruby.anno.JRubyMethod;
+import org.jruby.ast.ArgsNode;
+import org.jruby.ast.Node;
+import org.jruby.compiler.ASTInspector;
 import org.jruby.internal.runtime.JumpTarget;
 import org.jruby.parser.StaticScope;
 import org.jruby.runtime.Block;
@@ -116,6 +120,19 @@ public abstract class CallConfiguration {
             return "BACKTRACE_AND_SCOPE";
         }
     };
+    public static final CallConfiguration BACKTRACE_AND_DUMMY_SCOPE = new CallConfiguration() {
+        public void pre(ThreadContext context, IRubyObject self, RubyModule implementer, String name, Block block, StaticScope scope, JumpTarget jumpTarget) {
+            context.preMethodBacktraceAndDummyScope(name, implementer, scope);
+        }
+        
+        public void post(ThreadContext context) {
+            context.postMethodBacktraceAndScope();
+        }
+        
+        public String name() {
+            return "BACKTRACE_AND_DUMMY_SCOPE";
+        }
+    };
     
     public static CallConfiguration getCallConfigByAnno(JRubyMethod anno) {
         return getCallConfig(anno.frame(), anno.scope(), anno.backtrace());
@@ -141,6 +158,28 @@ public abstract class CallConfiguration {
         }
     }
 
+    /**
+     * Choose the cheapest configuration an interpreted method body can safely
+     * run under, using the same inspection the compiler uses for def. Unlike
+     * compiled code the interpreter keeps its locals in the DynamicScope, so a
+     * real scope is only skipped when the method has no variables at all, and
+     * yield still needs the frame's block. A backtrace frame is always kept so
+     * non-local returns have a target.
+     */
+    public static CallConfiguration getInterpretedCallConfig(StaticScope scope, ArgsNode argsNode, Node body) {
+        ASTInspector inspector = new ASTInspector();
+        inspector.inspect(argsNode);
+        inspector.inspect(body);
+
+        boolean needsScope = scope.getNumberOfVariables() > 0 || inspector.hasClosure() || inspector.hasScopeAwareMethods();
+
+        if (inspector.hasFrameAwareMethods() || inspector.hasYield() || !(inspector.noFrame() || RubyInstanceConfig.FRAMELESS_COMPILE_ENABLED)) {
+            return needsScope ? FRAME_AND_SCOPE : FRAME_AND_DUMMY_SCOPE;
+        } else {
+            return needsScope ? BACKTRACE_AND_SCOPE : BACKTRACE_AND_DUMMY_SCOPE;
+        }
+    }
+
     private CallConfiguration() {
     }
     
@@ -67,6 +67,7 @@ public class DefaultMethod extends DynamicMethod implements JumpTarget, MethodAr
     private CallConfiguration jitCallConfig;
     private ISourcePosition position;
     private boolean noArgHack;
+    private CallConfiguration interpretedCallConfig;
     
     public DefaultMethod(RubyModule implementationClass, StaticScope staticScope, Node body,
             ArgsNode argsNode, Visibility visibility, ISourcePosition position) {
@@ -149,9 +150,10 @@ public class DefaultMethod extends DynamicMethod implements JumpTarget, MethodAr
     }
 
     public IRubyObject interpretedCall(ThreadContext context, Ruby runtime, IRubyObject self, RubyModule clazz, String name, IRubyObject[] args, Block block) {
+        CallConfiguration callConfig = getInterpretedCallConfig();
         try {
 //            if ((count++ % 1000) == 0) System.out.println("DEFAULT: " + count);
-            preInterpret(context, name, self, block, runtime, args);
+            preInterpret(callConfig, context, name, self, block, runtime, args);
 
             return body.interpret(runtime, context, self, block);
         } catch (JumpException.ReturnJump rj) {
@@ -159,10 +161,23 @@ public class DefaultMethod extends DynamicMethod implements JumpTarget, MethodAr
         } catch (JumpException.RedoJump rj) {
             return handleRedo(runtime);
         } finally {
-            postInterpret(runtime, context, name);
+            postInterpret(callConfig, runtime, context, name);
         }
     }
 
+    /**
+     * The frame/scope setup used while this method is still interpreted. It is
+     * worked out from the AST on first call rather than at definition time, so
+     * methods that are defined but never called pay nothing for it.
+     */
+    public CallConfiguration getInterpretedCallConfig() {
+        CallConfiguration callConfig = interpretedCallConfig;
+        if (callConfig == null) {
+            callConfig = interpretedCallConfig = CallConfiguration.getInterpretedCallConfig(staticScope, argsNode, body);
+        }
+        return callConfig;
+    }
+
     @Override
     public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, IRubyObject[] args) {
         Ruby runtime = context.getRuntime();
@@ -394,15 +409,15 @@ public class DefaultMethod extends DynamicMethod implements JumpTarget, MethodAr
         jitCallConfig.post(context);
     }
 
-    private void postInterpret(Ruby runtime, ThreadContext context, String name) {
+    private void postInterpret(CallConfiguration callConfig, Ruby runtime, ThreadContext context, String name) {
         if (runtime.hasEventHooks()) {
             traceReturn(context, runtime, name);
         }
-        context.postMethodFrameAndScope();
+        callConfig.post(context);
     }
 
-    private void preInterpret(ThreadContext context, String name, IRubyObject self, Block block, Ruby runtime, IRubyObject[] args) {
-        context.preMethodFrameAndScope(getImplementationClass(), name, self, block, staticScope);
+    private void preInterpret(CallConfiguration callConfig, ThreadContext context, String name, IRubyObject self, Block block, Ruby runtime, IRubyObject[] args) {
+        callConfig.pre(context, self, getImplementationClass(), name, block, staticScope, this);
 
         if (runtime.hasEventHooks()) {
             traceCall(context, runtime, name);
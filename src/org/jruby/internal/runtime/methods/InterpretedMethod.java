@@ -51,6 +51,7 @@ public class InterpretedMethod extends DynamicMethod implements JumpTarget, Meth
     private ArgsNode argsNode;
     private ISourcePosition position;
     private String name;
+    private CallConfiguration interpretedCallConfig;
 
     public InterpretedMethod(RubyModule implementationClass, String name, StaticScope staticScope, Node body,
             ArgsNode argsNode, Visibility visibility, ISourcePosition position) {
@@ -84,9 +85,10 @@ public class InterpretedMethod extends DynamicMethod implements JumpTarget, Meth
         assert args != null;
         
         Ruby runtime = context.getRuntime();
+        CallConfiguration callConfig = getInterpretedCallConfig();
 
         try {
-            pre(context, name, self, block, runtime);
+            pre(callConfig, context, name, self, block, runtime);
             argsNode.checkArgCount(runtime, args.length);
             argsNode.prepare(context, runtime, self, args, block);
 
@@ -96,7 +98,7 @@ public class InterpretedMethod extends DynamicMethod implements JumpTarget, Meth
         } catch (JumpException.RedoJump rj) {
             return handleRedo(runtime);
         } finally {
-            post(runtime, context, name);
+            post(callConfig, runtime, context, name);
         }
     }
 
@@ -108,9 +110,10 @@ public class InterpretedMethod extends DynamicMethod implements JumpTarget, Meth
     @Override
     public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name) {
         Ruby runtime = context.getRuntime();
+        CallConfiguration callConfig = getInterpretedCallConfig();
 
         try {
-            pre(context, name, self, Block.NULL_BLOCK, runtime);
+            pre(callConfig, context, name, self, Block.NULL_BLOCK, runtime);
             argsNode.checkArgCount(runtime, 0);
             argsNode.prepare(context, runtime, self, Block.NULL_BLOCK);
 
@@ -120,16 +123,17 @@ public class InterpretedMethod extends DynamicMethod implements JumpTarget, Meth
         } catch (JumpException.RedoJump rj) {
             return handleRedo(runtime);
         } finally {
-            post(runtime, context, name);
+            post(callConfig, runtime, context, name);
         }
     }
 
     @Override
     public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, Block block) {
         Ruby runtime = context.getRuntime();
+        CallConfiguration callConfig = getInterpretedCallConfig();
 
         try {
-            pre(context, name, self, block, runtime);
+            pre(callConfig, context, name, self, block, runtime);
             argsNode.checkArgCount(runtime, 0);
             argsNode.prepare(context, runtime, self, block);
 
@@ -139,16 +143,17 @@ public class InterpretedMethod extends DynamicMethod implements JumpTarget, Meth
         } catch (JumpException.RedoJump rj) {
             return handleRedo(runtime);
         } finally {
-            post(runtime, context, name);
+            post(callConfig, runtime, context, name);
         }
     }
 
     @Override
     public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, IRubyObject arg0) {
         Ruby runtime = context.getRuntime();
+        CallConfiguration callConfig = getInterpretedCallConfig();
 
         try {
-            pre(context, name, self, Block.NULL_BLOCK, runtime);
+            pre(callConfig, context, name, self, Block.NULL_BLOCK, runtime);
             argsNode.checkArgCount(runtime, 1);
             argsNode.prepare(context, runtime, self, arg0, Block.NULL_BLOCK);
 
@@ -158,16 +163,17 @@ public class InterpretedMethod extends DynamicMethod implements JumpTarget, Meth
         } catch (JumpException.RedoJump rj) {
             return handleRedo(runtime);
         } finally {
-            post(runtime, context, name);
+            post(callConfig, runtime, context, name);
         }
     }
 
     @Override
     public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, IRubyObject arg0, Block block) {
         Ruby runtime = context.getRuntime();
+        CallConfiguration callConfig = getInterpretedCallConfig();
 
         try {
-            pre(context, name, self, block, runtime);
+            pre(callConfig, context, name, self, block, runtime);
             argsNode.checkArgCount(runtime, 1);
             argsNode.prepare(context, runtime, self, arg0, block);
 
@@ -177,16 +183,17 @@ public class InterpretedMethod extends DynamicMethod implements JumpTarget, Meth
         } catch (JumpException.RedoJump rj) {
             return handleRedo(runtime);
         } finally {
-            post(runtime, context, name);
+            post(callConfig, runtime, context, name);
         }
     }
 
     @Override
     public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, IRubyObject arg0, IRubyObject arg1) {
         Ruby runtime = context.getRuntime();
+        CallConfiguration callConfig = getInterpretedCallConfig();
 
         try {
-            pre(context, name, self, Block.NULL_BLOCK, runtime);
+            pre(callConfig, context, name, self, Block.NULL_BLOCK, runtime);
             argsNode.checkArgCount(runtime, 2);
             argsNode.prepare(context, runtime, self, arg0, arg1, Block.NULL_BLOCK);
 
@@ -196,16 +203,17 @@ public class InterpretedMethod extends DynamicMethod implements JumpTarget, Meth
         } catch (JumpException.RedoJump rj) {
             return handleRedo(runtime);
         } finally {
-            post(runtime, context, name);
+            post(callConfig, runtime, context, name);
         }
     }
 
     @Override
     public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, IRubyObject arg0, IRubyObject arg1, Block block) {
         Ruby runtime = context.getRuntime();
+        CallConfiguration callConfig = getInterpretedCallConfig();
 
         try {
-            pre(context, name, self, block, runtime);
+            pre(callConfig, context, name, self, block, runtime);
             argsNode.checkArgCount(runtime, 2);
             argsNode.prepare(context, runtime, self, arg0, arg1, block);
 
@@ -215,16 +223,17 @@ public class InterpretedMethod extends DynamicMethod implements JumpTarget, Meth
         } catch (JumpException.RedoJump rj) {
             return handleRedo(runtime);
         } finally {
-            post(runtime, context, name);
+            post(callConfig, runtime, context, name);
         }
     }
 
     @Override
     public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, IRubyObject arg0, IRubyObject arg1, IRubyObject arg2) {
         Ruby runtime = context.getRuntime();
+        CallConfiguration callConfig = getInterpretedCallConfig();
 
         try {
-            pre(context, name, self, Block.NULL_BLOCK, runtime);
+            pre(callConfig, context, name, self, Block.NULL_BLOCK, runtime);
             argsNode.checkArgCount(runtime, 3);
             argsNode.prepare(context, runtime, self, arg0, arg1, arg2, Block.NULL_BLOCK);
 
@@ -234,16 +243,17 @@ public class InterpretedMethod extends DynamicMethod implements JumpTarget, Meth
         } catch (JumpException.RedoJump rj) {
             return handleRedo(runtime);
         } finally {
-            post(runtime, context, name);
+            post(callConfig, runtime, context, name);
         }
     }
 
     @Override
     public IRubyObject call(ThreadContext context, IRubyObject self, RubyModule clazz, String name, IRubyObject arg0, IRubyObject arg1, IRubyObject arg2, Block block) {
         Ruby runtime = context.getRuntime();
+        CallConfiguration callConfig = getInterpretedCallConfig();
 
         try {
-            pre(context, name, self, block, runtime);
+            pre(callConfig, context, name, self, block, runtime);
             argsNode.checkArgCount(runtime, 3);
             argsNode.prepare(context, runtime, self, arg0, arg1, arg2, block);
 
@@ -253,20 +263,32 @@ public class InterpretedMethod extends DynamicMethod implements JumpTarget, Meth
         } catch (JumpException.RedoJump rj) {
             return handleRedo(runtime);
         } finally {
-            post(runtime, context, name);
+            post(callConfig, runtime, context, name);
         }
     }
 
-    private void pre(ThreadContext context, String name, IRubyObject self, Block block, Ruby runtime) {
-        context.preMethodFrameAndScope(getImplementationClass(), name, self, block, staticScope);
+    /**
+     * The frame/scope setup for this method body, worked out from the AST on
+     * first call.
+     */
+    public CallConfiguration getInterpretedCallConfig() {
+        CallConfiguration callConfig = interpretedCallConfig;
+        if (callConfig == null) {
+            callConfig = interpretedCallConfig = CallConfiguration.getInterpretedCallConfig(staticScope, argsNode, body);
+        }
+        return callConfig;
+    }
+
+    private void pre(CallConfiguration callConfig, ThreadContext context, String name, IRubyObject self, Block block, Ruby runtime) {
+        callConfig.pre(context, self, getImplementationClass(), name, block, staticScope, this);
 
         if (runtime.hasEventHooks()) traceCall(context, runtime, name);
     }
 
-    private void post(Ruby runtime, ThreadContext context, String name) {
+    private void post(CallConfiguration callConfig, Ruby runtime, ThreadContext context, String name) {
         if (runtime.hasEventHooks()) traceReturn(context, runtime, name);
 
-        context.postMethodFrameAndScope();
+        callConfig.post(context);
     }
 
     public ISourcePosition getPosition() {
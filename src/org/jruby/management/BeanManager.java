@@ -44,6 +44,10 @@ public class BeanManager {
     public void register(ClassCacheMBean classCache) {
         if (managementEnabled) register(base + "service=ClassCache", classCache);
     }
+    
+    public void register(RegexpCacheMBean regexpCache) {
+        if (managementEnabled) register(base + "service=RegexpCache", regexpCache);
+    }
 
     public void unregisterCompiler() {
         if (managementEnabled) unregister(base + "service=JITCompiler");
@@ -60,6 +64,9 @@ public class BeanManager {
     public void unregisterMethodCache() {
         if (managementEnabled) unregister(base + "service=MethodCache");
     }
+    public void unregisterRegexpCache() {
+        if (managementEnabled) unregister(base + "service=RegexpCache");
+    }
 
     private void register(String name, Object bean) {
         try {
@@ -0,0 +1,65 @@
+package org.jruby.management;
+
+import org.jruby.RubyRegexp;
+
+public class RegexpCache implements RegexpCacheMBean {
+    public int getPatternCacheSize() {
+        return RubyRegexp.getPatternCache().size();
+    }
+
+    public int getPatternCacheMaxSize() {
+        return RubyRegexp.getPatternCache().getMaxSize();
+    }
+
+    public long getPatternCacheHits() {
+        return RubyRegexp.getPatternCache().getHits();
+    }
+
+    public long getPatternCacheMisses() {
+        return RubyRegexp.getPatternCache().getMisses();
+    }
+
+    public long getPatternCacheEvictions() {
+        return RubyRegexp.getPatternCache().getEvictions();
+    }
+
+    public int getDynamicCacheSize() {
+        return RubyRegexp.getDynamicPatternCache().size();
+    }
+
+    public int getDynamicCacheMaxSize() {
+        return RubyRegexp.getDynamicPatternCache().getMaxSize();
+    }
+
+    public long getDynamicCacheHits() {
+        return RubyRegexp.getDynamicPatternCache().getHits();
+    }
+
+    public long getDynamicCacheMisses() {
+        return RubyRegexp.getDynamicPatternCache().getMisses();
+    }
+
+    public long getDynamicCacheEvictions() {
+        return RubyRegexp.getDynamicPatternCache().getEvictions();
+    }
+
+    public double getHitRate() {
+        long hits = getPatternCacheHits() + getDynamicCacheHits();
+        long total = hits + getPatternCacheMisses() + getDynamicCacheMisses();
+        if (total == 0) return 0;
+        return (double) hits / total;
+    }
+
+    public long getCompileCount() {
+        return RubyRegexp.getCompileCount();
+    }
+
+    public double getTotalCompileTime() {
+        return RubyRegexp.getCompileTime() / 1000000000.0;
+    }
+
+    public void flush() {
+        RubyRegexp.getPatternCache().clear();
+        RubyRegexp.getDynamicPatternCache().clear();
+    }
+}
@@ -0,0 +1,18 @@
+package org.jruby.management;
+
+public interface RegexpCacheMBean {
+    public int getPatternCacheSize();
+    public int getPatternCacheMaxSize();
+    public long getPatternCacheHits();
+    public long getPatternCacheMisses();
+    public long getPatternCacheEvictions();
+    public int getDynamicCacheSize();
+    public int getDynamicCacheMaxSize();
+    public long getDynamicCacheHits();
+    public long getDynamicCacheMisses();
+    public long getDynamicCacheEvictions();
+    public double getHitRate();
+    public long getCompileCount();
+    public double getTotalCompileTime();
+    public void flush();
+}
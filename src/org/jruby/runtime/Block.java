@@ -132,6 +132,22 @@ public class Block {
             RubyModule klass, boolean aValue) {
         return body.yield(context, value, self, klass, aValue, binding, type);
     }
+
+    /**
+     * Yield a Fixnum, which is only boxed if the block takes an argument.
+     */
+    public IRubyObject yieldSpecific(ThreadContext context, long value) {
+        return body.yieldSpecific(context, value, binding, type);
+    }
+
+    /**
+     * Yield each Fixnum from first through last, stepping by step (1 or -1).
+     * This is the loop behind the Fixnum forms of times, upto, downto and
+     * Range#each; callers must check that the range is not empty.
+     */
+    public void yieldSpecificLoop(ThreadContext context, long first, long last, int step) {
+        body.yieldSpecificLoop(context, first, last, step, binding, type);
+    }
     
     public Block cloneBlock() {
         Block newBlock = body.cloneBlock(binding);
@@ -32,7 +32,9 @@
  ***** END LICENSE BLOCK *****/
 package org.jruby.runtime;
 
+import org.jruby.Ruby;
 import org.jruby.RubyArray;
+import org.jruby.RubyFixnum;
 import org.jruby.RubyModule;
 import org.jruby.ast.IterNode;
 import org.jruby.ast.MultipleAsgnNode;
@@ -78,6 +80,27 @@ public abstract class BlockBody implements JumpTarget {
     
     public abstract IRubyObject yield(ThreadContext context, IRubyObject value, IRubyObject self, 
             RubyModule klass, boolean aValue, Binding binding, Block.Type type);
+
+    public IRubyObject yieldSpecific(ThreadContext context, long value, Binding binding, Block.Type type) {
+        Ruby runtime = context.getRuntime();
+        IRubyObject arg = argumentType == ZERO_ARGS ? runtime.getNil() : RubyFixnum.newFixnum(runtime, value);
+
+        return yield(context, arg, binding, type);
+    }
+
+    /**
+     * Yield first through last in turn, polling for thread events every so
+     * often rather than on every pass. Bodies that can set up once for the
+     * whole loop override this.
+     */
+    public void yieldSpecificLoop(ThreadContext context, long first, long last, int step,
+            Binding binding, Block.Type type) {
+        for (long i = first; ; i += step) {
+            yieldSpecific(context, i, binding, type);
+            if (i == last) return;
+            context.callThreadPoll();
+        }
+    }
     
     public abstract StaticScope getStaticScope();
 
@@ -29,6 +29,7 @@ package org.jruby.runtime;
 
 import org.jruby.Ruby;
 import org.jruby.RubyArray;
+import org.jruby.RubyFixnum;
 import org.jruby.RubyModule;
 import org.jruby.ast.util.ArgsUtil;
 import org.jruby.common.IRubyWarnings.ID;
@@ -126,6 +127,67 @@ public class CompiledBlock extends BlockBody {
         }
     }
     
+    /**
+     * Run the whole loop inside this body. Self is set up once and a
+     * single-argument block gets its Fixnum directly. A light body, whose
+     * variables never leave the Java stack, also keeps one frame and scope
+     * pushed for the whole loop instead of pushing them on every pass.
+     */
+    @Override
+    public void yieldSpecificLoop(ThreadContext context, long first, long last, int step,
+            Binding binding, Block.Type type) {
+        if (argumentType != ZERO_ARGS && argumentType != ARRAY) {
+            super.yieldSpecificLoop(context, first, last, step, binding, type);
+            return;
+        }
+
+        Ruby runtime = context.getRuntime();
+        boolean boxed = argumentType == ARRAY;
+        IRubyObject self = prepareSelf(binding);
+        Frame frame = binding.getFrame();
+        Visibility oldVis = frame.getVisibility();
+        DynamicScope loopScope = loopScope(binding);
+
+        if (loopScope == null) {
+            for (long i = first; ; i += step) {
+                Frame lastFrame = pre(context, null, binding);
+                try {
+                    callback.call(context, self, boxed ? RubyFixnum.newFixnum(runtime, i) : null);
+                } catch (JumpException.NextJump nj) {
+                    // a 'next' just ends this pass
+                } finally {
+                    post(context, binding, oldVis, lastFrame);
+                }
+                if (i == last) return;
+                context.callThreadPoll();
+            }
+        }
+
+        Frame lastFrame = context.preYieldLightBlock(binding, loopScope, null);
+        try {
+            for (long i = first; ; i += step) {
+                try {
+                    callback.call(context, self, boxed ? RubyFixnum.newFixnum(runtime, i) : null);
+                } catch (JumpException.NextJump nj) {
+                    // a 'next' just ends this pass
+                }
+                if (i == last) return;
+                frame.setVisibility(binding.getVisibility());
+                context.callThreadPoll();
+            }
+        } finally {
+            post(context, binding, oldVis, lastFrame);
+        }
+    }
+
+    /**
+     * A scope every pass of a loop can share, or null if each pass needs its
+     * own because the body may capture it.
+     */
+    protected DynamicScope loopScope(Binding binding) {
+        return null;
+    }
+
     private IRubyObject prepareSelf(Binding binding) {
         IRubyObject self = binding.getSelf();
         binding.getFrame().setSelf(self);
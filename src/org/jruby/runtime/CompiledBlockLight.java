@@ -74,6 +74,12 @@ public class CompiledBlockLight extends CompiledBlock {
         return context.preYieldLightBlock(binding, DynamicScope.newDummyScope(scope, binding.getDynamicScope()), klass);
     }
     
+    @Override
+    protected DynamicScope loopScope(Binding binding) {
+        // light bodies keep their variables on the Java stack, so nothing can see this scope
+        return DynamicScope.newDummyScope(scope, binding.getDynamicScope());
+    }
+
     @Override
     protected final void post(ThreadContext context, Binding binding, Visibility vis, Frame lastFrame) {
         binding.getFrame().setVisibility(vis);
@@ -56,6 +56,12 @@ public class CompiledSharedScopeBlock extends CompiledBlockLight {
     protected Frame pre(ThreadContext context, RubyModule klass, Binding binding) {
         return context.preForBlock(binding, klass);
     }
+
+    @Override
+    protected DynamicScope loopScope(Binding binding) {
+        // a for loop works directly in the scope that contains it
+        return binding.getDynamicScope();
+    }
     
     @Override
     public Block cloneBlock(Binding binding) {
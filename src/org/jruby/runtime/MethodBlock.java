@@ -31,12 +31,12 @@
  ***** END LICENSE BLOCK *****/
 package org.jruby.runtime;
 
+import org.jruby.RubyArray;
 import org.jruby.RubyMethod;
 import org.jruby.RubyModule;
 import org.jruby.exceptions.JumpException;
 import org.jruby.parser.StaticScope;
 import org.jruby.runtime.builtin.IRubyObject;
-import org.jruby.runtime.callback.Callback;
 
 /**
  *  Internal live representation of a block ({...} or do ... end).
@@ -44,27 +44,25 @@ import org.jruby.runtime.callback.Callback;
 public class MethodBlock extends BlockBody {
     
     private final RubyMethod method;
-    private final Callback callback;
     
     private final Arity arity;
      
     // This is a dummy scope; we should find a way to make that more explicit
     private final StaticScope staticScope;
 
-    public static Block createMethodBlock(ThreadContext context, DynamicScope dynamicScope, Callback callback, RubyMethod method, IRubyObject self) {
+    public static Block createMethodBlock(ThreadContext context, DynamicScope dynamicScope, RubyMethod method, IRubyObject self) {
         Binding binding = new Binding(self,
                                context.getCurrentFrame().duplicate(),
                          context.getCurrentFrame().getVisibility(),
                          context.getRubyClass(),
                          dynamicScope);
-        BlockBody body = new MethodBlock(callback, method, dynamicScope.getStaticScope());
+        BlockBody body = new MethodBlock(method, dynamicScope.getStaticScope());
         
         return new Block(body, binding);
     }
 
-    public MethodBlock(Callback callback, RubyMethod method, StaticScope staticScope) {
+    public MethodBlock(RubyMethod method, StaticScope staticScope) {
         super(BlockBody.SINGLE_RESTARG);
-        this.callback = callback;
         this.method = method;
         this.arity = Arity.createArity((int) method.arity().getLongValue());
         this.staticScope = staticScope;
@@ -110,7 +108,7 @@ public class MethodBlock extends BlockBody {
             // This while loop is for restarting the block call in case a 'redo' fires.
             while (true) {
                 try {
-                    return callback.execute(value, new IRubyObject[] { method, self }, Block.NULL_BLOCK);
+                    return invoke(context, value);
                 } catch (JumpException.RedoJump rj) {
                     context.pollThreadEvents();
                     // do nothing, allow loop to redo
@@ -129,6 +127,17 @@ public class MethodBlock extends BlockBody {
         }
     }
     
+    /**
+     * Call the method directly: an array is spread into arguments and any
+     * other value is passed alone, without wrapping it in an argument array.
+     */
+    private IRubyObject invoke(ThreadContext context, IRubyObject value) {
+        if (value instanceof RubyArray) {
+            return method.call(context, ((RubyArray) value).toJavaArray(), Block.NULL_BLOCK);
+        }
+        return method.call(context, value, Block.NULL_BLOCK);
+    }
+
     public StaticScope getStaticScope() {
         // TODO: This is actually now returning the scope of whoever called Method#to_proc
         // which is obviously wrong; but there's no scope to provide for many methods.
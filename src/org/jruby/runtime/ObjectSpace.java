@@ -37,49 +37,126 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.jruby.RubyBasicObject;
 import org.jruby.RubyModule;
 import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.util.WeakIdentityHashMap;
 
 /**
- * FIXME: This version is faster than the previous, but both suffer from a
- * crucial flaw: It is impossible to create an ObjectSpace with an iterator
- * that doesn't either: a. hold on to objects that might otherwise be collected
- * or b. have no way to guarantee that a call to hasNext() will be correct or
- * that a subsequent call to next() will produce an object. For our purposes,
- * for now, this may be acceptable.
+ * Per-runtime bookkeeping behind the ObjectSpace module. It is split in three
+ * parts with very different costs:
+ *
+ * <ul>
+ * <li>a registry of all non-singleton modules and classes, always on, which
+ * serves each_object(Module) and each_object(Class). Modules are created
+ * rarely, so registering each one is cheap.</li>
+ * <li>object ids, assigned lazily on first request. Ids are handed out from
+ * per-thread blocks of a global counter and stored in the object itself (see
+ * RubyBasicObject#getObjectId), so assigning one takes no lock. The id-to-object
+ * map behind _id2ref is only populated once _id2ref is first used; until then
+ * each thread just keeps a private list of the ids it has assigned.</li>
+ * <li>the full-heap list of every allocated object, used by each_object for
+ * arbitrary classes. Every allocation pays for a weak reference and a locked
+ * list insertion, so this is only populated when ObjectSpace is explicitly
+ * enabled (+O).</li>
+ * </ul>
+ *
+ * FIXME: The full-heap iterator suffers from a crucial flaw: It is impossible
+ * to create an ObjectSpace with an iterator that doesn't either: a. hold on to
+ * objects that might otherwise be collected or b. have no way to guarantee that
+ * a call to hasNext() will be correct or that a subsequent call to next() will
+ * produce an object. For our purposes, for now, this may be acceptable.
  */
 public class ObjectSpace {
-    private ReferenceQueue deadReferences = new ReferenceQueue();
-    private WeakReferenceListNode top;
+    private final WeakList objects = new WeakList();
+    private final WeakList modules = new WeakList();
+
+    private static final long RESERVED_IDS = 4; // Highest reserved id
+    private static final int ID_BLOCK_SIZE = 1024;
+    private static final int MIN_PENDING_PRUNE_THRESHOLD = 4096;
 
-    private ReferenceQueue deadIdentityReferences = new ReferenceQueue();
+    /** Index of the next unallocated id block; id = RESERVED_IDS + 2 * (index + 1) */
+    private final AtomicLong nextIdIndex = new AtomicLong(0);
+    private final ThreadLocal<IdBlock> idBlocks = new ThreadLocal<IdBlock>();
+    private final List<IdBlock> allIdBlocks = new ArrayList<IdBlock>();
+
+    /** Set the first time _id2ref is used; from then on ids go straight to identities */
+    private volatile boolean id2refUsed = false;
+    private final ReferenceQueue deadIdentityReferences = new ReferenceQueue();
     private final Map identities = new HashMap();
-    private final Map identitiesByObject = new WeakIdentityHashMap();
 
-    private long maxId = 4; // Highest reserved id
+    /** ids of IRubyObjects that have no id field of their own */
+    private final Map identitiesByObject = new WeakIdentityHashMap();
 
     public long idOf(IRubyObject rubyObject) {
-        synchronized (identities) {
+        if (rubyObject instanceof RubyBasicObject) {
+            return ((RubyBasicObject)rubyObject).getObjectId(this);
+        }
+
+        synchronized (identitiesByObject) {
             Long longId = (Long) identitiesByObject.get(rubyObject);
             if (longId == null) {
-                longId = createId(rubyObject);
+                long id = nextId();
+                registerId(rubyObject, id);
+                longId = new Long(id);
+                identitiesByObject.put(rubyObject, longId);
             }
             return longId.longValue();
         }
     }
 
-    private Long createId(IRubyObject object) {
-        cleanIdentities();
-        maxId += 2; // id must always be even
-        Long longMaxId = new Long(maxId);
-        identities.put(longMaxId, new IdReference(object, maxId, deadIdentityReferences));
-        identitiesByObject.put(object, longMaxId);
-        return longMaxId;
+    /**
+     * Allocate a fresh object id from the current thread's block. Ids are even
+     * and greater than the reserved ids for false, true and nil.
+     */
+    public long nextId() {
+        IdBlock block = idBlocks.get();
+        if (block == null) block = newIdBlock();
+
+        return block.nextId();
+    }
+
+    /**
+     * Record that object is about to be given id, so that id2ref can find it
+     * later. Call this before publishing the id, so that nobody can ask for an
+     * id that is not registered yet.
+     */
+    public void registerId(IRubyObject object, long id) {
+        IdReference reference = new IdReference(object, id, deadIdentityReferences);
+        if (id2refUsed) {
+            synchronized (identities) {
+                cleanIdentities();
+                identities.put(new Long(id), reference);
+            }
+        } else {
+            IdBlock block = idBlocks.get();
+            if (block == null) block = newIdBlock();
+
+            block.addPending(reference);
+        }
+    }
+
+    /**
+     * Forget an id registered for an object that ended up with another one.
+     * Must be called on the thread that registered it.
+     */
+    public void unregisterId(long id) {
+        if (id2refUsed) {
+            synchronized (identities) {
+                identities.remove(new Long(id));
+            }
+        }
+        IdBlock block = idBlocks.get();
+        if (block != null) block.removePending(id);
     }
 
     public IRubyObject id2ref(long id) {
+        if (id <= RESERVED_IDS || (id & 1) != 0) return null;
+
+        id2refUsed = true;
+        drainPendingIds();
         synchronized (identities) {
             cleanIdentities();
             IdReference reference = (IdReference) identities.get(new Long(id));
@@ -89,10 +166,40 @@ public class ObjectSpace {
         }
     }
 
+    private IdBlock newIdBlock() {
+        IdBlock block = new IdBlock(Thread.currentThread());
+        synchronized (allIdBlocks) {
+            // adopt ids recorded by threads that have since died
+            for (Iterator<IdBlock> iter = allIdBlocks.iterator(); iter.hasNext();) {
+                IdBlock other = iter.next();
+                if (!other.isOwnerAlive()) {
+                    block.adoptPending(other);
+                    iter.remove();
+                }
+            }
+            allIdBlocks.add(block);
+        }
+        idBlocks.set(block);
+        return block;
+    }
+
+    private void drainPendingIds() {
+        synchronized (allIdBlocks) {
+            synchronized (identities) {
+                for (IdBlock block : allIdBlocks) {
+                    block.drainTo(identities);
+                }
+            }
+        }
+    }
+
     private void cleanIdentities() {
         IdReference ref;
-        while ((ref = (IdReference) deadIdentityReferences.poll()) != null)
-            identities.remove(new Long(ref.id()));
+        while ((ref = (IdReference) deadIdentityReferences.poll()) != null) {
+            // a reference still pending when it died was never in the map
+            Long id = new Long(ref.id());
+            if (identities.get(id) == ref) identities.remove(id);
+        }
     }
     
     public void addFinalizer(IRubyObject object, IRubyObject proc) {
@@ -105,23 +212,31 @@ public class ObjectSpace {
             object.removeFinalizers();
         }
     }
-    
-    public synchronized void add(IRubyObject object) {
-        cleanup();
-        top = new WeakReferenceListNode(object, deadReferences, top);
+
+    /**
+     * Add an object to the full-heap list. Only called when ObjectSpace is
+     * enabled.
+     */
+    public void add(IRubyObject object) {
+        objects.add(object);
     }
 
-    public synchronized Iterator iterator(RubyModule rubyClass) {
-        final List objList = new ArrayList();
-        WeakReferenceListNode current = top;
-        while (current != null) {
-            IRubyObject obj = (IRubyObject)current.get();
-            if (obj != null && rubyClass.isInstance(obj)) {
-                objList.add(current);
-            }
+    /**
+     * Record a newly created module or class in the always-on module registry.
+     */
+    public void registerModule(RubyModule module) {
+        modules.add(module);
+    }
 
-            current = current.nextNode;
-        }
+    /**
+     * Iterate over all live objects that are instances of rubyClass. Only
+     * meaningful when ObjectSpace is enabled, except for module kinds (see
+     * {@link #isModuleKind}), which are answered from the module registry. As
+     * with the historical behavior, hasNext is unsupported and next returns
+     * null once exhausted.
+     */
+    public Iterator iterator(RubyModule rubyClass) {
+        final List objList = (isModuleKind(rubyClass) ? modules : objects).snapshot(rubyClass);
 
         return new Iterator() {
             private Iterator iter = objList.iterator();
@@ -133,7 +248,7 @@ public class ObjectSpace {
             public Object next() {
                 Object obj = null;
                 while (iter.hasNext()) {
-                    WeakReferenceListNode node = (WeakReferenceListNode)iter.next();
+                    WeakReference node = (WeakReference)iter.next();
 
                     obj = node.get();
 
@@ -148,14 +263,62 @@ public class ObjectSpace {
         };
     }
 
-    private synchronized void cleanup() {
-        WeakReferenceListNode reference;
-        while ((reference = (WeakReferenceListNode)deadReferences.poll()) != null) {
-            reference.remove();
+    /**
+     * Whether every instance of rubyClass is a module, i.e. whether rubyClass is
+     * Module or a subclass of it such as Class. Such queries can be served by
+     * the module registry without the full-heap list.
+     */
+    public static boolean isModuleKind(RubyModule rubyClass) {
+        return rubyClass.isClass() && rubyClass.hasModuleInHierarchy(rubyClass.getRuntime().getModule());
+    }
+
+    /**
+     * A weakly-referenced, doubly-linked list of objects, pruned of dead
+     * entries as new ones are added.
+     */
+    private static class WeakList {
+        private final ReferenceQueue deadReferences = new ReferenceQueue();
+        private WeakReferenceListNode top;
+
+        public synchronized void add(Object object) {
+            cleanup();
+            top = new WeakReferenceListNode(object, deadReferences, top);
+        }
+
+        public synchronized List snapshot(RubyModule rubyClass) {
+            List objList = new ArrayList();
+            WeakReferenceListNode current = top;
+            while (current != null) {
+                IRubyObject obj = (IRubyObject)current.get();
+                if (obj != null && rubyClass.isInstance(obj)) {
+                    objList.add(current);
+                }
+
+                current = current.nextNode;
+            }
+            return objList;
+        }
+
+        private synchronized void cleanup() {
+            WeakReferenceListNode reference;
+            while ((reference = (WeakReferenceListNode)deadReferences.poll()) != null) {
+                remove(reference);
+            }
+        }
+
+        private synchronized void remove(WeakReferenceListNode node) {
+            if (node.prevNode != null) {
+                node.prevNode.nextNode = node.nextNode;
+            } else {
+                top = node.nextNode;
+            }
+            if (node.nextNode != null) {
+                node.nextNode.prevNode = node.prevNode;
+            }
         }
     }
 
-    private class WeakReferenceListNode extends WeakReference {
+    private static class WeakReferenceListNode extends WeakReference {
         private WeakReferenceListNode prevNode;
         private WeakReferenceListNode nextNode;
 
@@ -167,19 +330,83 @@ public class ObjectSpace {
                 next.prevNode = this;
             }
         }
+    }
 
-        public void remove() {
-            synchronized (ObjectSpace.this) {
-                if (prevNode != null) {
-                    prevNode.nextNode = nextNode;
-                } else {
-                    top = nextNode;
-                }
-                if (nextNode != null) {
-                    nextNode.prevNode = prevNode;
-                }
+    /**
+     * A thread's current range of ids, and the ids it has assigned that are not
+     * yet in the shared id2ref map. Only the owning thread allocates from it;
+     * the lock is only ever contended when id2ref drains the pending list.
+     */
+    private class IdBlock {
+        private final WeakReference<Thread> owner;
+        private long next;
+        private long limit;
+        private List<IdReference> pending = new ArrayList<IdReference>();
+        private int pruneThreshold = MIN_PENDING_PRUNE_THRESHOLD;
+
+        IdBlock(Thread owner) {
+            this.owner = new WeakReference<Thread>(owner);
+        }
+
+        long nextId() {
+            if (next == limit) {
+                next = nextIdIndex.getAndAdd(ID_BLOCK_SIZE);
+                limit = next + ID_BLOCK_SIZE;
+            }
+            return RESERVED_IDS + 2 * (++next);
+        }
+
+        synchronized void addPending(IdReference reference) {
+            pending.add(reference);
+            if (pending.size() > pruneThreshold) prunePending();
+        }
+
+        /**
+         * Remove id if it is the last one this thread recorded.
+         */
+        synchronized void removePending(long id) {
+            int last = pending.size() - 1;
+            if (last >= 0 && pending.get(last).id() == id) pending.remove(last);
+        }
+
+        /**
+         * Drop collected objects so the pending list stays proportional to the
+         * live objects with ids, even if id2ref is never called. The list may
+         * then double before the next scan, so live ids are not rescanned on
+         * every new one.
+         */
+        private void prunePending() {
+            List<IdReference> live = new ArrayList<IdReference>(pending.size());
+            for (IdReference ref : pending) {
+                if (ref.get() != null) live.add(ref);
+            }
+            pending = live;
+            pruneThreshold = Math.max(MIN_PENDING_PRUNE_THRESHOLD, 2 * live.size());
+
+            // nothing reads the queue before id2ref is used, so keep it from growing
+            if (!id2refUsed) {
+                while (deadIdentityReferences.poll() != null) {}
             }
         }
+
+        synchronized void drainTo(Map identities) {
+            for (IdReference ref : pending) {
+                if (ref.get() != null) identities.put(new Long(ref.id()), ref);
+            }
+            pending.clear();
+        }
+
+        synchronized void adoptPending(IdBlock other) {
+            synchronized (other) {
+                pending.addAll(other.pending);
+                other.pending.clear();
+            }
+        }
+
+        boolean isOwnerAlive() {
+            Thread thread = owner.get();
+            return thread != null && thread.isAlive();
+        }
     }
 
     private static class IdReference extends WeakReference {
@@ -0,0 +1,115 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.runtime;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyModule;
+import org.jruby.parser.LocalStaticScope;
+import org.jruby.parser.StaticScope;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.runtime.callsite.FunctionalCachingCallSite;
+
+/**
+ * The body of a proc made by Symbol#to_proc. The first value it is given is
+ * the receiver and the rest are arguments. Calls go through a call site owned
+ * by the body, so map(&:name) over objects of one class looks the method up
+ * once instead of once per element.
+ */
+public class SymbolBlock extends BlockBody {
+    private final CallSite callSite;
+    private final StaticScope staticScope;
+
+    /**
+     * Create a block calling methodName. The block does not capture the
+     * caller's frame or scope, so it can be cached for the life of the runtime.
+     */
+    public static Block newSymbolBlock(Ruby runtime, IRubyObject self, String methodName) {
+        StaticScope staticScope = new LocalStaticScope(null);
+        Frame frame = new Frame();
+        frame.updateFrame(runtime.getSymbol(), self, methodName, Block.NULL_BLOCK, null, 0);
+        Binding binding = new Binding(self, frame, Visibility.PUBLIC, runtime.getSymbol(),
+                DynamicScope.newDummyScope(staticScope, null));
+
+        return new Block(new SymbolBlock(methodName, staticScope), binding);
+    }
+
+    private SymbolBlock(String methodName, StaticScope staticScope) {
+        super(BlockBody.SINGLE_RESTARG);
+        this.callSite = new FunctionalCachingCallSite(methodName);
+        this.staticScope = staticScope;
+    }
+
+    @Override
+    public IRubyObject call(ThreadContext context, IRubyObject[] args, Binding binding, Block.Type type) {
+        return callWithArgs(context, args, args.length);
+    }
+
+    public IRubyObject yield(ThreadContext context, IRubyObject value, Binding binding, Block.Type type) {
+        return callSite.call(context, value, value);
+    }
+
+    public IRubyObject yield(ThreadContext context, IRubyObject value, IRubyObject self,
+            RubyModule klass, boolean aValue, Binding binding, Block.Type type) {
+        if (aValue && value instanceof RubyArray) {
+            RubyArray array = (RubyArray) value;
+            return callWithArgs(context, array.toJavaArrayMaybeUnsafe(), array.getLength());
+        }
+        return callSite.call(context, value, value);
+    }
+
+    private IRubyObject callWithArgs(ThreadContext context, IRubyObject[] args, int length) {
+        switch (length) {
+        case 0:
+            throw context.getRuntime().newArgumentError("no receiver given");
+        case 1:
+            return callSite.call(context, args[0], args[0]);
+        case 2:
+            return callSite.call(context, args[0], args[0], args[1]);
+        case 3:
+            return callSite.call(context, args[0], args[0], args[1], args[2]);
+        default:
+            IRubyObject[] rest = new IRubyObject[length - 1];
+            System.arraycopy(args, 1, rest, 0, rest.length);
+            return callSite.call(context, args[0], args[0], rest);
+        }
+    }
+
+    public StaticScope getStaticScope() {
+        return staticScope;
+    }
+
+    public Block cloneBlock(Binding binding) {
+        // nothing here reads the binding, so only Proc#call's self swap needs a fresh one
+        binding = new Binding(binding.getSelf(), binding.getFrame(), binding.getVisibility(),
+                binding.getKlass(), binding.getDynamicScope());
+        return new Block(this, binding);
+    }
+
+    public Arity arity() {
+        return Arity.OPTIONAL;
+    }
+}
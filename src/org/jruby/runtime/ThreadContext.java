@@ -1146,6 +1146,17 @@ public final class ThreadContext {
         popFrame();
     }
     
+    public void preMethodBacktraceAndDummyScope(String name, RubyModule clazz, StaticScope staticScope) {
+        RubyModule implementationClass = staticScope.getModule();
+        // FIXME: This is currently only here because of some problems with IOOutputStream writing to a "bare" runtime without a proper scope
+        if (implementationClass == null) {
+            implementationClass = clazz;
+        }
+        pushScope(staticScope.getDummyScope());
+        pushRubyClass(implementationClass);
+        pushBacktraceFrame(name);
+    }
+    
     public void preMethodBacktraceOnly(String name) {
         pushBacktraceFrame(name);
     }
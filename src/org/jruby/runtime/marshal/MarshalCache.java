@@ -31,30 +31,44 @@
 package org.jruby.runtime.marshal;
 
 import java.io.IOException;
-import java.util.IdentityHashMap;
-import java.util.Map;
 
 import org.jruby.RubySymbol;
 import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.util.collections.IdentityIntMap;
 
 public class MarshalCache {
-    private final Map linkCache = new IdentityHashMap();
-    private final Map symbolCache = new IdentityHashMap();
+    private final IdentityIntMap linkCache = new IdentityIntMap();
+    private final IdentityIntMap symbolCache = new IdentityIntMap();
 
     public boolean isRegistered(IRubyObject value) {
         return selectCache(value).containsKey(value);
     }
 
     public void register(IRubyObject value) {
-        Map cache = selectCache(value);
-        cache.put(value, new Integer(cache.size()));
+        IdentityIntMap cache = selectCache(value);
+        cache.put(value, cache.size());
+    }
+
+    /**
+     * Write a link to value if it has already been dumped.
+     *
+     * @return true if a link was written, false if value is not yet registered
+     */
+    public boolean writeLinkIfRegistered(MarshalStream output, IRubyObject value) throws IOException {
+        boolean isSymbol = value instanceof RubySymbol;
+        int index = (isSymbol ? symbolCache : linkCache).get(value);
+        if (index == IdentityIntMap.NOT_FOUND) return false;
+
+        output.write(isSymbol ? ';' : '@');
+        output.writeInt(index);
+        return true;
     }
 
     private int registeredIndex(IRubyObject value) {
-        return ((Integer) selectCache(value).get(value)).intValue();
+        return selectCache(value).get(value);
     }
 
-    private Map selectCache(IRubyObject value) {
+    private IdentityIntMap selectCache(IRubyObject value) {
         return (value instanceof RubySymbol) ? symbolCache : linkCache;
     }
 
@@ -65,29 +65,51 @@ import org.jruby.internal.runtime.methods.DynamicMethod;
 /**
  * Marshals objects into Ruby's binary marshal format.
  *
+ * All output is accumulated in a ByteList. When dumping to a String the
+ * ByteList is the result itself; when dumping to a stream it is drained to
+ * the underlying stream in large chunks and reused, so the wrapped stream
+ * never sees single-byte writes.
+ *
  * @author Anders
  */
 public class MarshalStream extends FilterOutputStream {
     private final Ruby runtime;
     private final MarshalCache cache;
     private final int depthLimit;
+    private final ByteList buffer;
     
     private int depth = 0;
 
+    /** Drain the buffer to the underlying stream once it grows past this size */
+    private static final int FLUSH_THRESHOLD = 8192;
+
     private final static char TYPE_IVAR = 'I';
     private final static char TYPE_USRMARSHAL = 'U';
     private final static char TYPE_USERDEF = 'u';
     private final static char TYPE_UCLASS = 'C';
 
     public MarshalStream(Ruby runtime, OutputStream out, int depthLimit) throws IOException {
+        this(runtime, out, new ByteList(FLUSH_THRESHOLD + 1024), depthLimit);
+    }
+
+    /**
+     * Create a stream that marshals directly into the given ByteList. Nothing
+     * is copied out at the end of the dump; the caller owns the result.
+     */
+    public MarshalStream(Ruby runtime, ByteList target, int depthLimit) throws IOException {
+        this(runtime, null, target, depthLimit);
+    }
+
+    private MarshalStream(Ruby runtime, OutputStream out, ByteList buffer, int depthLimit) throws IOException {
         super(out);
 
         this.runtime = runtime;
         this.depthLimit = depthLimit >= 0 ? depthLimit : Integer.MAX_VALUE;
         this.cache = new MarshalCache();
+        this.buffer = buffer;
 
-        out.write(Constants.MARSHAL_MAJOR);
-        out.write(Constants.MARSHAL_MINOR);
+        buffer.append((byte)Constants.MARSHAL_MAJOR);
+        buffer.append((byte)Constants.MARSHAL_MINOR);
     }
 
     public void dumpObject(IRubyObject value) throws IOException {
@@ -101,7 +123,34 @@ public class MarshalStream extends FilterOutputStream {
 
         depth--;
         if (depth == 0) {
-            out.flush(); // flush afer whole dump is complete
+            flush(); // flush afer whole dump is complete
+        } else if (out != null && buffer.realSize >= FLUSH_THRESHOLD) {
+            drain();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer.append((byte)b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        buffer.append(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            drain();
+            out.flush();
+        }
+    }
+
+    private void drain() throws IOException {
+        if (buffer.realSize > 0) {
+            out.write(buffer.bytes, buffer.begin, buffer.realSize);
+            buffer.realSize = 0;
         }
     }
 
@@ -127,9 +176,7 @@ public class MarshalStream extends FilterOutputStream {
     }
 
     private void writeAndRegister(IRubyObject value) throws IOException {
-        if (cache.isRegistered(value)) {
-            cache.writeLink(this, value);
-        } else {
+        if (!cache.writeLinkIfRegistered(this, value)) {
             if (hasNewUserDefinedMarshaling(value)) {
                 userNewMarshal(value);
             } else if (hasUserDefinedMarshaling(value)) {
@@ -415,42 +462,44 @@ public class MarshalStream extends FilterOutputStream {
 
     public void writeString(String value) throws IOException {
         writeInt(value.length());
-        out.write(RubyString.stringToBytes(value));
+        write(RubyString.stringToBytes(value));
     }
 
     public void writeString(ByteList value) throws IOException {
         int len = value.length();
         writeInt(len);
-        out.write(value.unsafeBytes(), value.begin(), len);
+        buffer.append(value.unsafeBytes(), value.begin(), len);
     }
 
     public void dumpSymbol(String value) throws IOException {
         write(':');
         writeInt(value.length());
-        out.write(RubyString.stringToBytes(value));
+        write(RubyString.stringToBytes(value));
     }
 
     public void writeInt(int value) throws IOException {
+        ByteList buf = buffer;
         if (value == 0) {
-            out.write(0);
+            buf.append((byte)0);
         } else if (0 < value && value < 123) {
-            out.write(value + 5);
+            buf.append((byte)(value + 5));
         } else if (-124 < value && value < 0) {
-            out.write((value - 5) & 0xff);
+            buf.append((byte)((value - 5) & 0xff));
         } else {
-            byte[] buf = new byte[4];
-            int i = 0;
-            for (; i < buf.length; i++) {
-                buf[i] = (byte)(value & 0xff);
-                
+            // reserve the length byte, then write up to four little-endian bytes
+            int lenIndex = buf.realSize;
+            buf.append((byte)0);
+            int len = 0;
+            while (len < 4) {
+                buf.append((byte)(value & 0xff));
+                len++;
+
                 value = value >> 8;
                 if (value == 0 || value == -1) {
                     break;
                 }
             }
-            int len = i + 1;
-            out.write(value < 0 ? -len : len);
-            out.write(buf, 0, i + 1);
+            buf.bytes[buf.begin + lenIndex] = (byte)(value < 0 ? -len : len);
         }
     }
 }
@@ -33,9 +33,11 @@
 package org.jruby.runtime.marshal;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -62,6 +64,10 @@ import org.jruby.util.ByteList;
 /**
  * Unmarshals objects from strings or streams in Ruby's marsal format.
  *
+ * When created over a ByteList or ByteBuffer the stream reads straight out of
+ * the backing array, bypassing BufferedInputStream's synchronized per-byte
+ * reads entirely.
+ *
  * @author Anders
  */
 public class UnmarshalStream extends BufferedInputStream {
@@ -69,16 +75,92 @@ public class UnmarshalStream extends BufferedInputStream {
     private final UnmarshalCache cache;
     private final IRubyObject proc;
 
+    /** Direct source bytes, or null when reading from a wrapped stream */
+    private final byte[] source;
+    private int sourcePos;
+    private final int sourceEnd;
+
+    private static final InputStream EMPTY_STREAM = new ByteArrayInputStream(ByteList.NULL_ARRAY);
+
     public UnmarshalStream(Ruby runtime, InputStream in, IRubyObject proc) throws IOException {
         super(in);
         this.runtime = runtime;
         this.cache = new UnmarshalCache(runtime);
         this.proc = proc;
+        this.source = null;
+        this.sourceEnd = 0;
 
         in.read(); // Major
         in.read(); // Minor
     }
 
+    /**
+     * Unmarshal directly from the bytes of a ByteList. The ByteList must not be
+     * modified while the stream is in use.
+     */
+    public UnmarshalStream(Ruby runtime, ByteList bytes, IRubyObject proc) throws IOException {
+        this(runtime, bytes.unsafeBytes(), bytes.begin(), bytes.length(), proc);
+    }
+
+    /**
+     * Unmarshal from the remaining bytes of a ByteBuffer. Heap buffers are read
+     * in place; direct buffers are copied out once up front.
+     */
+    public UnmarshalStream(Ruby runtime, ByteBuffer buffer, IRubyObject proc) throws IOException {
+        this(runtime, arrayFor(buffer), arrayOffsetFor(buffer), buffer.remaining(), proc);
+    }
+
+    private UnmarshalStream(Ruby runtime, byte[] bytes, int begin, int length, IRubyObject proc) throws IOException {
+        super(EMPTY_STREAM, 1);
+        this.runtime = runtime;
+        this.cache = new UnmarshalCache(runtime);
+        this.proc = proc;
+        this.source = bytes;
+        this.sourcePos = begin;
+        this.sourceEnd = begin + length;
+
+        read(); // Major
+        read(); // Minor
+    }
+
+    private static byte[] arrayFor(ByteBuffer buffer) {
+        if (buffer.hasArray()) return buffer.array();
+
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static int arrayOffsetFor(ByteBuffer buffer) {
+        return buffer.hasArray() ? buffer.arrayOffset() + buffer.position() : 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (source == null) return super.read();
+        if (sourcePos >= sourceEnd) return -1;
+        return source[sourcePos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (source == null) return super.read(b, off, len);
+        if (len == 0) return 0;
+
+        int available = sourceEnd - sourcePos;
+        if (available <= 0) return -1;
+        if (len > available) len = available;
+        System.arraycopy(source, sourcePos, b, off, len);
+        sourcePos += len;
+        return len;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (source == null) return super.available();
+        return sourceEnd - sourcePos;
+    }
+
     public IRubyObject unmarshalObject() throws IOException {
         int type = readUnsignedByte();
         IRubyObject result;
@@ -212,6 +294,10 @@ public class UnmarshalStream extends BufferedInputStream {
     }
 
     public int readUnsignedByte() throws IOException {
+        if (source != null) {
+            if (sourcePos >= sourceEnd) throw new EOFException("Unexpected end of stream");
+            return source[sourcePos++] & 0xff;
+        }
         int result = read();
         if (result == -1) {
             throw new EOFException("Unexpected end of stream");
@@ -230,12 +316,12 @@ public class UnmarshalStream extends BufferedInputStream {
     public ByteList unmarshalString() throws IOException {
         int length = unmarshalInt();
         byte[] buffer = new byte[length];
-        
-        // FIXME: sooper inefficient, but it's working better...
-        int b = 0;
+
         int i = 0;
-        while (i < length && (b = read()) != -1) {
-            buffer[i++] = (byte)b;
+        while (i < length) {
+            int n = read(buffer, i, length - i);
+            if (n == -1) break;
+            i += n;
         }
         if (i < length) {
             throw getRuntime().newArgumentError("marshal data too short");
@@ -36,7 +36,6 @@ package org.jruby.util;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 import org.jcodings.specific.ASCIIEncoding;
 import org.jcodings.specific.NonStrictUTF8Encoding;
@@ -48,6 +47,7 @@ import org.jruby.RubyKernel;
 import org.jruby.RubyNumeric;
 import org.jruby.RubyString;
 import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.util.collections.SegmentedLRUCache;
 
 public class Pack {
     private static final byte[] sSp10 = "          ".getBytes();
@@ -249,8 +249,8 @@ public class Pack {
         tmp = new Converter(8) {
             public IRubyObject decode(Ruby runtime, ByteBuffer enc) {
                 long l = decodeLongBigEndian(enc);
-                return RubyBignum.bignorm(runtime,BigInteger.valueOf(l).and(
-                        new BigInteger("FFFFFFFFFFFFFFFF", 16)));
+                if (l >= 0) return runtime.newFixnum(l);
+                return RubyBignum.bignorm(runtime, BigInteger.valueOf(l).and(QUAD_MAX));
             }
             public void encode(Ruby runtime, IRubyObject o, ByteList result){
                 long l = num2quad(o);
@@ -619,48 +619,20 @@ public class Pack {
      *
      **/
     public static RubyArray unpack(Ruby runtime, ByteList encodedString, ByteList formatString) {
-        RubyArray result = runtime.newArray();
-        // FIXME: potentially could just use ByteList here?
-        ByteBuffer format = ByteBuffer.wrap(formatString.unsafeBytes(), formatString.begin(), formatString.length());
+        Template template = Template.forUnpack(formatString);
+        RubyArray result = RubyArray.newArray(runtime, template.sizeHint);
         ByteBuffer encode = ByteBuffer.wrap(encodedString.unsafeBytes(), encodedString.begin(), encodedString.length());
-        int type = 0;
-        int next = safeGet(format);
-
-        while (next != 0) {
-            type = next;
-            next = safeGet(format);
-            // Next indicates to decode using native encoding format
-            if (next == '_' || next == '!') {
-                if (NATIVE_CODES.indexOf(type) == -1) {
-                    throw runtime.newArgumentError("'" + next + "' allowed only after types " + NATIVE_CODES);
-                }
-                next = safeGet(format);
-            }
+        byte[] types = template.types;
+        int[] counts = template.counts;
 
-            // How many occurrences of 'type' we want
-            int occurrences = 0;
-            if (next == 0) {
-                occurrences = 1;
-            } else {
-                if (next == '*') {
-                    occurrences = IS_STAR;
-                    next = safeGet(format);
-                } else if (ASCII.isDigit(next)) {
-                    occurrences = 0;
-                    do {
-                        occurrences = occurrences * 10 + Character.digit((char)(next & 0xFF), 10);
-                        next = safeGet(format);
-                    } while (next != 0 && ASCII.isDigit(next));
-                } else {
-                    occurrences = type == '@' ? 0 : 1;
-                }
-            }
+        for (int directive = 0; directive < types.length; directive++) {
+            int type = types[directive];
+            int occurrences = counts[directive];
 
             // See if we have a converter for the job...
             Converter converter = converters[type];
             if (converter != null) {
                 decode(runtime, encode, occurrences, result, converter);
-                type = next;
                 continue;
             }
 
@@ -1038,6 +1010,7 @@ public class Pack {
                      break;
             }
         }
+        template.checkError(runtime);
         return result;
     }
 
@@ -1370,64 +1343,20 @@ public class Pack {
      **/
     @SuppressWarnings("fallthrough")
     public static RubyString pack(Ruby runtime, RubyArray list, ByteList formatString) {
-        ByteBuffer format = ByteBuffer.wrap(formatString.unsafeBytes(), formatString.begin(), formatString.length());
-        ByteList result = new ByteList();
+        Template template = Template.forPack(formatString);
+        ByteList result = new ByteList(template.sizeHint);
         int listSize = list.size();
-        int type = 0;
-        int next = safeGet(format);
+        byte[] types = template.types;
+        int[] counts = template.counts;
 
         int idx = 0;
         ByteList lCurElemString;
 
-        mainLoop: while (next != 0) {
-            type = next;
-            next = safeGet(format);
-            
-            // Skip all whitespace in pack format string
-            while (ASCII.isSpace(type)) {
-                if (next == 0) break mainLoop;
-                type = next;
-                next = safeGet(format);
-            }
-            
-            // Skip embedded comments in pack format string
-            if (type == '#') {
-                while (type != '\n') { 
-                    if (next == 0) break mainLoop;
-                    type = next;
-                    next = safeGet(format);
-                }
-            }
-
-            if (next == '!' || next == '_') {
-                if (NATIVE_CODES.indexOf(type) == -1) {
-                    throw runtime.newArgumentError("'" + next +
-                            "' allowed only after types " + NATIVE_CODES);
-                }
-
-                next = safeGet(format);
-            }
-
-            // Determine how many of type are needed (default: 1)
-            int occurrences = 1;
-            boolean isStar = false;
-            if (next != 0) {
-                if (next == '*') {
-                    if ("@Xxu".indexOf(type) != -1) {
-                        occurrences = 0;
-                    } else {
-                        occurrences = listSize;
-                        isStar = true;
-                    }
-                    next = safeGet(format);
-                } else if (ASCII.isDigit(next)) {
-                    occurrences = 0;
-                    do {
-                        occurrences = occurrences * 10 + Character.digit((char)(next & 0xFF), 10);
-                        next = safeGet(format);
-                    } while (next != 0 && ASCII.isDigit(next));
-                }
-            }
+        for (int directive = 0; directive < types.length; directive++) {
+            int type = types[directive];
+            int occurrences = counts[directive];
+            boolean isStar = occurrences == IS_STAR;
+            if (isStar) occurrences = listSize;
 
             Converter converter = converters[type];
 
@@ -1750,9 +1679,193 @@ public class Pack {
                     break;
             }
         }
+        template.checkError(runtime);
         return runtime.newString(result);
     }
 
+    /**
+     * A pack/unpack template parsed into its directives: the type char and
+     * count of each, with IS_STAR standing in for '*' where the count depends
+     * on the data. Parsing follows the original per-call loops exactly, so
+     * the directive list is what they would have walked, including entries
+     * for characters that are then ignored. Templates are cached per format
+     * string, since the same few formats tend to be used over and over.
+     */
+    private static final class Template {
+        private static final int MAX_CACHED_TEMPLATES = 256;
+        // counts like "x100000" shouldn't turn into an up-front allocation
+        private static final int MAX_SIZE_HINT = 1 << 16;
+
+        // segmented so threads packing with different formats don't queue on one lock
+        private static final SegmentedLRUCache<ByteList, Template> packCache =
+            new SegmentedLRUCache<ByteList, Template>(MAX_CACHED_TEMPLATES, 16);
+        private static final SegmentedLRUCache<ByteList, Template> unpackCache =
+            new SegmentedLRUCache<ByteList, Template>(MAX_CACHED_TEMPLATES, 16);
+
+        final byte[] types;
+        final int[] counts;
+        // expected result length: bytes for pack, elements for unpack
+        final int sizeHint;
+        // a bad '_'/'!' stops parsing; it is raised once the directives before it have run
+        private final String error;
+
+        private Template(byte[] types, int[] counts, int length, long sizeHint, String error) {
+            this.types = new byte[length];
+            this.counts = new int[length];
+            System.arraycopy(types, 0, this.types, 0, length);
+            System.arraycopy(counts, 0, this.counts, 0, length);
+            this.sizeHint = (int)Math.min(sizeHint, MAX_SIZE_HINT);
+            this.error = error;
+        }
+
+        void checkError(Ruby runtime) {
+            if (error != null) throw runtime.newArgumentError(error);
+        }
+
+        static Template forUnpack(ByteList formatString) {
+            Template template = unpackCache.get(formatString);
+            if (template == null) {
+                template = parseUnpack(formatString);
+                unpackCache.put(new ByteList(formatString), template);
+            }
+            return template;
+        }
+
+        static Template forPack(ByteList formatString) {
+            Template template = packCache.get(formatString);
+            if (template == null) {
+                template = parsePack(formatString);
+                packCache.put(new ByteList(formatString), template);
+            }
+            return template;
+        }
+
+        private static Template parseUnpack(ByteList formatString) {
+            ByteBuffer format = ByteBuffer.wrap(formatString.unsafeBytes(), formatString.begin(), formatString.length());
+            int max = formatString.length();
+            byte[] types = new byte[max];
+            int[] counts = new int[max];
+            int length = 0;
+            long sizeHint = 0;
+            String error = null;
+            int type = 0;
+            int next = safeGet(format);
+
+            while (next != 0) {
+                type = next;
+                next = safeGet(format);
+                // Next indicates to decode using native encoding format
+                if (next == '_' || next == '!') {
+                    if (NATIVE_CODES.indexOf(type) == -1) {
+                        error = "'" + next + "' allowed only after types " + NATIVE_CODES;
+                        break;
+                    }
+                    next = safeGet(format);
+                }
+
+                // How many occurrences of 'type' we want
+                int occurrences = 0;
+                if (next == 0) {
+                    occurrences = 1;
+                } else {
+                    if (next == '*') {
+                        occurrences = IS_STAR;
+                        next = safeGet(format);
+                    } else if (ASCII.isDigit(next)) {
+                        occurrences = 0;
+                        do {
+                            occurrences = occurrences * 10 + Character.digit((char)(next & 0xFF), 10);
+                            next = safeGet(format);
+                        } while (next != 0 && ASCII.isDigit(next));
+                    } else {
+                        occurrences = type == '@' ? 0 : 1;
+                    }
+                }
+
+                if (type >= 0 && converters[type] != null) {
+                    if (occurrences != IS_STAR) sizeHint += occurrences;
+                } else if ("AZabBhHumMw".indexOf(type) != -1) {
+                    sizeHint++;
+                }
+                types[length] = (byte)type;
+                counts[length++] = occurrences;
+            }
+
+            return new Template(types, counts, length, sizeHint, error);
+        }
+
+        private static Template parsePack(ByteList formatString) {
+            ByteBuffer format = ByteBuffer.wrap(formatString.unsafeBytes(), formatString.begin(), formatString.length());
+            int max = formatString.length();
+            byte[] types = new byte[max];
+            int[] counts = new int[max];
+            int length = 0;
+            long sizeHint = 0;
+            String error = null;
+            int type = 0;
+            int next = safeGet(format);
+
+            mainLoop: while (next != 0) {
+                type = next;
+                next = safeGet(format);
+
+                // Skip all whitespace in pack format string
+                while (ASCII.isSpace(type)) {
+                    if (next == 0) break mainLoop;
+                    type = next;
+                    next = safeGet(format);
+                }
+
+                // Skip embedded comments in pack format string
+                if (type == '#') {
+                    while (type != '\n') {
+                        if (next == 0) break mainLoop;
+                        type = next;
+                        next = safeGet(format);
+                    }
+                }
+
+                if (next == '!' || next == '_') {
+                    if (NATIVE_CODES.indexOf(type) == -1) {
+                        error = "'" + next + "' allowed only after types " + NATIVE_CODES;
+                        break;
+                    }
+
+                    next = safeGet(format);
+                }
+
+                // Determine how many of type are needed (default: 1)
+                int occurrences = 1;
+                if (next != 0) {
+                    if (next == '*') {
+                        occurrences = "@Xxu".indexOf(type) != -1 ? 0 : IS_STAR;
+                        next = safeGet(format);
+                    } else if (ASCII.isDigit(next)) {
+                        occurrences = 0;
+                        do {
+                            occurrences = occurrences * 10 + Character.digit((char)(next & 0xFF), 10);
+                            next = safeGet(format);
+                        } while (next != 0 && ASCII.isDigit(next));
+                    }
+                }
+
+                Converter converter = type >= 0 ? converters[type] : null;
+                if (occurrences != IS_STAR) {
+                    if (converter != null) {
+                        sizeHint += (long)converter.size * occurrences;
+                    } else if ("aAZx@".indexOf(type) != -1) {
+                        sizeHint += occurrences;
+                    }
+                }
+                types[length] = (byte)type;
+                counts[length++] = occurrences;
+            }
+
+            // leave room for variable-width directives rather than sizing exactly
+            return new Template(types, counts, length, Math.max(sizeHint, 16), error);
+        }
+    }
+
     /**
      * Retrieve an encoded int in little endian starting at index in the
      * string value.
@@ -1761,10 +1874,11 @@ public class Pack {
      * @return the decoded integer
      */
     private static int decodeIntLittleEndian(ByteBuffer encode) {
-        encode.order(ByteOrder.LITTLE_ENDIAN);
-        int value = encode.getInt();
-        encode.order(ByteOrder.BIG_ENDIAN);
-        return value;
+        byte[] bytes = encode.array();
+        int p = encode.position();
+        encode.position(p + 4);
+        return (bytes[p] & 0xff) | ((bytes[p + 1] & 0xff) << 8) |
+            ((bytes[p + 2] & 0xff) << 16) | (bytes[p + 3] << 24);
     }
 
     /**
@@ -1797,10 +1911,7 @@ public class Pack {
      * @return the decoded integer
      */
     private static long decodeIntUnsignedLittleEndian(ByteBuffer encode) {
-        encode.order(ByteOrder.LITTLE_ENDIAN);
-        long value = encode.getInt() & 0xFFFFFFFFL;
-        encode.order(ByteOrder.BIG_ENDIAN);
-        return value;
+        return decodeIntLittleEndian(encode) & 0xFFFFFFFFL;
     }
 
     /**
@@ -1810,8 +1921,12 @@ public class Pack {
      * @param s the integer to encode
      */
     private static void encodeIntLittleEndian(ByteList result, int s) {
-        result.append((byte) (s & 0xff)).append((byte) ((s >> 8) & 0xff));
-        result.append((byte) ((s>>16) & 0xff)).append((byte) ((s>>24) &0xff));
+        int p = reserve(result, 4);
+        byte[] bytes = result.unsafeBytes();
+        bytes[p] = (byte) s;
+        bytes[p + 1] = (byte) (s >> 8);
+        bytes[p + 2] = (byte) (s >> 16);
+        bytes[p + 3] = (byte) (s >> 24);
     }
 
     /**
@@ -1821,8 +1936,27 @@ public class Pack {
      * @param s the integer to encode
      */
     private static void encodeIntBigEndian(ByteList result, int s) {
-        result.append((byte) ((s>>24) &0xff)).append((byte) ((s>>16) &0xff));
-        result.append((byte) ((s >> 8) & 0xff)).append((byte) (s & 0xff));
+        int p = reserve(result, 4);
+        byte[] bytes = result.unsafeBytes();
+        bytes[p] = (byte) (s >> 24);
+        bytes[p + 1] = (byte) (s >> 16);
+        bytes[p + 2] = (byte) (s >> 8);
+        bytes[p + 3] = (byte) s;
+    }
+
+    /**
+     * Grow result by count bytes, to be filled in directly rather than one
+     * append at a time.
+     *
+     * @param result to be grown
+     * @param count how many bytes to add
+     * @return the index in result's backing array of the first new byte
+     */
+    private static int reserve(ByteList result, int count) {
+        int length = result.length();
+        result.length(length + count);
+        result.invalidate();
+        return result.begin() + length;
     }
 
     /**
@@ -1958,10 +2092,10 @@ public class Pack {
      * @return the short value
      */
     private static int decodeShortUnsignedLittleEndian(ByteBuffer encode) {
-        encode.order(ByteOrder.LITTLE_ENDIAN);
-        int value = encode.getShort() & 0xFFFF;
-        encode.order(ByteOrder.BIG_ENDIAN);
-        return value;
+        byte[] bytes = encode.array();
+        int p = encode.position();
+        encode.position(p + 2);
+        return (bytes[p] & 0xff) | ((bytes[p + 1] & 0xff) << 8);
     }
 
     /**
@@ -1992,7 +2126,10 @@ public class Pack {
      * @param s the short to encode
      */
     private static void encodeShortLittleEndian(ByteList result, int s) {
-        result.append((byte) (s & 0xff)).append((byte) ((s & 0xff00) >> 8));
+        int p = reserve(result, 2);
+        byte[] bytes = result.unsafeBytes();
+        bytes[p] = (byte) s;
+        bytes[p + 1] = (byte) (s >> 8);
     }
 
     /**
@@ -2002,6 +2139,9 @@ public class Pack {
      * @param s the short to encode
      */
     private static void encodeShortBigEndian(ByteList result, int s) {
-        result.append((byte) ((s & 0xff00) >> 8)).append((byte) (s & 0xff));
+        int p = reserve(result, 2);
+        byte[] bytes = result.unsafeBytes();
+        bytes[p] = (byte) (s >> 8);
+        bytes[p + 1] = (byte) s;
     }
 }
@@ -0,0 +1,370 @@
+/*
+ **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2008 The JRuby Community <www.jruby.org>
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+
+package org.jruby.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.jruby.Ruby;
+
+/**
+ * Sorts primitive keys and reports the result as a permutation: perm[i] is
+ * the original index of the i-th smallest key. Callers extract keys once
+ * from Ruby objects (Fixnum values, Float bits, String bytes), sort them
+ * here without dispatching a comparison per pair, and then reorder their
+ * objects by the permutation.
+ *
+ * The sort is a stable merge sort. Inputs of at least PARALLEL_THRESHOLD
+ * keys are split into one run per processor; the runs are sorted and then
+ * merged pairwise on a shared pool of daemon threads.
+ */
+public class PermutationSort {
+    public static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private static final int INSERTION_THRESHOLD = 32;
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+    private static ExecutorService pool;
+
+    /**
+     * Map a double to a long with the same ordering, for any value but NaN.
+     * Negative zero sorts just before positive zero.
+     */
+    public static long sortableBits(double d) {
+        long bits = Double.doubleToLongBits(d);
+        return bits ^ ((bits >> 63) & 0x7fffffffffffffffL);
+    }
+
+    /**
+     * Sort keys, which is destroyed in the process, and return the
+     * permutation that orders them.
+     */
+    public static int[] sort(long[] keys) {
+        return sort(new LongKeys(keys));
+    }
+
+    /**
+     * Sort keys by unsigned byte comparison, as String#<=> does, and return
+     * the permutation that orders them. keys is destroyed in the process.
+     */
+    public static int[] sort(ByteList[] keys) {
+        return sort(new ByteListKeys(keys));
+    }
+
+    /**
+     * Reorder values[begin, begin + perm.length) so that the element at
+     * begin + i is the one that was at begin + perm[i].
+     */
+    public static void permute(Object[] values, int begin, int[] perm) {
+        Object[] copy = new Object[perm.length];
+        System.arraycopy(values, begin, copy, 0, perm.length);
+        for (int i = 0; i < perm.length; i++) {
+            values[begin + i] = copy[perm[i]];
+        }
+    }
+
+    private static int[] sort(Keys keys) {
+        int length = keys.length();
+        final Keys scratch = keys.scratch();
+        if (length < PARALLEL_THRESHOLD || PROCESSORS < 2) {
+            keys.sort(scratch, 0, length);
+            return keys.perm;
+        }
+
+        int runs = 1;
+        while (runs < PROCESSORS) runs <<= 1;
+        int[] bounds = new int[runs + 1];
+        for (int i = 0; i <= runs; i++) {
+            bounds[i] = (int) ((long) length * i / runs);
+        }
+
+        List<Runnable> tasks = new ArrayList<Runnable>(runs);
+        for (int i = 0; i < runs; i++) {
+            final Keys k = keys;
+            final int lo = bounds[i], hi = bounds[i + 1];
+            tasks.add(new Runnable() {
+                public void run() {
+                    k.sort(scratch, lo, hi);
+                }
+            });
+        }
+        runAll(tasks);
+
+        // merge neighbouring runs back and forth between keys and its scratch copy
+        Keys src = keys;
+        Keys dst = scratch;
+        while (runs > 1) {
+            tasks.clear();
+            for (int i = 0; i < runs; i += 2) {
+                final Keys from = src, to = dst;
+                final int lo = bounds[i], mid = bounds[i + 1], hi = bounds[i + 2];
+                tasks.add(new Runnable() {
+                    public void run() {
+                        from.mergeInto(to, lo, mid, hi);
+                    }
+                });
+            }
+            runAll(tasks);
+
+            runs >>= 1;
+            for (int i = 0; i <= runs; i++) {
+                bounds[i] = bounds[i * 2];
+            }
+            Keys swap = src;
+            src = dst;
+            dst = swap;
+        }
+        return src.perm;
+    }
+
+    /**
+     * Run the tasks on the pool, running the last one on the calling thread,
+     * and wait for all of them. The tasks share the arrays being sorted, so
+     * the wait is not cut short by an interrupt; the interrupt is kept for
+     * the caller to see instead.
+     */
+    private static void runAll(List<Runnable> tasks) {
+        ExecutorService executor = getPool();
+        List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+        int last = tasks.size() - 1;
+        for (int i = 0; i < last; i++) {
+            futures.add(executor.submit(tasks.get(i)));
+        }
+        tasks.get(last).run();
+
+        boolean interrupted = false;
+        try {
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException ie) {
+                        interrupted = true;
+                    } catch (ExecutionException ee) {
+                        Throwable cause = ee.getCause();
+                        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                        if (cause instanceof Error) throw (Error) cause;
+                        throw new RuntimeException(cause);
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(PROCESSORS - 1, new Ruby.DaemonThreadFactory());
+        }
+        return pool;
+    }
+
+    /**
+     * Keys plus the permutation that travels with them. Sorting needs a
+     * scratch Keys of the same length to merge through.
+     */
+    private static abstract class Keys {
+        final int[] perm;
+
+        Keys(int[] perm) {
+            this.perm = perm;
+        }
+
+        abstract int length();
+
+        /** Sort [lo, hi) in place, using the same range of scratch as work space. */
+        abstract void sort(Keys scratch, int lo, int hi);
+
+        /** Merge the sorted ranges [lo, mid) and [mid, hi) into the same range of dst. */
+        abstract void mergeInto(Keys dst, int lo, int mid, int hi);
+
+        /** An empty Keys of the same kind and length. */
+        abstract Keys scratch();
+
+        static int[] identity(int length) {
+            int[] perm = new int[length];
+            for (int i = 0; i < length; i++) perm[i] = i;
+            return perm;
+        }
+    }
+
+    private static final class LongKeys extends Keys {
+        final long[] keys;
+
+        LongKeys(long[] keys) {
+            this(keys, identity(keys.length));
+        }
+
+        LongKeys(long[] keys, int[] perm) {
+            super(perm);
+            this.keys = keys;
+        }
+
+        int length() {
+            return keys.length;
+        }
+
+        Keys scratch() {
+            return new LongKeys(new long[keys.length], new int[keys.length]);
+        }
+
+        void sort(Keys scratch, int lo, int hi) {
+            mergeSort(keys, perm, ((LongKeys) scratch).keys, scratch.perm, lo, hi);
+        }
+
+        void mergeInto(Keys dst, int lo, int mid, int hi) {
+            merge(keys, perm, ((LongKeys) dst).keys, dst.perm, lo, mid, hi);
+        }
+
+        private static void mergeSort(long[] k, int[] p, long[] tk, int[] tp, int lo, int hi) {
+            if (hi - lo <= INSERTION_THRESHOLD) {
+                for (int i = lo + 1; i < hi; i++) {
+                    long key = k[i];
+                    int index = p[i];
+                    int j = i - 1;
+                    while (j >= lo && k[j] > key) {
+                        k[j + 1] = k[j];
+                        p[j + 1] = p[j];
+                        j--;
+                    }
+                    k[j + 1] = key;
+                    p[j + 1] = index;
+                }
+                return;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            mergeSort(k, p, tk, tp, lo, mid);
+            mergeSort(k, p, tk, tp, mid, hi);
+            if (k[mid - 1] <= k[mid]) return; // already in order
+
+            System.arraycopy(k, lo, tk, lo, hi - lo);
+            System.arraycopy(p, lo, tp, lo, hi - lo);
+            merge(tk, tp, k, p, lo, mid, hi);
+        }
+
+        private static void merge(long[] k, int[] p, long[] dk, int[] dp, int lo, int mid, int hi) {
+            int i = lo, j = mid, d = lo;
+            while (i < mid && j < hi) {
+                if (k[j] < k[i]) {
+                    dk[d] = k[j];
+                    dp[d++] = p[j++];
+                } else {
+                    dk[d] = k[i];
+                    dp[d++] = p[i++];
+                }
+            }
+            System.arraycopy(k, i, dk, d, mid - i);
+            System.arraycopy(p, i, dp, d, mid - i);
+            d += mid - i;
+            System.arraycopy(k, j, dk, d, hi - j);
+            System.arraycopy(p, j, dp, d, hi - j);
+        }
+    }
+
+    private static final class ByteListKeys extends Keys {
+        final ByteList[] keys;
+
+        ByteListKeys(ByteList[] keys) {
+            this(keys, identity(keys.length));
+        }
+
+        ByteListKeys(ByteList[] keys, int[] perm) {
+            super(perm);
+            this.keys = keys;
+        }
+
+        int length() {
+            return keys.length;
+        }
+
+        Keys scratch() {
+            return new ByteListKeys(new ByteList[keys.length], new int[keys.length]);
+        }
+
+        void sort(Keys scratch, int lo, int hi) {
+            mergeSort(keys, perm, ((ByteListKeys) scratch).keys, scratch.perm, lo, hi);
+        }
+
+        void mergeInto(Keys dst, int lo, int mid, int hi) {
+            merge(keys, perm, ((ByteListKeys) dst).keys, dst.perm, lo, mid, hi);
+        }
+
+        private static void mergeSort(ByteList[] k, int[] p, ByteList[] tk, int[] tp, int lo, int hi) {
+            if (hi - lo <= INSERTION_THRESHOLD) {
+                for (int i = lo + 1; i < hi; i++) {
+                    ByteList key = k[i];
+                    int index = p[i];
+                    int j = i - 1;
+                    while (j >= lo && k[j].cmp(key) > 0) {
+                        k[j + 1] = k[j];
+                        p[j + 1] = p[j];
+                        j--;
+                    }
+                    k[j + 1] = key;
+                    p[j + 1] = index;
+                }
+                return;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            mergeSort(k, p, tk, tp, lo, mid);
+            mergeSort(k, p, tk, tp, mid, hi);
+            if (k[mid - 1].cmp(k[mid]) <= 0) return; // already in order
+
+            System.arraycopy(k, lo, tk, lo, hi - lo);
+            System.arraycopy(p, lo, tp, lo, hi - lo);
+            merge(tk, tp, k, p, lo, mid, hi);
+        }
+
+        private static void merge(ByteList[] k, int[] p, ByteList[] dk, int[] dp, int lo, int mid, int hi) {
+            int i = lo, j = mid, d = lo;
+            while (i < mid && j < hi) {
+                if (k[j].cmp(k[i]) < 0) {
+                    dk[d] = k[j];
+                    dp[d++] = p[j++];
+                } else {
+                    dk[d] = k[i];
+                    dp[d++] = p[i++];
+                }
+            }
+            System.arraycopy(k, i, dk, d, mid - i);
+            System.arraycopy(p, i, dp, d, mid - i);
+            d += mid - i;
+            System.arraycopy(k, j, dk, d, hi - j);
+            System.arraycopy(p, j, dp, d, hi - j);
+        }
+    }
+}
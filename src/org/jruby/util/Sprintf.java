@@ -29,6 +29,7 @@ package org.jruby.util;
 
 import java.math.BigInteger;
 import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
@@ -44,6 +45,7 @@ import org.jruby.RubyString;
 import org.jruby.common.IRubyWarnings.ID;
 import org.jruby.runtime.ClassIndex;
 import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.util.collections.SegmentedLRUCache;
 
 
 /**
@@ -190,11 +192,29 @@ public class Sprintf {
         }
         
         final byte getDecimalSeparator() {
-            // not saving DFS instance, as it will only be used once (at most) per call
-            return (byte)new DecimalFormatSymbols(locale).getDecimalSeparator();
+            // building DecimalFormatSymbols is costly, and almost every call
+            // uses the same locale (Locale.US from String#%), so remember the last one
+            DecimalSeparator last = lastDecimalSeparator;
+            if (last == null || !last.locale.equals(locale)) {
+                last = new DecimalSeparator(locale);
+                lastDecimalSeparator = last;
+            }
+            return last.separator;
         }
     } // Args
 
+    private static final class DecimalSeparator {
+        final Locale locale;
+        final byte separator;
+
+        DecimalSeparator(Locale locale) {
+            this.locale = locale;
+            this.separator = (byte)new DecimalFormatSymbols(locale).getDecimalSeparator();
+        }
+    }
+
+    private static volatile DecimalSeparator lastDecimalSeparator;
+
     /*
      * Using this class to buffer output during formatting, rather than
      * the eventual ByteList itself. That way this buffer can be initialized
@@ -244,6 +264,31 @@ public class Sprintf {
         final void write(byte[] b) {
             write(b,0,b.length);
         }
+
+        // decimal digits of a long, written in place without an intermediate String
+        final void writeLong(long value) {
+            if (value == Long.MIN_VALUE) {
+                write(stringToBytes(Long.toString(value), false));
+                return;
+            }
+            int digits = 1;
+            boolean negative = value < 0;
+            if (negative) value = -value;
+            for (long v = value; v >= 10; v /= 10) digits++;
+            int newSize = size + digits + (negative ? 1 : 0);
+            if (newSize > buf.length) {
+                byte[] newBuf = new byte[Math.max(buf.length << 1,newSize)];
+                System.arraycopy(buf,0,newBuf,0,size);
+                buf = newBuf;
+            }
+            if (negative) buf[size] = '-';
+            int pos = newSize;
+            do {
+                buf[--pos] = (byte)('0' + (value % 10));
+                value /= 10;
+            } while (value != 0);
+            size = newSize;
+        }
         
         final void fill(int b, int len) {
             if (len <= 0) return;
@@ -283,6 +328,15 @@ public class Sprintf {
 
     // static methods only
     private Sprintf () {}
+
+    /**
+     * The initial buffer size the cached program for format starts from, or
+     * -1 if the format isn't compiled.  For tests.
+     */
+    static int programSizeHint(ByteList format) {
+        Program program = Program.lookup(format);
+        return program == null ? -1 : program.sizeHint;
+    }
     
     public static CharSequence sprintf(Locale locale, CharSequence format, IRubyObject args) {
         return rubySprintf(format, new Args(locale,args));
@@ -291,7 +345,13 @@ public class Sprintf {
     // Special form of sprintf that returns a RubyString and handles
     // tainted strings correctly.
     public static RubyString sprintf(Ruby runtime, Locale locale, CharSequence format, IRubyObject args) {
-        Buffer b = rubySprintfToBuffer(format, new Args(locale,args));
+        Buffer b;
+        Program program = format instanceof ByteList ? Program.lookup((ByteList)format) : null;
+        if (program != null) {
+            b = program.execute(new Args(locale,args));
+        } else {
+            b = rubySprintfToBuffer(format, new Args(locale,args));
+        }
         RubyString s = runtime.newString(b.toByteList());
         if (b.tainted) {
             s.setTaint(true);
@@ -516,79 +576,9 @@ public class Sprintf {
                     incomplete = false;
                     break;
 
-                case 'c': {
-                    if (arg == null) arg = args.next();
-                    
-                    int c = 0;
-                    // MRI 1.8.5-p12 doesn't support 1-char strings, but
-                    // YARV 0.4.1 does. I don't think it hurts to include
-                    // this; sprintf('%c','a') is nicer than sprintf('%c','a'[0])
-                    if (arg instanceof RubyString) {
-                        ByteList bytes = ((RubyString)arg).getByteList();
-                        if (bytes.length() == 1) {
-                            c = bytes.unsafeBytes()[bytes.begin()];
-                        } else {
-                            raiseArgumentError(args,"%c requires a character");
-                        }
-                    } else {
-                        c = args.intValue(arg);
-                    }
-                    if ((flags & FLAG_WIDTH) != 0 && width > 1) {
-                        if ((flags & FLAG_MINUS) != 0) {
-                            buf.write(c);
-                            buf.fill(' ', width-1);
-                        } else {
-                            buf.fill(' ',width-1);
-                            buf.write(c);
-                        }
-                    } else {
-                        buf.write(c);
-                    }
-                    offset++;
-                    incomplete = false;
-                    break;
-                }
+                case 'c':
                 case 'p':
-                case 's': {
-                    if (arg == null) arg = args.next();
-
-                    if (fchar == 'p') {
-                        arg = arg.callMethod(arg.getRuntime().getCurrentContext(),"inspect");
-                    }
-                    ByteList bytes = arg.asString().getByteList();
-                    int len = bytes.length();
-                    if (arg.isTaint()) {
-                        buf.tainted = true;
-                    }
-                    if ((flags & FLAG_PRECISION) != 0 && precision < len) {
-                        len = precision;
-                    }
-                    // TODO: adjust length so it won't fall in the middle 
-                    // of a multi-byte character. MRI's sprintf.c uses tables
-                    // in a modified version of regex.c, which assume some
-                    // particular  encoding for a given installation/application.
-                    // (See regex.c#re_mbcinit in ruby-1.8.5-p12) 
-                    //
-                    // This is only an issue if the user specifies a precision
-                    // that causes the string to be truncated. The same issue
-                    // would arise taking a substring of a ByteList-backed RubyString.
-
-                    if ((flags & FLAG_WIDTH) != 0 && width > len) {
-                        width -= len;
-                        if ((flags & FLAG_MINUS) != 0) {
-                            buf.write(bytes.unsafeBytes(),bytes.begin(),len);
-                            buf.fill(' ',width);
-                        } else {
-                            buf.fill(' ',width);
-                            buf.write(bytes.unsafeBytes(),bytes.begin(),len);
-                        }
-                    } else {
-                        buf.write(bytes.unsafeBytes(),bytes.begin(),len);
-                    }
-                    offset++;
-                    incomplete = false;
-                    break;
-                }
+                case 's':
                 case 'd':
                 case 'i':
                 case 'o':
@@ -596,729 +586,987 @@ public class Sprintf {
                 case 'X':
                 case 'b':
                 case 'B':
-                case 'u': {
+                case 'u':
+                case 'E':
+                case 'e':
+                case 'f':
+                case 'G':
+                case 'g':
                     if (arg == null) arg = args.next();
 
-                    int type = arg.getMetaClass().index;
-                    if (type != ClassIndex.FIXNUM && type != ClassIndex.BIGNUM) {
-                        switch(type) {
-                        case ClassIndex.FLOAT:
-                            arg = RubyNumeric.dbl2num(arg.getRuntime(),((RubyFloat)arg).getValue());
-                            break;
-                        case ClassIndex.STRING:
-                            arg = RubyNumeric.str2inum(arg.getRuntime(),(RubyString)arg,0,true);
-                            break;
-                        default:
-                            if (arg.respondsTo("to_int")) {
-                                arg = TypeConverter.convertToType(arg, arg.getRuntime().getInteger(), "to_int", true);
-                            } else {
-                                arg = TypeConverter.convertToType(arg, arg.getRuntime().getInteger(), "to_i", true);
-                            }
-                            break;
+                    writeConversion(buf, args, arg, fchar, flags, width, precision);
+                    offset++;
+                    incomplete = false;
+                    break;
+                } // switch (each format char in spec)
+            } // for (each format spec)
+            
+            // equivalent to MRI case '\0':
+            if (incomplete) {
+                if (flags == FLAG_NONE) {
+                    // dangling '%' char
+                    buf.write('%');
+                } else {
+                    raiseArgumentError(args,ERR_ILLEGAL_FORMAT_CHAR);
+                }
+            }
+        } // main while loop (offset < length)
+
+        checkExtraArguments(args);
+
+        return buf;
+    }
+
+    private static void checkExtraArguments(Args args) {
+        // MRI behavior: validate only the unnumbered arguments
+        if ((args.numbered == 0) && args.unnumbered < args.length) {
+            if (args.runtime.getDebug().isTrue()) {
+                args.raiseArgumentError("too many arguments for format string");
+            } else if (args.runtime.getVerbose().isTrue()) {
+                args.warn(ID.TOO_MANY_ARGUMENTS, "too many arguments for format string");
+            }
+        }
+    }
+
+    /*
+     * A format string pre-parsed into literal spans and conversion specs, so
+     * repeated String#% / sprintf calls with the same format skip the parse.
+     * Only the common, unambiguous subset is compiled: flags, a literal width,
+     * a literal precision and a conversion char, plus %%. Anything involving
+     * '*', '$', NUL, newlines or malformed specs is left to the interpreter in
+     * rubySprintfToBuffer, which also owns all the error reporting.
+     */
+    private static final class Program {
+        private static final int MAX_CACHED_PROGRAMS = 256;
+        private static final int MAX_COMPILED_WIDTH = 1 << 16;
+        // one huge result shouldn't make every later call allocate as much
+        private static final int MAX_SIZE_HINT = 4096;
+
+        // shared marker for formats the compiler declined, so they aren't re-parsed either
+        private static final Program UNCOMPILABLE = new Program(null, null, null, null, null);
+
+        // segmented so threads formatting different strings don't queue on one lock
+        private static final SegmentedLRUCache<ByteList, Program> cache =
+            new SegmentedLRUCache<ByteList, Program>(MAX_CACHED_PROGRAMS, 16);
+
+        // literals[i] precedes specs i; literals[specs] trails the last one
+        private final byte[][] literals;
+        private final byte[] fchars;
+        private final int[] flags;
+        private final int[] widths;
+        private final int[] precisions;
+        private int sizeHint;
+
+        private Program(byte[][] literals, byte[] fchars, int[] flags, int[] widths, int[] precisions) {
+            this.literals = literals;
+            this.fchars = fchars;
+            this.flags = flags;
+            this.widths = widths;
+            this.precisions = precisions;
+            int hint = INITIAL_BUFFER_SIZE;
+            if (literals != null) {
+                for (int i = 0; i < literals.length; i++) hint += literals[i].length;
+            }
+            this.sizeHint = hint;
+        }
+
+        static Program lookup(ByteList format) {
+            Program program = cache.get(format);
+            if (program == null) {
+                program = compile(format);
+                if (program == null) program = UNCOMPILABLE;
+                cache.put(new ByteList(format), program);
+            }
+            return program == UNCOMPILABLE ? null : program;
+        }
+
+        private static Program compile(ByteList list) {
+            byte[] format = list.unsafeBytes();
+            int offset = list.begin();
+            int length = offset + list.length();
+
+            List<byte[]> literals = new ArrayList<byte[]>();
+            List<int[]> specs = new ArrayList<int[]>();
+            ByteList literal = new ByteList();
+
+            while (offset < length) {
+                int start = offset;
+                for ( ; offset < length && format[offset] != '%'; offset++) ;
+                literal.append(format, start, offset - start);
+                if (offset++ >= length) break;
+                if (offset >= length) return null; // dangling '%'
+
+                if (format[offset] == '%') {
+                    literal.append('%');
+                    offset++;
+                    continue;
+                }
+
+                int flags = FLAG_NONE;
+                int width = 0;
+                int precision = 0;
+                byte fchar;
+                spec: for (;;) {
+                    if (offset >= length) return null;
+                    switch (fchar = format[offset]) {
+                    case ' ': flags |= FLAG_SPACE; offset++; break;
+                    case '0': flags |= FLAG_ZERO; offset++; break;
+                    case '+': flags |= FLAG_PLUS; offset++; break;
+                    case '-': flags |= FLAG_MINUS; offset++; break;
+                    case '#': flags |= FLAG_SHARP; offset++; break;
+                    case '1': case '2': case '3': case '4': case '5':
+                    case '6': case '7': case '8': case '9':
+                        width = 0;
+                        for ( ; offset < length && isDigit(format[offset]); offset++) {
+                            width = width * 10 + (format[offset] - '0');
+                            if (width > MAX_COMPILED_WIDTH) return null;
                         }
-                        type = arg.getMetaClass().index;
+                        if (offset >= length || format[offset] == '$') return null;
+                        flags |= FLAG_WIDTH;
+                        break;
+                    case '.':
+                        if ((flags & FLAG_PRECISION) != 0) return null;
+                        flags |= FLAG_PRECISION;
+                        offset++;
+                        for ( ; offset < length && isDigit(format[offset]); offset++) {
+                            precision = precision * 10 + (format[offset] - '0');
+                            if (precision > MAX_COMPILED_WIDTH) return null;
+                        }
+                        if (offset >= length || format[offset] == '*') return null;
+                        break;
+                    case 'c': case 'p': case 's': case 'd': case 'i':
+                    case 'o': case 'x': case 'X': case 'b': case 'B':
+                    case 'u': case 'E': case 'e': case 'f': case 'G': case 'g':
+                        offset++;
+                        break spec;
+                    default:
+                        return null;
                     }
-                    byte[] bytes = null;
-                    int first = 0;
-                    byte[] prefix = null;
-                    boolean sign;
-                    boolean negative;
-                    byte signChar = 0;
-                    byte leadChar = 0;
-                    int base;
-
-                    // 'd' and 'i' are the same
-                    if (fchar == 'i') fchar = 'd';
-
-                    // 'u' with space or plus flags is same as 'd'
-                    if (fchar == 'u' && (flags & (FLAG_SPACE | FLAG_PLUS)) != 0) {
-                        fchar = 'd';
+                }
+
+                literals.add(literal.bytes());
+                literal = new ByteList();
+                specs.add(new int[] {fchar, flags, width, precision});
+            }
+            literals.add(literal.bytes());
+
+            int count = specs.size();
+            byte[] fchars = new byte[count];
+            int[] flags = new int[count];
+            int[] widths = new int[count];
+            int[] precisions = new int[count];
+            for (int i = 0; i < count; i++) {
+                int[] spec = specs.get(i);
+                fchars[i] = (byte)spec[0];
+                flags[i] = spec[1];
+                widths[i] = spec[2];
+                precisions[i] = spec[3];
+            }
+            return new Program(literals.toArray(new byte[count + 1][]), fchars, flags, widths, precisions);
+        }
+
+        Buffer execute(Args args) {
+            Buffer buf = new Buffer(sizeHint);
+            int count = fchars.length;
+            for (int i = 0; i < count; i++) {
+                buf.write(literals[i]);
+                IRubyObject arg = args.next();
+                byte fchar = fchars[i];
+                int flag = flags[i];
+                if (flag == FLAG_NONE) {
+                    // fast paths for a bare %s of a String and %d/%i of a Fixnum
+                    if (fchar == 's' && arg instanceof RubyString) {
+                        ByteList bytes = ((RubyString)arg).getByteList();
+                        buf.write(bytes.unsafeBytes(), bytes.begin(), bytes.length());
+                        if (arg.isTaint()) buf.tainted = true;
+                        continue;
+                    } else if ((fchar == 'd' || fchar == 'i') && arg instanceof RubyFixnum) {
+                        buf.writeLong(((RubyFixnum)arg).getLongValue());
+                        continue;
                     }
-                    sign = (fchar == 'd' || (flags & (FLAG_SPACE | FLAG_PLUS)) != 0);
+                }
+                writeConversion(buf, args, arg, fchar, flag, widths[i], precisions[i]);
+            }
+            buf.write(literals[count]);
+
+            checkExtraArguments(args);
+
+            // racy, but only a sizing hint for the next call
+            int used = Math.min(buf.size, MAX_SIZE_HINT);
+            if (used > sizeHint) sizeHint = used;
+            return buf;
+        }
+    } // Program
+
+    /**
+     * Write a single conversion (everything but %% and literal text) for an
+     * already fetched argument. Shared by the format interpreter and compiled
+     * programs, so both produce identical output.
+     */
+    private static void writeConversion(Buffer buf, Args args, IRubyObject arg, byte fchar, int flags, int width, int precision) {
+        switch (fchar) {
+        case 'c': {
+            int c = 0;
+            // MRI 1.8.5-p12 doesn't support 1-char strings, but
+            // YARV 0.4.1 does. I don't think it hurts to include
+            // this; sprintf('%c','a') is nicer than sprintf('%c','a'[0])
+            if (arg instanceof RubyString) {
+                ByteList bytes = ((RubyString)arg).getByteList();
+                if (bytes.length() == 1) {
+                    c = bytes.unsafeBytes()[bytes.begin()];
+                } else {
+                    raiseArgumentError(args,"%c requires a character");
+                }
+            } else {
+                c = args.intValue(arg);
+            }
+            if ((flags & FLAG_WIDTH) != 0 && width > 1) {
+                if ((flags & FLAG_MINUS) != 0) {
+                    buf.write(c);
+                    buf.fill(' ', width-1);
+                } else {
+                    buf.fill(' ',width-1);
+                    buf.write(c);
+                }
+            } else {
+                buf.write(c);
+            }
+            break;
+        }
+        case 'p':
+        case 's': {
+            if (fchar == 'p') {
+                arg = arg.callMethod(arg.getRuntime().getCurrentContext(),"inspect");
+            }
+            ByteList bytes = arg.asString().getByteList();
+            int len = bytes.length();
+            if (arg.isTaint()) {
+                buf.tainted = true;
+            }
+            if ((flags & FLAG_PRECISION) != 0 && precision < len) {
+                len = precision;
+            }
+            // TODO: adjust length so it won't fall in the middle 
+            // of a multi-byte character. MRI's sprintf.c uses tables
+            // in a modified version of regex.c, which assume some
+            // particular  encoding for a given installation/application.
+            // (See regex.c#re_mbcinit in ruby-1.8.5-p12) 
+            //
+            // This is only an issue if the user specifies a precision
+            // that causes the string to be truncated. The same issue
+            // would arise taking a substring of a ByteList-backed RubyString.
+
+            if ((flags & FLAG_WIDTH) != 0 && width > len) {
+                width -= len;
+                if ((flags & FLAG_MINUS) != 0) {
+                    buf.write(bytes.unsafeBytes(),bytes.begin(),len);
+                    buf.fill(' ',width);
+                } else {
+                    buf.fill(' ',width);
+                    buf.write(bytes.unsafeBytes(),bytes.begin(),len);
+                }
+            } else {
+                buf.write(bytes.unsafeBytes(),bytes.begin(),len);
+            }
+            break;
+        }
+        case 'd':
+        case 'i':
+        case 'o':
+        case 'x':
+        case 'X':
+        case 'b':
+        case 'B':
+        case 'u': {
+            int type = arg.getMetaClass().index;
+            if (type != ClassIndex.FIXNUM && type != ClassIndex.BIGNUM) {
+                switch(type) {
+                case ClassIndex.FLOAT:
+                    arg = RubyNumeric.dbl2num(arg.getRuntime(),((RubyFloat)arg).getValue());
+                    break;
+                case ClassIndex.STRING:
+                    arg = RubyNumeric.str2inum(arg.getRuntime(),(RubyString)arg,0,true);
+                    break;
+                default:
+                    if (arg.respondsTo("to_int")) {
+                        arg = TypeConverter.convertToType(arg, arg.getRuntime().getInteger(), "to_int", true);
+                    } else {
+                        arg = TypeConverter.convertToType(arg, arg.getRuntime().getInteger(), "to_i", true);
+                    }
+                    break;
+                }
+                type = arg.getMetaClass().index;
+            }
+            byte[] bytes = null;
+            int first = 0;
+            byte[] prefix = null;
+            boolean sign;
+            boolean negative;
+            byte signChar = 0;
+            byte leadChar = 0;
+            int base;
+
+            // 'd' and 'i' are the same
+            if (fchar == 'i') fchar = 'd';
+
+            // 'u' with space or plus flags is same as 'd'
+            if (fchar == 'u' && (flags & (FLAG_SPACE | FLAG_PLUS)) != 0) {
+                fchar = 'd';
+            }
+            sign = (fchar == 'd' || (flags & (FLAG_SPACE | FLAG_PLUS)) != 0);
+
+            switch (fchar) {
+            case 'o':
+                base = 8; break;
+            case 'x':
+            case 'X':
+                base = 16; break;
+            case 'b':
+            case 'B':
+                base = 2; break;
+            case 'u':
+            case 'd':
+            default:
+                base = 10; break;
+            }
+            if ((flags & FLAG_SHARP) != 0) {
+                switch(fchar) {
+                case 'o': prefix = PREFIX_OCTAL; break;
+                case 'x': prefix = PREFIX_HEX_LC; break;
+                case 'X': prefix = PREFIX_HEX_UC; break;
+                case 'b': prefix = PREFIX_BINARY_LC; break;
+                case 'B': prefix = PREFIX_BINARY_UC; break;
+                }
+                if (prefix != null) width -= prefix.length;
+            }
+            // We depart here from strict adherence to MRI code, as MRI
+            // uses C-sprintf, in part, to format numeric output, while
+            // we'll use Java's numeric formatting code (and our own).
+            if (type == ClassIndex.FIXNUM) {
+                negative = ((RubyFixnum)arg).getLongValue() < 0;
+                if (negative && fchar == 'u') {
+                    bytes = getUnsignedNegativeBytes((RubyFixnum)arg);
+                } else {
+                    bytes = getFixnumBytes((RubyFixnum)arg,base,sign,fchar=='X');
+                }
+            } else {
+                negative = ((RubyBignum)arg).getValue().signum() < 0;
+                if (negative && fchar == 'u') {
+                    bytes = getUnsignedNegativeBytes((RubyBignum)arg);
+                } else {
+                    bytes = getBignumBytes((RubyBignum)arg,base,sign,fchar=='X');
+                }
+            }
+            int len = 0;
+            if (sign) {
+                if (negative) {
+                    signChar = '-';
+                    width--;
+                    first = 1; // skip '-' in bytes, will add where appropriate
+                } else if ((flags & FLAG_PLUS) != 0) {
+                    signChar = '+';
+                    width--;
+                } else if ((flags & FLAG_SPACE) != 0) {
+                    signChar = ' ';
+                    width--;
+                }
+            } else if (negative) {
+                if (base == 10) {
+                    warning(ID.NEGATIVE_NUMBER_FOR_U, args,"negative number for %u specifier");
+                    leadChar = '.';
+                    len += 2;
+                } else {
+                    if ((flags & (FLAG_PRECISION | FLAG_ZERO)) == 0) len += 2; // ..
 
-                    switch (fchar) {
+                    first = skipSignBits(bytes,base);
+                    switch(fchar) {
+                    case 'b':
+                    case 'B':
+                        leadChar = '1';
+                        break;
                     case 'o':
-                        base = 8; break;
+                        leadChar = '7';
+                        break;
                     case 'x':
+                        leadChar = 'f';
+                        break;
                     case 'X':
-                        base = 16; break;
-                    case 'b':
-                    case 'B':
-                        base = 2; break;
-                    case 'u':
-                    case 'd':
-                    default:
-                        base = 10; break;
-                    }
-                    if ((flags & FLAG_SHARP) != 0) {
-                        switch(fchar) {
-                        case 'o': prefix = PREFIX_OCTAL; break;
-                        case 'x': prefix = PREFIX_HEX_LC; break;
-                        case 'X': prefix = PREFIX_HEX_UC; break;
-                        case 'b': prefix = PREFIX_BINARY_LC; break;
-                        case 'B': prefix = PREFIX_BINARY_UC; break;
-                        }
-                        if (prefix != null) width -= prefix.length;
-                    }
-                    // We depart here from strict adherence to MRI code, as MRI
-                    // uses C-sprintf, in part, to format numeric output, while
-                    // we'll use Java's numeric formatting code (and our own).
-                    if (type == ClassIndex.FIXNUM) {
-                        negative = ((RubyFixnum)arg).getLongValue() < 0;
-                        if (negative && fchar == 'u') {
-                            bytes = getUnsignedNegativeBytes((RubyFixnum)arg);
-                        } else {
-                            bytes = getFixnumBytes((RubyFixnum)arg,base,sign,fchar=='X');
-                        }
-                    } else {
-                        negative = ((RubyBignum)arg).getValue().signum() < 0;
-                        if (negative && fchar == 'u') {
-                            bytes = getUnsignedNegativeBytes((RubyBignum)arg);
-                        } else {
-                            bytes = getBignumBytes((RubyBignum)arg,base,sign,fchar=='X');
-                        }
-                    }
-                    int len = 0;
-                    if (sign) {
-                        if (negative) {
-                            signChar = '-';
-                            width--;
-                            first = 1; // skip '-' in bytes, will add where appropriate
-                        } else if ((flags & FLAG_PLUS) != 0) {
-                            signChar = '+';
-                            width--;
-                        } else if ((flags & FLAG_SPACE) != 0) {
-                            signChar = ' ';
-                            width--;
-                        }
-                    } else if (negative) {
-                        if (base == 10) {
-                            warning(ID.NEGATIVE_NUMBER_FOR_U, args,"negative number for %u specifier");
-                            leadChar = '.';
-                            len += 2;
-                        } else {
-                            if ((flags & (FLAG_PRECISION | FLAG_ZERO)) == 0) len += 2; // ..
-
-                            first = skipSignBits(bytes,base);
-                            switch(fchar) {
-                            case 'b':
-                            case 'B':
-                                leadChar = '1';
-                                break;
-                            case 'o':
-                                leadChar = '7';
-                                break;
-                            case 'x':
-                                leadChar = 'f';
-                                break;
-                            case 'X':
-                                leadChar = 'F';
-                                break;
-                            }
-                            if (leadChar != 0) len++;
-                        }
+                        leadChar = 'F';
+                        break;
                     }
-                    int numlen = bytes.length - first;
-                    len += numlen;
-                    
-                    if ((flags & (FLAG_ZERO|FLAG_PRECISION)) == FLAG_ZERO) {
-                        precision = width;
-                        width = 0;
-                    } else {
-                        if (precision < len) precision = len;
+                    if (leadChar != 0) len++;
+                }
+            }
+            int numlen = bytes.length - first;
+            len += numlen;
+            
+            if ((flags & (FLAG_ZERO|FLAG_PRECISION)) == FLAG_ZERO) {
+                precision = width;
+                width = 0;
+            } else {
+                if (precision < len) precision = len;
 
-                        width -= precision;
-                    }
-                    if ((flags & FLAG_MINUS) == 0) {
-                        buf.fill(' ',width);
-                        width = 0;
-                    }
-                    if (signChar != 0) buf.write(signChar);
-                    if (prefix != null) buf.write(prefix);
-
-                    if (len < precision) {
-                        if (leadChar == 0) {
-                            buf.fill('0', precision - len);
-                        } else if (leadChar == '.') {
-                            buf.fill(leadChar,precision-len);
-                            buf.write(PREFIX_NEGATIVE);
-                        } else {
-                            buf.fill(leadChar,precision-len+1); // the 1 is for the stripped sign char
-                        }
-                    } else if (leadChar != 0) {
-                        if ((flags & (FLAG_PRECISION | FLAG_ZERO)) == 0) {
-                            buf.write(PREFIX_NEGATIVE);
-                        }
-                        if (leadChar != '.') buf.write(leadChar);
-                    }
-                    buf.write(bytes,first,numlen);
+                width -= precision;
+            }
+            if ((flags & FLAG_MINUS) == 0) {
+                buf.fill(' ',width);
+                width = 0;
+            }
+            if (signChar != 0) buf.write(signChar);
+            if (prefix != null) buf.write(prefix);
+
+            if (len < precision) {
+                if (leadChar == 0) {
+                    buf.fill('0', precision - len);
+                } else if (leadChar == '.') {
+                    buf.fill(leadChar,precision-len);
+                    buf.write(PREFIX_NEGATIVE);
+                } else {
+                    buf.fill(leadChar,precision-len+1); // the 1 is for the stripped sign char
+                }
+            } else if (leadChar != 0) {
+                if ((flags & (FLAG_PRECISION | FLAG_ZERO)) == 0) {
+                    buf.write(PREFIX_NEGATIVE);
+                }
+                if (leadChar != '.') buf.write(leadChar);
+            }
+            buf.write(bytes,first,numlen);
 
-                    if (width > 0) buf.fill(' ',width);
-                                        
-                    offset++;
-                    incomplete = false;
-                    break;
+            if (width > 0) buf.fill(' ',width);
+                                
+            break;
+        }
+        case 'E':
+        case 'e':
+        case 'f':
+        case 'G':
+        case 'g': {
+            if (!(arg instanceof RubyFloat)) {
+                // FIXME: what is correct 'recv' argument?
+                // (this does produce the desired behavior)
+                arg = RubyKernel.new_float(arg,arg);
+            }
+            double dval = ((RubyFloat)arg).getDoubleValue();
+            boolean nan = dval != dval;
+            boolean inf = dval == Double.POSITIVE_INFINITY || dval == Double.NEGATIVE_INFINITY;
+            boolean negative = dval < 0.0d;
+            byte[] digits;
+            int nDigits = 0;
+            int exponent = 0;
+
+            int len = 0;
+            byte signChar;
+            
+            if (nan || inf) {
+                if (nan) {
+                    digits = NAN_VALUE;
+                    len = NAN_VALUE.length;
+                } else {
+                    digits = INFINITY_VALUE;
+                    len = INFINITY_VALUE.length;
                 }
-                case 'E':
-                case 'e':
-                case 'f':
-                case 'G':
-                case 'g': {
-                    if (arg == null) arg = args.next();
-                    
-                    if (!(arg instanceof RubyFloat)) {
-                        // FIXME: what is correct 'recv' argument?
-                        // (this does produce the desired behavior)
-                        arg = RubyKernel.new_float(arg,arg);
-                    }
-                    double dval = ((RubyFloat)arg).getDoubleValue();
-                    boolean nan = dval != dval;
-                    boolean inf = dval == Double.POSITIVE_INFINITY || dval == Double.NEGATIVE_INFINITY;
-                    boolean negative = dval < 0.0d;
-                    byte[] digits;
-                    int nDigits = 0;
-                    int exponent = 0;
-
-                    int len = 0;
-                    byte signChar;
-                    
-                    if (nan || inf) {
-                        if (nan) {
-                            digits = NAN_VALUE;
-                            len = NAN_VALUE.length;
-                        } else {
-                            digits = INFINITY_VALUE;
-                            len = INFINITY_VALUE.length;
-                        }
-                        if (negative) {
-                            signChar = '-';
-                            width--;
-                        } else if ((flags & FLAG_PLUS) != 0) {
-                            signChar = '+';
-                            width--;
-                        } else if ((flags & FLAG_SPACE) != 0) {
-                            signChar = ' ';
-                            width--;
-                        } else {
-                            signChar = 0;
-                        }
-                        width -= len;
-                        
-                        if (width > 0 && (flags & (FLAG_ZERO|FLAG_MINUS)) == 0) {
-                            buf.fill(' ',width);
-                            width = 0;
-                        }
-                        if (signChar != 0) buf.write(signChar);
+                if (negative) {
+                    signChar = '-';
+                    width--;
+                } else if ((flags & FLAG_PLUS) != 0) {
+                    signChar = '+';
+                    width--;
+                } else if ((flags & FLAG_SPACE) != 0) {
+                    signChar = ' ';
+                    width--;
+                } else {
+                    signChar = 0;
+                }
+                width -= len;
+                
+                if (width > 0 && (flags & (FLAG_ZERO|FLAG_MINUS)) == 0) {
+                    buf.fill(' ',width);
+                    width = 0;
+                }
+                if (signChar != 0) buf.write(signChar);
 
-                        if (width > 0 && (flags & FLAG_MINUS) == 0) {
-                            buf.fill('0',width);
-                            width = 0;
-                        }
-                        buf.write(digits);
-                        if (width > 0) buf.fill(' ', width);
+                if (width > 0 && (flags & FLAG_MINUS) == 0) {
+                    buf.fill('0',width);
+                    width = 0;
+                }
+                buf.write(digits);
+                if (width > 0) buf.fill(' ', width);
 
-                        offset++;
-                        incomplete = false;
-                        break;
-                    }
-                    String str = Double.toString(dval);
-                    // grrr, arghh, want to subclass sun.misc.FloatingDecimal, but can't,
-                    // so we must do all this (the next 70 lines of code), which has already
-                    // been done by FloatingDecimal.
-                    int strlen = str.length();
-                    digits = new byte[strlen];
-                    int nTrailingZeroes = 0;
-                    int i = negative ? 1 : 0;
-                    int decPos = 0;
-                    byte ival;
-                int_loop:
-                    for ( ; i < strlen ; ) {
-                        switch(ival = (byte)str.charAt(i++)) {
-                        case '0':
-                            if (nDigits > 0) nTrailingZeroes++;
-
-                            break; // switch
-                        case '1': case '2': case '3': case '4':
-                        case '5': case '6': case '7': case '8': case '9':
-                            if (nTrailingZeroes > 0) {
-                                for ( ; nTrailingZeroes > 0 ; nTrailingZeroes-- ) {
-                                    digits[nDigits++] = '0';
-                                }
-                            }
-                            digits[nDigits++] = ival;
-                            break; // switch
-                        case '.':
-                            break int_loop;
+                break;
+            }
+            String str = Double.toString(dval);
+            // grrr, arghh, want to subclass sun.misc.FloatingDecimal, but can't,
+            // so we must do all this (the next 70 lines of code), which has already
+            // been done by FloatingDecimal.
+            int strlen = str.length();
+            digits = new byte[strlen];
+            int nTrailingZeroes = 0;
+            int i = negative ? 1 : 0;
+            int decPos = 0;
+            byte ival;
+        int_loop:
+            for ( ; i < strlen ; ) {
+                switch(ival = (byte)str.charAt(i++)) {
+                case '0':
+                    if (nDigits > 0) nTrailingZeroes++;
+
+                    break; // switch
+                case '1': case '2': case '3': case '4':
+                case '5': case '6': case '7': case '8': case '9':
+                    if (nTrailingZeroes > 0) {
+                        for ( ; nTrailingZeroes > 0 ; nTrailingZeroes-- ) {
+                            digits[nDigits++] = '0';
                         }
                     }
-                    decPos = nDigits + nTrailingZeroes;
-                dec_loop:
-                    for ( ; i < strlen ; ) {
-                        switch(ival = (byte)str.charAt(i++)) {
-                        case '0':
-                            if (nDigits > 0) {
-                                nTrailingZeroes++;
-                            } else {
-                                exponent--;
-                            }
-                            break; // switch
-                        case '1': case '2': case '3': case '4':
-                        case '5': case '6': case '7': case '8': case '9':
-                            if (nTrailingZeroes > 0) {
-                                for ( ; nTrailingZeroes > 0 ; nTrailingZeroes--  ) {
-                                    digits[nDigits++] = '0';
-                                }
-                            }
-                            digits[nDigits++] = ival;
-                            break; // switch
-                        case 'E':
-                            break dec_loop;
-                        }
+                    digits[nDigits++] = ival;
+                    break; // switch
+                case '.':
+                    break int_loop;
+                }
+            }
+            decPos = nDigits + nTrailingZeroes;
+        dec_loop:
+            for ( ; i < strlen ; ) {
+                switch(ival = (byte)str.charAt(i++)) {
+                case '0':
+                    if (nDigits > 0) {
+                        nTrailingZeroes++;
+                    } else {
+                        exponent--;
                     }
-                    if ( i < strlen) {
-                        int expSign;
-                        int expVal = 0;
-                        if (str.charAt(i) == '-') {
-                            expSign = -1;
-                            i++;
-                        } else {
-                            expSign = 1;
+                    break; // switch
+                case '1': case '2': case '3': case '4':
+                case '5': case '6': case '7': case '8': case '9':
+                    if (nTrailingZeroes > 0) {
+                        for ( ; nTrailingZeroes > 0 ; nTrailingZeroes--  ) {
+                            digits[nDigits++] = '0';
                         }
-                        for ( ; i < strlen ; ) {
-                            expVal = expVal * 10 + ((int)str.charAt(i++)-(int)'0');
-                        }
-                        exponent += expVal * expSign;
                     }
-                    exponent += decPos - nDigits;
+                    digits[nDigits++] = ival;
+                    break; // switch
+                case 'E':
+                    break dec_loop;
+                }
+            }
+            if ( i < strlen) {
+                int expSign;
+                int expVal = 0;
+                if (str.charAt(i) == '-') {
+                    expSign = -1;
+                    i++;
+                } else {
+                    expSign = 1;
+                }
+                for ( ; i < strlen ; ) {
+                    expVal = expVal * 10 + ((int)str.charAt(i++)-(int)'0');
+                }
+                exponent += expVal * expSign;
+            }
+            exponent += decPos - nDigits;
 
-                    // gotta have at least a zero...
-                    if (nDigits == 0) {
-                        digits[0] = '0';
-                        nDigits = 1;
-                        exponent = 0;
-                    }
+            // gotta have at least a zero...
+            if (nDigits == 0) {
+                digits[0] = '0';
+                nDigits = 1;
+                exponent = 0;
+            }
 
-                    // OK, we now have the significand in digits[0...nDigits]
-                    // and the exponent in exponent.  We're ready to format.
-
-                    int intDigits, intZeroes, intLength;
-                    int decDigits, decZeroes, decLength;
-                    byte expChar;
-
-                    if (negative) {
-                        signChar = '-';
-                        width--;
-                    } else if ((flags & FLAG_PLUS) != 0) {
-                        signChar = '+';
-                        width--;
-                    } else if ((flags & FLAG_SPACE) != 0) {
-                        signChar = ' ';
-                        width--;
-                    } else {
-                        signChar = 0;
-                    }
-                    if ((flags & FLAG_PRECISION) == 0) {
-                        precision = 6;
+            // OK, we now have the significand in digits[0...nDigits]
+            // and the exponent in exponent.  We're ready to format.
+
+            int intDigits, intZeroes, intLength;
+            int decDigits, decZeroes, decLength;
+            byte expChar;
+
+            if (negative) {
+                signChar = '-';
+                width--;
+            } else if ((flags & FLAG_PLUS) != 0) {
+                signChar = '+';
+                width--;
+            } else if ((flags & FLAG_SPACE) != 0) {
+                signChar = ' ';
+                width--;
+            } else {
+                signChar = 0;
+            }
+            if ((flags & FLAG_PRECISION) == 0) {
+                precision = 6;
+            }
+            
+            switch(fchar) {
+            case 'E':
+            case 'G':
+                expChar = 'E';
+                break;
+            case 'e':
+            case 'g':
+                expChar = 'e';
+                break;
+            default:
+                expChar = 0;
+            }
+
+            switch(fchar) {
+            case 'g':
+            case 'G':
+                // an empirically derived rule: precision applies to
+                // significand length, irrespective of exponent
+
+                // an official rule, clarified: if the exponent
+                // <clarif>after adjusting for exponent form</clarif>
+                // is < -4,  or the exponent <clarif>after adjusting 
+                // for exponent form</clarif> is greater than the
+                // precision, use exponent form
+                boolean expForm = (exponent + nDigits - 1 < -4 ||
+                    exponent + nDigits > (precision == 0 ? 1 : precision));
+                // it would be nice (and logical!) if exponent form 
+                // behaved like E/e, and decimal form behaved like f,
+                // but no such luck. hence: 
+                if (expForm) {
+                    // intDigits isn't used here, but if it were, it would be 1
+                    /* intDigits = 1; */
+                    decDigits = nDigits - 1;
+                    // precision for G/g includes integer digits
+                    precision = Math.max(0,precision - 1);
+
+                    if (precision < decDigits) {
+                        int n = round(digits,nDigits,precision,precision!=0);
+                        if (n > nDigits) {
+                            nDigits = n;
+                        }
+                        decDigits = Math.min(nDigits - 1,precision);
                     }
+                    exponent += nDigits - 1;
                     
-                    switch(fchar) {
-                    case 'E':
-                    case 'G':
-                        expChar = 'E';
-                        break;
-                    case 'e':
-                    case 'g':
-                        expChar = 'e';
-                        break;
-                    default:
-                        expChar = 0;
-                    }
-
-                    switch(fchar) {
-                    case 'g':
-                    case 'G':
-                        // an empirically derived rule: precision applies to
-                        // significand length, irrespective of exponent
-
-                        // an official rule, clarified: if the exponent
-                        // <clarif>after adjusting for exponent form</clarif>
-                        // is < -4,  or the exponent <clarif>after adjusting 
-                        // for exponent form</clarif> is greater than the
-                        // precision, use exponent form
-                        boolean expForm = (exponent + nDigits - 1 < -4 ||
-                            exponent + nDigits > (precision == 0 ? 1 : precision));
-                        // it would be nice (and logical!) if exponent form 
-                        // behaved like E/e, and decimal form behaved like f,
-                        // but no such luck. hence: 
-                        if (expForm) {
-                            // intDigits isn't used here, but if it were, it would be 1
-                            /* intDigits = 1; */
-                            decDigits = nDigits - 1;
-                            // precision for G/g includes integer digits
-                            precision = Math.max(0,precision - 1);
-
-                            if (precision < decDigits) {
-                                int n = round(digits,nDigits,precision,precision!=0);
-                                if (n > nDigits) {
-                                    nDigits = n;
-                                }
-                                decDigits = Math.min(nDigits - 1,precision);
-                            }
-                            exponent += nDigits - 1;
-                            
-                            boolean isSharp = (flags & FLAG_SHARP) != 0;
+                    boolean isSharp = (flags & FLAG_SHARP) != 0;
 
-                            // deal with length/width
+                    // deal with length/width
 			    
-                            len++; // first digit is always printed
-
-                            // MRI behavior: Be default, 2 digits
-                            // in the exponent. Use 3 digits
-                            // only when necessary.
-                            // See comment for writeExp method for more details.
-                            if (exponent > 99)
-                            	len += 5; // 5 -> e+nnn / e-nnn
-                            else
-                            	len += 4; // 4 -> e+nn / e-nn
-
-                            if (isSharp) {
-                            	// in this mode, '.' is always printed
-                            	len++;
-                            }
+                    len++; // first digit is always printed
+
+                    // MRI behavior: Be default, 2 digits
+                    // in the exponent. Use 3 digits
+                    // only when necessary.
+                    // See comment for writeExp method for more details.
+                    if (exponent > 99)
+                    	len += 5; // 5 -> e+nnn / e-nnn
+                    else
+                    	len += 4; // 4 -> e+nn / e-nn
+
+                    if (isSharp) {
+                    	// in this mode, '.' is always printed
+                    	len++;
+                    }
 
-                            if (precision > 0) {
-                            	if (!isSharp) {
-                            	    // MRI behavior: In this mode
-                            	    // trailing zeroes are removed:
-                            	    // 1.500E+05 -> 1.5E+05 
-                            	    int j = decDigits;
-                            	    for (; j >= 1; j--) {
-                            	        if (digits[j]== '0') {
-                            	            decDigits--;
-                            	        } else {
-                            	            break;
-                            	        }
-                            	    }
-
-                            	    if (decDigits > 0) {
-                            	        len += 1; // '.' is printed
-                            	        len += decDigits;
-                            	    }
-                            	} else  {
-                            	    // all precision numebers printed
-                            	    len += precision;
-                            	}
-                            }
+                    if (precision > 0) {
+                    	if (!isSharp) {
+                    	    // MRI behavior: In this mode
+                    	    // trailing zeroes are removed:
+                    	    // 1.500E+05 -> 1.5E+05 
+                    	    int j = decDigits;
+                    	    for (; j >= 1; j--) {
+                    	        if (digits[j]== '0') {
+                    	            decDigits--;
+                    	        } else {
+                    	            break;
+                    	        }
+                    	    }
+
+                    	    if (decDigits > 0) {
+                    	        len += 1; // '.' is printed
+                    	        len += decDigits;
+                    	    }
+                    	} else  {
+                    	    // all precision numebers printed
+                    	    len += precision;
+                    	}
+                    }
 
-                            width -= len;
+                    width -= len;
 
-                            if (width > 0 && (flags & (FLAG_ZERO|FLAG_MINUS)) == 0) {
-                                buf.fill(' ',width);
-                                width = 0;
-                            }
-                            if (signChar != 0) {
-                                buf.write(signChar);
-                            }
-                            if (width > 0 && (flags & FLAG_MINUS) == 0) {
-                                buf.fill('0',width);
-                                width = 0;
-                            }
+                    if (width > 0 && (flags & (FLAG_ZERO|FLAG_MINUS)) == 0) {
+                        buf.fill(' ',width);
+                        width = 0;
+                    }
+                    if (signChar != 0) {
+                        buf.write(signChar);
+                    }
+                    if (width > 0 && (flags & FLAG_MINUS) == 0) {
+                        buf.fill('0',width);
+                        width = 0;
+                    }
 
-                            // now some data...
-                            buf.write(digits[0]);
+                    // now some data...
+                    buf.write(digits[0]);
 
-                            boolean dotToPrint = isSharp
-                                    || (precision > 0 && decDigits > 0);
+                    boolean dotToPrint = isSharp
+                            || (precision > 0 && decDigits > 0);
 
-                            if (dotToPrint) {
-                            	buf.write(args.getDecimalSeparator()); // '.'
-                            }
+                    if (dotToPrint) {
+                    	buf.write(args.getDecimalSeparator()); // '.'
+                    }
 
-                            if (precision > 0 && decDigits > 0) {
-                            	buf.write(digits, 1, decDigits);
-                            	precision -= decDigits;
-                            }
+                    if (precision > 0 && decDigits > 0) {
+                    	buf.write(digits, 1, decDigits);
+                    	precision -= decDigits;
+                    }
 
-                            if (precision > 0 && isSharp) {
-                            	buf.fill('0', precision);
-                            }
+                    if (precision > 0 && isSharp) {
+                    	buf.fill('0', precision);
+                    }
 
-                            writeExp(buf, exponent, expChar);
+                    writeExp(buf, exponent, expChar);
 
-                            if (width > 0) {
-                                buf.fill(' ', width);
-                            }
-                        } else { // decimal form, like (but not *just* like!) 'f'
+                    if (width > 0) {
+                        buf.fill(' ', width);
+                    }
+                } else { // decimal form, like (but not *just* like!) 'f'
+                    intDigits = Math.max(0,Math.min(nDigits + exponent,nDigits));
+                    intZeroes = Math.max(0,exponent);
+                    intLength = intDigits + intZeroes;
+                    decDigits = nDigits - intDigits;
+                    decZeroes = Math.max(0,-(decDigits + exponent));
+                    decLength = decZeroes + decDigits;
+                    precision = Math.max(0,precision - intLength);
+                    
+                    if (precision < decDigits) {
+                        int n = round(digits,nDigits,intDigits+precision-1,precision!=0);
+                        if (n > nDigits) {
+                            // digits array shifted, update all
+                            nDigits = n;
                             intDigits = Math.max(0,Math.min(nDigits + exponent,nDigits));
-                            intZeroes = Math.max(0,exponent);
                             intLength = intDigits + intZeroes;
                             decDigits = nDigits - intDigits;
                             decZeroes = Math.max(0,-(decDigits + exponent));
-                            decLength = decZeroes + decDigits;
-                            precision = Math.max(0,precision - intLength);
-                            
-                            if (precision < decDigits) {
-                                int n = round(digits,nDigits,intDigits+precision-1,precision!=0);
-                                if (n > nDigits) {
-                                    // digits array shifted, update all
-                                    nDigits = n;
-                                    intDigits = Math.max(0,Math.min(nDigits + exponent,nDigits));
-                                    intLength = intDigits + intZeroes;
-                                    decDigits = nDigits - intDigits;
-                                    decZeroes = Math.max(0,-(decDigits + exponent));
-                                    precision = Math.max(0,precision-1);
-                                }
-                                decDigits = precision;
-                                decLength = decZeroes + decDigits;
-                            }
-                            len += intLength;
-                            if (decLength > 0) {
-                                len += decLength + 1;
-                            } else {
-                                if ((flags & FLAG_SHARP) != 0) {
-                                    len++; // will have a trailing '.'
-                                    if (precision > 0) { // g fills trailing zeroes if #
-                                        len += precision;
-                                    }
-                                }
-                            }
-                            
-                            width -= len;
-                            
-                            if (width > 0 && (flags & (FLAG_ZERO|FLAG_MINUS)) == 0) {
-                                buf.fill(' ',width);
-                                width = 0;
-                            }
-                            if (signChar != 0) {
-                                buf.write(signChar);
-                            }
-                            if (width > 0 && (flags & FLAG_MINUS) == 0) {
-                                buf.fill('0',width);
-                                width = 0;
-                            }
-                            // now some data...
-                            if (intLength > 0){
-                                if (intDigits > 0) { // s/b true, since intLength > 0
-                                    buf.write(digits,0,intDigits);
-                                }
-                                if (intZeroes > 0) {
-                                    buf.fill('0',intZeroes);
-                                }
-                            } else {
-                                // always need at least a 0
-                                buf.write('0');
-                            }
-                            if (decLength > 0 || (flags & FLAG_SHARP) != 0) {
-                                buf.write(args.getDecimalSeparator());
-                            }
-                            if (decLength > 0) {
-                                if (decZeroes > 0) {
-                                    buf.fill('0',decZeroes);
-                                    precision -= decZeroes;
-                                }
-                                if (decDigits > 0) {
-                                    buf.write(digits,intDigits,decDigits);
-                                    precision -= decDigits;
-                                }
-                                if ((flags & FLAG_SHARP) != 0 && precision > 0) {
-                                    buf.fill('0',precision);
-                                 }
-                            }
-                            if ((flags & FLAG_SHARP) != 0 && precision > 0) {
-                                buf.fill('0',precision);
-                            }
-                            if (width > 0) {
-                                buf.fill(' ', width);
-                            }
+                            precision = Math.max(0,precision-1);
                         }
-                        break;
-                    
-                    case 'f':
-                        intDigits = Math.max(0,Math.min(nDigits + exponent,nDigits));
-                        intZeroes = Math.max(0,exponent);
-                        intLength = intDigits + intZeroes;
-                        decDigits = nDigits - intDigits;
-                        decZeroes = Math.max(0,-(decDigits + exponent));
+                        decDigits = precision;
                         decLength = decZeroes + decDigits;
-                        
-                        if (precision < decLength) {
-                            if (precision < decZeroes) {
-                                decDigits = 0;
-                                decZeroes = precision;
-                            } else {
-                                int n = round(digits,nDigits,intDigits+precision-decZeroes-1,precision!=0);
-                                if (n > nDigits) {
-                                    // digits arr shifted, update all
-                                    nDigits = n;
-                                    intDigits = Math.max(0,Math.min(nDigits + exponent,nDigits));
-                                    intLength = intDigits + intZeroes;
-                                    decDigits = nDigits - intDigits;
-                                    decZeroes = Math.max(0,-(decDigits + exponent));
-                                    decLength = decZeroes + decDigits;
-                                }
-                                decDigits = precision - decZeroes;
-                            }
-                            decLength = decZeroes + decDigits;
-                        }
-                        if (precision > 0) {
-                            len += Math.max(1,intLength) + 1 + precision;
-                            // (1|intlen).prec
-                        } else {
-                            len += Math.max(1,intLength);
-                            // (1|intlen)
-                            if ((flags & FLAG_SHARP) != 0) {
-                                len++; // will have a trailing '.'
+                    }
+                    len += intLength;
+                    if (decLength > 0) {
+                        len += decLength + 1;
+                    } else {
+                        if ((flags & FLAG_SHARP) != 0) {
+                            len++; // will have a trailing '.'
+                            if (precision > 0) { // g fills trailing zeroes if #
+                                len += precision;
                             }
                         }
-                        
-                        width -= len;
-                        
-                        if (width > 0 && (flags & (FLAG_ZERO|FLAG_MINUS)) == 0) {
-                            buf.fill(' ',width);
-                            width = 0;
-                        }
-                        if (signChar != 0) {
-                            buf.write(signChar);
-                        }
-                        if (width > 0 && (flags & FLAG_MINUS) == 0) {
-                            buf.fill('0',width);
-                            width = 0;
-                        }
-                        // now some data...
-                        if (intLength > 0){
-                            if (intDigits > 0) { // s/b true, since intLength > 0
-                                buf.write(digits,0,intDigits);
-                            }
-                            if (intZeroes > 0) {
-                                buf.fill('0',intZeroes);
-                            }
-                        } else {
-                            // always need at least a 0
-                            buf.write('0');
+                    }
+                    
+                    width -= len;
+                    
+                    if (width > 0 && (flags & (FLAG_ZERO|FLAG_MINUS)) == 0) {
+                        buf.fill(' ',width);
+                        width = 0;
+                    }
+                    if (signChar != 0) {
+                        buf.write(signChar);
+                    }
+                    if (width > 0 && (flags & FLAG_MINUS) == 0) {
+                        buf.fill('0',width);
+                        width = 0;
+                    }
+                    // now some data...
+                    if (intLength > 0){
+                        if (intDigits > 0) { // s/b true, since intLength > 0
+                            buf.write(digits,0,intDigits);
                         }
-                        if (precision > 0 || (flags & FLAG_SHARP) != 0) {
-                            buf.write(args.getDecimalSeparator());
+                        if (intZeroes > 0) {
+                            buf.fill('0',intZeroes);
                         }
-                        if (precision > 0) {
-                            if (decZeroes > 0) {
-                                buf.fill('0',decZeroes);
-                                precision -= decZeroes;
-                            }
-                            if (decDigits > 0) {
-                                buf.write(digits,intDigits,decDigits);
-                                precision -= decDigits;
-                            }
-                            // fill up the rest with zeroes
-                            if (precision > 0) {
-                                buf.fill('0',precision);
-                            }
+                    } else {
+                        // always need at least a 0
+                        buf.write('0');
+                    }
+                    if (decLength > 0 || (flags & FLAG_SHARP) != 0) {
+                        buf.write(args.getDecimalSeparator());
+                    }
+                    if (decLength > 0) {
+                        if (decZeroes > 0) {
+                            buf.fill('0',decZeroes);
+                            precision -= decZeroes;
                         }
-                        if (width > 0) {
-                            buf.fill(' ', width);
+                        if (decDigits > 0) {
+                            buf.write(digits,intDigits,decDigits);
+                            precision -= decDigits;
                         }
-                        break;
-                    case 'E':
-                    case 'e':
-                        // intDigits isn't used here, but if it were, it would be 1
-                        /* intDigits = 1; */
-                        decDigits = nDigits - 1;
-                        
-                        if (precision < decDigits) {
-                            int n = round(digits,nDigits,precision,precision!=0);
-                            if (n > nDigits) {
-                                nDigits = n;
-                            }
-                            decDigits = Math.min(nDigits - 1,precision);
+                        if ((flags & FLAG_SHARP) != 0 && precision > 0) {
+                            buf.fill('0',precision);
+                         }
+                    }
+                    if ((flags & FLAG_SHARP) != 0 && precision > 0) {
+                        buf.fill('0',precision);
+                    }
+                    if (width > 0) {
+                        buf.fill(' ', width);
+                    }
+                }
+                break;
+            
+            case 'f':
+                intDigits = Math.max(0,Math.min(nDigits + exponent,nDigits));
+                intZeroes = Math.max(0,exponent);
+                intLength = intDigits + intZeroes;
+                decDigits = nDigits - intDigits;
+                decZeroes = Math.max(0,-(decDigits + exponent));
+                decLength = decZeroes + decDigits;
+                
+                if (precision < decLength) {
+                    if (precision < decZeroes) {
+                        decDigits = 0;
+                        decZeroes = precision;
+                    } else {
+                        int n = round(digits,nDigits,intDigits+precision-decZeroes-1,precision!=0);
+                        if (n > nDigits) {
+                            // digits arr shifted, update all
+                            nDigits = n;
+                            intDigits = Math.max(0,Math.min(nDigits + exponent,nDigits));
+                            intLength = intDigits + intZeroes;
+                            decDigits = nDigits - intDigits;
+                            decZeroes = Math.max(0,-(decDigits + exponent));
+                            decLength = decZeroes + decDigits;
                         }
-                        exponent += nDigits - 1;
-
-                        boolean isSharp = (flags & FLAG_SHARP) != 0;
-
-                        // deal with length/width
+                        decDigits = precision - decZeroes;
+                    }
+                    decLength = decZeroes + decDigits;
+                }
+                if (precision > 0) {
+                    len += Math.max(1,intLength) + 1 + precision;
+                    // (1|intlen).prec
+                } else {
+                    len += Math.max(1,intLength);
+                    // (1|intlen)
+                    if ((flags & FLAG_SHARP) != 0) {
+                        len++; // will have a trailing '.'
+                    }
+                }
+                
+                width -= len;
+                
+                if (width > 0 && (flags & (FLAG_ZERO|FLAG_MINUS)) == 0) {
+                    buf.fill(' ',width);
+                    width = 0;
+                }
+                if (signChar != 0) {
+                    buf.write(signChar);
+                }
+                if (width > 0 && (flags & FLAG_MINUS) == 0) {
+                    buf.fill('0',width);
+                    width = 0;
+                }
+                // now some data...
+                if (intLength > 0){
+                    if (intDigits > 0) { // s/b true, since intLength > 0
+                        buf.write(digits,0,intDigits);
+                    }
+                    if (intZeroes > 0) {
+                        buf.fill('0',intZeroes);
+                    }
+                } else {
+                    // always need at least a 0
+                    buf.write('0');
+                }
+                if (precision > 0 || (flags & FLAG_SHARP) != 0) {
+                    buf.write(args.getDecimalSeparator());
+                }
+                if (precision > 0) {
+                    if (decZeroes > 0) {
+                        buf.fill('0',decZeroes);
+                        precision -= decZeroes;
+                    }
+                    if (decDigits > 0) {
+                        buf.write(digits,intDigits,decDigits);
+                        precision -= decDigits;
+                    }
+                    // fill up the rest with zeroes
+                    if (precision > 0) {
+                        buf.fill('0',precision);
+                    }
+                }
+                if (width > 0) {
+                    buf.fill(' ', width);
+                }
+                break;
+            case 'E':
+            case 'e':
+                // intDigits isn't used here, but if it were, it would be 1
+                /* intDigits = 1; */
+                decDigits = nDigits - 1;
+                
+                if (precision < decDigits) {
+                    int n = round(digits,nDigits,precision,precision!=0);
+                    if (n > nDigits) {
+                        nDigits = n;
+                    }
+                    decDigits = Math.min(nDigits - 1,precision);
+                }
+                exponent += nDigits - 1;
 
-                        len++; // first digit is always printed
+                boolean isSharp = (flags & FLAG_SHARP) != 0;
 
-                        // MRI behavior: Be default, 2 digits
-                        // in the exponent. Use 3 digits
-                        // only when necessary.
-                        // See comment for writeExp method for more details.
-                        if (exponent > 99)
-                            len += 5; // 5 -> e+nnn / e-nnn
-                        else
-                            len += 4; // 4 -> e+nn / e-nn
+                // deal with length/width
 
-                        if (precision > 0) {
-                            // '.' and all precision digits printed
-                            len += 1 + precision;
-                        } else  if (isSharp) {
-                            len++;  // in this mode, '.' is always printed
-                        }
+                len++; // first digit is always printed
 
-                        width -= len;
+                // MRI behavior: Be default, 2 digits
+                // in the exponent. Use 3 digits
+                // only when necessary.
+                // See comment for writeExp method for more details.
+                if (exponent > 99)
+                    len += 5; // 5 -> e+nnn / e-nnn
+                else
+                    len += 4; // 4 -> e+nn / e-nn
 
-                        if (width > 0 && (flags & (FLAG_ZERO|FLAG_MINUS)) == 0) {
-                            buf.fill(' ',width);
-                            width = 0;
-                        }
-                        if (signChar != 0) {
-                            buf.write(signChar);
-                        }
-                        if (width > 0 && (flags & FLAG_MINUS) == 0) {
-                            buf.fill('0',width);
-                            width = 0;
-                        }
-                        // now some data...
-                        buf.write(digits[0]);
-                        if (precision > 0) {
-                            buf.write(args.getDecimalSeparator()); // '.'
-                            if (decDigits > 0) {
-                                buf.write(digits,1,decDigits);
-                                precision -= decDigits;
-                            }
-                            if (precision > 0) {
-                                buf.fill('0',precision);
-                            }
+                if (precision > 0) {
+                    // '.' and all precision digits printed
+                    len += 1 + precision;
+                } else  if (isSharp) {
+                    len++;  // in this mode, '.' is always printed
+                }
 
-                        } else if ((flags & FLAG_SHARP) != 0) {
-                            buf.write(args.getDecimalSeparator());
-                        }
+                width -= len;
 
-                        writeExp(buf, exponent, expChar);
+                if (width > 0 && (flags & (FLAG_ZERO|FLAG_MINUS)) == 0) {
+                    buf.fill(' ',width);
+                    width = 0;
+                }
+                if (signChar != 0) {
+                    buf.write(signChar);
+                }
+                if (width > 0 && (flags & FLAG_MINUS) == 0) {
+                    buf.fill('0',width);
+                    width = 0;
+                }
+                // now some data...
+                buf.write(digits[0]);
+                if (precision > 0) {
+                    buf.write(args.getDecimalSeparator()); // '.'
+                    if (decDigits > 0) {
+                        buf.write(digits,1,decDigits);
+                        precision -= decDigits;
+                    }
+                    if (precision > 0) {
+                        buf.fill('0',precision);
+                    }
 
-                        if (width > 0) {
-                            buf.fill(' ', width);
-                        }
-                        break;
-                    } // switch (format char E,e,f,G,g)
-                    
-                    offset++;
-                    incomplete = false;
-                    break;
-                } // block (case E,e,f,G,g)
-                } // switch (each format char in spec)
-            } // for (each format spec)
-            
-            // equivalent to MRI case '\0':
-            if (incomplete) {
-                if (flags == FLAG_NONE) {
-                    // dangling '%' char
-                    buf.write('%');
-                } else {
-                    raiseArgumentError(args,ERR_ILLEGAL_FORMAT_CHAR);
+                } else if ((flags & FLAG_SHARP) != 0) {
+                    buf.write(args.getDecimalSeparator());
                 }
-            }
-        } // main while loop (offset < length)
 
-        // MRI behavior: validate only the unnumbered arguments
-        if ((args.numbered == 0) && args.unnumbered < args.length) {
-            if (args.runtime.getDebug().isTrue()) {
-                args.raiseArgumentError("too many arguments for format string");
-            } else if (args.runtime.getVerbose().isTrue()) {
-                args.warn(ID.TOO_MANY_ARGUMENTS, "too many arguments for format string");
-            }
-        }
+                writeExp(buf, exponent, expChar);
 
-        return buf;
+                if (width > 0) {
+                    buf.fill(' ', width);
+                }
+                break;
+            } // switch (format char E,e,f,G,g)
+            
+            break;
+        } // block (case E,e,f,G,g)
+        } // switch (conversion char)
     }
 
     private static void writeExp(Buffer buf, int exponent, byte expChar) {
@@ -54,6 +54,39 @@ public final class StringSupport {
         return n;
     }
     
+    /**
+     * Byte equality of two ByteLists. Lists sharing one buffer at the same
+     * offset (dups, frozen hash keys and the strings they were made from)
+     * compare without touching the bytes; others are compared eight bytes
+     * per iteration, front to back, folding the differences together so the
+     * loop body has a single branch.
+     */
+    public static boolean equalBytes(ByteList first, ByteList second) {
+        if (first == second) return true;
+        int len = first.realSize;
+        if (len != second.realSize) return false;
+
+        byte[] a = first.bytes;
+        byte[] b = second.bytes;
+        int p = first.begin;
+        int q = second.begin;
+        if (a == b && p == q) return true;
+
+        int end = p + (len & ~7);
+        while (p < end) {
+            int diff = (a[p] ^ b[q]) | (a[p + 1] ^ b[q + 1]) | (a[p + 2] ^ b[q + 2]) | (a[p + 3] ^ b[q + 3]) |
+                (a[p + 4] ^ b[q + 4]) | (a[p + 5] ^ b[q + 5]) | (a[p + 6] ^ b[q + 6]) | (a[p + 7] ^ b[q + 7]);
+            if (diff != 0) return false;
+            p += 8;
+            q += 8;
+        }
+        end = first.begin + len;
+        while (p < end) {
+            if (a[p++] != b[q++]) return false;
+        }
+        return true;
+    }
+
     public static int searchNonAscii(byte[]bytes, int p, int end) {
         while (p < end) {
             if (!Encoding.isAscii(bytes[p])) return p;
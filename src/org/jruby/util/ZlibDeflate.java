@@ -31,16 +31,23 @@ package org.jruby.util;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 
 import org.jruby.Ruby;
+import org.jruby.RubyClass;
+import org.jruby.RubyException;
 import org.jruby.RubyString;
+import org.jruby.exceptions.RaiseException;
 import org.jruby.runtime.builtin.IRubyObject;
 
 public class ZlibDeflate {
-    private final Deflater flater;
+    private Deflater flater;
     private final Ruby runtime;
+    private final int level;
+    private final boolean nowrap;
+    private boolean pooled;
     private ByteList collected;
 
     public static final int BASE_SIZE = 100;
@@ -55,10 +62,48 @@ public class ZlibDeflate {
     public final static int FULL_FLUSH = 3;
     public final static int FINISH = 4;
 
+    /**
+     * Idle Deflaters with the default strategy, one queue per level and
+     * header mode. Creating a Deflater allocates native zlib state, which
+     * costs more than compressing a typical small payload, so streams hand
+     * theirs back here, reset, when they are done.
+     */
+    private static final int POOL_SIZE = 16;
+    @SuppressWarnings("unchecked")
+    private static final ArrayBlockingQueue<Deflater>[] pools = new ArrayBlockingQueue[2 * (Deflater.BEST_COMPRESSION + 2)];
+    static {
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = new ArrayBlockingQueue<Deflater>(POOL_SIZE);
+        }
+    }
+
+    private static boolean isPoolable(int level) {
+        return level >= Deflater.DEFAULT_COMPRESSION && level <= Deflater.BEST_COMPRESSION;
+    }
+
+    private static ArrayBlockingQueue<Deflater> poolFor(int level, boolean nowrap) {
+        return pools[(level + 1) * 2 + (nowrap ? 1 : 0)];
+    }
+
+    private static Deflater acquire(int level, boolean nowrap) {
+        Deflater deflater = isPoolable(level) ? poolFor(level, nowrap).poll() : null;
+        return deflater != null ? deflater : new Deflater(level, nowrap);
+    }
+
+    private static void release(Deflater deflater, int level, boolean nowrap) {
+        deflater.reset();
+        if (!poolFor(level, nowrap).offer(deflater)) {
+            deflater.end();
+        }
+    }
+
     public ZlibDeflate(IRubyObject caller, int level, int win_bits, int memlevel, int strategy) {
         super();
+        this.level = level;
         // Zlib behavior: negative win_bits means no header and no checksum.
-        flater = new Deflater(level, win_bits < 0);
+        this.nowrap = win_bits < 0;
+        this.pooled = isPoolable(level) && strategy == Deflater.DEFAULT_STRATEGY;
+        flater = acquire(level, nowrap);
         flater.setStrategy(strategy);
         collected = new ByteList(BASE_SIZE);
         runtime = caller.getRuntime();
@@ -66,13 +111,48 @@ public class ZlibDeflate {
 
     public static IRubyObject s_deflate(IRubyObject caller, ByteList str, int level) 
     	throws DataFormatException, IOException {
-        ZlibDeflate zstream = new ZlibDeflate(caller, level, MAX_WBITS, DEF_MEM_LEVEL, Deflater.DEFAULT_STRATEGY);
-        IRubyObject result = zstream.deflate(str, FINISH);
-        zstream.close();
+        Deflater deflater = acquire(level, false);
+        try {
+            deflater.setInput(str.bytes, str.begin, str.realSize);
+            deflater.finish();
+            return RubyString.newString(caller.getRuntime(), drain(deflater, str.realSize));
+        } finally {
+            if (isPoolable(level)) {
+                release(deflater, level, false);
+            } else {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Run a finished deflater to the end, writing straight into the result.
+     * The result starts at zlib's worst-case bound for small inputs so it
+     * usually never grows; large inputs start smaller and double as needed.
+     */
+    private static ByteList drain(Deflater deflater, int inputSize) {
+        int capacity = inputSize <= 256 * 1024
+                ? inputSize + (inputSize >> 12) + (inputSize >> 14) + 64
+                : inputSize >> 1;
+        ByteList result = new ByteList(capacity);
+        while (!deflater.finished()) {
+            if (result.realSize == result.bytes.length) {
+                result.ensure(result.bytes.length * 2);
+            }
+            int length = deflater.deflate(result.bytes, result.realSize, result.bytes.length - result.realSize);
+            if (length == 0 && deflater.needsInput()) {
+                break;
+            }
+            result.realSize += length;
+        }
         return result;
     }
 
     public Deflater getDeflater() {
+        if (flater == null) {
+            RubyClass errorClass = runtime.fastGetModule("Zlib").fastGetClass("Error");
+            throw new RaiseException(RubyException.newException(runtime, errorClass, "stream is not ready"));
+        }
         return flater;
     }
 
@@ -85,12 +165,15 @@ public class ZlibDeflate {
     }
 
     public void params(int level, int strategy) {
-        flater.setLevel(level);
-        flater.setStrategy(strategy);
+        // changed parameters would leak into the next user of a pooled deflater
+        pooled = false;
+        getDeflater().setLevel(level);
+        getDeflater().setStrategy(strategy);
     }
 
     public IRubyObject set_dictionary(IRubyObject str) throws UnsupportedEncodingException {
-        flater.setDictionary(str.convertToString().getBytes());
+        pooled = false;
+        getDeflater().setDictionary(str.convertToString().getBytes());
         return str;
     }
 
@@ -111,23 +194,31 @@ public class ZlibDeflate {
     }
     
     public IRubyObject finish() throws IOException {
-        ByteList result = new ByteList(collected.realSize);
-        byte[] outp = new byte[64 * 1024];
+        Deflater deflater = getDeflater();
         ByteList buf = collected;
         collected = new ByteList(BASE_SIZE);
-        flater.setInput(buf.bytes, buf.begin, buf.realSize);
-        flater.finish();
-        int resultLength = -1;
-        while (!flater.finished() && resultLength != 0) {
-            resultLength = flater.deflate(outp);
-            result.append(outp, 0, resultLength);
-            if (resultLength == outp.length) {
-                outp = new byte[outp.length * 2];
-            }
+        deflater.setInput(buf.bytes, buf.begin, buf.realSize);
+        deflater.finish();
+        return RubyString.newString(runtime, drain(deflater, buf.realSize));
+    }
+
+    /**
+     * Release the native stream, returning it to the pool when nothing about
+     * it is specific to this stream.
+     */
+    public void end() {
+        if (flater == null) {
+            return;
+        }
+        if (pooled) {
+            release(flater, level, nowrap);
+        } else {
+            flater.end();
         }
-        return RubyString.newString(runtime, result);
+        flater = null;
     }
     
     public void close() {
+        end();
     }
 }
@@ -30,40 +30,108 @@ package org.jruby.util;
 
 import java.io.UnsupportedEncodingException;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
 import org.jruby.Ruby;
+import org.jruby.RubyClass;
+import org.jruby.RubyException;
 import org.jruby.RubyString;
+import org.jruby.exceptions.RaiseException;
 import org.jruby.runtime.builtin.IRubyObject;
 
 public class ZlibInflate {
     private final Ruby runtime;
     private Inflater flater;    
+    private boolean nowrap;
+    private boolean pooled = true;
+    private boolean streamEnd;
     private ByteList collected;
     
     public static final int BASE_SIZE = 100;
 
+    /**
+     * Idle Inflaters, with and without zlib headers. Like the deflate pool in
+     * ZlibDeflate, this saves setting up native zlib state for every stream.
+     */
+    private static final int POOL_SIZE = 16;
+    private static final ArrayBlockingQueue<Inflater> pool = new ArrayBlockingQueue<Inflater>(POOL_SIZE);
+    private static final ArrayBlockingQueue<Inflater> nowrapPool = new ArrayBlockingQueue<Inflater>(POOL_SIZE);
+
+    private static Inflater acquire(boolean nowrap) {
+        Inflater inflater = (nowrap ? nowrapPool : pool).poll();
+        return inflater != null ? inflater : new Inflater(nowrap);
+    }
+
+    private static void release(Inflater inflater, boolean nowrap) {
+        inflater.reset();
+        if (!(nowrap ? nowrapPool : pool).offer(inflater)) {
+            inflater.end();
+        }
+    }
+
     public ZlibInflate(IRubyObject caller) {
         super();
-        flater = new Inflater(false);
+        flater = acquire(false);
         collected = new ByteList(BASE_SIZE);
         runtime = caller.getRuntime();
     }
 
     public static IRubyObject s_inflate(IRubyObject caller, ByteList str) 
     	throws DataFormatException {
-        ZlibInflate zstream = new ZlibInflate(caller);
-        IRubyObject result = zstream.inflate(str);
-        zstream.finish();
-        zstream.close();
+        Inflater inflater = acquire(false);
+        ByteList result;
+        try {
+            result = inflate(inflater, str);
+        } catch (DataFormatException e) {
+            release(inflater, false);
+            // not a zlib stream; try it as raw deflate data
+            inflater = acquire(true);
+            try {
+                result = inflate(inflater, str);
+            } finally {
+                release(inflater, true);
+            }
+            return RubyString.newString(caller.getRuntime(), result);
+        }
+        release(inflater, false);
+        return RubyString.newString(caller.getRuntime(), result);
+    }
+
+    /**
+     * Inflate buf, writing straight into the result. Compressed data usually
+     * expands a few times over, so the result starts at four times the input
+     * and doubles whenever it fills up.
+     */
+    private static ByteList inflate(Inflater inflater, ByteList buf) throws DataFormatException {
+        ByteList result = new ByteList(Math.max(buf.realSize * 4, BASE_SIZE));
+        inflater.setInput(buf.bytes, buf.begin, buf.realSize);
+        while (!inflater.finished()) {
+            if (result.realSize == result.bytes.length) {
+                result.ensure(result.bytes.length * 2);
+            }
+            int length = inflater.inflate(result.bytes, result.realSize, result.bytes.length - result.realSize);
+            if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                break;
+            }
+            result.realSize += length;
+        }
         return result;
     }
 
     public Inflater getInflater() {
+        if (flater == null) {
+            RubyClass errorClass = runtime.fastGetModule("Zlib").fastGetClass("Error");
+            throw new RaiseException(RubyException.newException(runtime, errorClass, "stream is not ready"));
+        }
         return flater;
     }
 
+    public boolean isFinished() {
+        return flater == null ? streamEnd : flater.finished();
+    }
+
     public void append(IRubyObject obj) {
         append(obj.convertToString().getByteList());
     }
@@ -77,7 +145,8 @@ public class ZlibInflate {
     }
 
     public IRubyObject set_dictionary(IRubyObject str) throws UnsupportedEncodingException {
-        flater.setDictionary(str.convertToString().getBytes());
+        pooled = false;
+        getInflater().setDictionary(str.convertToString().getBytes());
         return str;
     }
 
@@ -85,30 +154,17 @@ public class ZlibInflate {
         if (null != str) {
             append(str);
         }
-        ByteList result = new ByteList(collected.realSize);
-        byte[] outp = new byte[64 * 1024];
         ByteList buf = collected;
         collected = new ByteList(BASE_SIZE);
-        int resultLength = -1;
+        ByteList result;
         try {
-            flater.setInput(buf.bytes, buf.begin, buf.realSize);
-            while (!flater.finished() && resultLength != 0) {
-                resultLength = flater.inflate(outp);
-                result.append(outp, 0, resultLength);
-                if (resultLength == outp.length) {
-                    outp = new byte[outp.length * 2];
-                }
-            }
+            result = inflate(getInflater(), buf);
         } catch (DataFormatException e) {
-            flater = new Inflater(true);
-            flater.setInput(buf.bytes, buf.begin, buf.realSize);
-            while (!flater.finished() && resultLength != 0) {
-                resultLength = flater.inflate(outp);
-                result.append(outp, 0, resultLength);
-                if (resultLength == outp.length) {
-                    outp = new byte[outp.length * 2];
-                }
-            }
+            end();
+            flater = acquire(true);
+            nowrap = true;
+            pooled = true;
+            result = inflate(flater, buf);
         }
         return RubyString.newString(runtime, result);
     }
@@ -119,9 +175,27 @@ public class ZlibInflate {
     }
 
     public void finish() {
-        flater.end();
+        end();
+    }
+
+    /**
+     * Release the native stream, returning it to the pool unless it was given
+     * a dictionary.
+     */
+    public void end() {
+        if (flater == null) {
+            return;
+        }
+        streamEnd = flater.finished();
+        if (pooled) {
+            release(flater, nowrap);
+        } else {
+            flater.end();
+        }
+        flater = null;
     }
     
     public void close() {
+        end();
     }
 }
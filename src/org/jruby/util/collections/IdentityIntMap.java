@@ -0,0 +1,142 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.util.collections;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressed map from object identity to a primitive int. Keys are
+ * compared with == and hashed with System.identityHashCode, and values are
+ * stored unboxed, so neither lookups nor insertions allocate.
+ *
+ * Not thread-safe; intended for short-lived, single-threaded uses like the
+ * marshal link caches.
+ */
+public class IdentityIntMap {
+    public static final int NOT_FOUND = -1;
+
+    private Object[] keys;
+    private int[] values;
+    private int size;
+    private int threshold;
+
+    public IdentityIntMap() {
+        this(16);
+    }
+
+    public IdentityIntMap(int initialCapacity) {
+        int capacity = 4;
+        while (capacity < initialCapacity) capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        values = new int[capacity];
+        threshold = (capacity >> 1) + (capacity >> 2); // 0.75 load
+    }
+
+    private static int indexFor(Object key, int mask) {
+        int h = System.identityHashCode(key);
+        // spread the bits a little; identity hashes tend to be clustered
+        h ^= (h >>> 16);
+        return (h * 0x9E3779B9) & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Return the value for key, or {@link #NOT_FOUND} if key is not present.
+     */
+    public int get(Object key) {
+        Object[] k = keys;
+        int mask = k.length - 1;
+        int i = indexFor(key, mask);
+        Object current;
+        while ((current = k[i]) != null) {
+            if (current == key) return values[i];
+            i = (i + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    public boolean containsKey(Object key) {
+        return get(key) != NOT_FOUND;
+    }
+
+    /**
+     * Associate key with value, replacing any previous mapping. Values must be
+     * non-negative, since {@link #NOT_FOUND} is reserved for misses.
+     */
+    public void put(Object key, int value) {
+        Object[] k = keys;
+        int mask = k.length - 1;
+        int i = indexFor(key, mask);
+        Object current;
+        while ((current = k[i]) != null) {
+            if (current == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        k[i] = key;
+        values[i] = value;
+        if (++size > threshold) rehash();
+    }
+
+    /**
+     * Drop all entries but keep the current table, so the map can be reused
+     * without reallocating.
+     */
+    public void clear() {
+        if (size == 0) return;
+        Arrays.fill(keys, null);
+        size = 0;
+    }
+
+    private void rehash() {
+        Object[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        Object[] k = keys;
+        int mask = k.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            Object key = oldKeys[j];
+            if (key == null) continue;
+            int i = indexFor(key, mask);
+            while (k[i] != null) i = (i + 1) & mask;
+            k[i] = key;
+            values[i] = oldValues[j];
+        }
+    }
+}
@@ -38,6 +38,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
@@ -535,6 +536,42 @@ public class ChannelDescriptor {
         return internalWrite(ByteBuffer.wrap(buf.unsafeBytes(), buf.begin()+offset, len));
     }
     
+    /**
+     * Whether the associated channel can take several buffers in a single
+     * gathering write, as sockets, pipes and files all can.
+     *
+     * @return true if write(ByteBuffer[], int, int) may be used
+     */
+    public boolean isGathering() {
+        return channel instanceof GatheringByteChannel;
+    }
+
+    /**
+     * Write the remaining bytes of a sequence of buffers to the associated
+     * channel with one gathering write. This is equivalent to the writev(2)
+     * POSIX function; like a single write, it may write only some of the bytes.
+     *
+     * @param buffers the buffers to write, in order
+     * @param offset the index of the first buffer to write
+     * @param length the number of buffers to write
+     * @return the number of bytes actually written
+     * @throws java.io.IOException if there is an exception during IO
+     * @throws org.jruby.util.io.BadDescriptorException if the associated
+     * channel is already closed
+     */
+    public long write(ByteBuffer[] buffers, int offset, int length) throws IOException, BadDescriptorException {
+        checkOpen();
+
+        GatheringByteChannel writeChannel = (GatheringByteChannel)channel;
+
+        if (isSeekable() && originalModes.isAppendable()) {
+            FileChannel fileChannel = (FileChannel)channel;
+            fileChannel.position(fileChannel.size());
+        }
+
+        return writeChannel.write(buffers, offset, length);
+    }
+    
     /**
      * Write the byte represented by the specified int to the associated channel.
      * 
@@ -50,6 +50,8 @@ import java.nio.channels.Channel;
 import java.nio.channels.IllegalBlockingModeException;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.WritableByteChannel;
 import static java.util.logging.Logger.getLogger;
 import org.jruby.Finalizable;
@@ -797,6 +799,68 @@ public class ChannelStream implements Stream, Finalizable {
             
         return 1;
     }
+
+    /**
+     * Write the remaining bytes of each buffer, in order, after anything
+     * already sitting in the write buffer. Everything goes to the channel
+     * through gathering writes, so a blocking socket normally sees a single
+     * writev(2) and the pieces are never joined in memory first. A write that
+     * makes no progress on a non-blocking channel waits until the channel is
+     * writable again.
+     *
+     * @param buffers the buffers to write; their positions are advanced
+     * @return the number of bytes written from buffers
+     */
+    public synchronized long writev(ByteBuffer[] buffers) throws IOException, BadDescriptorException {
+        getRuntime().secure(4);
+        checkWritable();
+        ensureWrite();
+
+        long total = 0;
+        for (ByteBuffer b : buffers) total += b.remaining();
+
+        ByteBuffer[] all = buffers;
+        if (buffer.position() > 0) {
+            // send what is already buffered in the same call, ahead of the rest
+            buffer.flip();
+            all = new ByteBuffer[buffers.length + 1];
+            all[0] = buffer;
+            System.arraycopy(buffers, 0, all, 1, buffers.length);
+        }
+
+        try {
+            int first = 0;
+            while (true) {
+                while (first < all.length && !all[first].hasRemaining()) first++;
+                if (first == all.length) break;
+
+                if (descriptor.write(all, first, all.length - first) == 0) {
+                    waitWritable();
+                }
+            }
+        } finally {
+            // leaves any unwritten buffered bytes at the front, ready for more writes
+            if (all != buffers) buffer.compact();
+        }
+
+        return total;
+    }
+
+    private void waitWritable() throws IOException {
+        if (!(descriptor.getChannel() instanceof SelectableChannel)) return;
+
+        SelectableChannel channel = (SelectableChannel) descriptor.getChannel();
+        if (channel.isBlocking()) return;
+
+        SelectorPool pool = getRuntime().getSelectorPool();
+        Selector selector = pool.get(channel.provider());
+        try {
+            channel.register(selector, SelectionKey.OP_WRITE);
+            selector.select();
+        } finally {
+            pool.put(selector);
+        }
+    }
     
     public synchronized void ftruncate(long newLength) throws IOException,
             BadDescriptorException, InvalidValueException {
@@ -945,6 +1009,36 @@ public class ChannelStream implements Stream, Finalizable {
         }
     }
 
+    /**
+     * Like {@link #readnonblock(int)}, but appends the bytes to dst instead
+     * of allocating a new ByteList.
+     *
+     * @return the number of bytes appended; 0 at end of file or when nothing
+     * is available yet
+     */
+    public synchronized int readnonblock(int number, ByteList dst) throws IOException, BadDescriptorException, EOFException {
+        assert number >= 0;
+
+        if (number == 0) {
+            return 0;
+        }
+
+        if (descriptor.getChannel() instanceof SelectableChannel) {
+            SelectableChannel selectableChannel = (SelectableChannel)descriptor.getChannel();
+            synchronized (selectableChannel.blockingLock()) {
+                boolean oldBlocking = selectableChannel.isBlocking();
+                try {
+                    selectableChannel.configureBlocking(false);
+                    return readpartial(number, dst);
+                } finally {
+                    selectableChannel.configureBlocking(oldBlocking);
+                }
+            }
+        } else {
+            return readpartial(number, dst);
+        }
+    }
+
     public synchronized ByteList readnonblock(int number) throws IOException, BadDescriptorException, EOFException {
         assert number >= 0;
 
@@ -970,6 +1064,55 @@ public class ChannelStream implements Stream, Finalizable {
         }
     }
 
+    /**
+     * Like {@link #readpartial(int)}, but appends the bytes to dst instead of
+     * allocating a new ByteList, so a caller can reuse one buffer across
+     * reads.
+     *
+     * @return the number of bytes appended; 0 at end of file
+     */
+    public synchronized int readpartial(int number, ByteList dst) throws IOException, BadDescriptorException, EOFException {
+        assert number >= 0;
+
+        if (number == 0) {
+            return 0;
+        }
+        if (descriptor.getChannel() instanceof FileChannel) {
+            ByteList result = fread(number);
+            if (result == null) return 0;
+            dst.append(result);
+            return result.length();
+        }
+
+        int start = dst.length();
+
+        // make sure that the ungotc is not forgotten
+        if (ungotc >= 0) {
+            dst.append((byte)ungotc);
+            ungotc = -1;
+            number--;
+            if (number == 0 || !buffer.hasRemaining()) {
+                return 1;
+            }
+        }
+
+        if (buffer.hasRemaining()) {
+            // already have some bytes buffered, just return those
+            checkReadable();
+            ensureRead();
+            dst.append(buffer, Math.min(buffer.remaining(), number));
+        } else {
+            // otherwise, we try an unbuffered read to get whatever's available
+            checkReadable();
+            ensureReadNonBuffered();
+            if (descriptor.read(number, dst) == -1) {
+                eof = true;
+            }
+        }
+
+        return dst.length() - start;
+    }
+
     public synchronized ByteList readpartial(int number) throws IOException, BadDescriptorException, EOFException {
         assert number >= 0;
 
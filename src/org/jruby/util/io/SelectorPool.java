@@ -0,0 +1,116 @@
+/*
+ **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2008 The JRuby Community <www.jruby.org>
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+
+package org.jruby.util.io;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pool of Selectors, one list per SelectorProvider. Opening a Selector
+ * costs several system calls and file descriptors, so short-lived selects
+ * (blocking accept, IO.select, waiting for a non-blocking write) borrow one
+ * from here and hand it back instead of opening and closing their own.
+ *
+ * Each Ruby runtime owns one pool and closes it on tear down.
+ */
+public class SelectorPool {
+    private final Map<SelectorProvider, List<Selector>> pool = new HashMap<SelectorProvider, List<Selector>>();
+
+    /**
+     * Get a selector for the default provider.
+     */
+    public Selector get() throws IOException {
+        return get(SelectorProvider.provider());
+    }
+
+    /**
+     * Get a selector for the given provider, opening a new one if none are
+     * idle.
+     */
+    public synchronized Selector get(SelectorProvider provider) throws IOException {
+        List<Selector> selectors = pool.get(provider);
+        if (selectors != null && !selectors.isEmpty()) {
+            return selectors.remove(selectors.size() - 1);
+        }
+        return provider.openSelector();
+    }
+
+    /**
+     * Return a selector to the pool. Any keys still registered are cancelled
+     * and flushed, so their channels can go back to blocking mode, and any
+     * pending wakeup is cleared.
+     */
+    public void put(Selector selector) {
+        for (SelectionKey key : selector.keys()) {
+            key.cancel();
+        }
+        try {
+            selector.selectNow();
+        } catch (IOException ioe) {
+            // a selector we can't flush is of no use to anyone else
+            close(selector);
+            return;
+        }
+        synchronized (this) {
+            List<Selector> selectors = pool.get(selector.provider());
+            if (selectors == null) {
+                selectors = new ArrayList<Selector>();
+                pool.put(selector.provider(), selectors);
+            }
+            selectors.add(selector);
+        }
+    }
+
+    /**
+     * Close every idle selector.
+     */
+    public synchronized void cleanup() {
+        for (List<Selector> selectors : pool.values()) {
+            for (Selector selector : selectors) {
+                close(selector);
+            }
+        }
+        pool.clear();
+    }
+
+    private static void close(Selector selector) {
+        try {
+            selector.close();
+        } catch (IOException ioe) {
+            // nothing more we can do with it
+        }
+    }
+}
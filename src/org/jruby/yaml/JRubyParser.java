@@ -0,0 +1,96 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.yaml;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.jvyamlb.ParserImpl;
+import org.jvyamlb.Scanner;
+import org.jvyamlb.YAMLConfig;
+
+/**
+ * A ParserImpl whose node property stacks stay bounded.
+ *
+ * The stock production environment pushes a tag/anchor entry for every node
+ * that has properties, but some productions (implicit mapping keys, for one)
+ * never pop theirs. Entries are only ever read from the top, right after they
+ * are pushed, so the stale ones below are dead weight; on a large document
+ * they add up to several entries per mapping pair and keep the whole parse
+ * from running in constant space. Here anything deeper than
+ * {@link #MAX_PROPERTY_DEPTH} is dropped.
+ */
+public class JRubyParser extends ParserImpl {
+    public static final int MAX_PROPERTY_DEPTH = 1024;
+
+    public JRubyParser(Scanner scanner, YAMLConfig cfg) {
+        super(scanner, cfg);
+    }
+
+    @Override
+    protected ProductionEnvironment getEnvironment(YAMLConfig cfg) {
+        return new BoundedProductionEnvironment(cfg);
+    }
+
+    private static class BoundedProductionEnvironment extends ProductionEnvironment {
+        private final List tags = new PropertyStack();
+        private final List anchors = new PropertyStack();
+        private final List tagTokens = new PropertyStack();
+        private final List anchorTokens = new PropertyStack();
+
+        public BoundedProductionEnvironment(YAMLConfig cfg) {
+            super(cfg);
+        }
+
+        @Override
+        public List getTags() {
+            return tags;
+        }
+
+        @Override
+        public List getAnchors() {
+            return anchors;
+        }
+
+        @Override
+        public List getTagTokens() {
+            return tagTokens;
+        }
+
+        @Override
+        public List getAnchorTokens() {
+            return anchorTokens;
+        }
+    }
+
+    private static class PropertyStack extends LinkedList {
+        @Override
+        public void add(int index, Object element) {
+            super.add(index, element);
+            if (size() > MAX_PROPERTY_DEPTH) removeLast();
+        }
+    }
+}
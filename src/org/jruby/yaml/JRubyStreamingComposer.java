@@ -0,0 +1,114 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.yaml;
+
+import org.jvyamlb.ComposerImpl;
+import org.jvyamlb.Parser;
+import org.jvyamlb.Resolver;
+
+import org.jvyamlb.events.CollectionEndEvent;
+import org.jvyamlb.events.CollectionStartEvent;
+import org.jvyamlb.events.Event;
+import org.jvyamlb.events.StreamEndEvent;
+import org.jvyamlb.events.StreamStartEvent;
+
+import org.jvyamlb.nodes.Node;
+
+/**
+ * Walks a parser's event stream one document at a time and, when a document's
+ * root is a sequence or mapping, composes its entries one by one instead of
+ * the whole tree. Only the entry currently being composed (plus any anchors
+ * seen so far in the document) is held in memory, so large documents made of
+ * many top-level entries can be consumed in space proportional to their depth.
+ */
+public class JRubyStreamingComposer {
+    private final Parser parser;
+    private final Resolver resolver;
+    private ComposerImpl composer;
+
+    public JRubyStreamingComposer(Parser parser, Resolver resolver) {
+        this.parser = parser;
+        this.resolver = resolver;
+    }
+
+    /**
+     * Consume the start of the next document.
+     *
+     * @return false if the stream has no more documents
+     */
+    public boolean startDocument() {
+        if (parser.peekEvent() instanceof StreamStartEvent) parser.getEvent();
+        if (parser.peekEvent() instanceof StreamEndEvent) return false;
+
+        parser.getEvent();
+        // a fresh composer per document, so anchors never leak between documents
+        composer = new ComposerImpl(parser, resolver);
+        return true;
+    }
+
+    public void endDocument() {
+        parser.getEvent();
+        composer = null;
+    }
+
+    /**
+     * If the current document's root is a collection that can be walked entry
+     * by entry, consume its start event and return it; otherwise return null
+     * and leave the root to be composed whole with {@link #composeNode()}.
+     * Anchored roots are composed whole since entries may alias them.
+     */
+    public CollectionStartEvent startRootCollection() {
+        Event event = parser.peekEvent();
+        if (event instanceof CollectionStartEvent && ((CollectionStartEvent) event).getAnchor() == null) {
+            parser.getEvent();
+            return (CollectionStartEvent) event;
+        }
+        return null;
+    }
+
+    public boolean checkEntry() {
+        return !(parser.peekEvent() instanceof CollectionEndEvent);
+    }
+
+    public void endRootCollection() {
+        parser.getEvent();
+    }
+
+    /**
+     * Compose the next complete node: an entry of the root collection, or the
+     * root itself when it is not being walked.
+     */
+    public Node composeNode() {
+        return composer.composeNode(null, null);
+    }
+
+    /**
+     * The composer for the current document, for handing to a constructor.
+     */
+    public ComposerImpl getComposer() {
+        return composer;
+    }
+}
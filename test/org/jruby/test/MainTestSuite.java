@@ -47,6 +47,8 @@ import org.jruby.runtime.callback.TestReflectionCallback;
 import org.jruby.util.JRubyThreadContextTest;
 import org.jruby.util.PlatformTest;
 import org.jruby.util.ShellLauncherTest;
+import org.jruby.util.SprintfTest;
+import org.jruby.util.collections.test.SegmentedLRUCacheTest;
 
 /**
  *
@@ -70,6 +72,8 @@ public class MainTestSuite extends TestSuite {
         suite.addTestSuite(TestRubyCollect.class);
         suite.addTestSuite(TestObjectSpace.class);
         suite.addTestSuite(TestRubySymbol.class);
+        suite.addTestSuite(TestCallConfiguration.class);
+        suite.addTestSuite(SegmentedLRUCacheTest.class);
         suite.addTest(JavaSupportTestSuite.suite());
         suite.addTestSuite(TestCommandlineParser.class);
         suite.addTestSuite(TestRubyException.class);
@@ -81,6 +85,7 @@ public class MainTestSuite extends TestSuite {
         suite.addTest(VisitorTestSuite.suite());
         suite.addTestSuite(PlatformTest.class);
         suite.addTestSuite(ShellLauncherTest.class);
+        suite.addTestSuite(SprintfTest.class);
         suite.addTestSuite(TestRbConfigLibrary.class);
         suite.addTestSuite(TestParser.class);
         suite.addTestSuite(TestRubyBigDecimal.class);
@@ -0,0 +1,84 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.test;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.jruby.Ruby;
+import org.jruby.RubyModule;
+import org.jruby.internal.runtime.methods.CallConfiguration;
+import org.jruby.internal.runtime.methods.DefaultMethod;
+import org.jruby.runtime.builtin.IRubyObject;
+
+public class TestCallConfiguration extends TestCase {
+    private Ruby runtime;
+    private RubyModule testClass;
+
+    public TestCallConfiguration(String name) {
+        super(name);
+    }
+
+    public void setUp() {
+        runtime = Ruby.newInstance();
+        runtime.getLoadService().init(new ArrayList());
+        runtime.evalScriptlet(
+                "class CallConfigTest\n" +
+                "  def leaf; self; end\n" +
+                "  def const; String; end\n" +
+                "  def arg(a); a; end\n" +
+                "  def closure; [1].map { |x| x }; end\n" +
+                "  def yielder; yield; end\n" +
+                "  def given; block_given?; end\n" +
+                "  def early; return 1; 2; end\n" +
+                "end");
+        testClass = runtime.getClass("CallConfigTest");
+    }
+
+    private CallConfiguration configFor(String name) {
+        return ((DefaultMethod)testClass.searchMethod(name)).getInterpretedCallConfig();
+    }
+
+    public void testLeafMethodsUseDummyScope() {
+        assertSame(CallConfiguration.FRAME_AND_DUMMY_SCOPE, configFor("leaf"));
+        assertSame(CallConfiguration.FRAME_AND_DUMMY_SCOPE, configFor("const"));
+        assertSame(CallConfiguration.FRAME_AND_DUMMY_SCOPE, configFor("yielder"));
+        assertSame(CallConfiguration.FRAME_AND_DUMMY_SCOPE, configFor("early"));
+    }
+
+    public void testVariablesAndClosuresGetRealScope() {
+        assertSame(CallConfiguration.FRAME_AND_SCOPE, configFor("arg"));
+        assertSame(CallConfiguration.FRAME_AND_SCOPE, configFor("closure"));
+    }
+
+    public void testLeafMethodsStillBehave() {
+        IRubyObject result = runtime.evalScriptlet(
+                "o = CallConfigTest.new\n" +
+                "[o.leaf.equal?(o), o.const, o.arg(3), o.closure, o.yielder { 4 }, o.given, o.given {}, o.early]");
+        assertEquals("[true, String, 3, [1], 4, false, true, 1]", result.callMethod(runtime.getCurrentContext(), "inspect").toString());
+    }
+}
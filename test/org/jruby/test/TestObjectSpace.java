@@ -30,12 +30,16 @@
 package org.jruby.test;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import junit.framework.TestCase;
 
 import org.jruby.Ruby;
+import org.jruby.RubyClass;
+import org.jruby.RubyModule;
 import org.jruby.RubyString;
 import org.jruby.runtime.ObjectSpace;
 import org.jruby.runtime.builtin.IRubyObject;
@@ -102,4 +106,78 @@ public class TestObjectSpace extends TestCase {
         }
         assertNull(numerics.next());
     }
+
+    public void testIdsAreUnique() {
+        List objects = new ArrayList();
+        Set ids = new HashSet();
+        for (int i = 0; i < 1000; i++) {
+            RubyString o = runtime.newString("o" + i);
+            objects.add(o);
+            long id = target.idOf(o);
+            assertEquals(0, id % 2);
+            assertTrue(id > 4);
+            assertTrue("duplicate id " + id, ids.add(new Long(id)));
+            assertEquals(id, target.idOf(o));
+        }
+        for (int i = 0; i < objects.size(); i++) {
+            IRubyObject o = (IRubyObject)objects.get(i);
+            assertSame(o, target.id2ref(target.idOf(o)));
+        }
+    }
+
+    public void testIdsFromOtherThreads() throws Exception {
+        final List objects = new ArrayList();
+        final long[][] ids = new long[4][];
+        Thread[] threads = new Thread[ids.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int index = t;
+            ids[t] = new long[2000];
+            objects.add(new RubyString[2000]);
+            threads[t] = new Thread() {
+                public void run() {
+                    RubyString[] strings = (RubyString[])objects.get(index);
+                    for (int i = 0; i < strings.length; i++) {
+                        strings[i] = runtime.newString("t" + i);
+                        ids[index][i] = target.idOf(strings[i]);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) threads[t].join();
+
+        Set seen = new HashSet();
+        for (int t = 0; t < threads.length; t++) {
+            RubyString[] strings = (RubyString[])objects.get(t);
+            for (int i = 0; i < strings.length; i++) {
+                assertTrue(seen.add(new Long(ids[t][i])));
+                // the assigning threads are gone; their ids must still resolve
+                assertSame(strings[i], target.id2ref(ids[t][i]));
+            }
+        }
+    }
+
+    public void testModuleRegistryIsAlwaysOn() {
+        assertFalse(runtime.isObjectSpaceEnabled());
+        RubyModule module = runtime.defineModule("RegisteredModule");
+        RubyClass cls = runtime.defineClass("RegisteredClass", runtime.getObject(), runtime.getObject().getAllocator());
+
+        assertTrue(ObjectSpace.isModuleKind(runtime.getModule()));
+        assertTrue(ObjectSpace.isModuleKind(runtime.getClassClass()));
+        assertFalse(ObjectSpace.isModuleKind(runtime.getString()));
+
+        List modules = new ArrayList();
+        Iterator iter = runtime.getObjectSpace().iterator(runtime.getModule());
+        Object obj;
+        while ((obj = iter.next()) != null) modules.add(obj);
+        assertTrue(modules.contains(module));
+        assertTrue(modules.contains(cls));
+        assertFalse(modules.contains(cls.getMetaClass()));
+
+        List classes = new ArrayList();
+        iter = runtime.getObjectSpace().iterator(runtime.getClassClass());
+        while ((obj = iter.next()) != null) classes.add(obj);
+        assertTrue(classes.contains(cls));
+        assertFalse(classes.contains(module));
+    }
 }
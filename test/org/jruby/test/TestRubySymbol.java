@@ -35,6 +35,7 @@ import junit.framework.TestCase;
 
 import org.jruby.Ruby;
 import org.jruby.RubySymbol;
+import org.jruby.util.ByteList;
 
 public class TestRubySymbol extends TestCase {
     private Ruby runtime;
@@ -63,4 +64,38 @@ public class TestRubySymbol extends TestCase {
         assertSame(another, st.getSymbol("another_name"));
         assertSame(another, st.fastGetSymbol("another_name"));
     }
+
+    public void testDynamicSymbolLookup() throws Exception {
+        RubySymbol.SymbolTable st = runtime.getSymbolTable();
+
+        RubySymbol pinned = st.getSymbol("pinned_name");
+        assertSame(pinned, st.getDynamicSymbol(ByteList.create("pinned_name")));
+
+        RubySymbol dynamic = st.getDynamicSymbol(ByteList.create("dynamic_name"));
+        assertSame(dynamic, st.lookup("dynamic_name"));
+        assertSame(dynamic, st.getDynamicSymbol(new ByteList(ByteList.plain("xdynamic_namex"), 1, 12)));
+        // requesting it through the runtime path pins the same symbol
+        assertSame(dynamic, st.fastGetSymbol("dynamic_name"));
+    }
+
+    public void testDynamicSymbolsAreReclaimed() throws Exception {
+        RubySymbol.SymbolTable st = runtime.getSymbolTable();
+
+        for (int i = 0; i < 10000; i++) {
+            st.getDynamicSymbol(ByteList.create("reclaimable_" + i));
+        }
+        RubySymbol kept = st.getDynamicSymbol(ByteList.create("reclaimable_kept"));
+
+        for (int i = 0; i < 10 && st.lookup("reclaimable_0") != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(st.lookup("reclaimable_0"));
+        assertSame(kept, st.getDynamicSymbol(ByteList.create("reclaimable_kept")));
+
+        // next insertion expunges the collected entries
+        int before = st.size();
+        st.getDynamicSymbol(ByteList.create("reclaimable_trigger"));
+        assertTrue(st.size() < before);
+    }
 }
@@ -0,0 +1,61 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.util;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+import org.jruby.Ruby;
+import org.jruby.RubyString;
+
+public class SprintfTest extends TestCase {
+    private Ruby runtime;
+
+    @Override
+    protected void setUp() throws Exception {
+        runtime = Ruby.newInstance();
+    }
+
+    private RubyString format(String format, RubyString arg) {
+        return Sprintf.sprintf(runtime, Locale.US, ByteList.create(format), arg);
+    }
+
+    public void testLargeResultDoesNotInflateLaterBuffers() {
+        byte[] big = new byte[1 << 20];
+        Arrays.fill(big, (byte) 'x');
+        // a format only this test uses, so no other caller has sized its program
+        String format = "<%s>";
+
+        assertEquals((1 << 20) + 2, format(format, runtime.newString(new ByteList(big))).getByteList().length());
+        int hint = Sprintf.programSizeHint(ByteList.create(format));
+        assertTrue("size hint " + hint + " kept the large result's size", hint > 0 && hint <= 4096);
+
+        assertEquals("<a>", format(format, runtime.newString("a")).toString());
+        assertEquals(hint, Sprintf.programSizeHint(ByteList.create(format)));
+    }
+}
@@ -0,0 +1,48 @@
+package org.jruby.util.collections.test;
+
+import junit.framework.TestCase;
+
+import org.jruby.util.collections.SegmentedLRUCache;
+
+public class SegmentedLRUCacheTest extends TestCase {
+    public void testHitsAndMisses() {
+        SegmentedLRUCache<String, String> cache = new SegmentedLRUCache<String, String>(16, 4);
+
+        assertNull(cache.get("a"));
+        cache.put("a", "A");
+        assertEquals("A", cache.get("a"));
+        assertEquals("A", cache.get("a"));
+
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testBoundedWithPerEntryEviction() {
+        SegmentedLRUCache<Integer, Integer> cache = new SegmentedLRUCache<Integer, Integer>(8, 1);
+
+        for (int i = 0; i < 8; i++) cache.put(i, i);
+        // touch 0 so 1 becomes the eldest
+        cache.get(0);
+        cache.put(8, 8);
+
+        assertEquals(8, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(Integer.valueOf(0), cache.get(0));
+        assertNull(cache.get(1));
+        assertEquals(Integer.valueOf(8), cache.get(8));
+    }
+
+    public void testSegmentsShareTheBound() {
+        SegmentedLRUCache<Integer, Integer> cache = new SegmentedLRUCache<Integer, Integer>(64, 8);
+
+        for (int i = 0; i < 10000; i++) cache.put(i, i);
+
+        assertEquals(64, cache.getMaxSize());
+        assertTrue(cache.size() <= cache.getMaxSize());
+        assertEquals(10000 - cache.size(), cache.getEvictions());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
@@ -16,3 +16,24 @@ test_equal("#<Digest::MD5: acbd18db4cc2f85cedef654fccc4a4d8>", a.inspect)
 test_equal("acbd18db4cc2f85cedef654fccc4a4d8",  Digest::MD5.hexdigest("foo"))
 test_equal("\254\275\030\333L\302\370\\\355\357eO\314\304\244\330", Digest::MD5.digest("foo"))
 test_equal("0beec7b5ea3f0fdbc95d0dd47f3c5bc275da8a33", Digest::SHA1.hexdigest("foo"))
+
+# incremental digests don't disturb the running state
+a << "bar"
+test_equal(Digest::MD5.hexdigest("foobar"), a.hexdigest)
+b = a.dup
+b << "baz"
+test_equal(Digest::MD5.hexdigest("foobar"), a.hexdigest)
+test_equal(Digest::MD5.hexdigest("foobarbaz"), b.hexdigest)
+test_equal(Digest::MD5.hexdigest("foobar"), a.hexdigest!)
+test_equal(Digest::MD5.hexdigest(""), a.hexdigest)
+
+# file is hashed without reading it into a String
+require 'tempfile'
+tmp = Tempfile.new("digest")
+data = "0123456789abcdef" * 10000
+tmp.write(data)
+tmp.close
+test_equal(Digest::SHA1.hexdigest(data), Digest::SHA1.file(tmp.path).hexdigest)
+test_equal(Digest::MD5.hexdigest("x" + data), Digest::MD5.new.update("x").file(tmp.path).hexdigest)
+test_exception(Errno::ENOENT) { Digest::MD5.file(tmp.path + ".missing") }
+tmp.unlink
@@ -164,3 +164,61 @@ test_equal([97, 98, 99], Enumerable::Enumerator.new("abc", :each_byte).map { |b|
 #no block results in LocalJumpError only if enumerating method requires it
 test_exception(LocalJumpError) { Enumerable::Enumerator.new(Wobble.new, :each_needing_block).each }
 test_no_exception { Enumerable::Enumerator.new(Wobble.new, :each_not_needing_block).each }
+
+######################
+# Enumerable#lazy
+######################
+
+test_ok(Enumerable.instance_methods.include?("lazy"))
+test_equal(Enumerable::Enumerator::Lazy, (1..3).lazy.class)
+test_ok(Enumerable::Enumerator::Lazy.ancestors.include?(Enumerable::Enumerator))
+
+#chained stages stay lazy and run in one pass
+evaluated = []
+chain = (1..1_000_000).lazy.map { |x| evaluated << x; x * 2 }.select { |x| x % 3 == 0 }
+test_equal(Enumerable::Enumerator::Lazy, chain.class)
+test_equal([], evaluated)
+test_equal([6, 12, 18], chain.first(3))
+test_equal((1..9).to_a, evaluated)
+test_equal(6, chain.first)
+
+test_equal([2, 4, 6], (1..6).lazy.reject { |x| x % 2 == 1 }.to_a)
+test_equal([10, 20, 30], (1..10).lazy.take_while { |x| x < 4 }.map { |x| x * 10 }.force)
+test_equal([1, 2, 3], (1..10).lazy.collect { |x| x }.find_all { |x| x < 4 }.to_a)
+test_equal([1, 2], (1..10).lazy.take(2).to_a)
+test_equal([], (1..10).lazy.take(0).to_a)
+test_equal([], [1, 2].lazy.first(0))
+test_equal(nil, (1..3).lazy.select { |x| x > 5 }.first)
+test_equal(12, (1..3).lazy.map { |x| x * 2 }.inject { |a, b| a + b })
+test_equal([[1, :a]], {:a => 1}.lazy.map { |k, v| [v, k] }.to_a)
+
+#take keeps no state between passes
+taken = (1..4).lazy.take(2)
+test_equal([1, 2], taken.to_a)
+test_equal([1, 2], taken.to_a)
+
+#each with a block forces the chain
+seen = []
+(1..3).lazy.map { |x| x + 1 }.each { |x| seen << x }
+test_equal([2, 3, 4], seen)
+
+test_exception(ArgumentError) { (1..3).lazy.map }
+test_exception(ArgumentError) { (1..3).lazy.take(-1) }
+
+#early termination stops reading the source
+require 'stringio'
+io = StringIO.new((1..1000).map { |i| "#{i}\n" }.join)
+test_equal([7, 14], io.lazy.map { |l| l.to_i }.select { |x| x % 7 == 0 }.first(2))
+test_equal("15\n", io.gets)
+
+#Enumerable methods that stop early still see their own answer
+l = [1, 2, 3].lazy.map { |x| x * 2 }
+test_equal(true, l.include?(4))
+test_equal(true, l.member?(2))
+test_equal(true, l.any? { |x| x > 3 })
+test_equal(false, l.all? { |x| x > 3 })
+test_equal(4, l.detect { |x| x > 3 })
+
+#break in a stage block cannot reach the finished map call
+test_exception(LocalJumpError) { (1..5).lazy.map { |x| break :b if x == 3; x }.to_a }
+test_exception(LocalJumpError) { (1..5).lazy.select { |x| break if x == 3; true }.first(4) }
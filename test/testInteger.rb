@@ -78,3 +78,22 @@ class Foo
 end
 
 test_exception(TypeError){Integer(Foo.new)}
+
+# next, break and closures inside the Fixnum loops
+a = []
+10.times {|i| next if i % 2 == 0; a << i; break if i == 5 }
+test_equal([1, 3, 5], a)
+test_equal(20, 1.upto(5) {|i| break i * 10 if i == 2 })
+a = []
+5.downto(1) {|i| next if i == 3; a << i }
+test_equal([5, 4, 2, 1], a)
+
+procs = []
+3.times {|i| procs << lambda { i } }
+test_equal([0, 1, 2], procs.map {|pr| pr.call })
+
+a = 0
+1.upto(4) { a += 1 }
+test_equal(4, a)
+test_equal(3, 3.upto(1) { test_fail("should not yield") })
+test_equal(1, 1.downto(3) { test_fail("should not yield") })
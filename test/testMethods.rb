@@ -72,6 +72,11 @@ test_equal(1, foo_method.arity)
 foo_proc = foo_method.to_proc
 test_equal(Proc, foo_proc.class)
 test_equal("helloworld", foo_proc.call("world"))
+test_equal(["helloa", "hellob"], %w[a b].map(&foo_method))
+def tm_pair(a, b = 0)
+  [a, b]
+end
+test_equal([[1, 2], [3, 0]], [[1, 2], 3].map(&method(:tm_pair)))
 
 class TM_A
   def foo
@@ -82,3 +82,12 @@ test_exception(TypeError) { (1..10).step(Object.new) }
 res = []
 (1.0..10.0).step(1.5){ |x| res << x }
 test_equal([1.0, 2.5, 4.0, 5.5, 7.0, 8.5, 10.0], res)
+
+# Fixnum ranges ending at the top of the Fixnum range must not overflow
+max = 2 ** 62 - 1
+res = []
+((max - 2)..max).each {|x| res << x }
+test_equal([max - 2, max - 1, max], res)
+res = []
+((max - 2)...max).each {|x| res << x }
+test_equal([max - 2, max - 1], res)
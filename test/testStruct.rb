@@ -142,4 +142,48 @@ class JavaComparableStruct < Struct.new(:foo)
   def compare_to(other); 0; end
 end
 
-test_equal(:a, JavaComparableStruct.new(:a).foo)
\ No newline at end of file
+test_equal(:a, JavaComparableStruct.new(:a).foo)
+# Structs of up to ten members keep their values in generated fields;
+# larger ones use an array. Both must behave the same.
+[1, 2, 5, 10, 11, 12].each do |n|
+  names = (1..n).map { |i| "m#{i}".to_sym }
+  klass = Object.const_set("FieldStruct#{n}", Struct.new(*names))
+  s = klass.new(*(1..n).to_a)
+  test_equal((1..n).to_a, s.to_a)
+  test_equal(n, s.size)
+  test_equal(n, s.send("m#{n}"))
+  test_equal(n, s[-1])
+  test_equal(1, s["m1"])
+  test_equal(1, s[:m1])
+  s.m1 = :x
+  test_equal(:x, s[0])
+  s[n - 1] = :y
+  test_equal(:y, s.send("m#{n}"))
+  s["m1"] = :z
+  test_equal(:z, s.m1)
+  test_exception(ArgumentError) { s.m1(1) }
+  test_exception(NameError) { s[:not_a_member] }
+  test_exception(IndexError) { s[n] }
+
+  copy = s.dup
+  copy.m1 = :copy
+  test_equal(:z, s.m1)
+  test_equal(s.to_a[1..-1], copy.to_a[1..-1])
+  test_ok(copy != s)
+  copy.m1 = s.m1
+  test_equal(s, copy)
+  test_equal(s.hash, copy.hash)
+  test_ok(s.eql?(copy))
+
+  test_equal(s, Marshal.load(Marshal.dump(s)))
+
+  s.freeze
+  test_exception(TypeError) { s.m1 = 1 }
+  test_exception(TypeError) { s[0] = 1 }
+end
+
+Pair = Struct.new(:left, :right)
+Triple = Struct.new(:a, :b, :c)
+p = Pair.new(1, 2)
+test_exception(TypeError) { p.send(:initialize_copy, Triple.new(1, 2, 3)) }
+test_equal("#<struct Pair left=1, right=2>", p.inspect)
@@ -1,4 +1,6 @@
 require 'test/unit'
+require 'weakref'
+require 'java'
 
 ## NOTE: Most of the tests that were here have been moved to the RubySpec.
 
@@ -18,4 +20,69 @@ class TestArray < Test::Unit::TestCase
       [1, 2, 3].freeze.instance_eval { initialize }
     }
   end
+
+  # homogeneous Fixnum, Float and String arrays are sorted by extracted keys
+  def test_sort_homogeneous_arrays
+    srand(7)
+    [10, 1000, 70_000].each do |n|
+      ints = Array.new(n) { rand(2**40) - 2**39 }
+      floats = Array.new(n) { (rand - 0.5) * 1e6 }
+      strs = Array.new(n) { rand(1000).to_s * (1 + rand(3)) }
+      [ints, floats, strs].each do |ary|
+        expected = ary.sort { |a, b| a <=> b }
+        assert_equal(expected, ary.sort)
+        assert_equal(expected, ary.sort_by { |x| x })
+      end
+      assert_equal(ints.sort, (0...n).sort_by { |i| ints[i] }.map { |i| ints[i] })
+    end
+
+    assert_equal([-2.5, -0.0, 1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0],
+                 [7.0, 3.0, 2.0, -0.0, 1.0, 6.0, -2.5, 5.0, 4.0].sort)
+    assert_equal(["", "a", "ab", "a\377", "b", "ba", "c", "d", "e"],
+                 ["ba", "e", "a\377", "c", "", "b", "a", "d", "ab"].sort)
+    assert_raises(ArgumentError) { [1.0, 0.0 / 0.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0].sort }
+    assert_equal([1, 2, 2.5, 3, 4, 5, 6, 7, 8], [8, 7, 2.5, 6, 5, 4, 3, 2, 1].sort)
+
+    shifted = [9, 8, 7, 6, 5, 4, 3, 2, 1, 0]
+    shifted.shift
+    assert_equal([0, 1, 2, 3, 4, 5, 6, 7, 8], shifted.sort!)
+  end
+
+  def test_short_slices_do_not_retain_backing_store
+    refs, slices = short_slices_of_big_array
+    poll do
+      java.lang.System.gc
+      !refs.any? { |ref| ref.weakref_alive? }
+    end
+    refs.each { |ref| assert !ref.weakref_alive?, "short slice kept the source array's elements alive" }
+    assert_equal([10, 3, 3], slices.map { |slice| slice.size })
+
+    big = (1..100_000).to_a
+    slice = big[500, 10]
+    slice << 0
+    assert_equal((501..510).to_a + [0], slice)
+    assert_equal(501, big[500])
+  end
+
+  if [].method(:pop).arity != 0
+    def test_pop_n_on_offset_slice
+      assert_equal([4, 5], [1, 2, 3, 4, 5][1, 4].pop(2))
+    end
+  end
+
+  private
+
+  # elements outside the slices are reachable only through the big array's storage
+  def short_slices_of_big_array
+    big = Array.new(100_000) { Object.new }
+    refs = [100, 50_000, 99_000].map { |i| WeakRef.new(big[i]) }
+    [refs, [big[500, 10], big.first(3), big.last(3)]]
+  end
+
+  def poll(seconds=1.0)
+    (seconds * 10).to_i.times do
+      return if yield
+      sleep 0.1
+    end
+  end
 end
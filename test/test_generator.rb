@@ -0,0 +1,66 @@
+require 'test/unit'
+require 'generator'
+
+class TestGenerator < Test::Unit::TestCase
+  class Counter
+    include Enumerable
+    def initialize(n); @n = n; end
+    def each; @n.times { |i| yield i }; end
+  end
+
+  class Failing
+    def each; yield 1; raise ArgumentError, "boom"; end
+  end
+
+  def drain(g)
+    result = []
+    result << g.next while g.next?
+    result
+  end
+
+  def test_core_collections
+    assert_equal([1, 2, 3], drain(Generator.new([1, 2, 3])))
+    assert_equal([[:a, 1]], drain(Generator.new({:a => 1})))
+    assert_equal(["a\n", "b"], drain(Generator.new("a\nb")))
+    assert_equal([1, 2, 3], drain(Generator.new(1..3)))
+    assert_equal([1, 2], drain(Generator.new(1...3)))
+    assert_equal([], drain(Generator.new(3..1)))
+    assert_equal(["a", "b"], drain(Generator.new("a".."b")))
+  end
+
+  def test_array_growing_during_iteration
+    a = [1, 2]
+    g = Generator.new(a)
+    assert_equal(1, g.next)
+    a << 3
+    assert_equal([2, 3], drain(g))
+  end
+
+  def test_long_custom_each
+    g = Generator.new(Counter.new(1000))
+    assert_equal((0...1000).to_a, drain(g))
+    assert_equal(1000, g.pos)
+    assert_raises(EOFError) { g.next }
+  end
+
+  def test_rewind_part_way
+    g = Generator.new(Counter.new(1000))
+    3.times { g.next }
+    g.rewind
+    assert_equal(0, g.pos)
+    assert_equal(0, g.current)
+    assert_equal((0...1000).to_a, g.to_a)
+  end
+
+  def test_block_generator
+    g = Generator.new { |gen| 200.times { |i| gen.yield i * 2 } }
+    assert_equal(0, g.current)
+    assert_equal((0...200).map { |i| i * 2 }, drain(g))
+  end
+
+  def test_error_from_each
+    g = Generator.new(Failing.new)
+    assert_equal(1, g.next)
+    assert_raises(ArgumentError) { g.next? }
+  end
+end
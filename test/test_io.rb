@@ -485,6 +485,35 @@ class TestIO < Test::Unit::TestCase
     assert_equal("foo", result)
   end
 
+  def test_read_into_buffer_after_plus
+    File.open(@file, "w") { |f| f.write("0123456789abcdef") }
+    buf = "p" * 200 + "x"
+    sum = buf + "ZZ"
+    File.open(@file) { |f| assert_equal("0123456789", f.read(10, buf)) }
+    assert_equal("0123456789", buf)
+    assert_equal("p" * 200 + "xZZ", sum)
+  end
+
+  def test_readpartial_into_shared_buffer
+    r, w = IO.pipe
+    @to_close << r << w
+    w.write("hello world")
+    w.flush
+    buf = ("x" * 300)[0, 200]
+    assert_equal("hello", r.readpartial(5, buf))
+    assert_equal("hello", buf)
+  end
+
+  def test_read_nonblock_into_shared_buffer
+    r, w = IO.pipe
+    @to_close << r << w
+    w.write("hello world")
+    w.flush
+    buf = ("x" * 300)[0, 200]
+    assert_equal("hello", r.read_nonblock(5, buf))
+    assert_equal("hello", buf)
+  end
+
   private
   def ensure_files(*files)
     files.each {|f| File.open(f, "w") {|g| g << " " } }
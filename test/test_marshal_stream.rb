@@ -0,0 +1,59 @@
+require 'test/unit'
+require 'stringio'
+require 'tempfile'
+
+class TestMarshalStream < Test::Unit::TestCase
+  class Session
+    attr_reader :id, :data
+    def initialize(id, data)
+      @id, @data = id, data
+    end
+    def ==(other)
+      other.id == id && other.data == data
+    end
+  end
+
+  def setup
+    # large enough that dumping to an IO drains the marshal buffer several times
+    @large = (1..5000).map { |i| ["s#{i}", i, :sym, i.to_f, Session.new(i, {:k => "v" * (i % 7)})] }
+  end
+
+  def test_string_round_trip
+    assert_equal(@large, Marshal.load(Marshal.dump(@large)))
+  end
+
+  def test_io_dump_matches_string_dump
+    io = StringIO.new
+    Marshal.dump(@large, io)
+    assert_equal(Marshal.dump(@large), io.string)
+    io.rewind
+    assert_equal(@large, Marshal.load(io))
+  end
+
+  def test_file_round_trip
+    file = Tempfile.new("marshal_stream")
+    Marshal.dump(@large, file)
+    file.close
+    File.open(file.path, "rb") { |f| assert_equal(@large, Marshal.load(f)) }
+  ensure
+    file.close! if file
+  end
+
+  def test_links_are_preserved
+    str = "shared"
+    a, b = Marshal.load(Marshal.dump([str, str, :x, :x]))
+    assert_same(a, b)
+  end
+
+  def test_int_boundaries
+    [0, 1, -1, 122, 123, -123, -124, 255, 256, -256, -257, 65535, 65536,
+     2**24, -2**24, 2**30 - 1, -2**30].each do |i|
+      assert_equal(i, Marshal.load(Marshal.dump(i)))
+    end
+  end
+
+  def test_truncated_input
+    assert_raises(EOFError) { Marshal.load("") }
+    assert_raises(ArgumentError) { Marshal.load(Marshal.dump("abcdef")[0..-3]) }
+  end
+end
@@ -79,4 +79,22 @@ class TestPack < Test::Unit::TestCase
   def test_pack_M_regression
     assert_equal("ABCDEF=\n", ['ABCDEF'].pack('M'))
   end
+
+  def test_repeated_templates
+    3.times do
+      packed = [1, 2, 3, "abc"].pack("NnCa*")
+      assert_equal("\000\000\000\001\000\002\003abc", packed)
+      assert_equal([1, 2, 3, "abc"], packed.unpack("NnCa*"))
+      assert_equal([2**32 - 1, 0xfffe, 0xfeff], "\377\377\377\377\376\377".unpack("VvXXn"))
+    end
+    assert_equal([1, nil], "\000\000\000\001".unpack("N2"))
+    assert_equal([1, 2**64 - 1], "\000\000\000\001\377\377\377\377\377\377\377\377".unpack("NQ"))
+  end
+
+  def test_template_error_raised_each_time
+    2.times do
+      assert_raises(ArgumentError) { [1, 2].pack("Nc_") }
+      assert_raises(ArgumentError) { "\000\000\000\001\002".unpack("Nc_") }
+    end
+  end
 end
@@ -0,0 +1,121 @@
+require 'test/unit'
+require 'jruby/vector'
+
+class TestPrimitiveArray < Test::Unit::TestCase
+  def test_construction
+    assert_equal([0, 0, 0], JRuby::IntArray.new(3).to_a)
+    assert_equal([7, 7], JRuby::IntArray.new(2, 7).to_a)
+    assert_equal([1, 2, 3], JRuby::IntArray.new([1, 2, 3]).to_a)
+    assert_equal([1, 2, 3], JRuby::IntArray[1, 2, 3].to_a)
+    assert_equal([0.0, 0.0], JRuby::DoubleArray.new(2).to_a)
+    assert_equal([1.0, 2.5], JRuby::DoubleArray[1, 2.5].to_a)
+    assert_raises(ArgumentError) { JRuby::IntArray.new(-1) }
+    assert_raises(TypeError) { JRuby::IntArray[1, 2.5] }
+    assert_raises(TypeError) { JRuby::DoubleArray["1"] }
+    assert_raises(RangeError) { JRuby::IntArray[2**64] }
+  end
+
+  def test_indexing
+    a = JRuby::IntArray[10, 20, 30]
+    assert_equal(3, a.size)
+    assert_equal(10, a[0])
+    assert_equal(30, a[-1])
+    assert_nil(a[3])
+    a[1] = 25
+    assert_equal(25, a[1])
+    assert_raises(IndexError) { a[3] = 1 }
+    a.freeze
+    assert_raises(TypeError) { a[0] = 1 }
+  end
+
+  def test_enumerable
+    a = JRuby::DoubleArray[3, 1, 2]
+    assert_equal([6.0, 2.0, 4.0], a.map { |x| x * 2 })
+    assert_equal([1.0, 2.0, 3.0], a.sort)
+    assert(a.include?(2.0))
+    assert_equal(JRuby::DoubleArray, a.class)
+    assert_kind_of(Enumerable, a)
+  end
+
+  def test_reductions
+    a = JRuby::IntArray[4, -2, 9, 1]
+    assert_equal(12, a.sum)
+    assert_equal(-2, a.min)
+    assert_equal(9, a.max)
+    assert_equal(3.0, a.mean)
+    assert_equal(2**63, JRuby::IntArray[2**62, 2**62].sum)
+
+    d = JRuby::DoubleArray[1.5, 2.5, -1.0]
+    assert_equal(3.0, d.sum)
+    assert_equal(-1.0, d.min)
+    assert_equal(2.5, d.max)
+    assert_equal(1.0, d.mean)
+
+    assert_nil(JRuby::IntArray.new(0).min)
+    assert_nil(JRuby::DoubleArray.new(0).mean)
+  end
+
+  def test_int_arithmetic
+    a = JRuby::IntArray[1, 2, 3]
+    b = JRuby::IntArray[10, 20, 30]
+    assert_equal(JRuby::IntArray[11, 22, 33], a + b)
+    assert_equal(JRuby::IntArray[9, 18, 27], b - a)
+    assert_equal(JRuby::IntArray[2, 4, 6], a * 2)
+    assert_equal(JRuby::IntArray[-1, -2, -3], -a)
+    assert_equal(JRuby::IntArray[-4, 3, -3], JRuby::IntArray[-7, 7, -5] / 2)
+    assert_equal([1, 2, 3], a.to_a)
+
+    assert_raises(ZeroDivisionError) { a / 0 }
+    assert_raises(RangeError) { JRuby::IntArray[2**62] * 4 }
+    assert_raises(ArgumentError) { a + JRuby::IntArray[1] }
+    assert_raises(TypeError) { a + "1" }
+  end
+
+  def test_double_arithmetic
+    a = JRuby::DoubleArray[1.0, 2.0]
+    assert_equal(JRuby::DoubleArray[1.5, 2.5], a + 0.5)
+    assert_equal(JRuby::DoubleArray[0.5, 1.0], a / 2)
+    assert_equal(JRuby::DoubleArray[1.0, 4.0], a * JRuby::IntArray[1, 2])
+    assert_equal(JRuby::DoubleArray[1.0 / 0, -1.0 / 0], JRuby::DoubleArray[1, -1] / 0)
+
+    promoted = JRuby::IntArray[1, 2] * 1.5
+    assert_equal(JRuby::DoubleArray, promoted.class)
+    assert_equal([1.5, 3.0], promoted.to_a)
+    assert_equal([0.0, 0.0], (JRuby::IntArray[1, 2] - a).to_a)
+  end
+
+  def test_copy_and_equality
+    a = JRuby::IntArray[1, 2]
+    b = a.dup
+    b[0] = 5
+    assert_equal(1, a[0])
+    assert(a == JRuby::IntArray[1, 2])
+    assert(a != JRuby::DoubleArray[1, 2])
+    assert(a != [1, 2])
+    assert_equal(JRuby::IntArray[4, 4], a.fill(4))
+    assert_equal("#<JRuby::IntArray [4, 4]>", a.inspect)
+    assert_equal("#<JRuby::DoubleArray [1.0]>", JRuby::DoubleArray[1].inspect)
+  end
+
+  def test_eql_and_hash
+    a = JRuby::IntArray[1, 2, 3]
+    assert(a.eql?(JRuby::IntArray[1, 2, 3]))
+    assert(!a.eql?(JRuby::IntArray[1, 2]))
+    assert(!a.eql?(JRuby::DoubleArray[1, 2, 3]))
+    assert_equal(a.hash, JRuby::IntArray[1, 2, 3].hash)
+    assert_equal(JRuby::DoubleArray[0.0].hash, JRuby::DoubleArray[-0.0].hash)
+
+    h = {a => :int, JRuby::DoubleArray[1.5] => :double}
+    assert_equal(:int, h[JRuby::IntArray[1, 2, 3]])
+    assert_equal(:double, h[JRuby::DoubleArray[1.5]])
+  end
+
+  def test_marshal
+    a = Marshal.load(Marshal.dump(JRuby::IntArray[1, 2, 2 ** 40]))
+    assert_equal(JRuby::IntArray, a.class)
+    assert_equal(JRuby::IntArray[1, 2, 2 ** 40], a)
+    d = Marshal.load(Marshal.dump(JRuby::DoubleArray[1.5, -2.0]))
+    assert_equal(JRuby::DoubleArray[1.5, -2.0], d)
+    assert_equal(JRuby::DoubleArray[], Marshal.load(Marshal.dump(JRuby::DoubleArray.new(0))))
+  end
+end
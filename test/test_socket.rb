@@ -353,4 +353,120 @@ class ServerTest < Test::Unit::TestCase
         end
       end
     end
+
+  def test_accept_nonblock
+    server = TCPServer.new('127.0.0.1', 0)
+    assert_raise(Errno::EAGAIN) { server.accept_nonblock }
+    client = TCPSocket.new('127.0.0.1', server.addr[1])
+    accepted = nil
+    10.times do
+      begin
+        accepted = server.accept_nonblock
+        break
+      rescue Errno::EAGAIN
+        sleep 0.05
+      end
+    end
+    assert_kind_of(TCPSocket, accepted)
+    client.write("ping")
+    assert_equal("ping", accepted.read(4))
+    [client, accepted, server].each { |io| io.close }
+  end
+
+  def test_readpartial_and_read_nonblock_fill_given_buffer
+    server = TCPServer.new('127.0.0.1', 0)
+    client = TCPSocket.new('127.0.0.1', server.addr[1])
+    sock = server.accept
+
+    buf = "stale contents"
+    client.write("hello")
+    assert_same(buf, sock.readpartial(10, buf))
+    assert_equal("hello", buf)
+
+    client.write("abcdef")
+    assert_same(buf, sock.readpartial(3, buf))
+    assert_equal("abc", buf)
+    assert_same(buf, sock.read_nonblock(10, buf))
+    assert_equal("def", buf)
+
+    client.write("x")
+    assert_equal("x", sock.readpartial(10))
+    [client, sock, server].each { |io| io.close }
+  end
+
+  def test_writev
+    server = TCPServer.new('127.0.0.1', 0)
+    client = TCPSocket.new('127.0.0.1', server.addr[1])
+    sock = server.accept
+
+    body = "b" * 100_000
+    writer = Thread.new { client.writev("HTTP/1.0 200 OK\r\n", "\r\n", body, 42) }
+    expected = "HTTP/1.0 200 OK\r\n\r\n" + body + "42"
+    assert_equal(expected, sock.read(expected.size))
+    assert_equal(expected.size, writer.value)
+
+    # anything already buffered by write goes out first
+    client.write("first ")
+    assert_equal(5, client.writev("then ", ""))
+    assert_equal("first then ", sock.read(11))
+    [client, sock, server].each { |io| io.close }
+  end
+end
+
+class PollerTest < Test::Unit::TestCase
+  def setup
+    @server = TCPServer.new('127.0.0.1', 0)
+    @poller = IO::Poller.new
+  end
+
+  def teardown
+    @poller.close
+    @server.close
+  end
+
+  def test_poll_dispatches_to_callbacks
+    accepted = []
+    @poller.register(@server, :read) { |io, event| accepted << [io.accept_nonblock, event] }
+    client = TCPSocket.new('127.0.0.1', @server.addr[1])
+    10.times { break unless accepted.empty?; @poller.poll(0.1) }
+    assert_equal(1, accepted.size)
+    sock, event = accepted.first
+    assert_equal(:read, event)
+
+    reads = []
+    @poller.register(sock) { |io, event| reads << io.read_nonblock(10) }
+    client.write("hello")
+    10.times { break unless reads.empty?; @poller.poll(0.1) }
+    assert_equal(["hello"], reads)
+    assert_equal(2, @poller.size)
+
+    assert(@poller.deregister(sock))
+    assert(!@poller.registered?(sock))
+    # blocking reads work again once deregistered
+    client.write("again")
+    assert_equal("again", sock.read(5))
+    [client, sock].each { |io| io.close }
+  end
+
+  def test_poll_returns_or_yields_ready_ios_without_callbacks
+    @poller.register(@server)
+    assert_equal([], @poller.poll(0))
+    client = TCPSocket.new('127.0.0.1', @server.addr[1])
+    ready = []
+    10.times { ready = @poller.poll(0.1); break unless ready.empty? }
+    assert_equal([@server], ready)
+
+    yielded = nil
+    @poller.poll(0.1) { |io, event| yielded = [io, event] }
+    assert_equal([@server, :read], yielded)
+    client.close
+  end
+
+  def test_wakeup_and_errors
+    thread = Thread.new { @poller.poll }
+    Thread.pass until thread.status == "sleep" || !thread.alive?
+    @poller.wakeup
+    assert_equal([], thread.value)
+    assert_raise(ArgumentError) { @poller.register(@server, :bogus) }
+  end
 end
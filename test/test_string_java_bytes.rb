@@ -33,4 +33,21 @@ class TestStringJavaBytes < Test::Unit::TestCase
     assert_raises(TypeError) { JavaArrayUtilities.ruby_string_to_bytes(3.141) }
     assert_raises(TypeError) { JavaArrayUtilities.ruby_string_to_bytes( Object.new ) }
   end
-end
\ No newline at end of file
+
+  class Appender
+    attr_reader :appended
+    def write(str)
+      @appended = str + "XY"
+      str.size
+    end
+  end
+
+  # a string viewing part of a Java array must not append into the rest of it
+  def test_plus_on_string_viewing_java_bytes
+    appender = Appender.new
+    bytes = "abcdefghij".to_java_bytes
+    org.jruby.util.IOOutputStream.new(appender).write(bytes, 0, 5)
+    assert_equal("abcdeXY", appender.appended)
+    assert_equal("abcdefghij", String.from_java_bytes(bytes))
+  end
+end
@@ -66,6 +66,25 @@ class TestStringPrintf < Test::Unit::TestCase
     assert_equal("  nil", "%5p" % nil)
   end
 
+  ##### repeated formats #####
+  def test_repeated_format
+    fmt = "%s=%d (%.2f)%%"
+    3.times do
+      assert_equal("a=1 (1.50)%", fmt % ["a", 1, 1.5])
+      assert_equal("b=-12 (0.00)%", fmt % ["b", -12, 0.001])
+    end
+    assert_raises(ArgumentError) {fmt % ["a", 1]}
+    fmt << " %s"
+    assert_equal("a=1 (1.50)% z", fmt % ["a", 1, 1.5, "z"])
+  end
+
+  def test_repeated_format_taint
+    fmt = "<%s>"
+    assert !(fmt % "x").tainted?
+    assert((fmt % "x".taint).tainted?)
+    assert !(fmt % "x").tainted?
+  end
+
   def strangePrintf
     game = '41181 jpa:awh'
     opponent = game.scan("jpa")[0]
@@ -17,4 +17,36 @@ class TestSymbol19 < Test::Unit::TestCase
 
     assert_equal 3, (:+).to_proc.call(1,2)
   end
+
+  def test_to_proc_is_cached
+    assert_same :upcase.to_proc, :upcase.to_proc
+    assert_equal(-1, :upcase.to_proc.arity)
+  end
+
+  def test_to_proc_receiver_and_arguments
+    assert_equal %w[A B], %w[a b].map(&:upcase)
+    assert_equal [1, 3], [[1, 2], [3, 4]].map(&:first)
+    assert_equal 5, :first.to_proc.call([5, 6])
+    assert_equal 10, [1, 2, 3, 4].inject(&:+)
+    assert_raise(ArgumentError) { :upcase.to_proc.call }
+  end
+
+  def test_to_proc_mixed_receivers
+    assert_equal ["1", "a", "b", "2.0"], [1, "a", :b, 2.0].map(&:to_s)
+  end
+
+  class Private
+    def method_missing(name, *args)
+      name == :zork ? [name, args] : super
+    end
+    private
+    def secret
+      :secret
+    end
+  end
+
+  def test_to_proc_calls_private_and_missing_methods
+    assert_equal [:secret], [Private.new].map(&:secret)
+    assert_equal [:zork, [1]], :zork.to_proc.call(Private.new, 1)
+  end
 end
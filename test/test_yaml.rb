@@ -1345,6 +1345,34 @@ EOY
       assert(obj2.yaml_init_called)
       assert_equal({"value" => "hello"}, obj2.values)
     end
+
+    def test_each_node_yields_root_entries
+      docs = "--- \n- 1\n- &a [two]\n- *a\n--- \nx: 1\ny: [1, 2]\n--- 3\n"
+      nodes = []
+      YAML.each_node(docs) { |n| nodes << n }
+      assert_equal([1, ["two"], ["two"], ["x", 1], ["y", [1, 2]], 3], nodes)
+
+      nodes = []
+      YAML.each_node(StringIO.new(docs)) { |n| nodes << n }
+      assert_equal(6, nodes.size)
+    end
+
+    def test_load_stream_with_block
+      docs = []
+      assert_nil(YAML.load_stream("--- \na: 1\n--- \n- 2\n") { |d| docs << d })
+      assert_equal([{"a" => 1}, [2]], docs)
+      assert_equal([{"a" => 1}, [2]], YAML.load_stream("--- \na: 1\n--- \n- 2\n").documents)
+    end
+
+    def test_stream_emit_to_io
+      stream = YAML::Stream.new
+      stream.add({'a' => [1, 2]})
+      stream.add("x")
+      io = StringIO.new
+      stream.emit(io)
+      assert_equal(stream.emit, io.string)
+      assert_equal([{'a' => [1, 2]}, "x"], YAML.load_stream(io.string).documents)
+    end
 end
 
 #if $0 == __FILE__
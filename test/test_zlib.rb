@@ -113,4 +113,37 @@ class TestZlib < Test::Unit::TestCase
     assert_equal("hello\n", gin.gets)
     gin.close
   end
+
+  def test_pooled_streams_are_reset_between_uses
+    big = "pooled deflater " * 10000
+    small = "small"
+    10.times do
+      assert_equal(big, Zlib::Inflate.inflate(Zlib::Deflate.deflate(big)))
+      assert_equal(small, Zlib::Inflate.inflate(Zlib::Deflate.deflate(small, Zlib::BEST_SPEED)))
+
+      z = Zlib::Deflate.new(Zlib::BEST_COMPRESSION)
+      z << big
+      assert_equal(big, Zlib::Inflate.inflate(z.finish))
+      z.close
+      assert(z.closed?)
+      assert_raise(Zlib::Error) { z.total_in }
+    end
+  end
+
+  def test_gzip_reader_buffered_reads
+    content = StringIO.new "", "r+"
+    lines = (1..3000).map { |i| "line #{i}\n" }
+    Zlib::GzipWriter.wrap(content) { |io| io.write lines.join }
+
+    gin = Zlib::GzipReader.new(StringIO.new(content.string, "rb"))
+    assert_equal("line 1\n", gin.gets)
+    assert_equal("line", gin.read(4))
+    assert_equal(?\s, gin.getc)
+    assert_equal("2\n", gin.gets)
+    rest = []
+    gin.each { |line| rest << line }
+    assert_equal(lines[2..-1], rest)
+    assert(gin.eof?)
+    gin.close
+  end
 end